@@ -0,0 +1,69 @@
+package auctionhouse;
+
+/**
+ * Stand-in services and house set-up shared by the benchmarks. The services do nothing and
+ * allocate nothing, so the benchmarks measure the engine rather than the mocks.
+ */
+final class BenchSupport {
+
+	static final String HOUSE_ACCOUNT = "AH A/C";
+	static final String SELLER = "Seller";
+	static final String AUCTIONEER = "Auctioneer";
+
+	private static final Status OK = Status.OK();
+
+	private BenchSupport() {
+	}
+
+	static final MessagingService NO_OP_MESSAGING = new MessagingService() {
+		public void auctionOpened(String address, int lotNumber) {
+		}
+
+		public void bidAccepted(String address, int lotNumber, Money amount) {
+		}
+
+		public void lotSold(String address, int lotNumber) {
+		}
+
+		public void lotUnsold(String address, int lotNumber) {
+		}
+	};
+
+	static final BankingService NO_OP_BANKING = new BankingService() {
+		public Status transfer(String senderAccount, String senderAuthCode, String receiverAccount, Money amount) {
+			return OK;
+		}
+	};
+
+	/**
+	 * @return a house with no-op services, one seller and buyers "Buyer0" .. "Buyer(buyers-1)"
+	 */
+	static AuctionHouseImp newHouse(int buyers) {
+		AuctionHouseImp house = new AuctionHouseImp(new Parameters(10.0, 15.0, Money.ofPence(1), HOUSE_ACCOUNT,
+				"AH-auth", NO_OP_MESSAGING, NO_OP_BANKING));
+		house.registerSeller(SELLER, "@" + SELLER, "S A/C");
+		for(int i = 0; i < buyers; i++) {
+			house.registerBuyer(buyerName(i), "@" + buyerName(i), "B" + i + " A/C", "B" + i + "-auth");
+		}
+		return house;
+	}
+
+	static String buyerName(int i) {
+		return "Buyer" + i;
+	}
+
+	/**
+	 * Adds lots 1 .. count, with a reserve of one pound.
+	 */
+	static void addLots(AuctionHouse house, int count) {
+		for(int i = 1; i <= count; i++) {
+			house.addLot(SELLER, i, "Lot number " + i, Money.ofPence(100));
+		}
+	}
+
+	static void check(Status status, Status.Kind expected) {
+		if(status.kind != expected) {
+			throw new IllegalStateException("Expected " + expected + " but got " + status.kind + ": " + status.getMessage());
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package auctionhouse;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * makeBid with every thread bidding on one lot, and with each thread on lots of its own.
+ *
+ * Bids rise by one penny (the increment) each time. On the contended lot a bid can lose the
+ * race to another thread's and is rejected; that is part of what is measured.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class BidBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class House {
+		// Lots per thread in the many-lot case.
+		@Param({ "1", "64" })
+		public int lotsPerThread;
+
+		static final int MAX_THREADS = 64;
+
+		AuctionHouseImp house;
+		// Next bid on the single contended lot, in pence.
+		final AtomicLong contendedBid = new AtomicLong(100);
+
+		@Setup(Level.Iteration)
+		public void setUp() {
+			house = BenchSupport.newHouse(MAX_THREADS);
+			int lots = 1 + MAX_THREADS * lotsPerThread;
+			BenchSupport.addLots(house, lots);
+			for(int lot = 1; lot <= lots; lot++) {
+				// Every buyer bids on the contended lot; each bids only on its own block of the rest.
+				int owner = (lot - 2) / lotsPerThread;
+				for(int i = 0; i < MAX_THREADS; i++) {
+					if(lot == 1 || i == owner) {
+						house.noteInterest(BenchSupport.buyerName(i), lot);
+					}
+				}
+				BenchSupport.check(house.openAuction(BenchSupport.AUCTIONEER, "@Auctioneer", lot), Status.Kind.OK);
+			}
+			contendedBid.set(100);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Bidder {
+		String name;
+		int firstLot;
+		int lotsPerThread;
+		int next;
+		long bid = 100;
+
+		@Setup(Level.Iteration)
+		public void setUp(House house, ThreadParams threads) {
+			name = BenchSupport.buyerName(threads.getThreadIndex());
+			lotsPerThread = house.lotsPerThread;
+			// Lot 1 is the contended lot; each thread owns the block after it.
+			firstLot = 2 + threads.getThreadIndex() * lotsPerThread;
+			next = 0;
+			bid = 100;
+		}
+	}
+
+	@Benchmark
+	public Status singleLot(House house, Bidder bidder) {
+		return house.house.makeBid(bidder.name, 1, Money.ofPence(house.contendedBid.incrementAndGet()));
+	}
+
+	@Benchmark
+	public Status manyLots(House house, Bidder bidder) {
+		int lot = bidder.firstLot + bidder.next;
+		if(++bidder.next == bidder.lotsPerThread) {
+			bidder.next = 0;
+			bidder.bid++;
+		}
+		return house.house.makeBid(bidder.name, lot, Money.ofPence(bidder.bid));
+	}
+}
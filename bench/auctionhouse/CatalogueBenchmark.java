@@ -0,0 +1,53 @@
+package auctionhouse;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * viewCatalogue over the whole catalogue, and one page of it, at different catalogue sizes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class CatalogueBenchmark {
+
+	@Param({ "10000", "100000", "1000000" })
+	public int lots;
+
+	private AuctionHouseImp house;
+	private int pageStart;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		house = BenchSupport.newHouse(0);
+		BenchSupport.addLots(house, lots);
+	}
+
+	@Benchmark
+	public List<CatalogueEntry> wholeCatalogue() {
+		return house.viewCatalogue();
+	}
+
+	@Benchmark
+	public List<CatalogueEntry> page() {
+		// Walk through the catalogue a page at a time.
+		pageStart = pageStart + 50 > lots ? 1 : pageStart + 50;
+		return house.viewCatalogue(pageStart, 50);
+	}
+}
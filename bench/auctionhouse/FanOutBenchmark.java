@@ -0,0 +1,50 @@
+package auctionhouse;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * openAuction followed by closeAuction on a lot with a given number of interested buyers,
+ * each of whom is messaged both times. With no bids the close is a NO_SALE and leaves the
+ * lot UNSOLD, so the same lot can be opened again on the next invocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FanOutBenchmark {
+
+	@Param({ "0", "10", "1000", "100000" })
+	public int interested;
+
+	private AuctionHouseImp house;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		house = BenchSupport.newHouse(interested);
+		BenchSupport.addLots(house, 1);
+		for(int i = 0; i < interested; i++) {
+			house.noteInterest(BenchSupport.buyerName(i), 1);
+		}
+	}
+
+	@Benchmark
+	public Status openAndClose() {
+		BenchSupport.check(house.openAuction(BenchSupport.AUCTIONEER, "@Auctioneer", 1), Status.Kind.OK);
+		return house.closeAuction(BenchSupport.AUCTIONEER, 1);
+	}
+}
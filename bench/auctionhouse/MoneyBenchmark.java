@@ -0,0 +1,74 @@
+package auctionhouse;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Money parsing, formatting and arithmetic, both on Money objects and on the pence helpers
+ * the engine uses on its hot paths.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MoneyBenchmark {
+
+	// Not final, so the JIT cannot fold the arithmetic away.
+	private String pounds = "1234.56";
+	private Money a = new Money("1234.56");
+	private Money b = new Money("78.90");
+	private long aPence = a.getPence();
+	private long bPence = b.getPence();
+	private long premium = Money.toBasisPoints(12.5);
+
+	@Benchmark
+	public Money parse() {
+		return new Money(pounds);
+	}
+
+	@Benchmark
+	public long parsePence() {
+		return Money.parsePence(pounds);
+	}
+
+	@Benchmark
+	public String format() {
+		return a.toString();
+	}
+
+	@Benchmark
+	public Money add() {
+		return a.add(b);
+	}
+
+	@Benchmark
+	public long addPence() {
+		return Money.add(aPence, bPence);
+	}
+
+	@Benchmark
+	public Money addPercent() {
+		return a.addPercent(12.5);
+	}
+
+	@Benchmark
+	public long addBasisPoints() {
+		return Money.addBasisPoints(aPence, premium);
+	}
+
+	@Benchmark
+	public int compareTo() {
+		return a.compareTo(b);
+	}
+}
@@ -0,0 +1,66 @@
+package auctionhouse;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * noteInterest on a lot that already has many interested buyers: by buyers already in its
+ * interest set, which is rejected as a duplicate, and by a newly registered buyer each call,
+ * which grows the set. The second case includes the cost of registerBuyer.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NoteInterestBenchmark {
+
+	@Param({ "1000", "100000" })
+	public int alreadyInterested;
+
+	private AuctionHouseImp house;
+	private String[] names;
+	private int next;
+	private int nextNew;
+
+	// A fresh house every iteration, so the new-buyer case starts from the same set size.
+	@Setup(Level.Iteration)
+	public void setUp() {
+		house = BenchSupport.newHouse(alreadyInterested);
+		BenchSupport.addLots(house, 1);
+		names = new String[alreadyInterested];
+		for(int i = 0; i < alreadyInterested; i++) {
+			names[i] = BenchSupport.buyerName(i);
+			house.noteInterest(names[i], 1);
+		}
+		next = 0;
+		nextNew = alreadyInterested;
+	}
+
+	@Benchmark
+	public Status existingBuyer() {
+		String name = names[next];
+		next = next + 1 == names.length ? 0 : next + 1;
+		return house.noteInterest(name, 1);
+	}
+
+	@Benchmark
+	public Status newBuyer() {
+		String name = BenchSupport.buyerName(nextNew++);
+		house.registerBuyer(name, "@" + name, "A/C", "auth");
+		return house.noteInterest(name, 1);
+	}
+}
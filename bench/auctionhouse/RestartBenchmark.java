@@ -0,0 +1,76 @@
+package auctionhouse;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Restart from a snapshot: the time for a new AuctionHouseImp to restore a house of the given
+ * size, each lot open with a high bid and an interested buyer. The journal tail is left empty,
+ * so only the snapshot is measured. The restart target is 1M lots and 5M buyers in under two
+ * seconds.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@State(Scope.Benchmark)
+public class RestartBenchmark {
+
+	@Param({ "1000000" })
+	public int lots;
+
+	@Param({ "5000000" })
+	public int buyers;
+
+	private Path directory;
+	private Path snapshot;
+	private Parameters parameters;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		// Registering millions of buyers would otherwise log millions of lines.
+		Logger.getLogger("auctionhouse").setLevel(java.util.logging.Level.SEVERE);
+		parameters = new Parameters(10.0, 15.0, Money.ofPence(1), BenchSupport.HOUSE_ACCOUNT, "AH-auth",
+				BenchSupport.NO_OP_MESSAGING, BenchSupport.NO_OP_BANKING);
+		AuctionHouseImp house = BenchSupport.newHouse(buyers);
+		BenchSupport.addLots(house, lots);
+		for(int i = 1; i <= lots; i++) {
+			String buyer = BenchSupport.buyerName(i % buyers);
+			house.noteInterest(buyer, i);
+			house.openAuction(BenchSupport.AUCTIONEER, "@" + BenchSupport.AUCTIONEER, i);
+			house.makeBid(buyer, i, Money.ofPence(200));
+		}
+		directory = Files.createTempDirectory("restart-bench");
+		snapshot = directory.resolve("house.snapshot");
+		house.writeSnapshot(snapshot);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(snapshot);
+		Files.deleteIfExists(directory);
+	}
+
+	@Benchmark
+	public AuctionHouseImp restart() {
+		return new AuctionHouseImp(parameters, AuctionHouseImp.DEFAULT_LOCK_STRIPES, null, snapshot);
+	}
+}
@@ -0,0 +1,23 @@
+package auctionhouse;
+
+/**
+ * One new lot, as passed to AuctionHouse.addLots.
+ */
+public class AddLotCommand {
+	public final String sellerName;
+	public final int number;
+	public final String description;
+	public final Money reservePrice;
+
+	public AddLotCommand(String sellerName, int number, String description, Money reservePrice) {
+		this.sellerName = sellerName;
+		this.number = number;
+		this.description = description;
+		this.reservePrice = reservePrice;
+	}
+
+	@Override
+	public String toString() {
+		return "lot " + number + " from " + sellerName + ": " + description + " (reserve " + reservePrice + ")";
+	}
+}
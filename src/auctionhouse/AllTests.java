@@ -15,7 +15,10 @@ import org.junit.runners.Suite.SuiteClasses;
  *
  */
 @RunWith(Suite.class)
-@SuiteClasses({ MoneyTest.class, AuctionHouseTest.class })
+@SuiteClasses({ MoneyTest.class, AuctionHouseTest.class, NotificationDispatcherTest.class,
+    EngineLogTest.class, CommandJournalTest.class, TrafficReplayTest.class, LoadGeneratorTest.class,
+    InstrumentedAuctionHouseTest.class, SequencedAuctionHouseTest.class, ShardedAuctionHouseTest.class,
+    AuctionServerTest.class, AsyncAuctionHouseTest.class })
 public class AllTests {
 
     public static void main(String[] args) {
@@ -0,0 +1,94 @@
+package auctionhouse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking counterpart of AuctionHouse. Each call's future completes once its outcome
+ * is decided; messages and payments that follow from it are tracked by the sideEffects
+ * future of the AsyncStatus returned.
+ */
+public interface AsyncAuctionHouse {
+
+    AsyncStatus registerBuyer(
+            String name,
+            String address,
+            String bankAccount,
+            String bankAuthCode);
+    
+    AsyncStatus registerSeller(
+            String name,
+            String address,
+            String bankAccount);
+    
+    AsyncStatus addLot(
+            String sellerName,
+            int number,
+            String description,
+            Money reservePrice);
+    
+    CompletableFuture<List<CatalogueEntry>> viewCatalogue();
+    
+    CompletableFuture<List<CatalogueEntry>> viewCatalogue(
+            int fromLotNumber,
+            int limit);
+    
+    CompletableFuture<List<Integer>> searchCatalogue(
+            String query,
+            LotStatus status,
+            int limit);
+    
+    AsyncStatus noteInterest(
+            String buyerName,
+            int lotNumber);
+    
+    AsyncStatus openAuction(
+            String auctioneerName,
+            String auctioneerAddress,
+            int lotNumber);
+    
+    AsyncStatus makeBid(
+            String buyerName,
+            int lotNumber,
+            Money bid);
+    
+    /**
+     * A sale completes as SALE_PENDING_PAYMENT once the hammer falls; its sideEffects
+     * complete with the outcome of the payment.
+     */
+    AsyncStatus closeAuction(
+            String auctioneerName,
+            int lotNumber);
+    
+    /*
+     * Batch versions: one AsyncStatus per command, in the same order as the commands.
+     * The defaults make the calls one at a time; implementations that can share
+     * lookups across a batch should override them.
+     */
+    
+    default List<AsyncStatus> makeBids(List<BidCommand> bids) {
+        List<AsyncStatus> results = new ArrayList<AsyncStatus>(bids.size());
+        for (BidCommand bid : bids) {
+            results.add(makeBid(bid.buyerName, bid.lotNumber, bid.amount));
+        }
+        return results;
+    }
+    
+    default List<AsyncStatus> noteInterests(List<InterestCommand> interests) {
+        List<AsyncStatus> results = new ArrayList<AsyncStatus>(interests.size());
+        for (InterestCommand interest : interests) {
+            results.add(noteInterest(interest.buyerName, interest.lotNumber));
+        }
+        return results;
+    }
+    
+    default List<AsyncStatus> addLots(List<AddLotCommand> lots) {
+        List<AsyncStatus> results = new ArrayList<AsyncStatus>(lots.size());
+        for (AddLotCommand lot : lots) {
+            results.add(addLot(lot.sellerName, lot.number, lot.description, lot.reservePrice));
+        }
+        return results;
+    }
+    
+}
@@ -0,0 +1,311 @@
+package auctionhouse;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * AsyncAuctionHouse over an AuctionHouseImp. A call changes the house's state on the
+ * calling thread, which takes microseconds, and returns an already completed AsyncStatus;
+ * the messages it would have sent, and for a sale the payments, are handed to an executor
+ * of the caller's choosing and tracked by its sideEffects.
+ *
+ * Messages sent by a call are captured on the way out of the AuctionHouseImp and sent in
+ * order by one task. A sale is closed SOLD_PENDING_PAYMENT, as under a settlement pipeline,
+ * and settled by the same task after its messages; a failed payment leaves the lot for
+ * retryPendingPayments. The tasks for one lot are chained, each started once the one
+ * before has finished, so a lot's messages go out in the order its calls were decided;
+ * tasks for different lots run in whatever order the executor runs them.
+ */
+public class AsyncAuctionHouseImp implements AsyncAuctionHouse {
+
+	private static EngineLog log = new EngineLog("auctionhouse", AsyncAuctionHouseImp.class);
+
+	// Calls on lots mapped to the same stripe are decided one at a time, so each lot's tasks
+	// are chained in the order its calls changed its state.
+	private static final int LOCK_STRIPES = 256;
+
+	private final AuctionHouseImp house;
+	private final Executor executor;
+	private final CapturingMessagingService messagingService = new CapturingMessagingService();
+	private final Object[] lotLocks = new Object[LOCK_STRIPES];
+	// The last side-effect task of each lot with one unfinished; removed once it finishes.
+	private final ConcurrentHashMap<Integer, CompletableFuture<Status>> lastTasks
+			= new ConcurrentHashMap<Integer, CompletableFuture<Status>>();
+
+	/**
+	 * @param parameters: the messaging and banking services are called from executor tasks
+	 * @param executor: runs side effects, e.g. ForkJoinPool.commonPool(); Runnable::run runs
+	 *        them before the call returns
+	 */
+	public AsyncAuctionHouseImp(Parameters parameters, Executor executor) {
+		this(new AuctionHouseImp(parameters), executor);
+	}
+
+	/**
+	 * Takes over an existing house, e.g. one restored from a journal. From now on its
+	 * messages are sent, and its sales settled, by executor tasks.
+	 * @param house: must not have a settlement pipeline, and must not be called other than
+	 *        through this from now on
+	 * @param executor: runs side effects
+	 */
+	public AsyncAuctionHouseImp(AuctionHouseImp house, Executor executor) {
+		if(house.hasSettlementPipeline()) {
+			throw new IllegalArgumentException("House already settles sales through a pipeline");
+		}
+		this.house = house;
+		this.executor = executor;
+		for(int i = 0; i < LOCK_STRIPES; i++) {
+			lotLocks[i] = new Object();
+		}
+		house.wrapMessagingService(messagingService::sendingTo);
+		house.leavePaymentsToCaller();
+	}
+
+	/**
+	 * Retries payment for every lot left SOLD_PENDING_PAYMENT by a failed settlement.
+	 * @return the number of lots settled
+	 */
+	public CompletableFuture<Integer> retryPendingPayments() {
+		return CompletableFuture.supplyAsync(house::retryPendingPayments, executor);
+	}
+
+	/*
+	 * AsyncAuctionHouse
+	 */
+
+	public AsyncStatus registerBuyer(String name, String address, String bankAccount, String bankAuthCode) {
+		return decided(() -> house.registerBuyer(name, address, bankAccount, bankAuthCode));
+	}
+
+	public AsyncStatus registerSeller(String name, String address, String bankAccount) {
+		return decided(() -> house.registerSeller(name, address, bankAccount));
+	}
+
+	public AsyncStatus addLot(String sellerName, int number, String description, Money reservePrice) {
+		return decided(() -> house.addLot(sellerName, number, description, reservePrice));
+	}
+
+	public CompletableFuture<List<CatalogueEntry>> viewCatalogue() {
+		return CompletableFuture.completedFuture(house.viewCatalogue());
+	}
+
+	public CompletableFuture<List<CatalogueEntry>> viewCatalogue(int fromLotNumber, int limit) {
+		return CompletableFuture.completedFuture(house.viewCatalogue(fromLotNumber, limit));
+	}
+
+	public CompletableFuture<List<Integer>> searchCatalogue(String query, LotStatus status, int limit) {
+		return CompletableFuture.completedFuture(house.searchCatalogue(query, status, limit));
+	}
+
+	public AsyncStatus noteInterest(String buyerName, int lotNumber) {
+		return decided(() -> house.noteInterest(buyerName, lotNumber));
+	}
+
+	public AsyncStatus openAuction(String auctioneerName, String auctioneerAddress, int lotNumber) {
+		return decide(lotNumber, () -> house.openAuction(auctioneerName, auctioneerAddress, lotNumber), false);
+	}
+
+	public AsyncStatus makeBid(String buyerName, int lotNumber, Money bid) {
+		return decide(lotNumber, () -> house.makeBid(buyerName, lotNumber, bid), false);
+	}
+
+	public AsyncStatus closeAuction(String auctioneerName, int lotNumber) {
+		return decide(lotNumber, () -> house.closeAuction(auctioneerName, lotNumber), true);
+	}
+
+	/**
+	 * Adds the lots through one call to the house; adding a lot sends no messages.
+	 */
+	@Override
+	public List<AsyncStatus> addLots(List<AddLotCommand> lots) {
+		return decidedAll(() -> house.addLots(lots), lots.size());
+	}
+
+	/**
+	 * Notes the interests through one call to the house; noting interest sends no messages.
+	 */
+	@Override
+	public List<AsyncStatus> noteInterests(List<InterestCommand> interests) {
+		return decidedAll(() -> house.noteInterests(interests), interests.size());
+	}
+
+	// For calls that send no messages: completed, with nothing to follow.
+	private static AsyncStatus decided(Supplier<Status> call) {
+		try {
+			return completed(call.get());
+		} catch (RuntimeException e) {
+			return failed(e);
+		}
+	}
+
+	private static List<AsyncStatus> decidedAll(Supplier<List<Status>> call, int size) {
+		List<AsyncStatus> results = new ArrayList<AsyncStatus>(size);
+		try {
+			for(Status status: call.get()) {
+				results.add(completed(status));
+			}
+		} catch (RuntimeException e) {
+			results.clear();
+			for(int i = 0; i < size; i++) {
+				results.add(failed(e));
+			}
+		}
+		return results;
+	}
+
+	private static AsyncStatus completed(Status status) {
+		AsyncStatus result = new AsyncStatus(CompletableFuture.completedFuture(Status.OK()));
+		result.complete(status);
+		return result;
+	}
+
+	private static AsyncStatus failed(RuntimeException e) {
+		AsyncStatus result = new AsyncStatus(CompletableFuture.completedFuture(Status.OK()));
+		result.completeExceptionally(e);
+		return result;
+	}
+
+	/**
+	 * Makes a call on a lot, capturing the messages it sends, and chains them after the lot's
+	 * earlier side effects.
+	 * @param settle: whether to settle the lot if the call leaves it awaiting payment
+	 */
+	private AsyncStatus decide(int lotNumber, Supplier<Status> call, boolean settle) {
+		List<Runnable> messages = new ArrayList<Runnable>(2);
+		CompletableFuture<Status> sideEffects;
+		Status status;
+		synchronized(lockFor(lotNumber)) {
+			messagingService.capture(messages);
+			try {
+				status = call.get();
+			} catch (RuntimeException e) {
+				return failed(e);
+			} finally {
+				messagingService.capture(null);
+			}
+			boolean settleLot = settle && status.code == Status.Code.PAYMENT_QUEUED;
+			if(messages.isEmpty() && !settleLot) {
+				return completed(status);
+			}
+			sideEffects = chain(lotNumber, messages, settleLot);
+		}
+		AsyncStatus result = new AsyncStatus(sideEffects);
+		result.complete(status);
+		return result;
+	}
+
+	// Runs the side effects once the lot's last task has finished, however it finished.
+	// Called under the lot's lock.
+	private CompletableFuture<Status> chain(int lotNumber, List<Runnable> messages, boolean settle) {
+		CompletableFuture<Status> previous = lastTasks.get(lotNumber);
+		CompletableFuture<Status> task = new CompletableFuture<Status>();
+		Runnable start = () -> runSideEffects(lotNumber, messages, settle, task);
+		if(previous == null) {
+			start.run();
+		} else {
+			previous.whenComplete((status, failure) -> start.run());
+		}
+		if(!task.isDone()) {
+			lastTasks.put(lotNumber, task);
+			task.whenComplete((status, failure) -> lastTasks.remove(lotNumber, task));
+		}
+		return task;
+	}
+
+	private void runSideEffects(int lotNumber, List<Runnable> messages, boolean settle, CompletableFuture<Status> done) {
+		try {
+			executor.execute(() -> {
+				try {
+					for(Runnable message: messages) {
+						message.run();
+					}
+					// Settled here, off the capturing thread, so its messages go straight out.
+					done.complete(settle ? house.settle(lotNumber) : Status.OK());
+				} catch (RuntimeException e) {
+					log.warning(e, "Side effects failed for lot {}", lotNumber);
+					done.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			log.warning(e, "Executor rejected side effects for lot {}", lotNumber);
+			done.completeExceptionally(e);
+		}
+	}
+
+	private Object lockFor(int lotNumber) {
+		int h = lotNumber * 0x9E3779B9;
+		return lotLocks[(h ^ (h >>> 16)) & (lotLocks.length - 1)];
+	}
+
+	/*
+	 * Sends straight to the delegate, except on a thread that is capturing, where each
+	 * message is kept to be sent later.
+	 */
+	private static final class CapturingMessagingService implements MessagingService {
+		private MessagingService delegate;
+		private final ThreadLocal<List<Runnable>> captured = new ThreadLocal<List<Runnable>>();
+
+		// Set once, before the house is called.
+		CapturingMessagingService sendingTo(MessagingService delegate) {
+			this.delegate = delegate;
+			return this;
+		}
+
+		void capture(List<Runnable> messages) {
+			captured.set(messages);
+		}
+
+		private void send(Runnable message) {
+			List<Runnable> messages = captured.get();
+			if(messages == null) {
+				message.run();
+			} else {
+				messages.add(message);
+			}
+		}
+
+		public void auctionOpened(String address, int lotNumber) {
+			send(() -> delegate.auctionOpened(address, lotNumber));
+		}
+
+		public void bidAccepted(String address, int lotNumber, Money amount) {
+			send(() -> delegate.bidAccepted(address, lotNumber, amount));
+		}
+
+		public void lotSold(String address, int lotNumber) {
+			send(() -> delegate.lotSold(address, lotNumber));
+		}
+
+		public void lotUnsold(String address, int lotNumber) {
+			send(() -> delegate.lotUnsold(address, lotNumber));
+		}
+
+		// The house's address collections are only valid during the call, so copy them to keep.
+
+		public void auctionOpened(Collection<String> addresses, int lotNumber) {
+			List<String> copy = new ArrayList<String>(addresses);
+			send(() -> delegate.auctionOpened(copy, lotNumber));
+		}
+
+		public void bidAccepted(Collection<String> addresses, int lotNumber, Money amount) {
+			List<String> copy = new ArrayList<String>(addresses);
+			send(() -> delegate.bidAccepted(copy, lotNumber, amount));
+		}
+
+		public void lotSold(Collection<String> addresses, int lotNumber) {
+			List<String> copy = new ArrayList<String>(addresses);
+			send(() -> delegate.lotSold(copy, lotNumber));
+		}
+
+		public void lotUnsold(Collection<String> addresses, int lotNumber) {
+			List<String> copy = new ArrayList<String>(addresses);
+			send(() -> delegate.lotUnsold(copy, lotNumber));
+		}
+	}
+}
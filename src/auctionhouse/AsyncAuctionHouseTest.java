@@ -0,0 +1,177 @@
+package auctionhouse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncAuctionHouseTest {
+
+    // Runs side effects only when the test says so.
+    private final Queue<Runnable> tasks = new ArrayDeque<Runnable>();
+    private MockMessagingService messagingService;
+    private MockBankingService bankingService;
+    private AsyncAuctionHouseImp house;
+
+    @Before
+    public void setup() {
+        messagingService = new MockMessagingService();
+        bankingService = new MockBankingService();
+        house = new AsyncAuctionHouseImp(new Parameters(10.0, 15.0, new Money("10.00"),
+                "AH A/C", "AH-auth", messagingService, bankingService), tasks::add);
+        house.registerSeller("SellerY", "@SellerY", "SY A/C");
+        house.registerBuyer("BuyerA", "@BuyerA", "BA A/C", "BA-auth");
+        house.addLot("SellerY", 1, "Bicycle", new Money("50.00"));
+        house.noteInterest("BuyerA", 1);
+        assertTrue(tasks.isEmpty());
+    }
+
+    private void runTasks() {
+        for (Runnable task = tasks.poll(); task != null; task = tasks.poll()) {
+            task.run();
+        }
+    }
+
+    @Test
+    public void testDecidedBeforeSideEffects() {
+        AsyncStatus opened = house.openAuction("Auctioneer1", "@Auctioneer1", 1);
+        assertEquals(Status.Kind.OK, opened.join().kind);
+        assertFalse(opened.sideEffects.isDone());
+        assertEquals(0, messagingService.actualEvents().size());
+        runTasks();
+        assertEquals(Status.Kind.OK, opened.sideEffects.join().kind);
+        assertEquals(2, messagingService.actualEvents().size());
+
+        assertEquals(Status.Code.BID_TOO_LOW, house.makeBid("BuyerA", 1, new Money("5.00")).join().code);
+        house.makeBid("BuyerA", 1, new Money("60.00"));
+        AsyncStatus closed = house.closeAuction("Auctioneer1", 1);
+        assertEquals(Status.Kind.SALE_PENDING_PAYMENT, closed.join().kind);
+        assertEquals(LotStatus.SOLD_PENDING_PAYMENT, house.viewCatalogue().join().get(0).status);
+        assertEquals(0, bankingService.transferCount());
+
+        runTasks();
+        assertEquals(Status.Kind.OK, closed.sideEffects.join().kind);
+        assertEquals(2, bankingService.transferCount());
+        assertEquals(LotStatus.SOLD, house.viewCatalogue().join().get(0).status);
+    }
+
+    @Test
+    public void testFailedPaymentReportedBySideEffects() {
+        house.openAuction("Auctioneer1", "@Auctioneer1", 1);
+        house.makeBid("BuyerA", 1, new Money("60.00"));
+        bankingService.setBadAccount("BA A/C");
+        AsyncStatus closed = house.closeAuction("Auctioneer1", 1);
+        runTasks();
+        assertEquals(Status.Kind.SALE_PENDING_PAYMENT, closed.join().kind);
+        assertEquals(Status.Kind.ERROR, closed.sideEffects.join().kind);
+        assertEquals(LotStatus.SOLD_PENDING_PAYMENT, house.viewCatalogue().join().get(0).status);
+
+        bankingService.clearBadAccount("BA A/C");
+        CompletableFuture<Integer> retried = house.retryPendingPayments();
+        runTasks();
+        assertEquals(Integer.valueOf(1), retried.join());
+        assertEquals(LotStatus.SOLD, house.viewCatalogue().join().get(0).status);
+    }
+
+    @Test
+    public void testRejectedCallsHaveNoSideEffects() {
+        AsyncStatus status = house.makeBid("BuyerA", 1, new Money("60.00"));
+        assertEquals(Status.Code.NOT_IN_AUCTION, status.join().code);
+        assertTrue(status.sideEffects.isDone());
+        assertTrue(tasks.isEmpty());
+    }
+
+    @Test
+    public void testLotMessagesSentInDecisionOrder() {
+        final List<Money> bidsSent = new ArrayList<Money>();
+        MockMessagingService recording = new MockMessagingService() {
+            @Override
+            public synchronized void bidAccepted(Collection<String> addresses, int lotNumber, Money amount) {
+                bidsSent.add(amount);
+                super.bidAccepted(addresses, lotNumber, amount);
+            }
+        };
+        // Runs the most recently submitted task first.
+        Deque<Runnable> stack = new ArrayDeque<Runnable>();
+        AsyncAuctionHouseImp lifo = new AsyncAuctionHouseImp(new Parameters(10.0, 15.0, new Money("10.00"),
+                "AH A/C", "AH-auth", recording, bankingService), stack::push);
+        lifo.registerSeller("SellerY", "@SellerY", "SY A/C");
+        lifo.registerBuyer("BuyerA", "@BuyerA", "BA A/C", "BA-auth");
+        lifo.addLot("SellerY", 1, "Bicycle", new Money("50.00"));
+        lifo.noteInterest("BuyerA", 1);
+        lifo.openAuction("Auctioneer1", "@Auctioneer1", 1);
+        for (int i = 0; i < 5; i++) {
+            lifo.makeBid("BuyerA", 1, Money.ofPence(6000 + 1000L * i));
+        }
+        // Each of the lot's tasks waits for the one before.
+        assertEquals(1, stack.size());
+        for (Runnable task = stack.poll(); task != null; task = stack.poll()) {
+            task.run();
+        }
+        assertEquals(Arrays.asList(Money.ofPence(6000), Money.ofPence(7000), Money.ofPence(8000),
+                Money.ofPence(9000), Money.ofPence(10000)), bidsSent);
+    }
+
+    @Test
+    public void testNegativeLotNumberSettled() {
+        house.addLot("SellerY", -3, "Tandem", new Money("50.00"));
+        house.noteInterest("BuyerA", -3);
+        house.openAuction("Auctioneer1", "@Auctioneer1", -3);
+        house.makeBid("BuyerA", -3, new Money("60.00"));
+        AsyncStatus closed = house.closeAuction("Auctioneer1", -3);
+        runTasks();
+        assertEquals(Status.Kind.SALE_PENDING_PAYMENT, closed.join().kind);
+        assertEquals(Status.Kind.OK, closed.sideEffects.join().kind);
+        assertEquals(2, bankingService.transferCount());
+        assertEquals(LotStatus.SOLD, house.viewCatalogue().join().get(0).status);
+    }
+
+    @Test
+    public void testTakesOverExistingHouse() {
+        MockMessagingService existingMessages = new MockMessagingService();
+        AuctionHouseImp existing = new AuctionHouseImp(new Parameters(10.0, 15.0, new Money("10.00"),
+                "AH A/C", "AH-auth", existingMessages, bankingService));
+        existing.registerSeller("SellerY", "@SellerY", "SY A/C");
+        existing.registerBuyer("BuyerA", "@BuyerA", "BA A/C", "BA-auth");
+        existing.addLot("SellerY", 1, "Bicycle", new Money("50.00"));
+        existing.noteInterest("BuyerA", 1);
+
+        AsyncAuctionHouseImp async = new AsyncAuctionHouseImp(existing, tasks::add);
+        async.openAuction("Auctioneer1", "@Auctioneer1", 1);
+        assertEquals(0, existingMessages.callCount());
+        runTasks();
+        assertEquals(2, existingMessages.actualEvents().size());
+    }
+
+    @Test
+    public void testBatchCalls() {
+        List<AsyncStatus> added = house.addLots(Arrays.asList(
+                new AddLotCommand("SellerY", 2, "Lamp", new Money("20.00")),
+                new AddLotCommand("SellerY", 2, "Duplicate", new Money("20.00"))));
+        assertEquals(Status.Kind.OK, added.get(0).join().kind);
+        assertEquals(Status.Kind.ERROR, added.get(1).join().kind);
+        List<AsyncStatus> noted = house.noteInterests(Arrays.asList(new InterestCommand("BuyerA", 2)));
+        assertEquals(Status.Kind.OK, noted.get(0).join().kind);
+
+        house.openAuction("Auctioneer1", "@Auctioneer1", 2);
+        List<AsyncStatus> bids = house.makeBids(Arrays.asList(
+                new BidCommand("BuyerA", 2, new Money("30.00")),
+                new BidCommand("BuyerA", 2, new Money("25.00"))));
+        assertEquals(Status.Kind.OK, bids.get(0).join().kind);
+        assertEquals(Status.Code.BID_TOO_LOW, bids.get(1).join().code);
+        assertTrue(tasks.size() > 0);
+        runTasks();
+        assertTrue(bids.get(0).sideEffects.isDone());
+    }
+}
@@ -0,0 +1,19 @@
+package auctionhouse;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Outcome of an AsyncAuctionHouse call: completes with the call's Status once it is decided.
+ */
+public class AsyncStatus extends CompletableFuture<Status> {
+
+	/**
+	 * Completes once the messages and payments following from the call are done: with OK, or
+	 * with the Status of a payment that failed. Completed at once for calls with none.
+	 */
+	public final CompletableFuture<Status> sideEffects;
+
+	public AsyncStatus(CompletableFuture<Status> sideEffects) {
+		this.sideEffects = sideEffects;
+	}
+}
@@ -3,6 +3,7 @@
  */
 package auctionhouse;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -30,6 +31,15 @@ public interface AuctionHouse {
     
     List<CatalogueEntry> viewCatalogue();
     
+    List<CatalogueEntry> viewCatalogue(
+            int fromLotNumber,
+            int limit);
+    
+    List<Integer> searchCatalogue(
+            String query,
+            LotStatus status,
+            int limit);
+    
     Status noteInterest(
             String buyerName,
             int lotNumber);
@@ -48,5 +58,36 @@ public interface AuctionHouse {
             String auctioneerName,
             int lotNumber);
     
+    /*
+     * Batch versions: one Status per command, in the order given.
+     * The defaults make the calls one at a time; implementations that can share
+     * lookups and journal writes across a batch should override them, keeping the
+     * effects of the calls one at a time: every accepted bid is journalled and messaged,
+     * even if a later bid in the same batch beats it.
+     */
+    
+    default List<Status> makeBids(List<BidCommand> bids) {
+        List<Status> results = new ArrayList<Status>(bids.size());
+        for (BidCommand bid : bids) {
+            results.add(makeBid(bid.buyerName, bid.lotNumber, bid.amount));
+        }
+        return results;
+    }
+    
+    default List<Status> noteInterests(List<InterestCommand> interests) {
+        List<Status> results = new ArrayList<Status>(interests.size());
+        for (InterestCommand interest : interests) {
+            results.add(noteInterest(interest.buyerName, interest.lotNumber));
+        }
+        return results;
+    }
+    
+    default List<Status> addLots(List<AddLotCommand> lots) {
+        List<Status> results = new ArrayList<Status>(lots.size());
+        for (AddLotCommand lot : lots) {
+            results.add(addLot(lot.sellerName, lot.number, lot.description, lot.reservePrice));
+        }
+        return results;
+    }
     
 }
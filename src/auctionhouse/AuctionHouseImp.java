@@ -3,11 +3,28 @@
  */
 package auctionhouse;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
-import java.util.List;
-import java.util.PriorityQueue;
-import java.util.logging.Logger;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+import java.util.function.UnaryOperator;
 
 /**
  * @author pbj
@@ -15,19 +32,87 @@ import java.util.HashMap;
  */
 public class AuctionHouseImp implements AuctionHouse {
 	
-	private HashMap<String, Buyer> buyers = new HashMap<String, Buyer>();
-	private HashMap<String, Seller> sellers = new HashMap<String, Seller>();
-	private HashMap<String, Auctioneer> auctioneers = new HashMap<String, Auctioneer>();
-	private HashMap<Integer, Lot> lots = new HashMap<Integer, Lot>();
-	private PriorityQueue<CatalogueEntry> catalogueEntries = new PriorityQueue<CatalogueEntry>(new CatalogueEntryComparator());
+	// Default number of lock stripes guarding the lots. Must be a power of two.
+	public static final int DEFAULT_LOCK_STRIPES = 256;
+	
+	private ConcurrentHashMap<String, Buyer> buyers = new ConcurrentHashMap<String, Buyer>();
+	private ConcurrentHashMap<String, Seller> sellers = new ConcurrentHashMap<String, Seller>();
+	private ConcurrentHashMap<String, Auctioneer> auctioneers = new ConcurrentHashMap<String, Auctioneer>();
+	private final AtomicInteger nextBuyerId = new AtomicInteger();
+	// Buyers indexed by id, for fan-out over interest sets. Replaced when it grows.
+	private volatile Buyer[] buyersById = new Buyer[64];
+	private final Object buyersByIdLock = new Object();
+	private ConcurrentHashMap<Integer, Lot> lots = new ConcurrentHashMap<Integer, Lot>();
+	private LotIndex lotIndex = new LotIndex();
+	private CatalogueSearchIndex searchIndex = new CatalogueSearchIndex(lotIndex);
+	// Catalogue entries indexed by lot number, iterated in lot order.
+	private ConcurrentSkipListMap<Integer, CatalogueEntry> catalogueEntries = new ConcurrentSkipListMap<Integer, CatalogueEntry>();
+	// Lot operations lock the stripe of their lot, so different lots proceed in parallel.
+	// makeBid takes no lock at all; see Lot.makeBid.
+	private final Object[] lotLocks;
 	private Parameters parameters;
+	// Parameters converted once to fixed-point, so closing a sale does no parsing.
+	private final long buyerPremiumBasisPoints;
+	private final long commissionPence;
 	
 	private MessagingService messagingService; 
 	private BankingService bankingService; 
+	// Set once async settlement is started; null means closeAuction pays synchronously.
+	private volatile SettlementPipeline settlementPipeline;
+	// Set by AsyncAuctionHouseImp, which settles sold lots itself; as with a pipeline, closeAuction does not pay.
+	private volatile boolean paymentsLeftToCaller;
+	// Open settlement session, if any; takes precedence over the pipeline.
+	private volatile SettlementSession settlementSession;
+	// Every state change is appended here before it is acknowledged; null for no journal.
+	private final CommandJournal journal;
+	// Set while the journal is replayed in the constructor: nothing is journalled or messaged.
+	private boolean replaying;
+	// Registrations check and journal a name under this lock, so the journal order matches.
+	private final Object registrationLock = new Object();
 	
-    private static Logger logger = Logger.getLogger("auctionhouse");
+    private static EngineLog log = new EngineLog("auctionhouse", AuctionHouseImp.class);
     private static final String LS = System.lineSeparator();
     
+    // Outcomes without arguments, shared rather than built on every call.
+    private static final Status BUYER_NAME_INVALID = Status.error(Status.Code.INVALID_ARGUMENT,
+    		"Buyer name given to registerBuyer cannot be null or empty");
+    private static final Status BUYER_ADDRESS_INVALID = Status.error(Status.Code.INVALID_ARGUMENT,
+    		"Address given to registerBuyer cannot be null or empty");
+    private static final Status BUYER_ACCOUNT_INVALID = Status.error(Status.Code.INVALID_ARGUMENT,
+    		"Bank account given to registerBuyer cannot be null or empty");
+    private static final Status BUYER_AUTH_CODE_INVALID = Status.error(Status.Code.INVALID_ARGUMENT,
+    		"Bank authorisation code given to registerBuyer cannot be null or empty");
+    private static final Status SELLER_NAME_INVALID = Status.error(Status.Code.INVALID_ARGUMENT,
+    		"Seller name given to registerSeller cannot be null or empty");
+    private static final Status SELLER_ADDRESS_INVALID = Status.error(Status.Code.INVALID_ARGUMENT,
+    		"Address given to registerSeller cannot be null or empty");
+    private static final Status SELLER_ACCOUNT_INVALID = Status.error(Status.Code.INVALID_ARGUMENT,
+    		"Bank account given to registerSeller cannot be null or empty");
+    private static final Status LOT_SELLER_INVALID = Status.error(Status.Code.INVALID_ARGUMENT,
+    		"Seller name in addLot cannot be null or empty");
+    private static final Status LOT_DESCRIPTION_INVALID = Status.error(Status.Code.INVALID_ARGUMENT,
+    		"Lot description in addLot cannot pe null or empty");
+    private static final Status LOT_RESERVE_INVALID = Status.error(Status.Code.INVALID_ARGUMENT,
+    		"reservePrice cannot be null or of negative value in addLot");
+    private static final Status INTEREST_BUYER_INVALID = Status.error(Status.Code.INVALID_ARGUMENT,
+    		"Buyer name in noteInterest cannot be null or empty");
+    private static final Status OPEN_AUCTIONEER_INVALID = Status.error(Status.Code.INVALID_ARGUMENT,
+    		"Auctioneer name in openAuction cannot be null or empty");
+    private static final Status OPEN_ADDRESS_INVALID = Status.error(Status.Code.INVALID_ARGUMENT,
+    		"Auctioneer address in openAuction cannot be null or empty");
+    private static final Status BID_BUYER_INVALID = Status.error(Status.Code.INVALID_ARGUMENT,
+    		"Buyer name in makeBid cannot be null or empty.");
+    private static final Status BID_AMOUNT_INVALID = Status.error(Status.Code.INVALID_ARGUMENT,
+    		"Bid value cannot be negative in makeBid");
+    private static final Status BID_NOT_IN_AUCTION = Status.error(Status.Code.NOT_IN_AUCTION,
+    		"Bid cannot be made when the lot is not in auction");
+    private static final Status CLOSE_AUCTIONEER_INVALID = Status.error(Status.Code.INVALID_ARGUMENT,
+    		"Auctioneer name in closeAuction cannot be null or empty");
+    private static final Status CLOSE_WRONG_AUCTIONEER = Status.error(Status.Code.WRONG_AUCTIONEER,
+    		"Lot auction must be closed by auctioneer that opened it!");
+    private static final Status NO_SESSION = Status.error(Status.Code.NO_SETTLEMENT_SESSION,
+    		"No settlement session open");
+    
     private String startBanner(String messageName) {
         return  LS 
           + "-------------------------------------------------------------" + LS
@@ -37,9 +122,76 @@ public class AuctionHouseImp implements AuctionHouse {
    
     
     public AuctionHouseImp(Parameters parameters) {
+    	this(parameters, DEFAULT_LOCK_STRIPES, null, null);
+    }
+    
+    /**
+     * Creates an auction house that journals every state change, after rebuilding its state
+     * from the records already in the journal. Replay sends no messages and makes no transfers;
+     * lots replayed as SOLD_PENDING_PAYMENT can be settled with retryPendingPayments.
+     * @param parameters
+     * @param journal: opened journal, replayed here and appended to from then on
+     */
+    public AuctionHouseImp(Parameters parameters, CommandJournal journal) {
+    	this(parameters, DEFAULT_LOCK_STRIPES, journal, null);
+    }
+    
+    /**
+     * Creates an auction house restored from a snapshot, if the file exists, plus the journal
+     * records written since the snapshot was started.
+     * @param parameters
+     * @param journal: opened journal, replayed here and appended to from then on
+     * @param snapshotFile: snapshot written by writeSnapshot or compact
+     */
+    public AuctionHouseImp(Parameters parameters, CommandJournal journal, Path snapshotFile) {
+    	this(parameters, DEFAULT_LOCK_STRIPES, journal, snapshotFile);
+    }
+    
+    public AuctionHouseImp(Parameters parameters, int lockStripes) {
+    	this(parameters, lockStripes, null, null);
+    }
+    
+    /**
+     * Creates an auction house whose lot operations are guarded by lockStripes locks.
+     * Calls on lots mapped to different stripes never wait for each other.
+     * @param parameters
+     * @param lockStripes: number of lot locks, must be a positive power of two
+     * @param journal: journal to replay and then append to, or null
+     * @param snapshotFile: snapshot to restore before replaying the journal, or null
+     */
+    public AuctionHouseImp(Parameters parameters, int lockStripes, CommandJournal journal, Path snapshotFile) {
+    	if(lockStripes <= 0 || Integer.bitCount(lockStripes) != 1) {
+    		throw new IllegalArgumentException("lockStripes must be a positive power of two: " + lockStripes);
+    	}
     	this.parameters = parameters;
     	messagingService = parameters.messagingService;
     	bankingService = parameters.bankingService;
+    	buyerPremiumBasisPoints = Money.toBasisPoints(parameters.buyerPremium);
+    	commissionPence = Money.parsePence(Double.toString(parameters.commission));
+    	lotLocks = new Object[lockStripes];
+    	for(int i = 0; i < lockStripes; i++) {
+    		lotLocks[i] = new Object();
+    	}
+    	this.journal = journal;
+    	long replayFrom = 0;
+    	if(snapshotFile != null && Files.exists(snapshotFile)) {
+    		try {
+    			replayFrom = restoreSnapshot(snapshotFile);
+    		} catch (IOException e) {
+    			throw new UncheckedIOException("Cannot restore snapshot " + snapshotFile, e);
+    		}
+    	}
+    	if(journal != null) {
+    		replaying = true;
+    		journal.replay(replayFrom, record -> apply(JournalRecord.decode(record)));
+    		replaying = false;
+    	}
+    }
+    
+    // Spread lot numbers so that neighbouring lots land on different stripes.
+    private Object lockFor(int lotNumber) {
+    	int h = lotNumber * 0x9E3779B9;
+    	return lotLocks[(h ^ (h >>> 16)) & (lotLocks.length - 1)];
     }
     
 
@@ -56,45 +208,51 @@ public class AuctionHouseImp implements AuctionHouse {
             String address,
             String bankAccount,
             String bankAuthCode) {
-        logger.fine(startBanner("registerBuyer " + name));
+        if(log.isFineEnabled()) {
+        	log.fine(startBanner("registerBuyer " + name));
+        }
         
-        logger.info("Entering...");
+        log.info("Entering...");
         // Check input is valid
         if(!checkStringValid(name)) {
-        	logger.warning("Buyer name given to registerBuyer cannot be null or empty");
-        	logger.warning("Buyer registration failed. Exiting." + LS);   
-        	return Status.error("Buyer name given to registerBuyer cannot be null or empty");
+        	log.warning("Buyer name given to registerBuyer cannot be null or empty");
+        	log.warning("Buyer registration failed. Exiting.");
+        	return BUYER_NAME_INVALID;
         }
         
         if(!checkStringValid(address)) {
-        	logger.warning("Address given to registerBuyer cannot be null or empty");  
-           	logger.warning("Buyer registration failed. Exiting." + LS);  
-        	return Status.error("Address given to registerBuyer cannot be null or empty");
+        	log.warning("Address given to registerBuyer cannot be null or empty");
+           	log.warning("Buyer registration failed. Exiting.");
+        	return BUYER_ADDRESS_INVALID;
         }
         
         if(!checkStringValid(bankAccount)) {
-        	logger.warning("Bank account given to registerBuyer cannot be null or empty");  
-           	logger.warning("Buyer registration failed. Exiting." + LS);  
-        	return Status.error("Bank account given to registerBuyer cannot be null or empty");
+        	log.warning("Bank account given to registerBuyer cannot be null or empty");
+           	log.warning("Buyer registration failed. Exiting.");
+        	return BUYER_ACCOUNT_INVALID;
         }
         
         if(!checkStringValid(bankAuthCode)) {
-           	logger.warning("Bank authorisation code given to registerBuyer cannot be null or empty");  
-           	logger.warning("Buyer registration failed. Exiting." + LS);  
-        	return Status.error("Bank authorisation code given to registerBuyer cannot be null or empty");
+           	log.warning("Bank authorisation code given to registerBuyer cannot be null or empty");
+           	log.warning("Buyer registration failed. Exiting.");
+        	return BUYER_AUTH_CODE_INVALID;
         }
         
-        if(buyers.get(name) != null) {
-        	logger.warning("Name " + name + " exists as buyer already");
-           	logger.warning("Buyer registration failed. Exiting." + LS);  
-        	return Status.error("Name " + name + " exists as buyer already");
+        // Create new buyer object and add it to map, unless the name is taken.
+        // Published by id first, so its id is resolvable as soon as the name is visible.
+        synchronized(registrationLock) {
+        	if(buyers.containsKey(name)) {
+        		log.warning("Name {} exists as buyer already", name);
+        		log.warning("Buyer registration failed. Exiting.");
+        		return Status.error(Status.Code.NAME_TAKEN, "Name {} exists as buyer already", name);
+        	}
+        	journal(JournalRecord.registerBuyer(name, address, bankAccount, bankAuthCode));
+        	Buyer buyer = new Buyer(nextBuyerId.getAndIncrement(), name, address, bankAccount, bankAuthCode);
+        	addBuyerById(buyer);
+        	buyers.put(name, buyer);
         }
         
-        // Create new buyer object and add it to map
-        Buyer buyer = new Buyer(name, address, bankAccount, bankAuthCode);
-        buyers.put(name, buyer);
-        
-       	logger.info("Buyer registered successfully. Exiting." + LS);  
+       	log.info("Buyer registered successfully. Exiting.");
         return Status.OK();
     }
 
@@ -109,44 +267,48 @@ public class AuctionHouseImp implements AuctionHouse {
             String name,
             String address,
             String bankAccount) {
-        logger.fine(startBanner("registerSeller " + name));
+        if(log.isFineEnabled()) {
+        	log.fine(startBanner("registerSeller " + name));
+        }
         
-        logger.info("Entering...");        
+        log.info("Entering...");
         // Check input is valid
         if(!checkStringValid(name)) {
-        	logger.warning("Seller name given to registerSeller cannot be null or empty");
-        	logger.warning("Seller registration failed. Exiting." + LS);   
-        	return Status.error("Seller name given to registerSeller cannot be null or empty");
+        	log.warning("Seller name given to registerSeller cannot be null or empty");
+        	log.warning("Seller registration failed. Exiting.");
+        	return SELLER_NAME_INVALID;
         }
         
         if(!checkStringValid(address)) {
-        	logger.warning("Address given to registerSeller cannot be null or empty");
-        	logger.warning("Seller registration failed. Exiting." + LS);   
-        	return Status.error("Address given to registerSeller cannot be null or empty");
+        	log.warning("Address given to registerSeller cannot be null or empty");
+        	log.warning("Seller registration failed. Exiting.");
+        	return SELLER_ADDRESS_INVALID;
         }
         
         if(!checkStringValid(bankAccount)) {
-        	logger.warning("Bank account given to registerSeller cannot be null or empty");
-        	logger.warning("Seller registration failed. Exiting." + LS);   
-        	return Status.error("Bank account given to registerSeller cannot be null or empty");
+        	log.warning("Bank account given to registerSeller cannot be null or empty");
+        	log.warning("Seller registration failed. Exiting.");
+        	return SELLER_ACCOUNT_INVALID;
         }
         
-        if(sellers.get(name) != null) {
-        	logger.warning("Name " + name + " exists as seller already");
-        	logger.warning("Seller registration failed. Exiting." + LS);   
-        	return Status.error("Name " + name + " exists as seller already");
-        }
-        
-        // Create new seller object and put it to map
+        // Create new seller object and put it to map, unless the name is taken
         Seller seller = new Seller(name, address, bankAccount);
-        sellers.put(name, seller);
+        synchronized(registrationLock) {
+        	if(sellers.containsKey(name)) {
+        		log.warning("Name {} exists as seller already", name);
+        		log.warning("Seller registration failed. Exiting.");
+        		return Status.error(Status.Code.NAME_TAKEN, "Name {} exists as seller already", name);
+        	}
+        	journal(JournalRecord.registerSeller(name, address, bankAccount));
+        	sellers.put(name, seller);
+        }
         
-        logger.info("Seller registered successfully. Exiting." + LS);        
+        log.info("Seller registered successfully. Exiting.");
         return Status.OK();      
     }
 
     /**
-     * Creates a new Lot object, adds it to the lots HashMap and adds its CatalogueEntry to the catalogueEntries Queue.
+     * Creates a new Lot object, adds it to the lots HashMap and adds its CatalogueEntry to the catalogueEntries index.
      * @param sellerName
      * @param number: unique lot number
      * @param description
@@ -158,70 +320,116 @@ public class AuctionHouseImp implements AuctionHouse {
             int number,
             String description,
             Money reservePrice) {
-        logger.fine(startBanner("addLot " + sellerName + " " + number));
+        if(log.isFineEnabled()) {
+        	log.fine(startBanner("addLot " + sellerName + " " + number));
+        }
         
         // Check input is valid
-        logger.info("Entering...");
+        log.info("Entering...");
         if(!checkStringValid(sellerName)) {
-        	logger.warning("Seller name in addLot cannot be null or empty");
-        	logger.warning("Adding lot failed. Exiting." + LS);
-        	return Status.error("Seller name in addLot cannot be null or empty");
+        	log.warning("Seller name in addLot cannot be null or empty");
+        	log.warning("Adding lot failed. Exiting.");
+        	return LOT_SELLER_INVALID;
         }
         
         if(sellers.get(sellerName) == null) {
-        	logger.warning("Seller with " + sellerName + " does not exist in the System");
-        	logger.warning("Adding lot failed. Exiting." + LS);
-        	return Status.error("Seller with " + sellerName + " does not exist in the System");
+        	log.warning("Seller with {} does not exist in the System", sellerName);
+        	log.warning("Adding lot failed. Exiting.");
+        	return Status.error(Status.Code.NOT_REGISTERED, "Seller with {} does not exist in the System", sellerName);
         }
                 
         if(lots.get(number) != null) {
-        	logger.warning("Lot with number " + number + " already exists");
-        	logger.warning("Adding lot failed. Exiting." + LS);
-        	return Status.error("Lot with number " + number + " already exists");
+        	log.warning("Lot with number {} already exists", number);
+        	log.warning("Adding lot failed. Exiting.");
+        	return Status.error(Status.Code.LOT_EXISTS, "Lot with number {} already exists", number);
         }
         
         if(!checkStringValid(description)) {
-        	logger.warning("Lot description in addLot cannot pe null or empty");
-        	logger.warning("Adding lot failed. Exiting." + LS);
-        	return Status.error("Lot description in addLot cannot pe null or empty");
+        	log.warning("Lot description in addLot cannot pe null or empty");
+        	log.warning("Adding lot failed. Exiting.");
+        	return LOT_DESCRIPTION_INVALID;
         }
         
-        if(reservePrice == null || reservePrice.lessEqual(new Money("0"))) {
-        	logger.warning("reservePrice cannot be null or of negative value in addLot");
-        	logger.warning("Adding lot failed. Exiting." + LS);
-        	return Status.error("reservePrice cannot be null or of negative value in addLot");
+        if(reservePrice == null || reservePrice.getPence() <= 0) {
+        	log.warning("reservePrice cannot be null or of negative value in addLot");
+        	log.warning("Adding lot failed. Exiting.");
+        	return LOT_RESERVE_INVALID;
         }
                 
-        // Create new lot object and put it to map.
-        Lot lot = new Lot(sellerName, number, description, reservePrice);
-        lots.put(number, lot);
-
-        // Add the corresponding catalogue entry in the priority queue of catalogue entries.
-        catalogueEntries.add(lot.getCatalogueEntry());
-        
-        logger.info("Lot added successfully.Exiting." + LS);
-        return Status.OK();    
+        Status status = putLot(sellerName, number, description, reservePrice);
+        if(status.kind == Status.Kind.OK) {
+        	log.info("Lot added successfully.Exiting.");
+        } else {
+        	log.warning("Adding lot failed. Exiting.");
+        }
+        return status;
     }
 
     /**
      * @return a List of Catalogue Entries, ordered by their lotNumber.
      */
     public List<CatalogueEntry> viewCatalogue() {
-        logger.fine(startBanner("viewCatalog"));
-        
-        logger.info("Entering...");
-        logger.fine("Catalogue: " + catalogueEntries.toString());
+        if(log.isFineEnabled()) {
+        	log.fine(startBanner("viewCatalog"));
+        }
         
-        // Put every entry in the priority queue in a list (order is preserved)
-        List<CatalogueEntry> catalogueList = new ArrayList<CatalogueEntry>();
-        for(CatalogueEntry ce: catalogueEntries) {
-        	catalogueList.add(ce);
+        log.info("Entering...");
+        if(log.isFineEnabled()) {
+        	log.fine("Catalogue: {}", catalogueEntries.values().toString());
         }
         
-        logger.info("Exiting." + LS);
+        // The index iterates in lot number order.
+        List<CatalogueEntry> catalogueList = new ArrayList<CatalogueEntry>(catalogueEntries.values());
+        
+        log.info("Exiting.");
         return catalogueList;
     }
 
+    /**
+     * Returns one page of the catalogue in O(log n + limit).
+     * @param fromLotNumber: lowest lot number to include
+     * @param limit: maximum number of entries to return
+     * @return a List of at most limit Catalogue Entries with lotNumber >= fromLotNumber, ordered by lotNumber.
+     */
+    public List<CatalogueEntry> viewCatalogue(int fromLotNumber, int limit) {
+        if(log.isFineEnabled()) {
+        	log.fine(startBanner("viewCatalogue " + fromLotNumber + " " + limit));
+        }
+        
+        log.info("Entering...");
+        List<CatalogueEntry> page = new ArrayList<CatalogueEntry>(Math.max(0, Math.min(limit, 1024)));
+        if(limit > 0) {
+        	for(CatalogueEntry ce: catalogueEntries.tailMap(fromLotNumber, true).values()) {
+        		page.add(ce);
+        		if(page.size() == limit) {
+        			break;
+        		}
+        	}
+        }
+        
+        log.info("Exiting.");
+        return page;
+    }
+
+    /**
+     * Keyword search over lot descriptions.
+     * @param query: words, all of which must appear, split as descriptions are; a word followed by '*' matches a prefix
+     * @param status: only return lots in this status, or null for any status
+     * @param limit: maximum number of results
+     * @return the numbers of the matching lots, in lot order.
+     */
+    public List<Integer> searchCatalogue(String query, LotStatus status, int limit) {
+        if(log.isFineEnabled()) {
+        	log.fine(startBanner("searchCatalogue " + query + " " + status));
+        }
+        
+        log.info("Entering...");
+        List<Integer> lotNumbers = searchIndex.search(query, status, limit);
+        
+        log.info("Exiting.");
+        return lotNumbers;
+    }
+
     /**
      * Sends a signal to the Lot to add new interested buyer.
      * @return Status: 'Error' if the Lot or Buyer doesn't exist, or 'OK' if the buyer has been added successfully.
@@ -229,31 +437,40 @@ public class AuctionHouseImp implements AuctionHouse {
     public Status noteInterest(
             String buyerName,
             int lotNumber) {
-        logger.fine(startBanner("noteInterest " + buyerName + " " + lotNumber));
+        if(log.isFineEnabled()) {
+        	log.fine(startBanner("noteInterest " + buyerName + " " + lotNumber));
+        }
         
-        logger.info("Entering...");
+        log.info("Entering...");
         if(!checkStringValid(buyerName)) {
-        	logger.warning("Buyer name in noteInterest cannot be null or empty");
-        	logger.warning("Noting interest failed. Exiting." + LS);
-        	return Status.error("Buyer name in noteInterest cannot be null or empty");
+        	log.warning("Buyer name in noteInterest cannot be null or empty");
+        	log.warning("Noting interest failed. Exiting.");
+        	return INTEREST_BUYER_INVALID;
         }
         
         // Check Buyer with buyerName registered in the system.
-        if(buyers.get(buyerName) == null) {
-        	logger.warning("Buyer with name " + buyerName + " not registered");
-        	logger.warning("Noting interest failed. Exiting." + LS);       	
-        	return Status.error("Buyer with name " + buyerName + " not registered");
+        Buyer buyer = buyers.get(buyerName);
+        if(buyer == null) {
+        	log.warning("Buyer with name {} not registered", buyerName);
+        	log.warning("Noting interest failed. Exiting.");
+        	return Status.error(Status.Code.NOT_REGISTERED, "Buyer with name {} not registered", buyerName);
         }
         
         Lot lot = lots.get(lotNumber);
         if(lot == null) {
-        	logger.warning("Noting interest failed. Exiting." + LS);
-        	logger.warning("Noting interest failed. Exiting." + LS);
-        	return Status.error("Lot with number " + lotNumber + " does not exist");
+        	log.warning("Noting interest failed. Exiting.");
+        	log.warning("Noting interest failed. Exiting.");
+        	return Status.error(Status.Code.NO_SUCH_LOT, "Lot with number {} does not exist", lotNumber);
         }
                     
-        logger.info("Interest noted successfully.Exiting");
-        return lot.addInterestedBuyer(buyerName);   
+        log.info("Interest noted successfully.Exiting");
+        synchronized(lockFor(lotNumber)) {
+        	Status status = lot.addInterestedBuyer(buyer);
+        	if(status.kind == Status.Kind.OK) {
+        		journal(JournalRecord.noteInterest(buyerName, lotNumber));
+        	}
+        	return status;
+        }
     }
 
     /**
@@ -268,55 +485,55 @@ public class AuctionHouseImp implements AuctionHouse {
             String auctioneerName,
             String auctioneerAddress,
             int lotNumber) {
-        logger.fine(startBanner("openAuction " + auctioneerName + " " + lotNumber));
+        if(log.isFineEnabled()) {
+        	log.fine(startBanner("openAuction " + auctioneerName + " " + lotNumber));
+        }
         
-        logger.info("Entering...");
+        log.info("Entering...");
         if(!checkStringValid(auctioneerName)) {
-        	logger.warning("Auctioneer name in openAuction cannot be null or empty");
-        	logger.warning("Opening action failed. Exiting." + LS);
-        	return Status.error("Auctioneer name in openAuction cannot be null or empty");
+        	log.warning("Auctioneer name in openAuction cannot be null or empty");
+        	log.warning("Opening action failed. Exiting.");
+        	return OPEN_AUCTIONEER_INVALID;
         }
         
         if(!checkStringValid(auctioneerAddress)) {
-        	logger.warning("Auctioneer address in openAuction cannot be null or empty");
-        	logger.warning("Opening action failed. Exiting." + LS);
-        	return Status.error("Auctioneer address in openAuction cannot be null or empty");
+        	log.warning("Auctioneer address in openAuction cannot be null or empty");
+        	log.warning("Opening action failed. Exiting.");
+        	return OPEN_ADDRESS_INVALID;
         }
         
         Lot lot = lots.get(lotNumber);
         if(lot == null) {
-        	logger.warning("Lot with number " + lotNumber + " does not exist");
-        	logger.warning("Opening action failed. Exiting." + LS);
-        	return Status.error("Lot with number " + lotNumber + " does not exist");
+        	log.warning("Lot with number {} does not exist", lotNumber);
+        	log.warning("Opening action failed. Exiting.");
+        	return Status.error(Status.Code.NO_SUCH_LOT, "Lot with number {} does not exist", lotNumber);
         }
         
         // Create the auctioneer object if it does not exists already
-        Auctioneer auctioneer;
-        if(auctioneers.get(auctioneerName) != null) {
-        	auctioneer = auctioneers.get(auctioneerName);
-        	logger.info("New auctioneer registered successfully.");
-        } else {
-        	auctioneer = new Auctioneer(auctioneerName, auctioneerAddress);
-        	auctioneers.put(auctioneerName, auctioneer);
+        if(auctioneers.putIfAbsent(auctioneerName, new Auctioneer(auctioneerName, auctioneerAddress)) == null) {
+        	log.info("New auctioneer registered successfully.");
         }
         
-        Status status = lot.openLot(auctioneerName);
-        // Status OK if lot in UNOPENED state
-        if(status.kind == Status.Kind.OK) {
-        	
-        	// Messege seller and interested buyers.
-        	logger.info("Messaging seller...");
-        	Seller seller = sellers.get(lot.getSellerName());
-        	messagingService.auctionOpened(seller.getMessagingAddress(), lotNumber);
+        synchronized(lockFor(lotNumber)) {
+        	// Journalled before bids can see the lot open, so it always precedes them.
+        	if(lot.getLotStatus() == LotStatus.UNSOLD) {
+        		journal(JournalRecord.openAuction(auctioneerName, auctioneerAddress, lotNumber));
+        	}
+        	Status status = lot.openLot(auctioneerName);
+        	// Status OK if lot in UNOPENED state
+        	if(status.kind == Status.Kind.OK) {
+        		
+        		// Messege seller and interested buyers.
+        		log.info("Messaging seller and interested buyers...");
+        		Seller seller = sellers.get(lot.getSellerName());
+        		sendMessageToBuyers(lot.getInterestedBuyers(), -1, MessageFlag.AUCTION_OPENED, lotNumber, null,
+        				seller.getMessagingAddress(), null);
+        		log.info("Auction opened successfully.");
+        	}
         	
-        	logger.info("Messaging interested buyers...");
-        	List<String> interestedBuyers = lot.getInterestedBuyers();
-        	sendMessageToBuyers(interestedBuyers, MessageFlag.AUCTION_OPENED, lotNumber, null);
-        	logger.info("Auction opened successfully.");
+        	log.info("Exiting.");
+        	return status;
         }
-    	        
-        logger.info("Exiting." + LS);
-        return status;
     }
 
     /**
@@ -329,70 +546,61 @@ public class AuctionHouseImp implements AuctionHouse {
             String buyerName,
             int lotNumber,
             Money bid) {
-        logger.fine(startBanner("makeBid " + buyerName + " " + lotNumber + " " + bid));
+        if(log.isFineEnabled()) {
+        	log.fine(startBanner("makeBid " + buyerName + " " + lotNumber + " " + bid));
+        }
 
-        logger.info("Entering...");
+        log.info("Entering...");
         if(!checkStringValid(buyerName)) {
-        	logger.warning("Buyer name in makeBid cannot be null or empty.");
-        	logger.warning("Make bid failed. Exiting");
-        	return Status.error("Buyer name in makeBid cannot be null or empty.");
+        	log.warning("Buyer name in makeBid cannot be null or empty.");
+        	log.warning("Make bid failed. Exiting");
+        	return BID_BUYER_INVALID;
         }
         
-        if(buyers.get(buyerName) == null) {
-        	logger.warning("Buyer with name " + buyerName + " not registered with the System");
-           	logger.warning("Make bid failed. Exiting");
-        	return Status.error("Buyer with name " + buyerName + " not registered with the System");
+        Buyer bidder = buyers.get(buyerName);
+        if(bidder == null) {
+        	log.warning("Buyer with name {} not registered with the System", buyerName);
+           	log.warning("Make bid failed. Exiting");
+        	return Status.error(Status.Code.NOT_REGISTERED, "Buyer with name {} not registered with the System", buyerName);
         }
         
         Lot lotToBid = lots.get(lotNumber);
         if(lotToBid == null) {
-        	logger.warning("Lot with number " + lotNumber + " does not exists in the System");
-           	logger.warning("Make bid failed. Exiting");
-        	return Status.error("Lot with number " + lotNumber + " does not exists in the System");
+        	log.warning("Lot with number {} does not exists in the System", lotNumber);
+           	log.warning("Make bid failed. Exiting");
+        	return Status.error(Status.Code.NO_SUCH_LOT, "Lot with number {} does not exists in the System", lotNumber);
         }
         
-        if(bid == null || bid.lessEqual(new Money("0"))) {
-        	logger.warning("Bid value cannot be negative in makeBid");
-           	logger.warning("Make bid failed. Exiting");
-        	return Status.error("Bid value cannot be negative in makeBid");
+        if(bid == null || bid.getPence() <= 0) {
+        	log.warning("Bid value cannot be negative in makeBid");
+           	log.warning("Make bid failed. Exiting");
+        	return BID_AMOUNT_INVALID;
         }
         
         if (lotToBid.getLotStatus() != LotStatus.IN_AUCTION) {
-        	logger.warning("Bid cannot be made when the lot is not in auction");
-           	logger.warning("Make bid failed. Exiting");
-        	return Status.error("Bid cannot be made when the lot is not in auction");
+        	log.warning("Bid cannot be made when the lot is not in auction");
+           	log.warning("Make bid failed. Exiting");
+        	return BID_NOT_IN_AUCTION;
         }
         
-       if (bid.subtract(lotToBid.getHighestBidAmount()).compareTo(parameters.increment) < 0) {
-    	   logger.warning("Bid difference cannot be less than the increment bid");
-    	   logger.warning("Make bid failed. Exiting");
-    	   return Status.error("Bid difference cannot be less than the increment bid");
-       }
-        
-        Status status = lotToBid.makeBid(buyerName, bid);
+        // Lock-free: the lot enforces the increment against its latest highest bid.
+        Status status = lotToBid.makeBid(bidder, bid, parameters.increment);
         
         // Message auctioneer, interested buyers, seller
         if(status.kind == Status.Kind.OK) {
+        	journal(JournalRecord.bid(buyerName, lotNumber, bid.getPence()));
         	
-        	logger.info("Messaging auctioneer...");
+        	log.info("Messaging auctioneer, interested buyers and seller...");
         	Auctioneer auctioneer = auctioneers.get(lotToBid.getAssignedAuctioneerName());
-        	messagingService.bidAccepted(auctioneer.getMessagingAddress(), lotNumber, bid);
-        	
-        	logger.info("Messaging interested buyers...");
-        	List<String> interestedBuyers = lotToBid.getInterestedBuyers();
-        	// Do not message current bidder.
-        	List<String> buyersToMessage = new ArrayList<String>(interestedBuyers);
-        	buyersToMessage.remove(buyerName);
-        	sendMessageToBuyers(buyersToMessage, MessageFlag.BID_ACCEPTED, lotNumber, bid);      	    
-        	
-        	logger.info("Messaging seller...");
         	Seller seller = sellers.get(lotToBid.getSellerName());
-        	messagingService.bidAccepted(seller.getMessagingAddress(), lotNumber, bid);
+        	// Do not message current bidder.
+        	sendMessageToBuyers(lotToBid.getInterestedBuyers(), bidder.getId(), MessageFlag.BID_ACCEPTED, lotNumber, bid,
+        			auctioneer.getMessagingAddress(), seller.getMessagingAddress());
         	
-        	logger.info("Bid made successfully");        	
+        	log.info("Bid made successfully");
         }
         
-        logger.info("Exiting." + LS);
+        log.info("Exiting.");
         return status;    
     }
 
@@ -406,86 +614,695 @@ public class AuctionHouseImp implements AuctionHouse {
     public Status closeAuction(
             String auctioneerName,
             int lotNumber) {
-        logger.fine(startBanner("closeAuction " + auctioneerName + " " + lotNumber));
+        if(log.isFineEnabled()) {
+        	log.fine(startBanner("closeAuction " + auctioneerName + " " + lotNumber));
+        }
  
-        logger.info("Entering...");
+        log.info("Entering...");
         if(!checkStringValid(auctioneerName)) {
-        	logger.warning("Auctioneer name in closeAuction cannot be null or empty");
-        	logger.warning("Close auction failed. Exiting." + LS);
-        	return Status.error("Auctioneer name in closeAuction cannot be null or empty");
+        	log.warning("Auctioneer name in closeAuction cannot be null or empty");
+        	log.warning("Close auction failed. Exiting.");
+        	return CLOSE_AUCTIONEER_INVALID;
         }
         
         Lot lot = lots.get(lotNumber);
         
         if(lot == null) {
-        	logger.warning("Lot with number " + lotNumber + " does not exist");
-        	logger.warning("Close auction failed. Exiting." + LS);
-        	return Status.error("Lot with number " + lotNumber + " does not exist");
+        	log.warning("Lot with number {} does not exist", lotNumber);
+        	log.warning("Close auction failed. Exiting.");
+        	return Status.error(Status.Code.NO_SUCH_LOT, "Lot with number {} does not exist", lotNumber);
         }
         
-        if (lot.getLotStatus() != LotStatus.IN_AUCTION) {
-        	logger.warning("Lot with number " + lotNumber + " was not in open auction");
-        	logger.warning("Close auction failed. Exiting." + LS);
-        	return Status.error("Lot with number " + lotNumber + " was not in open auction");
-        }
+        Lot.HighBid winningBid;
+        Buyer highestBidder;
+        Seller seller;
+        synchronized(lockFor(lotNumber)) {
+            if (lot.getLotStatus() != LotStatus.IN_AUCTION) {
+            	log.warning("Lot with number {} was not in open auction", lotNumber);
+            	log.warning("Close auction failed. Exiting.");
+            	return Status.error(Status.Code.NOT_IN_AUCTION, "Lot with number {} was not in open auction", lotNumber);
+            }
         
-        if(!lot.getAssignedAuctioneerName().equals(auctioneerName)) {
-        	logger.warning("Lot auction must be closed by auctioneer that opened it!");
-        	logger.warning("Close auction failed. Exiting." + LS);
-        	return Status.error("Lot auction must be closed by auctioneer that opened it!");
-        }   
+            if(!lot.getAssignedAuctioneerName().equals(auctioneerName)) {
+            	log.warning("Lot auction must be closed by auctioneer that opened it!");
+            	log.warning("Close auction failed. Exiting.");
+            	return CLOSE_WRONG_AUCTIONEER;
+            }   
 
-        Buyer highestBidder = buyers.get(lot.getHighestBidderName());
-		Seller seller = sellers.get(lot.getSellerName());
-		Money hammerPrice = lot.getHighestBidAmount();
+            // From here on bids fail, so the hammer price cannot move under us.
+            winningBid = lot.closeBidding();
+            highestBidder = winningBid.bidderId < 0 ? null : buyerById(winningBid.bidderId);
+			seller = sellers.get(lot.getSellerName());
 
-		// reservePrice not reached, lot not sold
-        if (!lot.getReservePrice().lessEqual(hammerPrice)) {       	
-        	lot.closeLot(LotStatus.UNSOLD);
+			// reservePrice not reached, lot not sold
+            if (Money.compare(lot.getReservePrice().getPence(), winningBid.amountPence) > 0) {       	
+            	closeLot(lot, auctioneerName, winningBid, LotStatus.UNSOLD);
         	
-			logger.info("Lot " + lotNumber + " was not sold. Hammer price less than reserve price");
-			logger.info("Messaging buyers and seller...");
+				if(log.isInfoEnabled()) {
+					log.info("Lot {} was not sold. Hammer price less than reserve price", lotNumber);
+				}
+				log.info("Messaging buyers and seller...");
 			
-			sendMessageToBuyers(lot.getInterestedBuyers(), MessageFlag.LOT_UNSOLD, lotNumber, null);
-			messagingService.lotUnsold(seller.getMessagingAddress(), lotNumber);
+				sendMessageToBuyers(lot.getInterestedBuyers(), -1, MessageFlag.LOT_UNSOLD, lotNumber, null,
+						seller.getMessagingAddress(), null);
 			
-			logger.info("Auction closed. Exiting." + LS);
-			return new Status(Status.Kind.NO_SALE, "Lot " + lotNumber + " was not sold. Hammer price less than reserve price");
-        }	
+				log.info("Auction closed. Exiting.");
+				return Status.of(Status.Kind.NO_SALE, Status.Code.RESERVE_NOT_MET, "Lot {} was not sold. Hammer price less than reserve price", lotNumber);
+            }	
         
-		Money moneyToCollectFromBuyer = hammerPrice.addPercent(parameters.buyerPremium);
+			// In a settlement session, payment is netted with the session's other sales at its end.
+			SettlementSession session = settlementSession;
+			if(session != null && lot.beginSettlement()) {
+				if(session.addSale(lot, highestBidder, Money.addBasisPoints(winningBid.amountPence, buyerPremiumBasisPoints),
+						seller, Money.subtract(winningBid.amountPence, commissionPence))) {
+					closeLot(lot, auctioneerName, winningBid, LotStatus.SOLD_PENDING_PAYMENT);
+					log.info("Auction closed, payment deferred to end of settlement session. Exiting.");
+					return Status.of(Status.Kind.SALE_PENDING_PAYMENT, Status.Code.PAYMENT_DEFERRED, "Lot {} sold, payment deferred to end of settlement session", lotNumber);
+				}
+				// The session ended under us; settle as if there had been none.
+				lot.endSettlement();
+			}
 
-		// Check Buyer -> AuctionHouse transfer was successful before doing AuctionHouse -> seller transfer
-		Status buyerTransferStatus = bankingService.transfer(highestBidder.getBuyerAccount(), highestBidder.getBuyerAuthorisation(), parameters.houseBankAccount, moneyToCollectFromBuyer);
-		if(buyerTransferStatus.kind == Status.Kind.OK) {		
-			
-			Money moneyToPaySeller = hammerPrice.subtract(new Money(Double.toString(parameters.commission)));
-			Status sellerTransferStatus = bankingService.transfer(parameters.houseBankAccount, parameters.houseBankAuthCode, seller.getSellerAccount(), moneyToPaySeller);
-			// Successful transfers, lot sold.
-			if(sellerTransferStatus.kind == Status.Kind.OK) {
-				lot.closeLot(LotStatus.SOLD);
-				
-				logger.info("Successful sale for lot " + lotNumber);
-				logger.info("Messaging buyers and sellers...");
-				
-				sendMessageToBuyers(lot.getInterestedBuyers(), MessageFlag.LOT_SOLD, lotNumber, new Money("0"));
-				messagingService.lotSold(seller.getMessagingAddress(), lotNumber);
-				
-				logger.info("Auction closed. Exiting." + LS);
-				return new Status(Status.Kind.SALE, "Successful sale for lot " + lotNumber);
-			} 			
-			logger.warning( "Bank transfer from Auction house to Seller failed for lot " + lotNumber);
-		} else {
-			logger.warning( "Bank transfer from Buyer to Auction House failed for lot " + lotNumber);
-		}		
-		
-		// One of the transfers failed.
-		lot.closeLot(LotStatus.SOLD_PENDING_PAYMENT);
-		
-		logger.info("Auction closed. Exiting." + LS);
-		return new Status(Status.Kind.SALE_PENDING_PAYMENT, "One of the bank transfers failed for lot " + lotNumber);			        
+			// With a settlement pipeline, the hammer decision is final and payment follows later.
+			// Once the pipeline is shut down, sales are paid for here again.
+			SettlementPipeline pipeline = settlementPipeline;
+			if(pipeline != null && pipeline.isShutdown()) {
+				pipeline = null;
+			}
+			if(pipeline != null || paymentsLeftToCaller) {
+				closeLot(lot, auctioneerName, winningBid, LotStatus.SOLD_PENDING_PAYMENT);
+				if(pipeline != null) {
+					pipeline.submit(lotNumber);
+				}
+				log.info("Auction closed, payment queued for settlement. Exiting.");
+				return Status.of(Status.Kind.SALE_PENDING_PAYMENT, Status.Code.PAYMENT_QUEUED, "Lot {} sold, payment queued for settlement", lotNumber);
+			}
+
+			// Journal the hammer decision before any money moves, so a crash during payment
+			// leaves the lot to be settled rather than auctioned, and charged, again.
+			lot.beginSettlement();
+			closeLot(lot, auctioneerName, winningBid, LotStatus.SOLD_PENDING_PAYMENT);
+        }
+
+        // Paid outside the lot's lock, so other lots on its stripe do not wait on the bank;
+        // the lot is marked settling, so no retry pays for it meanwhile.
+        Status paymentStatus;
+        try {
+        	paymentStatus = payAndRecord(lot, winningBid, highestBidder, seller);
+        } finally {
+        	lot.endSettlement();
+        }
+        if(paymentStatus.kind == Status.Kind.OK) {
+        	log.info("Auction closed. Exiting.");
+        	return Status.of(Status.Kind.SALE, Status.Code.NONE, "Successful sale for lot {}", lotNumber);
+        }
+
+        // One of the transfers failed; the lot stays SOLD_PENDING_PAYMENT.
+        log.info("Auction closed. Exiting.");
+        return Status.of(Status.Kind.SALE_PENDING_PAYMENT, Status.Code.TRANSFER_FAILED, "One of the bank transfers failed for lot {}", lotNumber);
+    }
+
+    /**
+     * Makes a batch of bids in one pass, lot by lot. Each buyer and lot is looked up once per
+     * batch, and each lot's accepted bids are journalled in one append, then messaged in the
+     * order they were accepted, as if made one at a time.
+     * @return one Status per bid, in the order given
+     */
+    @Override
+    public List<Status> makeBids(List<BidCommand> bids) {
+    	if(log.isInfoEnabled()) {
+    		log.info("Entering makeBids with {} bids", bids.size());
+    	}
+    	Status[] results = new Status[bids.size()];
+    	Map<String, Buyer> buyerCache = new HashMap<String, Buyer>();
+    	for(Map.Entry<Integer, List<Integer>> group: groupByLot(bids, bid -> bid.lotNumber).entrySet()) {
+    		int lotNumber = group.getKey();
+    		Lot lot = lots.get(lotNumber);
+    		List<Integer> accepted = new ArrayList<Integer>();
+    		List<Buyer> bidders = new ArrayList<Buyer>();
+    		for(int i: group.getValue()) {
+    			BidCommand bid = bids.get(i);
+    			if(!checkStringValid(bid.buyerName)) {
+    				results[i] = BID_BUYER_INVALID;
+    				continue;
+    			}
+    			Buyer bidder = lookUpBuyer(buyerCache, bid.buyerName);
+    			if(bidder == null) {
+    				results[i] = Status.error(Status.Code.NOT_REGISTERED, "Buyer with name {} not registered with the System", bid.buyerName);
+    			} else if(lot == null) {
+    				results[i] = Status.error(Status.Code.NO_SUCH_LOT, "Lot with number {} does not exists in the System", lotNumber);
+    			} else if(bid.amount == null || bid.amount.getPence() <= 0) {
+    				results[i] = BID_AMOUNT_INVALID;
+    			} else if(lot.getLotStatus() != LotStatus.IN_AUCTION) {
+    				results[i] = BID_NOT_IN_AUCTION;
+    			} else {
+    				results[i] = lot.makeBid(bidder, bid.amount, parameters.increment);
+    				if(results[i].kind == Status.Kind.OK) {
+    					accepted.add(i);
+    					bidders.add(bidder);
+    				}
+    			}
+    		}
+    		if(!accepted.isEmpty()) {
+    			List<byte[]> records = new ArrayList<byte[]>(accepted.size());
+    			for(int i: accepted) {
+    				BidCommand bid = bids.get(i);
+    				records.add(JournalRecord.bid(bid.buyerName, lotNumber, bid.amount.getPence()).encode());
+    			}
+    			journalAll(records);
+    			Auctioneer auctioneer = auctioneers.get(lot.getAssignedAuctioneerName());
+    			Seller seller = sellers.get(lot.getSellerName());
+    			for(int k = 0; k < accepted.size(); k++) {
+    				Money amount = bids.get(accepted.get(k)).amount;
+    				sendMessageToBuyers(lot.getInterestedBuyers(), bidders.get(k).getId(), MessageFlag.BID_ACCEPTED, lotNumber, amount,
+    						auctioneer.getMessagingAddress(), seller.getMessagingAddress());
+    			}
+    		}
+    	}
+    	log.info("Exiting makeBids.");
+    	return Arrays.asList(results);
+    }
+
+    /**
+     * Notes a batch of interests in one pass, taking each lot's lock once and journalling
+     * each lot's new interests together.
+     * @return one Status per note of interest, in the order given
+     */
+    @Override
+    public List<Status> noteInterests(List<InterestCommand> interests) {
+    	if(log.isInfoEnabled()) {
+    		log.info("Entering noteInterests with {} interests", interests.size());
+    	}
+    	Status[] results = new Status[interests.size()];
+    	Map<String, Buyer> buyerCache = new HashMap<String, Buyer>();
+    	for(Map.Entry<Integer, List<Integer>> group: groupByLot(interests, interest -> interest.lotNumber).entrySet()) {
+    		int lotNumber = group.getKey();
+    		Lot lot = lots.get(lotNumber);
+    		List<byte[]> records = new ArrayList<byte[]>();
+    		synchronized(lockFor(lotNumber)) {
+    			for(int i: group.getValue()) {
+    				InterestCommand interest = interests.get(i);
+    				if(!checkStringValid(interest.buyerName)) {
+    					results[i] = INTEREST_BUYER_INVALID;
+    					continue;
+    				}
+    				Buyer buyer = lookUpBuyer(buyerCache, interest.buyerName);
+    				if(buyer == null) {
+    					results[i] = Status.error(Status.Code.NOT_REGISTERED, "Buyer with name {} not registered", interest.buyerName);
+    				} else if(lot == null) {
+    					results[i] = Status.error(Status.Code.NO_SUCH_LOT, "Lot with number {} does not exist", lotNumber);
+    				} else {
+    					results[i] = lot.addInterestedBuyer(buyer);
+    					if(results[i].kind == Status.Kind.OK) {
+    						records.add(JournalRecord.noteInterest(interest.buyerName, lotNumber).encode());
+    					}
+    				}
+    			}
+    			journalAll(records);
+    		}
+    	}
+    	log.info("Exiting noteInterests.");
+    	return Arrays.asList(results);
+    }
+
+    /**
+     * Adds a batch of lots in one pass, looking each seller up once.
+     * @return one Status per lot, in the order given
+     */
+    @Override
+    public List<Status> addLots(List<AddLotCommand> newLots) {
+    	if(log.isInfoEnabled()) {
+    		log.info("Entering addLots with {} lots", newLots.size());
+    	}
+    	List<Status> results = new ArrayList<Status>(newLots.size());
+    	Map<String, Boolean> sellerExists = new HashMap<String, Boolean>();
+    	for(AddLotCommand command: newLots) {
+    		if(!checkStringValid(command.sellerName)) {
+    			results.add(LOT_SELLER_INVALID);
+    			continue;
+    		}
+    		Boolean exists = sellerExists.get(command.sellerName);
+    		if(exists == null) {
+    			exists = sellers.containsKey(command.sellerName);
+    			sellerExists.put(command.sellerName, exists);
+    		}
+    		if(!exists) {
+    			results.add(Status.error(Status.Code.NOT_REGISTERED, "Seller with {} does not exist in the System", command.sellerName));
+    		} else if(lots.containsKey(command.number)) {
+    			results.add(Status.error(Status.Code.LOT_EXISTS, "Lot with number {} already exists", command.number));
+    		} else if(!checkStringValid(command.description)) {
+    			results.add(LOT_DESCRIPTION_INVALID);
+    		} else if(command.reservePrice == null || command.reservePrice.getPence() <= 0) {
+    			results.add(LOT_RESERVE_INVALID);
+    		} else {
+    			results.add(putLot(command.sellerName, command.number, command.description, command.reservePrice));
+    		}
+    	}
+    	log.info("Exiting addLots.");
+    	return results;
+    }
+
+    /**
+     * Settles sold lots through a background pipeline from now on: closeAuction returns
+     * SALE_PENDING_PAYMENT as soon as the lot is sold, and the pipeline moves the lot to SOLD,
+     * and messages its buyers and seller, once payment goes through.
+     * Lots already SOLD_PENDING_PAYMENT are queued as well.
+     * @param workerCount: maximum number of settlements in progress at once
+     * @param maxAttempts: attempts per lot before it is left SOLD_PENDING_PAYMENT
+     * @param initialBackoffMillis: wait before the first retry; doubled on every further retry
+     * @param maxBackoffMillis: longest wait between retries
+     * @return the pipeline, for monitoring and shutdown
+     */
+    public synchronized SettlementPipeline startSettlementPipeline(int workerCount, int maxAttempts,
+    		long initialBackoffMillis, long maxBackoffMillis) {
+    	if(settlementPipeline != null) {
+    		throw new IllegalStateException("Settlement pipeline already started");
+    	}
+    	settlementPipeline = new SettlementPipeline(this::settle, workerCount, maxAttempts,
+    			initialBackoffMillis, maxBackoffMillis);
+    	retryPendingPayments();
+    	return settlementPipeline;
+    }
+
+    // From now on closeAuction leaves a sale's payment to the caller, who settles the lot with settle.
+    void leavePaymentsToCaller() {
+    	paymentsLeftToCaller = true;
+    }
+
+    // Puts a wrapper in front of the messaging service; call before the house is shared.
+    void wrapMessagingService(UnaryOperator<MessagingService> wrapper) {
+    	messagingService = wrapper.apply(messagingService);
+    }
+
+    boolean hasSettlementPipeline() {
+    	return settlementPipeline != null;
+    }
+
+    /**
+     * Detaches the settlement pipeline, so closeAuction pays synchronously again, then shuts it
+     * down. Lots it had not settled stay SOLD_PENDING_PAYMENT for retryPendingPayments.
+     */
+    public void stopSettlementPipeline() throws InterruptedException {
+    	SettlementPipeline pipeline;
+    	synchronized(this) {
+    		pipeline = settlementPipeline;
+    		settlementPipeline = null;
+    	}
+    	if(pipeline != null) {
+    		pipeline.shutdown();
+    	}
+    }
+
+    /**
+     * Starts a settlement session. Until it ends, closeAuction returns SALE_PENDING_PAYMENT
+     * for every sale and leaves payment to endSettlementSession.
+     */
+    public synchronized void beginSettlementSession() {
+    	if(settlementSession != null) {
+    		throw new IllegalStateException("Settlement session already open");
+    	}
+    	settlementSession = new SettlementSession(parameters.houseBankAccount, parameters.houseBankAuthCode);
+    }
+
+    /**
+     * Ends the settlement session and pays for its sales: the amounts owed are netted per
+     * account and paid with one transfer per account, in a single batch call to the bank.
+     * Lots whose accounts were all paid become SOLD and their buyers and seller are told;
+     * the rest stay SOLD_PENDING_PAYMENT for retryPendingPayments, which only makes the
+     * transfers that are still outstanding.
+     * @return OK if every transfer went through, ERROR otherwise
+     */
+    public Status endSettlementSession() {
+    	// Detach the session under the lock and pay outside it: its lots stay settling until the
+    	// end, and a closed session takes no new sales.
+    	SettlementSession session;
+    	synchronized(this) {
+    		session = settlementSession;
+    		if(session == null) {
+    			return NO_SESSION;
+    		}
+    		settlementSession = null;
+    		session.close();
+    	}
+
+    	List<SettlementSession.Sale> sales = session.sales();
+    	List<Transfer> transfers = session.nettedTransfers();
+    	int settled = 0;
+    	try {
+    		List<Status> results = null;
+    		if(!transfers.isEmpty()) {
+    			try {
+    				results = bankingService.transfer(transfers);
+    			} catch (RuntimeException e) {
+    				// Treated as every transfer failing; retryPendingPayments makes them again.
+    				log.warning(e, "Settlement batch of {} transfers failed", transfers.size());
+    			}
+    		}
+    		Set<String> failedAccounts = new HashSet<String>();
+    		for(int i = 0; i < transfers.size(); i++) {
+    			// A missing result, e.g. from a short list, counts as a failure.
+    			Status result = results != null && i < results.size() ? results.get(i) : null;
+    			if(result == null || result.kind != Status.Kind.OK) {
+    				Transfer failed = transfers.get(i);
+    				log.warning("Settlement transfer {} failed: {}", failed, result == null ? "no result" : result.getMessage());
+    				failedAccounts.add(failed.senderAccount.equals(parameters.houseBankAccount) ? failed.receiverAccount : failed.senderAccount);
+    			}
+    		}
+
+    		for(SettlementSession.Sale sale: sales) {
+    			Lot lot = sale.lot;
+    			if(!failedAccounts.contains(sale.buyerAccount)) {
+    				lot.markBuyerCharged();
+    			}
+    			if(!failedAccounts.contains(sale.sellerAccount)) {
+    				lot.markSellerPaid();
+    			}
+    			if(lot.isBuyerCharged() && lot.isSellerPaid()) {
+    				recordSettlement(lot, LotStatus.SOLD);
+    				sendMessageToBuyers(lot.getInterestedBuyers(), -1, MessageFlag.LOT_SOLD, lot.getLotNumber(), Money.ZERO,
+    						sellers.get(lot.getSellerName()).getMessagingAddress(), null);
+    				settled++;
+    			} else {
+    				recordSettlement(lot, LotStatus.SOLD_PENDING_PAYMENT);
+    			}
+    		}
+    		log.info("Settlement session ended: {} of {} lots settled with {} transfers", settled, sales.size(), transfers.size());
+    		if(!failedAccounts.isEmpty()) {
+    			return Status.error(Status.Code.TRANSFER_FAILED, "{} lots left pending payment; failed accounts {}", sales.size() - settled, failedAccounts);
+    		}
+    		return Status.OK();
+    	} finally {
+    		// Whatever happened above, hand every lot back to retryPendingPayments.
+    		for(SettlementSession.Sale sale: sales) {
+    			sale.lot.endSettlement();
+    		}
+    	}
+    }
+
+    /**
+     * Retries payment for every lot that is SOLD_PENDING_PAYMENT: queued on the settlement
+     * pipeline if one is running, otherwise settled here and now.
+     * @return the number of lots queued, or settled, by this call
+     */
+    public int retryPendingPayments() {
+    	int count = 0;
+    	SettlementPipeline pipeline = settlementPipeline;
+    	if(pipeline != null && pipeline.isShutdown()) {
+    		pipeline = null;
+    	}
+    	for(int lotNumber: lotIndex.lotsWithStatus(LotStatus.SOLD_PENDING_PAYMENT)) {
+    		if(lots.get(lotNumber).isSettling()) {
+    			// Owned by a settlement session or an attempt already running.
+    			continue;
+    		}
+    		if(pipeline != null) {
+    			if(pipeline.submit(lotNumber)) {
+    				count++;
+    			}
+    		} else if(settle(lotNumber).kind == Status.Kind.OK) {
+    			count++;
+    		}
+    	}
+    	return count;
+    }
+
+    // Collect payment for a SOLD_PENDING_PAYMENT lot and pay its seller; on success mark the lot
+    // SOLD and tell its buyers and seller. Safe to repeat: nobody is paid or charged twice.
+    Status settle(int lotNumber) {
+    	Lot lot = lots.get(lotNumber);
+    	if(lot == null || lot.getLotStatus() != LotStatus.SOLD_PENDING_PAYMENT) {
+    		// Nothing owed, e.g. settled by an earlier attempt.
+    		return Status.OK();
+    	}
+    	if(!lot.beginSettlement()) {
+    		return Status.error(Status.Code.SETTLEMENT_IN_PROGRESS, "Settlement of lot {} already in progress", lotNumber);
+    	}
+    	try {
+    		Lot.HighBid winningBid = lot.getHighBid();
+    		return payAndRecord(lot, winningBid, buyerById(winningBid.bidderId), sellers.get(lot.getSellerName()));
+    	} finally {
+    		lot.endSettlement();
+    	}
+    }
+
+    // Pay for a SOLD_PENDING_PAYMENT lot whose settlement the caller has begun; on success mark
+    // it SOLD and tell its buyers and seller.
+    private Status payAndRecord(Lot lot, Lot.HighBid winningBid, Buyer buyer, Seller seller) {
+    	Status paymentStatus = transferPayments(lot, winningBid, buyer, seller);
+    	if(paymentStatus.kind != Status.Kind.OK) {
+    		return paymentStatus;
+    	}
+    	recordSettlement(lot, LotStatus.SOLD);
+    	if(log.isInfoEnabled()) {
+    		log.info("Payment settled for lot {}", lot.getLotNumber());
+    	}
+    	sendMessageToBuyers(lot.getInterestedBuyers(), -1, MessageFlag.LOT_SOLD, lot.getLotNumber(), Money.ZERO,
+    			seller.getMessagingAddress(), null);
+    	return Status.OK();
+    }
+
+    // Journal the outcome of closing a lot, then apply it.
+    private void closeLot(Lot lot, String auctioneerName, Lot.HighBid winningBid, LotStatus status) {
+    	journal(JournalRecord.closeAuction(auctioneerName, winningBid.bidderName, lot.getLotNumber(), winningBid.amountPence,
+    			status, lot.isBuyerCharged(), lot.isSellerPaid()));
+    	lot.closeLot(status);
+    }
+
+    // Journal a sold lot's payment progress, then apply its new status.
+    private void recordSettlement(Lot lot, LotStatus status) {
+    	synchronized(lockFor(lot.getLotNumber())) {
+    		journal(JournalRecord.settlement(lot.getLotNumber(), status, lot.isBuyerCharged(), lot.isSellerPaid()));
+    		if(lot.getLotStatus() != status) {
+    			lot.closeLot(status);
+    		}
+    	}
+    }
+
+    // Charge the buyer the hammer price plus premium, then pay the seller the hammer price less
+    // commission, skipping whichever an earlier attempt already did.
+    private Status transferPayments(Lot lot, Lot.HighBid winningBid, Buyer buyer, Seller seller) {
+    	int lotNumber = lot.getLotNumber();
+    	if(!lot.isBuyerCharged()) {
+    		Money moneyToCollectFromBuyer = Money.ofPence(Money.addBasisPoints(winningBid.amountPence, buyerPremiumBasisPoints));
+    		Status buyerTransferStatus = bankingService.transfer(buyer.getBuyerAccount(), buyer.getBuyerAuthorisation(), parameters.houseBankAccount, moneyToCollectFromBuyer);
+    		if(buyerTransferStatus.kind != Status.Kind.OK) {
+    			log.warning("Bank transfer from Buyer to Auction House failed for lot {}", lotNumber);
+    			return buyerTransferStatus;
+    		}
+    		lot.markBuyerCharged();
+    		// Journalled before the seller is paid, so a restart never charges the buyer again.
+    		recordSettlement(lot, LotStatus.SOLD_PENDING_PAYMENT);
+    	}
+    	if(!lot.isSellerPaid()) {
+    		Money moneyToPaySeller = Money.ofPence(Money.subtract(winningBid.amountPence, commissionPence));
+    		Status sellerTransferStatus = bankingService.transfer(parameters.houseBankAccount, parameters.houseBankAuthCode, seller.getSellerAccount(), moneyToPaySeller);
+    		if(sellerTransferStatus.kind != Status.Kind.OK) {
+    			log.warning("Bank transfer from Auction house to Seller failed for lot {}", lotNumber);
+    			return sellerTransferStatus;
+    		}
+    		lot.markSellerPaid();
+    	}
+    	return Status.OK();
+    }
+
+    /**
+     * @return the numbers of all lots currently in the given status, in lot order
+     */
+    public List<Integer> lotsWithStatus(LotStatus status) {
+    	return lotIndex.lotsWithStatus(status);
+    }
+
+    /**
+     * @return the numbers of all lots added by the seller, in lot order
+     */
+    public List<Integer> lotsOfSeller(String sellerName) {
+    	return lotIndex.lotsOfSeller(sellerName);
+    }
+
+    /**
+     * @return the numbers of all lots whose auction was opened by the auctioneer, in lot order
+     */
+    public List<Integer> lotsOpenedBy(String auctioneerName) {
+    	return lotIndex.lotsOpenedBy(auctioneerName);
     }
         		
+    /**
+     * Writes a snapshot of every buyer, seller, auctioneer and lot, including interest sets
+     * and highest bids. Calls are held up only while the journal position is read; the rest is
+     * written while they carry on.
+     * @return the journal position the snapshot was taken at
+     */
+    public long writeSnapshot(Path snapshotFile) throws IOException {
+    	long position;
+    	synchronized(registrationLock) {
+    		position = quietJournalPosition(0);
+    	}
+    	AuctionSnapshot.write(snapshotFile, position, nextBuyerId.get(), lots.values(), buyers.values(),
+    			sellers.values(), auctioneers.values());
+    	log.info("Snapshot written to {} at journal position {}", snapshotFile, position);
+    	return position;
+    }
+
+    /**
+     * Writes a snapshot, then deletes the journal segments it makes redundant. The segments
+     * are only deleted once the snapshot is on disk.
+     * @return the number of journal segments deleted
+     */
+    public int compact(Path snapshotFile) throws IOException {
+    	long position = writeSnapshot(snapshotFile);
+    	return journal == null ? 0 : journal.deleteSegmentsBefore(position);
+    }
+
+    // Read the journal position while holding every lot lock, so no change that is journalled
+    // before being applied is half done. Changes journalled after being applied are safe anyway.
+    private long quietJournalPosition(int stripe) {
+    	if(stripe == lotLocks.length) {
+    		return journal == null ? 0 : journal.position();
+    	}
+    	synchronized(lotLocks[stripe]) {
+    		return quietJournalPosition(stripe + 1);
+    	}
+    }
+
+    // Load a snapshot into this still-empty house. @return the journal position to replay from
+    private long restoreSnapshot(Path snapshotFile) throws IOException {
+    	final int[] maxBuyerId = { -1 };
+    	AuctionSnapshot.Header header = AuctionSnapshot.read(snapshotFile, lotIndex, new AuctionSnapshot.Target() {
+    		public void buyer(Buyer buyer) {
+    			addBuyerById(buyer);
+    			buyers.put(buyer.getName(), buyer);
+    			maxBuyerId[0] = Math.max(maxBuyerId[0], buyer.getId());
+    		}
+    		public void seller(Seller seller) {
+    			sellers.put(seller.getName(), seller);
+    		}
+    		public void auctioneer(Auctioneer auctioneer) {
+    			auctioneers.put(auctioneer.getName(), auctioneer);
+    		}
+    		public void lot(Lot lot) {
+    			int number = lot.getLotNumber();
+    			lots.put(number, lot);
+    			catalogueEntries.put(number, lot.getCatalogueEntry());
+    			searchIndex.addLot(number, lot.getCatalogueEntry().description);
+    		}
+    	});
+    	// Buyers registered while the snapshot was written may be in it with later ids.
+    	nextBuyerId.set(Math.max(header.nextBuyerId, maxBuyerId[0] + 1));
+    	log.info("Restored {} lots and {} buyers from {}", lots.size(), buyers.size(), snapshotFile);
+    	return header.journalPosition;
+    }
+
+    // Create new lot object and put it to map. A concurrent addLot may have won the number.
+    // Indexed under the lot's lock, so an openAuction cannot overtake the initial status.
+    private Status putLot(String sellerName, int number, String description, Money reservePrice) {
+    	Lot lot = new Lot(sellerName, number, description, reservePrice, lotIndex);
+    	synchronized(lockFor(number)) {
+    		if(lots.containsKey(number)) {
+    			log.warning("Lot with number {} already exists", number);
+    			return Status.error(Status.Code.LOT_EXISTS, "Lot with number {} already exists", number);
+    		}
+    		journal(JournalRecord.addLot(sellerName, number, description, reservePrice.getPence()));
+    		lots.put(number, lot);
+    		lotIndex.lotAdded(lot);
+    	}
+    	searchIndex.addLot(number, description);
+
+    	// Add the corresponding catalogue entry to the lot number index.
+    	catalogueEntries.put(number, lot.getCatalogueEntry());
+    	return Status.OK();
+    }
+
+    // Indexes of the commands for each lot, lots in order of first appearance.
+    private static <T> Map<Integer, List<Integer>> groupByLot(List<T> commands, ToIntFunction<T> lotNumber) {
+    	Map<Integer, List<Integer>> groups = new LinkedHashMap<Integer, List<Integer>>();
+    	for(int i = 0; i < commands.size(); i++) {
+    		Integer key = lotNumber.applyAsInt(commands.get(i));
+    		List<Integer> group = groups.get(key);
+    		if(group == null) {
+    			group = new ArrayList<Integer>();
+    			groups.put(key, group);
+    		}
+    		group.add(i);
+    	}
+    	return groups;
+    }
+
+    // Buyer by name, looking each name up once per batch. Unregistered names are cached as null.
+    private Buyer lookUpBuyer(Map<String, Buyer> cache, String name) {
+    	Buyer buyer = cache.get(name);
+    	if(buyer == null && !cache.containsKey(name)) {
+    		buyer = buyers.get(name);
+    		cache.put(name, buyer);
+    	}
+    	return buyer;
+    }
+
+    private void journalAll(List<byte[]> records) {
+    	if(journal != null && !replaying && !records.isEmpty()) {
+    		journal.append(records);
+    	}
+    }
+
+    // Append a state change to the journal, if there is one. Not while replaying it.
+    private void journal(JournalRecord record) {
+    	if(journal != null && !replaying) {
+    		journal.append(record.encode());
+    	}
+    }
+
+    // Replay one journal record. Calls that only validate and store go through the public
+    // methods; bids and payment outcomes are restored directly, so nothing is re-sent or re-paid.
+    private void apply(JournalRecord record) {
+    	Lot lot = lots.get(record.lotNumber);
+    	switch(record.type) {
+    	case REGISTER_BUYER:
+    		registerBuyer(record.string(0), record.string(1), record.string(2), record.string(3));
+    		break;
+    	case REGISTER_SELLER:
+    		registerSeller(record.string(0), record.string(1), record.string(2));
+    		break;
+    	case ADD_LOT:
+    		addLot(record.string(0), record.lotNumber, record.string(1), Money.ofPence(record.pence));
+    		break;
+    	case NOTE_INTEREST:
+    		noteInterest(record.string(0), record.lotNumber);
+    		break;
+    	case OPEN_AUCTION:
+    		openAuction(record.string(0), record.string(1), record.lotNumber);
+    		break;
+    	case BID:
+    		Buyer bidder = buyers.get(record.string(0));
+    		if(lot != null && bidder != null) {
+    			lot.restoreBid(bidder, Money.ofPence(record.pence));
+    		}
+    		break;
+    	case CLOSE_AUCTION:
+    		if(lot != null) {
+    			Buyer winner = buyers.get(record.string(1));
+    			lot.restoreClosedBid(winner == null ? -1 : winner.getId(), record.string(1), Money.ofPence(record.pence));
+    			restoreOutcome(lot, record);
+    		}
+    		break;
+    	case SETTLEMENT:
+    		if(lot != null) {
+    			restoreOutcome(lot, record);
+    		}
+    		break;
+    	}
+    }
+
+    private void restoreOutcome(Lot lot, JournalRecord record) {
+    	if(record.buyerCharged()) {
+    		lot.markBuyerCharged();
+    	}
+    	if(record.sellerPaid()) {
+    		lot.markSellerPaid();
+    	}
+    	if(lot.getLotStatus() != record.status()) {
+    		lot.closeLot(record.status());
+    	}
+    }
+
     // Check a string is not null or empty.
     private boolean checkStringValid(String string) {
     	
@@ -497,30 +1314,100 @@ public class AuctionHouseImp implements AuctionHouse {
     	return true;
     }
     
-    private void sendMessageToBuyers(List<String> buyerNames, MessageFlag flagType, int lotNumber, Money amount) {
+    // Send one multicast to every buyer in the set except excludedBuyerId (-1 to exclude nobody),
+    // plus up to two other addresses (null if unused).
+    private void sendMessageToBuyers(InterestSet buyerIds, int excludedBuyerId, MessageFlag flagType, int lotNumber, Money amount,
+    		String otherAddress1, String otherAddress2) {
+    	if(replaying) {
+    		// Already sent before the restart.
+    		return;
+    	}
+    	Collection<String> addresses = new MessagingAddresses(buyerIds, excludedBuyerId, otherAddress1, otherAddress2);
+    	
     	if (flagType.equals(MessageFlag.LOT_SOLD)) {
-    		for (String str: buyerNames) {
-    			Buyer buyer = buyers.get(str);
-    			messagingService.lotSold(buyer.getMessagingAddress(), lotNumber);
-    		}
+    		messagingService.lotSold(addresses, lotNumber);
     	}
     	else if (flagType.equals(MessageFlag.LOT_UNSOLD)) {
-    		for (String str: buyerNames) {
-    			Buyer buyer = buyers.get(str);
-    			messagingService.lotUnsold(buyer.getMessagingAddress(), lotNumber);
-    		}
+    		messagingService.lotUnsold(addresses, lotNumber);
     	}
     	else if (flagType.equals(MessageFlag.BID_ACCEPTED)) {
-    		for (String str: buyerNames) {
-    			Buyer buyer = buyers.get(str);
-    			messagingService.bidAccepted(buyer.getMessagingAddress(), lotNumber, amount);
-    		}
+    		messagingService.bidAccepted(addresses, lotNumber, amount);
     	}
     	else if (flagType.equals(MessageFlag.AUCTION_OPENED)) {
-    		for (String str: buyerNames) {
-    			Buyer buyer = buyers.get(str);
-    			messagingService.auctionOpened(buyer.getMessagingAddress(), lotNumber);
+    		messagingService.auctionOpened(addresses, lotNumber);
+    	}
+    }
+    
+    // The addresses of the buyers in an interest set, read as the collection is iterated, then
+    // up to two other addresses. Only valid during the messaging call it is passed to; a service
+    // that keeps the addresses must copy them.
+    private final class MessagingAddresses extends AbstractCollection<String> {
+    	private final InterestSet buyerIds;
+    	private final int excludedBuyerId;
+    	private final String otherAddress1;
+    	private final String otherAddress2;
+
+    	MessagingAddresses(InterestSet buyerIds, int excludedBuyerId, String otherAddress1, String otherAddress2) {
+    		this.buyerIds = buyerIds;
+    		this.excludedBuyerId = excludedBuyerId;
+    		this.otherAddress1 = otherAddress1;
+    		this.otherAddress2 = otherAddress2;
+    	}
+
+    	private String otherAddress(int i) {
+    		return i == 0 ? otherAddress1 : otherAddress2;
+    	}
+
+    	@Override
+    	public int size() {
+    		int size = buyerIds.size() - (buyerIds.contains(excludedBuyerId) ? 1 : 0);
+    		return size + (otherAddress1 == null ? 0 : 1) + (otherAddress2 == null ? 0 : 1);
+    	}
+
+    	@Override
+    	public Iterator<String> iterator() {
+    		final PrimitiveIterator.OfInt ids = buyerIds.iteratorExcept(excludedBuyerId);
+    		return new Iterator<String>() {
+    			// The other address to try once the ids run out: 0, 1, or 2 for none left.
+    			private int other;
+
+    			public boolean hasNext() {
+    				return ids.hasNext() || skipUnusedOthers() < 2;
+    			}
+
+    			public String next() {
+    				if(ids.hasNext()) {
+    					return buyerById(ids.nextInt()).getMessagingAddress();
+    				}
+    				if(skipUnusedOthers() == 2) {
+    					throw new NoSuchElementException();
+    				}
+    				return otherAddress(other++);
+    			}
+
+    			private int skipUnusedOthers() {
+    				while(other < 2 && otherAddress(other) == null) {
+    					other++;
+    				}
+    				return other;
+    			}
+    		};
+    	}
+    }
+    
+    private Buyer buyerById(int id) {
+    	return buyersById[id];
+    }
+    
+    // Publish a newly registered buyer under its id. Readers see the element through the volatile array write.
+    private void addBuyerById(Buyer buyer) {
+    	synchronized(buyersByIdLock) {
+    		Buyer[] table = buyersById;
+    		if(buyer.getId() >= table.length) {
+    			table = Arrays.copyOf(table, Math.max(table.length * 2, buyer.getId() + 1));
     		}
+    		table[buyer.getId()] = buyer;
+    		buyersById = table;
     	}
     }
     
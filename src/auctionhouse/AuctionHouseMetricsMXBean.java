@@ -0,0 +1,36 @@
+package auctionhouse;
+
+import java.util.Map;
+
+/**
+ * JMX view of an InstrumentedAuctionHouse.
+ *
+ * Per-operation figures are keyed "operation.KIND", e.g. "makeBid.ERROR"; operations that
+ * return no Status are keyed "operation.OK". Only keys with at least one call appear.
+ */
+public interface AuctionHouseMetricsMXBean {
+
+	Map<String, Long> getCallCounts();
+
+	Map<String, Double> getLatencyP50Micros();
+
+	Map<String, Double> getLatencyP99Micros();
+
+	Map<String, Double> getLatencyP999Micros();
+
+	Map<String, Double> getLatencyMaxMicros();
+
+	long getBidsAccepted();
+
+	long getBidsRejected();
+
+	// Rejected bids by Status code, e.g. "BID_TOO_LOW"; only codes seen appear.
+	Map<String, Long> getBidRejections();
+
+	long getOpenLots();
+
+	// -1 when no settlement pipeline or notification dispatcher is monitored.
+	long getSettlementQueueDepth();
+
+	long getNotificationQueueDepth();
+}
@@ -4,8 +4,10 @@
 package auctionhouse;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Handler;
 import java.util.logging.Level;
@@ -205,6 +207,52 @@ public class AuctionHouseTest {
         assertEquals(expectedCatalogue, actualCatalogue);
     }
 
+    @Test
+    public void testViewCataloguePages() {
+        logger.info(makeBanner("testViewCataloguePages"));
+        runStory(2);
+
+        List<CatalogueEntry> firstPage = new ArrayList<CatalogueEntry>();
+        firstPage.add(new CatalogueEntry(1, "Bicycle", LotStatus.UNSOLD));
+        firstPage.add(new CatalogueEntry(2, "Painting", LotStatus.UNSOLD));
+        assertEquals(firstPage, house.viewCatalogue(0, 2));
+
+        List<CatalogueEntry> secondPage = new ArrayList<CatalogueEntry>();
+        secondPage.add(new CatalogueEntry(5, "Table", LotStatus.UNSOLD));
+        assertEquals(secondPage, house.viewCatalogue(3, 2));
+
+        assertEquals(new ArrayList<CatalogueEntry>(), house.viewCatalogue(6, 2));
+        assertEquals(new ArrayList<CatalogueEntry>(), house.viewCatalogue(0, 0));
+    }
+
+    @Test
+    public void testSearchCatalogue() {
+        logger.info(makeBanner("testSearchCatalogue"));
+        runStory(2);
+        assertOK(house.addLot("SellerZ", 7, "Oil painting of a bicycle", new Money("50.00")));
+        assertOK(house.addLot("SellerZ", 3, "Pine table", new Money("50.00")));
+
+        assertEquals(Arrays.asList(2, 7), house.searchCatalogue("PAINTING", null, 10));
+        assertEquals(Arrays.asList(7), house.searchCatalogue("painting bicycle", null, 10));
+        assertEquals(Arrays.asList(3, 5), house.searchCatalogue("tab*", null, 10));
+        assertEquals(Arrays.asList(1, 7), house.searchCatalogue("bic*", null, 10));
+        assertEquals(Arrays.asList(1), house.searchCatalogue("bic*", null, 1));
+        assertEquals(new ArrayList<Integer>(), house.searchCatalogue("chair", null, 10));
+
+        assertOK(house.openAuction("Auctioneer1", "@Auctioneer1", 1));
+        assertEquals(Arrays.asList(1), house.searchCatalogue("bicycle", LotStatus.IN_AUCTION, 10));
+        assertEquals(Arrays.asList(7), house.searchCatalogue("bicycle", LotStatus.UNSOLD, 10));
+
+        // Queries are split into words as descriptions are.
+        assertOK(house.addLot("SellerZ", 9, "Red-lamp, brass", new Money("50.00")));
+        assertOK(house.addLot("SellerZ", 11, "Lamp shade; bicycle bell", new Money("50.00")));
+        assertEquals(Arrays.asList(9), house.searchCatalogue("red-lamp", null, 10));
+        assertEquals(Arrays.asList(9, 11), house.searchCatalogue("lamp,", null, 10));
+        // Lot 11 has two words starting "b" but is found once.
+        assertEquals(Arrays.asList(9, 11), house.searchCatalogue("b* lamp", null, 10));
+        assertEquals(Arrays.asList(1, 7, 11), house.searchCatalogue("bic*", null, 10));
+    }
+
     @Test
     public void testRegisterBuyer() {
         logger.info(makeBanner("testRegisterBuyer"));
@@ -407,6 +455,56 @@ public class AuctionHouseTest {
     	runSecondStory(7);
     }
     
+    @Test
+    public void testLotIndexes() {
+    	logger.info(makeBanner("testLotIndexes"));
+    	runStory(7);
+    	AuctionHouseImp imp = (AuctionHouseImp) house;
+
+    	assertEquals(Arrays.asList(1), imp.lotsWithStatus(LotStatus.IN_AUCTION));
+    	assertEquals(Arrays.asList(2, 5), imp.lotsWithStatus(LotStatus.UNSOLD));
+    	assertEquals(Arrays.asList(1, 2), imp.lotsOfSeller("SellerY"));
+    	assertEquals(Arrays.asList(1), imp.lotsOpenedBy("Auctioneer1"));
+    	assertEquals(new ArrayList<Integer>(), imp.lotsOpenedBy("Auctioneer2"));
+
+    	bankingService.setBadAccount("BB A/C");
+    	assertEquals(Status.Kind.SALE_PENDING_PAYMENT, house.closeAuction("Auctioneer1", 1).kind);
+    	assertEquals(new ArrayList<Integer>(), imp.lotsWithStatus(LotStatus.IN_AUCTION));
+    	assertEquals(Arrays.asList(1), imp.lotsWithStatus(LotStatus.SOLD_PENDING_PAYMENT));
+    }
+
+    @Test
+    public void testBidFanOutToManyInterestedBuyers() {
+    	logger.info(makeBanner("testBidFanOutToManyInterestedBuyers"));
+    	assertOK(house.registerSeller("Seller1", "@Seller1", "S1 A/C"));
+    	assertOK(house.addLot("Seller1", 1, "Clock", new Money("50.00")));
+    	for (int i = 0; i < 100; i++) {
+    		assertOK(house.registerBuyer("Buyer" + i, "@Buyer" + i, "B" + i + " A/C", "B" + i + "-auth"));
+    		assertOK(house.noteInterest("Buyer" + i, 1));
+    	}
+    	assertError(house.noteInterest("Buyer42", 1));
+    	assertOK(house.openAuction("Auctioneer1", "@Auctioneer1", 1));
+    	for (int i = 0; i < 100; i++) {
+    		messagingService.expectAuctionOpened("@Buyer" + i, 1);
+    	}
+    	messagingService.expectAuctionOpened("@Seller1", 1);
+    	// One multicast call reaches every recipient.
+    	assertEquals(1, messagingService.callCount());
+    	messagingService.verify();
+
+    	Money m60 = new Money("60.00");
+    	assertOK(house.makeBid("Buyer42", 1, m60));
+    	assertEquals(2, messagingService.callCount());
+    	for (int i = 0; i < 100; i++) {
+    		if (i != 42) {
+    			messagingService.expectBidReceived("@Buyer" + i, 1, m60);
+    		}
+    	}
+    	messagingService.expectBidReceived("@Auctioneer1", 1, m60);
+    	messagingService.expectBidReceived("@Seller1", 1, m60);
+    	messagingService.verify();
+    }
+
     @Test
     public void testOpenSoldLot() {
     	logger.info(makeBanner("testOpenSoldLot"));
@@ -416,6 +514,357 @@ public class AuctionHouseTest {
     	assertError(house.openAuction("Auctioneer1", "@Auctioneer1", 1));
     }
     
+    // Run the same open-bid-close sequence on many lots from several threads at once.
+    @Test
+    public void testConcurrentAuctionsOnDifferentLots() throws Exception {
+    	logger.info(makeBanner("testConcurrentAuctionsOnDifferentLots"));
+    	final int threads = 8;
+    	final int lotsPerThread = 50;
+
+    	assertOK(house.registerSeller("Seller1", "@Seller1", "S1 A/C"));
+    	assertOK(house.registerBuyer("Buyer1", "@Buyer1", "B1 A/C", "B1-auth"));
+    	assertOK(house.registerBuyer("Buyer2", "@Buyer2", "B2 A/C", "B2-auth"));
+
+    	final List<Throwable> failures = new ArrayList<Throwable>();
+    	List<Thread> workers = new ArrayList<Thread>();
+    	for (int t = 0; t < threads; t++) {
+    		final int firstLot = t * lotsPerThread;
+    		Thread worker = new Thread(new Runnable() {
+    			public void run() {
+    				try {
+    					for (int lot = firstLot; lot < firstLot + lotsPerThread; lot++) {
+    						assertOK(house.addLot("Seller1", lot, "Lot " + lot, new Money("50.00")));
+    						assertOK(house.noteInterest("Buyer1", lot));
+    						assertOK(house.noteInterest("Buyer2", lot));
+    						assertOK(house.openAuction("Auctioneer1", "@Auctioneer1", lot));
+    						assertOK(house.makeBid("Buyer1", lot, new Money("40.00")));
+    						assertOK(house.makeBid("Buyer2", lot, new Money("60.00")));
+    						assertError(house.makeBid("Buyer1", lot, new Money("65.00")));
+    						assertSale(house.closeAuction("Auctioneer1", lot));
+    					}
+    				} catch (Throwable e) {
+    					synchronized (failures) {
+    						failures.add(e);
+    					}
+    				}
+    			}
+    		});
+    		workers.add(worker);
+    		worker.start();
+    	}
+    	for (Thread worker : workers) {
+    		worker.join();
+    	}
+    	assertEquals(new ArrayList<Throwable>(), failures);
+
+    	List<CatalogueEntry> catalogue = house.viewCatalogue();
+    	assertEquals(threads * lotsPerThread, catalogue.size());
+    	for (CatalogueEntry entry : catalogue) {
+    		assertEquals(LotStatus.SOLD, entry.status);
+    	}
+    }
+
+    // Bidders racing on one lot with the same amounts: each amount wins at most once.
+    @Test
+    public void testConcurrentBidsOnOneLot() throws Exception {
+    	logger.info(makeBanner("testConcurrentBidsOnOneLot"));
+    	final int threads = 8;
+    	final int bidsPerThread = 200;
+
+    	assertOK(house.registerSeller("Seller1", "@Seller1", "S1 A/C"));
+    	assertOK(house.addLot("Seller1", 1, "Vase", new Money("50.00")));
+    	for (int t = 0; t < threads; t++) {
+    		assertOK(house.registerBuyer("Buyer" + t, "@Buyer" + t, "B" + t + " A/C", "B" + t + "-auth"));
+    		assertOK(house.noteInterest("Buyer" + t, 1));
+    	}
+    	assertOK(house.openAuction("Auctioneer1", "@Auctioneer1", 1));
+
+    	final int[] acceptedPerAmount = new int[bidsPerThread];
+    	List<Thread> workers = new ArrayList<Thread>();
+    	for (int t = 0; t < threads; t++) {
+    		final String buyerName = "Buyer" + t;
+    		Thread worker = new Thread(new Runnable() {
+    			public void run() {
+    				for (int i = 0; i < bidsPerThread; i++) {
+    					Status status = house.makeBid(buyerName, 1, new Money(Integer.toString(100 + 10 * i)));
+    					if (status.kind == Status.Kind.OK) {
+    						synchronized (acceptedPerAmount) {
+    							acceptedPerAmount[i]++;
+    						}
+    					}
+    				}
+    			}
+    		});
+    		workers.add(worker);
+    		worker.start();
+    	}
+    	for (Thread worker : workers) {
+    		worker.join();
+    	}
+
+    	for (int i = 0; i < bidsPerThread; i++) {
+    		assertEquals(true, acceptedPerAmount[i] <= 1);
+    	}
+    	assertEquals(1, acceptedPerAmount[bidsPerThread - 1]);
+    	assertSale(house.closeAuction("Auctioneer1", 1));
+    	assertError(house.makeBid("Buyer0", 1, new Money("100000.00")));
+    }
+
+    // The buyer's transfer is retried until it goes through; the seller is paid once.
+    @Test
+    public void testRetryPendingPayment() {
+    	logger.info(makeBanner("testRetryPendingPayment"));
+    	runStory(7);
+    	AuctionHouseImp imp = (AuctionHouseImp) house;
+    	messagingService.verify();
+
+    	bankingService.setBadAccount(HOUSE_ACCOUNT);
+    	assertEquals(Status.Kind.SALE_PENDING_PAYMENT, house.closeAuction("Auctioneer1", 1).kind);
+    	assertEquals(0, imp.retryPendingPayments());
+    	assertEquals(Arrays.asList(1), imp.lotsWithStatus(LotStatus.SOLD_PENDING_PAYMENT));
+
+    	bankingService.clearBadAccount(HOUSE_ACCOUNT);
+    	assertEquals(1, imp.retryPendingPayments());
+    	assertEquals(Arrays.asList(1), imp.lotsWithStatus(LotStatus.SOLD));
+    	// Buyer charged once, seller payout tried three times.
+    	assertEquals(4, bankingService.transferCount());
+    	messagingService.expectLotSold("@BuyerA", 1);
+    	messagingService.expectLotSold("@BuyerB", 1);
+    	messagingService.expectLotSold("@SellerY", 1);
+    	messagingService.verify();
+    }
+
+    @Test
+    public void testSettlementPipeline() throws Exception {
+    	logger.info(makeBanner("testSettlementPipeline"));
+    	runStory(7);
+    	AuctionHouseImp imp = (AuctionHouseImp) house;
+    	messagingService.verify();
+    	SettlementPipeline pipeline = imp.startSettlementPipeline(2, 3, 1, 4);
+
+    	bankingService.setBadAccount("BB A/C");
+    	assertEquals(Status.Kind.SALE_PENDING_PAYMENT, house.closeAuction("Auctioneer1", 1).kind);
+    	assertEquals(true, pipeline.awaitIdle(5000));
+    	assertEquals(2, pipeline.retryCount());
+    	assertEquals(1, pipeline.abandonedCount());
+    	assertEquals(Arrays.asList(1), imp.lotsWithStatus(LotStatus.SOLD_PENDING_PAYMENT));
+
+    	bankingService.clearBadAccount("BB A/C");
+    	assertEquals(1, imp.retryPendingPayments());
+    	assertEquals(true, pipeline.awaitIdle(5000));
+    	assertEquals(1, pipeline.settledCount());
+    	assertEquals(Arrays.asList(1), imp.lotsWithStatus(LotStatus.SOLD));
+    	pipeline.shutdown();
+
+    	bankingService.expectTransfer("BB A/C",  "BB-auth",  HOUSE_ACCOUNT, new Money("110.00"));
+    	bankingService.expectTransfer(HOUSE_ACCOUNT,  HOUSE_AUTH_CODE,  "SY A/C", new Money("85.00"));
+    	bankingService.verify();
+    	messagingService.expectLotSold("@BuyerA", 1);
+    	messagingService.expectLotSold("@BuyerB", 1);
+    	messagingService.expectLotSold("@SellerY", 1);
+    	messagingService.verify();
+    }
+
+    // A pipeline shut down without being detached no longer takes sales; they are paid at once.
+    @Test
+    public void testSalesPaidAfterPipelineShutdown() throws Exception {
+    	logger.info(makeBanner("testSalesPaidAfterPipelineShutdown"));
+    	runStory(7);
+    	AuctionHouseImp imp = (AuctionHouseImp) house;
+    	imp.startSettlementPipeline(1, 1, 1, 1).shutdown();
+
+    	assertSale(house.closeAuction("Auctioneer1", 1));
+    	assertEquals(Arrays.asList(1), imp.lotsWithStatus(LotStatus.SOLD));
+    	assertEquals(2, bankingService.transferCount());
+
+    	// Stopping detaches it, so a new pipeline can be started.
+    	imp.stopSettlementPipeline();
+    	imp.stopSettlementPipeline();
+    	imp.startSettlementPipeline(1, 1, 1, 1);
+    	imp.stopSettlementPipeline();
+    }
+
+    // Four sales from one seller to two buyers settle with one transfer per account.
+    @Test
+    public void testSettlementSessionNetsTransfers() {
+    	logger.info(makeBanner("testSettlementSessionNetsTransfers"));
+    	AuctionHouseImp imp = (AuctionHouseImp) house;
+    	assertOK(house.registerSeller("Seller1", "@Seller1", "S1 A/C"));
+    	assertOK(house.registerBuyer("Buyer1", "@Buyer1", "B1 A/C", "B1-auth"));
+    	assertOK(house.registerBuyer("Buyer2", "@Buyer2", "B2 A/C", "B2-auth"));
+    	imp.beginSettlementSession();
+    	for (int lot = 1; lot <= 4; lot++) {
+    		String buyer = lot % 2 == 1 ? "Buyer1" : "Buyer2";
+    		assertOK(house.addLot("Seller1", lot, "Chair", new Money("10.00")));
+    		assertOK(house.noteInterest(buyer, lot));
+    		assertOK(house.openAuction("Auctioneer1", "@Auctioneer1", lot));
+    		assertOK(house.makeBid(buyer, lot, new Money("100.00")));
+    		assertEquals(Status.Kind.SALE_PENDING_PAYMENT, house.closeAuction("Auctioneer1", lot).kind);
+    	}
+    	assertEquals(0, bankingService.transferCount());
+    	assertEquals(Arrays.asList(1, 2, 3, 4), imp.lotsWithStatus(LotStatus.SOLD_PENDING_PAYMENT));
+
+    	assertOK(imp.endSettlementSession());
+    	assertEquals(3, bankingService.transferCount());
+    	assertEquals(Arrays.asList(1, 2, 3, 4), imp.lotsWithStatus(LotStatus.SOLD));
+    	bankingService.expectTransfer("B1 A/C", "B1-auth", HOUSE_ACCOUNT, new Money("220.00"));
+    	bankingService.expectTransfer("B2 A/C", "B2-auth", HOUSE_ACCOUNT, new Money("220.00"));
+    	bankingService.expectTransfer(HOUSE_ACCOUNT, HOUSE_AUTH_CODE, "S1 A/C", new Money("340.00"));
+    	bankingService.verify();
+    	assertError(imp.endSettlementSession());
+    }
+
+    // A failed buyer leaves only that buyer's lots pending; a retry charges just that buyer.
+    @Test
+    public void testSettlementSessionWithFailedAccount() {
+    	logger.info(makeBanner("testSettlementSessionWithFailedAccount"));
+    	AuctionHouseImp imp = (AuctionHouseImp) house;
+    	assertOK(house.registerSeller("Seller1", "@Seller1", "S1 A/C"));
+    	assertOK(house.registerBuyer("Buyer1", "@Buyer1", "B1 A/C", "B1-auth"));
+    	assertOK(house.registerBuyer("Buyer2", "@Buyer2", "B2 A/C", "B2-auth"));
+    	imp.beginSettlementSession();
+    	for (int lot = 1; lot <= 2; lot++) {
+    		String buyer = "Buyer" + lot;
+    		assertOK(house.addLot("Seller1", lot, "Chair", new Money("10.00")));
+    		assertOK(house.noteInterest(buyer, lot));
+    		assertOK(house.openAuction("Auctioneer1", "@Auctioneer1", lot));
+    		assertOK(house.makeBid(buyer, lot, new Money("100.00")));
+    		assertEquals(Status.Kind.SALE_PENDING_PAYMENT, house.closeAuction("Auctioneer1", lot).kind);
+    	}
+    	bankingService.setBadAccount("B2 A/C");
+    	assertError(imp.endSettlementSession());
+    	assertEquals(Arrays.asList(1), imp.lotsWithStatus(LotStatus.SOLD));
+    	assertEquals(Arrays.asList(2), imp.lotsWithStatus(LotStatus.SOLD_PENDING_PAYMENT));
+
+    	// The seller was paid for both lots in the session, so only the buyer is retried.
+    	bankingService.clearBadAccount("B2 A/C");
+    	assertEquals(1, imp.retryPendingPayments());
+    	assertEquals(4, bankingService.transferCount());
+    	assertEquals(Arrays.asList(1, 2), imp.lotsWithStatus(LotStatus.SOLD));
+    }
+
+    // A bank that throws on the batch leaves every lot pending, but free to be retried.
+    @Test
+    public void testSettlementSessionWithThrowingBank() {
+    	logger.info(makeBanner("testSettlementSessionWithThrowingBank"));
+    	final boolean[] down = {true};
+    	MockBankingService throwingBank = new MockBankingService() {
+    		@Override
+    		public List<Status> transfer(List<Transfer> transfers) {
+    			if(down[0]) {
+    				throw new IllegalStateException("Bank unavailable");
+    			}
+    			return super.transfer(transfers);
+    		}
+    	};
+    	AuctionHouseImp imp = new AuctionHouseImp(new Parameters(BUYER_PREMIUM, COMMISSION, INCREMENT,
+    			HOUSE_ACCOUNT, HOUSE_AUTH_CODE, messagingService, throwingBank));
+    	assertOK(imp.registerSeller("Seller1", "@Seller1", "S1 A/C"));
+    	assertOK(imp.registerBuyer("Buyer1", "@Buyer1", "B1 A/C", "B1-auth"));
+    	imp.beginSettlementSession();
+    	for (int lot = 1; lot <= 2; lot++) {
+    		assertOK(imp.addLot("Seller1", lot, "Chair", new Money("10.00")));
+    		assertOK(imp.noteInterest("Buyer1", lot));
+    		assertOK(imp.openAuction("Auctioneer1", "@Auctioneer1", lot));
+    		assertOK(imp.makeBid("Buyer1", lot, new Money("100.00")));
+    		assertEquals(Status.Kind.SALE_PENDING_PAYMENT, imp.closeAuction("Auctioneer1", lot).kind);
+    	}
+    	assertEquals(Status.Code.TRANSFER_FAILED, imp.endSettlementSession().code);
+    	assertEquals(Arrays.asList(1, 2), imp.lotsWithStatus(LotStatus.SOLD_PENDING_PAYMENT));
+
+    	down[0] = false;
+    	assertEquals(2, imp.retryPendingPayments());
+    	assertEquals(Arrays.asList(1, 2), imp.lotsWithStatus(LotStatus.SOLD));
+    }
+
+    @Test
+    public void testStatusCodesAndSharedRejections() {
+    	logger.info(makeBanner("testStatusCodesAndSharedRejections"));
+    	runStory(7);
+    	assertSame(Status.OK(), house.registerBuyer("BuyerZ", "@BuyerZ", "BZ A/C", "BZ-auth"));
+
+    	// Losing bids get the same shared instance.
+    	Status tooLow = house.makeBid("BuyerA", 1, new Money("105.00"));
+    	assertEquals(Status.Code.BID_TOO_LOW, tooLow.code);
+    	assertSame(tooLow, house.makeBid("BuyerA", 1, new Money("101.00")));
+
+    	Status notInterested = house.makeBid("BuyerZ", 1, new Money("200.00"));
+    	assertEquals(Status.Code.NOT_INTERESTED, notInterested.code);
+    	assertEquals("Buyer BuyerZ is not interested in Lot 1", notInterested.getMessage());
+    	assertEquals(Status.Code.NO_SUCH_LOT, house.makeBid("BuyerA", 9, new Money("200.00")).code);
+    	assertEquals(Status.Code.WRONG_AUCTIONEER, house.closeAuction("Auctioneer2", 1).code);
+    }
+
+    @Test
+    public void testBatchBidsMessageEveryAcceptedBid() {
+    	logger.info(makeBanner("testBatchBidsMessageEveryAcceptedBid"));
+    	runStory(7);
+    	Money m110 = new Money("110.00");
+    	Money m130 = new Money("130.00");
+    	List<Status> results = house.makeBids(Arrays.asList(
+    			new BidCommand("BuyerA", 1, m110),
+    			new BidCommand("BuyerA", 5, new Money("50.00")),
+    			new BidCommand("BuyerB", 1, new Money("115.00")),
+    			new BidCommand("BuyerZ", 1, new Money("200.00")),
+    			new BidCommand("BuyerA", 9, new Money("200.00")),
+    			new BidCommand("BuyerB", 1, m130)));
+
+    	assertEquals(6, results.size());
+    	assertOK(results.get(0));
+    	assertEquals(Status.Code.NOT_IN_AUCTION, results.get(1).code);
+    	assertEquals(Status.Code.BID_TOO_LOW, results.get(2).code);
+    	assertEquals(Status.Code.NOT_REGISTERED, results.get(3).code);
+    	assertEquals(Status.Code.NO_SUCH_LOT, results.get(4).code);
+    	assertOK(results.get(5));
+
+    	// Both accepted bids are announced, as if made one at a time.
+    	messagingService.expectBidReceived("@BuyerB", 1, m110);
+    	messagingService.expectBidReceived("@Auctioneer1", 1, m110);
+    	messagingService.expectBidReceived("@SellerY", 1, m110);
+    	messagingService.expectBidReceived("@BuyerA", 1, m130);
+    	messagingService.expectBidReceived("@Auctioneer1", 1, m130);
+    	messagingService.expectBidReceived("@SellerY", 1, m130);
+    	messagingService.verify();
+
+    	assertEquals(Status.Kind.SALE, house.closeAuction("Auctioneer1", 1).kind);
+    	bankingService.expectTransfer("BB A/C", "BB-auth", "AH A/C", new Money("143.00"));
+    	bankingService.expectTransfer("AH A/C", "AH-auth", "SY A/C", new Money("115.00"));
+    	bankingService.verify();
+    }
+
+    @Test
+    public void testBatchAddLotsAndInterests() {
+    	logger.info(makeBanner("testBatchAddLotsAndInterests"));
+    	runStory(3);
+    	List<Status> added = house.addLots(Arrays.asList(
+    			new AddLotCommand("SellerY", 10, "Lamp", new Money("20.00")),
+    			new AddLotCommand("SellerX", 11, "Rug", new Money("20.00")),
+    			new AddLotCommand("SellerZ", 1, "Duplicate", new Money("20.00")),
+    			new AddLotCommand("SellerZ", 12, "Vase", new Money("30.00"))));
+    	assertOK(added.get(0));
+    	assertEquals(Status.Code.NOT_REGISTERED, added.get(1).code);
+    	assertEquals(Status.Code.LOT_EXISTS, added.get(2).code);
+    	assertOK(added.get(3));
+
+    	List<Status> noted = house.noteInterests(Arrays.asList(
+    			new InterestCommand("BuyerA", 10),
+    			new InterestCommand("BuyerB", 12),
+    			new InterestCommand("BuyerA", 10),
+    			new InterestCommand("BuyerC", 11),
+    			new InterestCommand("BuyerB", 10)));
+    	assertOK(noted.get(0));
+    	assertOK(noted.get(1));
+    	assertEquals(Status.Code.ALREADY_INTERESTED, noted.get(2).code);
+    	assertEquals(Status.Code.NO_SUCH_LOT, noted.get(3).code);
+    	assertOK(noted.get(4));
+
+    	assertOK(house.openAuction("Auctioneer1", "@Auctioneer1", 10));
+    	messagingService.expectAuctionOpened("@BuyerA", 10);
+    	messagingService.expectAuctionOpened("@BuyerB", 10);
+    	messagingService.expectAuctionOpened("@SellerY", 10);
+    	messagingService.verify();
+    }
+
     // *** New tests end here ***
     
 }
@@ -0,0 +1,567 @@
+package auctionhouse;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serves an AuctionHouse over TCP in the WireProtocol. One thread runs a selector over every
+ * connection and does only I/O; the house is called from a pool of workers, so a slow call,
+ * such as a closeAuction waiting on the bank, holds up only its own connection.
+ *
+ * A connection holds no buffer while idle. Reads go into a buffer from a pool, every complete
+ * frame in it is decoded there and queued for the workers, and the buffer goes back to the
+ * pool unless it holds part of a frame. A connection's requests are carried out one at a time,
+ * in order, so its responses come back in request order; different connections' requests run
+ * in parallel. A connection with too many requests outstanding or too much unwritten is not
+ * read from until it catches up. A malformed frame closes its connection; a call that throws
+ * is answered with an ERROR Status.
+ */
+public class AuctionServer implements Closeable {
+
+	private static EngineLog log = new EngineLog("auctionhouse", AuctionServer.class);
+
+	// Unwritten response bytes above which a connection's requests are left unread.
+	private static final int HIGH_WATER = 256 * 1024;
+	// Requests read but not yet answered above which a connection is left unread.
+	private static final int MAX_OUTSTANDING = 1024;
+	// Requests a worker carries out for one connection before letting others have a turn.
+	private static final int REQUESTS_PER_TURN = 64;
+	private static final int POOLED_BUFFERS = 1024;
+	private static final int DEFAULT_WORKERS = 32;
+
+	private final AuctionHouse house;
+	private final Selector selector;
+	private final ServerSocketChannel serverChannel;
+	private final int port;
+	private final Executor workers;
+	// The pool this server made, and must shut down; null if the workers were given.
+	private final ExecutorService ownWorkers;
+	// Holds a whole frame, so a partly read frame always fits.
+	private final BufferPool pool = new BufferPool(4 + WireProtocol.MAX_FRAME, POOLED_BUFFERS);
+	// Connections with responses from the workers waiting to be queued for writing.
+	private final ConcurrentLinkedQueue<Connection> answered = new ConcurrentLinkedQueue<Connection>();
+	// Each worker encodes its responses here before copying them out.
+	private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+		@Override
+		protected Scratch initialValue() {
+			return new Scratch();
+		}
+	};
+	private final Thread thread;
+	private volatile boolean running = true;
+	private volatile int connectionCount;
+
+	// A decoded request, waiting for or being carried out by a worker.
+	private static final class Request {
+		final int requestId;
+		final byte operation;
+		String s1, s2, s3, s4;
+		int n1, n2;
+		Money amount;
+		LotStatus status;
+
+		Request(int requestId, byte operation) {
+			this.requestId = requestId;
+			this.operation = operation;
+		}
+	}
+
+	private final class Connection implements Runnable {
+		final SocketChannel channel;
+		SelectionKey key;
+		// Selector thread only.
+		ByteBuffer in;
+		// In write mode: holds the unwritten responses between 0 and position.
+		ByteBuffer out;
+		int outstanding;
+		// Guarded by this: requests not yet taken by a worker, and whether a worker has the connection.
+		final ArrayDeque<Request> requests = new ArrayDeque<Request>();
+		boolean scheduled;
+		// Encoded by workers, queued for writing by the selector thread.
+		final ConcurrentLinkedQueue<ByteBuffer> responses = new ConcurrentLinkedQueue<ByteBuffer>();
+		volatile boolean closed;
+
+		Connection(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		// Selector thread: hand a request to the workers.
+		void submit(Request request) {
+			outstanding++;
+			synchronized(this) {
+				requests.add(request);
+				if(scheduled) {
+					return;
+				}
+				scheduled = true;
+			}
+			try {
+				workers.execute(this);
+			} catch (RejectedExecutionException e) {
+				log.warning(e, "Workers rejected a request for operation {}", request.operation);
+				synchronized(this) {
+					scheduled = false;
+				}
+				closed = true;
+			}
+		}
+
+		// Worker: carry out this connection's requests in order.
+		public void run() {
+			for(int done = 0; ; done++) {
+				Request request;
+				synchronized(this) {
+					request = done < REQUESTS_PER_TURN ? requests.poll() : null;
+					if(request == null) {
+						if(requests.isEmpty() || closed) {
+							scheduled = false;
+							return;
+						}
+						break;
+					}
+				}
+				if(!closed) {
+					responses.add(execute(request));
+					answered.add(this);
+					selector.wakeup();
+				}
+			}
+			// Give other connections a turn before carrying on.
+			try {
+				workers.execute(this);
+			} catch (RejectedExecutionException e) {
+				synchronized(this) {
+					scheduled = false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Binds the server socket, with a pool of its own to call the house from; call start to
+	 * accept connections.
+	 * @param address: address to listen on; port 0 picks a free port
+	 */
+	public AuctionServer(AuctionHouse house, InetSocketAddress address) throws IOException {
+		this(house, address, Executors.newFixedThreadPool(DEFAULT_WORKERS, runnable -> {
+			Thread worker = new Thread(runnable, "auction-server-worker");
+			worker.setDaemon(true);
+			return worker;
+		}), true);
+	}
+
+	/**
+	 * @param workers: calls the house; a connection's requests are given to it one at a time
+	 */
+	public AuctionServer(AuctionHouse house, InetSocketAddress address, Executor workers) throws IOException {
+		this(house, address, workers, false);
+	}
+
+	private AuctionServer(AuctionHouse house, InetSocketAddress address, Executor workers, boolean ownsWorkers) throws IOException {
+		this.house = house;
+		this.workers = workers;
+		this.ownWorkers = ownsWorkers ? (ExecutorService) workers : null;
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.configureBlocking(false);
+		serverChannel.bind(address, 1024);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		port = serverChannel.socket().getLocalPort();
+		thread = new Thread(new Runnable() {
+			public void run() {
+				serve();
+			}
+		}, "auction-server");
+	}
+
+	public AuctionServer start() {
+		thread.start();
+		log.info("Listening on port {}", port());
+		return this;
+	}
+
+	public int port() {
+		return port;
+	}
+
+	public int connectionCount() {
+		return connectionCount;
+	}
+
+	/**
+	 * Stops serving and closes every connection.
+	 */
+	public void close() throws IOException {
+		running = false;
+		selector.wakeup();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if(ownWorkers != null) {
+			ownWorkers.shutdownNow();
+		}
+	}
+
+	/*
+	 * Selector thread
+	 */
+
+	private void serve() {
+		try {
+			while(running) {
+				selector.select();
+				for(Connection connection = answered.poll(); connection != null; connection = answered.poll()) {
+					try {
+						queueResponses(connection);
+					} catch (IOException e) {
+						log.fine("Closing connection: {}", e.getMessage());
+						close(connection);
+					}
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while(keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if(!key.isValid()) {
+						continue;
+					}
+					if(key.isAcceptable()) {
+						accept();
+						continue;
+					}
+					Connection connection = (Connection) key.attachment();
+					try {
+						if(key.isReadable()) {
+							read(connection);
+						}
+						if(key.isValid() && key.isWritable()) {
+							flush(connection);
+						}
+					} catch (IOException e) {
+						log.fine("Closing connection: {}", e.getMessage());
+						close(connection);
+					}
+				}
+			}
+		} catch (IOException e) {
+			log.warning(e, "Server on port {} stopped", port);
+		} finally {
+			for(SelectionKey key: selector.keys()) {
+				if(key.attachment() instanceof Connection) {
+					close((Connection) key.attachment());
+				}
+			}
+			try {
+				serverChannel.close();
+				selector.close();
+			} catch (IOException e) {
+				log.warning(e, "Failed to close server socket on port {}", port);
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		for(SocketChannel channel = serverChannel.accept(); channel != null; channel = serverChannel.accept()) {
+			channel.configureBlocking(false);
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			Connection connection = new Connection(channel);
+			connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+			connectionCount++;
+		}
+	}
+
+	private void close(Connection connection) {
+		if(!connection.channel.isOpen()) {
+			return;
+		}
+		connection.closed = true;
+		connection.key.cancel();
+		try {
+			connection.channel.close();
+		} catch (IOException e) {
+			log.fine("Failed to close connection: {}", e.getMessage());
+		}
+		if(connection.in != null) {
+			pool.release(connection.in);
+			connection.in = null;
+		}
+		if(connection.out != null) {
+			pool.release(connection.out);
+			connection.out = null;
+		}
+		connectionCount--;
+	}
+
+	private void read(Connection connection) throws IOException {
+		if(connection.in == null) {
+			connection.in = pool.acquire();
+		}
+		ByteBuffer in = connection.in;
+		if(connection.channel.read(in) < 0) {
+			close(connection);
+			return;
+		}
+		in.flip();
+		while(in.remaining() >= 4) {
+			int length = in.getInt(in.position());
+			if(length < WireProtocol.HEADER || length > WireProtocol.MAX_FRAME) {
+				throw new IOException("Bad frame length " + length);
+			}
+			if(in.remaining() < 4 + length) {
+				break;
+			}
+			int frameEnd = in.position() + 4 + length;
+			int limit = in.limit();
+			in.position(in.position() + 4);
+			in.limit(frameEnd);
+			int requestId = in.getInt();
+			byte operation = in.get();
+			Request request;
+			try {
+				request = decode(requestId, operation, in);
+			} catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+				throw new IOException("Malformed request " + requestId + " for operation " + operation, e);
+			}
+			connection.submit(request);
+			in.limit(limit);
+			in.position(frameEnd);
+		}
+		in.compact();
+		if(in.position() == 0) {
+			pool.release(in);
+			connection.in = null;
+		}
+		if(connection.closed) {
+			close(connection);
+			return;
+		}
+		updateInterest(connection);
+	}
+
+	private static Request decode(int requestId, byte operation, ByteBuffer in) {
+		Request request = new Request(requestId, operation);
+		switch(operation) {
+		case WireProtocol.REGISTER_BUYER:
+			request.s1 = WireProtocol.getString(in);
+			request.s2 = WireProtocol.getString(in);
+			request.s3 = WireProtocol.getString(in);
+			request.s4 = WireProtocol.getString(in);
+			break;
+		case WireProtocol.REGISTER_SELLER:
+			request.s1 = WireProtocol.getString(in);
+			request.s2 = WireProtocol.getString(in);
+			request.s3 = WireProtocol.getString(in);
+			break;
+		case WireProtocol.ADD_LOT:
+			request.s1 = WireProtocol.getString(in);
+			request.n1 = in.getInt();
+			request.s2 = WireProtocol.getString(in);
+			request.amount = WireProtocol.getMoney(in);
+			break;
+		case WireProtocol.VIEW_CATALOGUE:
+			break;
+		case WireProtocol.VIEW_CATALOGUE_PAGE:
+			request.n1 = in.getInt();
+			request.n2 = in.getInt();
+			break;
+		case WireProtocol.SEARCH_CATALOGUE:
+			request.s1 = WireProtocol.getString(in);
+			request.status = WireProtocol.getLotStatus(in);
+			request.n1 = in.getInt();
+			break;
+		case WireProtocol.NOTE_INTEREST:
+			request.s1 = WireProtocol.getString(in);
+			request.n1 = in.getInt();
+			break;
+		case WireProtocol.OPEN_AUCTION:
+			request.s1 = WireProtocol.getString(in);
+			request.s2 = WireProtocol.getString(in);
+			request.n1 = in.getInt();
+			break;
+		case WireProtocol.MAKE_BID:
+			request.s1 = WireProtocol.getString(in);
+			request.n1 = in.getInt();
+			request.amount = WireProtocol.getMoney(in);
+			break;
+		case WireProtocol.CLOSE_AUCTION:
+			request.s1 = WireProtocol.getString(in);
+			request.n1 = in.getInt();
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown operation " + operation);
+		}
+		return request;
+	}
+
+	// Move a connection's finished responses into its output and try to write them.
+	private void queueResponses(Connection connection) throws IOException {
+		if(connection.closed) {
+			return;
+		}
+		for(ByteBuffer response = connection.responses.poll(); response != null; response = connection.responses.poll()) {
+			connection.outstanding--;
+			if(connection.out == null) {
+				connection.out = pool.acquire();
+			}
+			ByteBuffer out = connection.out;
+			if(out.remaining() < response.remaining()) {
+				ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * out.capacity(), out.position() + response.remaining()));
+				out.flip();
+				larger.put(out);
+				pool.release(out);
+				connection.out = larger;
+			}
+			connection.out.put(response);
+		}
+		flush(connection);
+	}
+
+	private void flush(Connection connection) throws IOException {
+		ByteBuffer out = connection.out;
+		if(out != null) {
+			out.flip();
+			connection.channel.write(out);
+			out.compact();
+			if(out.position() == 0) {
+				pool.release(out);
+				connection.out = null;
+			}
+		}
+		updateInterest(connection);
+	}
+
+	private void updateInterest(Connection connection) {
+		int unwritten = connection.out == null ? 0 : connection.out.position();
+		int ops = unwritten > 0 ? SelectionKey.OP_WRITE : 0;
+		if(unwritten <= HIGH_WATER && connection.outstanding < MAX_OUTSTANDING) {
+			ops |= SelectionKey.OP_READ;
+		}
+		connection.key.interestOps(ops);
+	}
+
+	/*
+	 * Workers
+	 */
+
+	// A worker's buffer for encoding responses, grown to fit the largest it has needed.
+	private static final class Scratch {
+		ByteBuffer buffer = ByteBuffer.allocate(4 + WireProtocol.MAX_FRAME);
+
+		void putStatus(Status status) {
+			ensure(3 + 2 + 3 * status.getMessage().length());
+			WireProtocol.putStatus(buffer, status);
+		}
+
+		void putCatalogue(List<CatalogueEntry> entries) {
+			int bytes = 4;
+			for(CatalogueEntry entry: entries) {
+				bytes += 4 + 2 + 3 * entry.description.length() + 1;
+			}
+			ensure(bytes);
+			WireProtocol.putCatalogue(buffer, entries);
+		}
+
+		void putLotNumbers(List<Integer> lotNumbers) {
+			ensure(4 + 4 * lotNumbers.size());
+			WireProtocol.putLotNumbers(buffer, lotNumbers);
+		}
+
+		// Grows the buffer, keeping what is in it, to take bytes more.
+		void ensure(int bytes) {
+			if(buffer.remaining() < bytes) {
+				ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * buffer.capacity(), buffer.position() + bytes));
+				buffer.flip();
+				larger.put(buffer);
+				buffer = larger;
+			}
+		}
+	}
+
+	// Carry out a request and encode its response, or an ERROR Status if the house threw.
+	private ByteBuffer execute(Request request) {
+		Scratch scratch = this.scratch.get();
+		scratch.buffer.clear();
+		int start = WireProtocol.beginFrame(scratch.buffer, request.requestId, request.operation);
+		try {
+			respond(scratch, request);
+		} catch (RuntimeException e) {
+			log.warning(e, "Request {} for operation {} failed", request.requestId, request.operation);
+			scratch.buffer.clear();
+			start = WireProtocol.beginFrame(scratch.buffer, request.requestId, WireProtocol.FAILED);
+			scratch.putStatus(Status.error(Status.Code.INTERNAL_ERROR, "Request failed: {}", e));
+		}
+		WireProtocol.endFrame(scratch.buffer, start);
+		scratch.buffer.flip();
+		ByteBuffer response = ByteBuffer.allocate(scratch.buffer.remaining());
+		response.put(scratch.buffer);
+		response.flip();
+		return response;
+	}
+
+	private void respond(Scratch scratch, Request request) {
+		switch(request.operation) {
+		case WireProtocol.REGISTER_BUYER:
+			scratch.putStatus(house.registerBuyer(request.s1, request.s2, request.s3, request.s4));
+			break;
+		case WireProtocol.REGISTER_SELLER:
+			scratch.putStatus(house.registerSeller(request.s1, request.s2, request.s3));
+			break;
+		case WireProtocol.ADD_LOT:
+			scratch.putStatus(house.addLot(request.s1, request.n1, request.s2, request.amount));
+			break;
+		case WireProtocol.VIEW_CATALOGUE:
+			scratch.putCatalogue(house.viewCatalogue());
+			break;
+		case WireProtocol.VIEW_CATALOGUE_PAGE:
+			scratch.putCatalogue(house.viewCatalogue(request.n1, request.n2));
+			break;
+		case WireProtocol.SEARCH_CATALOGUE:
+			scratch.putLotNumbers(house.searchCatalogue(request.s1, request.status, request.n1));
+			break;
+		case WireProtocol.NOTE_INTEREST:
+			scratch.putStatus(house.noteInterest(request.s1, request.n1));
+			break;
+		case WireProtocol.OPEN_AUCTION:
+			scratch.putStatus(house.openAuction(request.s1, request.s2, request.n1));
+			break;
+		case WireProtocol.MAKE_BID:
+			scratch.putStatus(house.makeBid(request.s1, request.n1, request.amount));
+			break;
+		case WireProtocol.CLOSE_AUCTION:
+			scratch.putStatus(house.closeAuction(request.s1, request.n1));
+			break;
+		}
+	}
+
+	/**
+	 * Serves a house with counting stand-ins for the messaging and banking services.
+	 * Usage: java auctionhouse.AuctionServer [port]
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 7070;
+		Logger.getLogger("auctionhouse").setLevel(Level.SEVERE);
+		AuctionHouse house = new AuctionHouseImp(new Parameters(10.0, 15.0, new Money("1.00"),
+				"AH A/C", "AH-auth", new CountingMessagingService(), new CountingBankingService()));
+		new AuctionServer(house, new InetSocketAddress(port)).start();
+	}
+}
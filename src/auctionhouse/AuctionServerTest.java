@@ -0,0 +1,234 @@
+package auctionhouse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AuctionServerTest {
+
+    private MockBankingService bankingService;
+    private AuctionServer server;
+    private RemoteAuctionHouse house;
+
+    @Before
+    public void setup() throws IOException {
+        bankingService = new MockBankingService();
+        AuctionHouse local = new AuctionHouseImp(new Parameters(10.0, 15.0, new Money("10.00"),
+                "AH A/C", "AH-auth", new MockMessagingService(), bankingService));
+        server = new AuctionServer(local, new InetSocketAddress("127.0.0.1", 0)).start();
+        house = new RemoteAuctionHouse(new InetSocketAddress("127.0.0.1", server.port()));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        house.close();
+        server.close();
+    }
+
+    @Test
+    public void testEveryOperationOverTheWire() {
+        assertEquals(Status.Kind.OK, house.registerSeller("SellerY", "@SellerY", "SY A/C").kind);
+        assertEquals(Status.Code.NAME_TAKEN, house.registerSeller("SellerY", "@SellerY", "SY A/C").code);
+        house.registerBuyer("BuyerA", "@BuyerA", "BA A/C", "BA-auth");
+        house.registerBuyer("BuyerB", "@BuyerB", "BB A/C", "BB-auth");
+        assertEquals(Status.Kind.OK, house.addLot("SellerY", 2, "Red bicycle", new Money("50.00")).kind);
+        house.addLot("SellerY", 1, "Blue caf\u00e9 chair", new Money("20.00"));
+        assertEquals(Status.Kind.ERROR, house.addLot("SellerY", 3, "No reserve", null).kind);
+
+        List<CatalogueEntry> catalogue = house.viewCatalogue();
+        assertEquals(2, catalogue.size());
+        assertEquals(new CatalogueEntry(1, "Blue caf\u00e9 chair", LotStatus.UNSOLD), catalogue.get(0));
+        assertEquals(2, house.viewCatalogue(2, 5).get(0).lotNumber);
+        assertEquals(Arrays.asList(1), house.searchCatalogue("caf*", null, 10));
+
+        house.noteInterest("BuyerA", 2);
+        house.noteInterest("BuyerB", 2);
+        assertEquals(Status.Kind.OK, house.openAuction("Auctioneer1", "@Auctioneer1", 2).kind);
+        assertEquals(Arrays.asList(2), house.searchCatalogue("bicycle", LotStatus.IN_AUCTION, 10));
+        assertEquals(Status.Kind.OK, house.makeBid("BuyerA", 2, new Money("60.00")).kind);
+        Status tooLow = house.makeBid("BuyerB", 2, new Money("65.00"));
+        assertEquals(Status.Code.BID_TOO_LOW, tooLow.code);
+        assertTrue(tooLow.getMessage().length() > 0);
+        assertEquals(Status.Kind.SALE, house.closeAuction("Auctioneer1", 2).kind);
+        assertEquals(2, bankingService.transferCount());
+    }
+
+    @Test
+    public void testPipelinedBidsAnsweredInOrder() {
+        house.registerSeller("SellerY", "@SellerY", "SY A/C");
+        house.registerBuyer("BuyerA", "@BuyerA", "BA A/C", "BA-auth");
+        house.addLot("SellerY", 1, "Lamp", new Money("50.00"));
+        house.noteInterest("BuyerA", 1);
+        house.openAuction("Auctioneer1", "@Auctioneer1", 1);
+
+        // Enough to fill the client's buffer more than once.
+        List<BidCommand> bids = new ArrayList<BidCommand>();
+        for (int i = 0; i < 3000; i++) {
+            bids.add(new BidCommand("BuyerA", 1, Money.ofPence(6000 + 1000L * i - (i % 2) * 1000)));
+        }
+        List<Status> results = house.makeBids(bids);
+        assertEquals(bids.size(), results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(i % 2 == 0 ? Status.Kind.OK : Status.Kind.ERROR, results.get(i).kind);
+        }
+        assertEquals(Status.Kind.OK, house.makeBid("BuyerA", 1, Money.ofPence(6000 + 1000L * 3000)).kind);
+    }
+
+    @Test
+    public void testOversizedRequestsRejectedBeforeSending() {
+        String longName = repeat('b', 20000);
+        String tooLong = repeat('x', 30000);
+        try {
+            house.registerBuyer(tooLong, tooLong, tooLong, "auth");
+            fail("Expected a request larger than a frame to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("exceeds"));
+        }
+        try {
+            house.addLot("SellerY", 1, repeat('d', 40000), new Money("50.00"));
+            fail("Expected a string too long for the wire to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("too long"));
+        }
+
+        // The connection is still in step, and long but legal strings still go through.
+        assertEquals(Status.Kind.OK, house.registerSeller("SellerY", "@SellerY", "SY A/C").kind);
+        assertEquals(Status.Kind.OK, house.registerBuyer(longName, "@Long", "BL A/C", "BL-auth").kind);
+        house.addLot("SellerY", 1, "Lamp", new Money("50.00"));
+        house.noteInterest(longName, 1);
+        house.openAuction("Auctioneer1", "@Auctioneer1", 1);
+
+        // Each bid takes a third of the buffer, so the batch is sent in several flushes.
+        List<BidCommand> bids = new ArrayList<BidCommand>();
+        for (int i = 0; i < 7; i++) {
+            bids.add(new BidCommand(longName, 1, Money.ofPence(6000 + 1000L * i)));
+        }
+        List<Status> results = house.makeBids(bids);
+        for (Status result : results) {
+            assertEquals(Status.Kind.OK, result.kind);
+        }
+
+        // A bid that cannot be sent fails the batch before any of it is made.
+        try {
+            house.makeBids(Arrays.asList(new BidCommand(longName, 1, new Money("200.00")),
+                    new BidCommand(repeat('y', 40000), 1, new Money("300.00"))));
+            fail("Expected the batch to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(Status.Kind.OK, house.makeBid(longName, 1, new Money("200.00")).kind);
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    @Test
+    public void testMalformedFrameClosesOnlyItsConnection() throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", server.port())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(WireProtocol.HEADER);
+            out.writeInt(1);
+            out.writeByte(99);
+            out.flush();
+            try {
+                new DataInputStream(socket.getInputStream()).readInt();
+                assertTrue("connection should have been closed", false);
+            } catch (EOFException e) {
+                // expected
+            }
+        }
+        assertEquals(Status.Kind.OK, house.registerSeller("SellerY", "@SellerY", "SY A/C").kind);
+    }
+
+    @Test
+    public void testFailedCallAnsweredWithErrorStatus() throws IOException {
+        AuctionHouse failing = new AuctionHouseImp(new Parameters(10.0, 15.0, new Money("10.00"),
+                "AH A/C", "AH-auth", new MockMessagingService(), bankingService)) {
+            @Override
+            public Status makeBid(String buyerName, int lotNumber, Money bid) {
+                throw new IllegalStateException("bid store unavailable");
+            }
+
+            @Override
+            public List<CatalogueEntry> viewCatalogue() {
+                throw new IllegalStateException("catalogue unavailable");
+            }
+        };
+        try (AuctionServer failingServer = new AuctionServer(failing, new InetSocketAddress("127.0.0.1", 0)).start();
+                RemoteAuctionHouse remote = new RemoteAuctionHouse(new InetSocketAddress("127.0.0.1", failingServer.port()))) {
+            Status failed = remote.makeBid("BuyerA", 1, new Money("60.00"));
+            assertEquals(Status.Kind.ERROR, failed.kind);
+            assertEquals(Status.Code.INTERNAL_ERROR, failed.code);
+            assertTrue(failed.getMessage().contains("bid store unavailable"));
+            try {
+                remote.viewCatalogue();
+                assertTrue("viewCatalogue should have thrown", false);
+            } catch (IllegalStateException e) {
+                assertTrue(e.getMessage().contains("catalogue unavailable"));
+            }
+            // The connection is still usable.
+            assertEquals(Status.Kind.OK, remote.registerSeller("SellerY", "@SellerY", "SY A/C").kind);
+        }
+    }
+
+    @Test
+    public void testSlowCallDoesNotHoldUpOtherConnections() throws Exception {
+        final CountDownLatch bankAnswering = new CountDownLatch(1);
+        final CountDownLatch inBank = new CountDownLatch(1);
+        BankingService slowBank = new BankingService() {
+            public Status transfer(String senderAccount, String senderAuthCode, String receiverAccount, Money amount) {
+                inBank.countDown();
+                try {
+                    bankAnswering.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return Status.OK();
+            }
+        };
+        AuctionHouse local = new AuctionHouseImp(new Parameters(10.0, 15.0, new Money("10.00"),
+                "AH A/C", "AH-auth", new MockMessagingService(), slowBank));
+        try (AuctionServer slowServer = new AuctionServer(local, new InetSocketAddress("127.0.0.1", 0)).start();
+                final RemoteAuctionHouse closer = new RemoteAuctionHouse(new InetSocketAddress("127.0.0.1", slowServer.port()));
+                RemoteAuctionHouse other = new RemoteAuctionHouse(new InetSocketAddress("127.0.0.1", slowServer.port()))) {
+            closer.registerSeller("SellerY", "@SellerY", "SY A/C");
+            closer.registerBuyer("BuyerA", "@BuyerA", "BA A/C", "BA-auth");
+            closer.addLot("SellerY", 1, "Lamp", new Money("50.00"));
+            closer.noteInterest("BuyerA", 1);
+            closer.openAuction("Auctioneer1", "@Auctioneer1", 1);
+            closer.makeBid("BuyerA", 1, new Money("60.00"));
+
+            final Status[] closed = new Status[1];
+            Thread closing = new Thread(() -> closed[0] = closer.closeAuction("Auctioneer1", 1));
+            closing.start();
+            assertTrue(inBank.await(10, TimeUnit.SECONDS));
+
+            // Answered while the close waits on the bank.
+            assertEquals(Status.Kind.OK, other.registerBuyer("BuyerB", "@BuyerB", "BB A/C", "BB-auth").kind);
+            assertEquals(1, other.viewCatalogue().size());
+
+            bankAnswering.countDown();
+            closing.join(10000);
+            assertEquals(Status.Kind.SALE, closed[0].kind);
+        }
+    }
+}
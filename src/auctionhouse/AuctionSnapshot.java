@@ -0,0 +1,197 @@
+package auctionhouse;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary point-in-time image of an auction house, read back on restart in place of the
+ * journal records before its journal position.
+ *
+ * Layout: header (magic, version, journal position, next buyer id), then lots, buyers,
+ * sellers and auctioneers, each section ended by a -1 or an empty name. Lots are written
+ * first: anything a lot refers to (bidders, interested buyers, its seller and auctioneer)
+ * already existed when the lot was read, so it is also in the later sections.
+ *
+ * The image may be fuzzy: changes made while it is written may or may not be in it. Every
+ * journal record is safe to apply twice, so replaying the journal from the position taken
+ * before writing started brings a restored house up to date either way.
+ */
+public class AuctionSnapshot {
+
+	private static final int MAGIC = 0x41485331; // "AHS1"
+	private static final int VERSION = 1;
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final LotStatus[] STATUSES = LotStatus.values();
+
+	// What a snapshot is restored into.
+	public interface Target {
+		void buyer(Buyer buyer);
+		void seller(Seller seller);
+		void auctioneer(Auctioneer auctioneer);
+		void lot(Lot lot);
+	}
+
+	private AuctionSnapshot() {
+	}
+
+	/**
+	 * Writes to a temporary file first and renames it over file, so a crash while writing
+	 * leaves the previous snapshot in place. Returns once the file and the rename are on disk.
+	 */
+	public static void write(Path file, long journalPosition, int nextBuyerId, Iterable<Lot> lots,
+			Iterable<Buyer> buyers, Iterable<Seller> sellers, Iterable<Auctioneer> auctioneers) throws IOException {
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(journalPosition);
+			out.writeInt(nextBuyerId);
+
+			for(Lot lot: lots) {
+				writeLot(out, lot);
+			}
+			out.writeInt(-1);
+			for(Buyer buyer: buyers) {
+				out.writeInt(buyer.getId());
+				out.writeUTF(buyer.getName());
+				out.writeUTF(buyer.getMessagingAddress());
+				out.writeUTF(buyer.getBuyerAccount());
+				out.writeUTF(buyer.getBuyerAuthorisation());
+			}
+			out.writeInt(-1);
+			for(Seller seller: sellers) {
+				out.writeUTF(seller.getName());
+				out.writeUTF(seller.getMessagingAddress());
+				out.writeUTF(seller.getSellerAccount());
+			}
+			out.writeUTF("");
+			for(Auctioneer auctioneer: auctioneers) {
+				out.writeUTF(auctioneer.getName());
+				out.writeUTF(auctioneer.getMessagingAddress());
+			}
+			out.writeUTF("");
+			out.flush();
+			channel.force(true);
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		forceDirectory(file.toAbsolutePath().getParent());
+	}
+
+	// Force a directory's entries to disk, so a rename in it survives a power loss.
+	static void forceDirectory(Path directory) throws IOException {
+		try(FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * Reads a snapshot into target.
+	 * @return the header; its journalPosition is where journal replay should resume
+	 */
+	public static Header read(Path file, LotIndex lotIndex, Target target) throws IOException {
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE))) {
+			if(in.readInt() != MAGIC) {
+				throw new IOException("Not an auction house snapshot: " + file);
+			}
+			int version = in.readInt();
+			if(version != VERSION) {
+				throw new IOException("Unsupported snapshot version " + version + ": " + file);
+			}
+			Header header = new Header(in.readLong(), in.readInt());
+
+			for(int lotNumber = in.readInt(); lotNumber >= 0; lotNumber = in.readInt()) {
+				target.lot(readLot(in, lotNumber, lotIndex));
+			}
+			for(int id = in.readInt(); id >= 0; id = in.readInt()) {
+				target.buyer(new Buyer(id, in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF()));
+			}
+			for(String name = in.readUTF(); !name.isEmpty(); name = in.readUTF()) {
+				target.seller(new Seller(name, in.readUTF(), in.readUTF()));
+			}
+			for(String name = in.readUTF(); !name.isEmpty(); name = in.readUTF()) {
+				target.auctioneer(new Auctioneer(name, in.readUTF()));
+			}
+			return header;
+		}
+	}
+
+	// Where replay resumes, and the first buyer id not in the snapshot.
+	public static final class Header {
+		public final long journalPosition;
+		public final int nextBuyerId;
+
+		Header(long journalPosition, int nextBuyerId) {
+			this.journalPosition = journalPosition;
+			this.nextBuyerId = nextBuyerId;
+		}
+	}
+
+	private static void writeLot(final DataOutputStream out, Lot lot) throws IOException {
+		// Read the status before the bid: a bid that lands in between is only newer.
+		LotStatus status = lot.getLotStatus();
+		String auctioneerName = lot.getAssignedAuctioneerName();
+		Lot.HighBid highBid = lot.getHighBid();
+
+		out.writeInt(lot.getLotNumber());
+		out.writeUTF(lot.getSellerName());
+		out.writeUTF(lot.getCatalogueEntry().description);
+		out.writeLong(lot.getReservePrice().getPence());
+		out.writeByte(status.ordinal());
+		out.writeBoolean(lot.isBuyerCharged());
+		out.writeBoolean(lot.isSellerPaid());
+		out.writeUTF(auctioneerName == null ? "" : auctioneerName);
+		out.writeBoolean(highBid != null);
+		if(highBid != null) {
+			out.writeInt(highBid.bidderId);
+			out.writeUTF(highBid.bidderName);
+			out.writeLong(highBid.amountPence);
+			out.writeBoolean(highBid.closed);
+		}
+		final IOException[] failure = new IOException[1];
+		lot.getInterestedBuyers().forEach(id -> {
+			if(failure[0] == null) {
+				try {
+					out.writeInt(id);
+				} catch (IOException e) {
+					failure[0] = e;
+				}
+			}
+		});
+		if(failure[0] != null) {
+			throw failure[0];
+		}
+		out.writeInt(-1);
+	}
+
+	private static Lot readLot(DataInputStream in, int lotNumber, LotIndex lotIndex) throws IOException {
+		String sellerName = in.readUTF();
+		String description = in.readUTF();
+		Money reservePrice = Money.ofPence(in.readLong());
+		LotStatus status = STATUSES[in.readByte()];
+		boolean buyerCharged = in.readBoolean();
+		boolean sellerPaid = in.readBoolean();
+		String auctioneerName = in.readUTF();
+		Lot.HighBid highBid = null;
+		if(in.readBoolean()) {
+			highBid = new Lot.HighBid(in.readInt(), in.readUTF(), Money.ofPence(in.readLong()), in.readBoolean());
+		}
+		Lot lot = new Lot(sellerName, lotNumber, description, reservePrice, lotIndex);
+		lotIndex.lotAdded(lot);
+		for(int id = in.readInt(); id >= 0; id = in.readInt()) {
+			lot.getInterestedBuyers().add(id);
+		}
+		lot.restoreState(status, auctioneerName.isEmpty() ? null : auctioneerName, highBid, buyerCharged, sellerPaid);
+		return lot;
+	}
+}
@@ -3,6 +3,9 @@
  */
 package auctionhouse;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * @author pbj
  *
@@ -15,4 +18,17 @@ public interface BankingService {
             String receiverAccount,
             Money amount);
 
+    /**
+     * Makes several transfers in one call. Banks without a batch interface get this
+     * adapter, which makes the transfers one at a time.
+     * @return the status of each transfer, in the order given
+     */
+    default List<Status> transfer(List<Transfer> transfers) {
+        List<Status> results = new ArrayList<Status>(transfers.size());
+        for (Transfer t : transfers) {
+            results.add(transfer(t.senderAccount, t.senderAuthCode, t.receiverAccount, t.amount));
+        }
+        return results;
+    }
+
 }
@@ -0,0 +1,21 @@
+package auctionhouse;
+
+/**
+ * One bid, as passed to AuctionHouse.makeBids.
+ */
+public class BidCommand {
+	public final String buyerName;
+	public final int lotNumber;
+	public final Money amount;
+
+	public BidCommand(String buyerName, int lotNumber, Money amount) {
+		this.buyerName = buyerName;
+		this.lotNumber = lotNumber;
+		this.amount = amount;
+	}
+
+	@Override
+	public String toString() {
+		return buyerName + " bids " + amount + " on lot " + lotNumber;
+	}
+}
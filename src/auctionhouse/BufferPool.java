@@ -0,0 +1,50 @@
+package auctionhouse;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Pool of equal-sized direct buffers, for use by one thread. Buffers beyond the pool's
+ * capacity are left to the garbage collector when released.
+ */
+public class BufferPool {
+
+	private final int bufferSize;
+	private final int capacity;
+	private final ArrayDeque<ByteBuffer> free = new ArrayDeque<ByteBuffer>();
+
+	/**
+	 * @param bufferSize: size of every buffer
+	 * @param capacity: most buffers kept for reuse
+	 */
+	public BufferPool(int bufferSize, int capacity) {
+		this.bufferSize = bufferSize;
+		this.capacity = capacity;
+	}
+
+	public int bufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * @return an empty buffer
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer buffer = free.poll();
+		return buffer == null ? ByteBuffer.allocateDirect(bufferSize) : buffer;
+	}
+
+	/**
+	 * Returns a buffer to the pool; buffers not from acquire are dropped.
+	 */
+	public void release(ByteBuffer buffer) {
+		if(buffer.capacity() == bufferSize && buffer.isDirect() && free.size() < capacity) {
+			buffer.clear();
+			free.push(buffer);
+		}
+	}
+
+	public int freeCount() {
+		return free.size();
+	}
+}
@@ -2,19 +2,26 @@ package auctionhouse;
 
 public class Buyer {
 	
+	private int id;
 	private String name;
 	private String messagingAddress;
 	private String buyerAccount;
 	private String buyerAuthorisation;
 	
-	public Buyer(String name, String messagingAddress, String buyerAccount,
+	public Buyer(int id, String name, String messagingAddress, String buyerAccount,
 			String buyerAuthorisation) {
+		this.id = id;
 		this.name = name;
 		this.messagingAddress = messagingAddress;
 		this.buyerAccount = buyerAccount;
 		this.buyerAuthorisation = buyerAuthorisation;
 	}
 
+	// Compact identifier assigned by the auction house at registration.
+	public int getId() {
+		return id;
+	}
+
 	public String getName() {
 		return name;
 	}
@@ -12,7 +12,8 @@ public class CatalogueEntry {
 
 	public int lotNumber;
 	public String description;
-	public LotStatus status;
+	// Updated under the lot's lock, read by viewCatalogue without it.
+	public volatile LotStatus status;
 
 	public CatalogueEntry(int lotNumber, String description, LotStatus status) {
 		this.lotNumber = lotNumber;
@@ -0,0 +1,248 @@
+package auctionhouse;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Inverted index from lower-cased description words to lot numbers, built as lots are added.
+public class CatalogueSearchIndex {
+
+	// Lot numbers matching one query term, iterated in lot order.
+	private static abstract class Matches implements Iterable<Integer> {
+		abstract int size();
+		abstract boolean contains(Integer lotNumber);
+	}
+
+	// Lot numbers of the lots with one word. The size is kept separately as skip list sizes are O(n).
+	private static final class Posting extends Matches {
+		final NavigableSet<Integer> lotNumbers = new ConcurrentSkipListSet<Integer>();
+		final AtomicInteger size = new AtomicInteger();
+
+		int size() {
+			return size.get();
+		}
+
+		boolean contains(Integer lotNumber) {
+			return lotNumbers.contains(lotNumber);
+		}
+
+		public Iterator<Integer> iterator() {
+			return lotNumbers.iterator();
+		}
+	}
+
+	// The union of the postings of every word with a prefix, merged as it is iterated.
+	private static final class PrefixMatches extends Matches {
+		final Collection<Posting> postings;
+
+		PrefixMatches(Collection<Posting> postings) {
+			this.postings = postings;
+		}
+
+		// An upper bound: a lot with several of the words is counted once for each.
+		int size() {
+			int size = 0;
+			for(Posting posting: postings) {
+				size += posting.size();
+			}
+			return size;
+		}
+
+		boolean contains(Integer lotNumber) {
+			for(Posting posting: postings) {
+				if(posting.contains(lotNumber)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		public Iterator<Integer> iterator() {
+			return new MergingIterator(postings);
+		}
+	}
+
+	// K-way merge of iterators over sorted sets, skipping lot numbers already returned.
+	private static final class MergingIterator implements Iterator<Integer> {
+		// Each iterator with more to give, ordered by the lot number it gave last.
+		private final PriorityQueue<Head> heads;
+		private Integer last;
+
+		private static final class Head {
+			final Iterator<Integer> iterator;
+			Integer lotNumber;
+
+			Head(Iterator<Integer> iterator) {
+				this.iterator = iterator;
+				this.lotNumber = iterator.next();
+			}
+		}
+
+		MergingIterator(Collection<Posting> postings) {
+			heads = new PriorityQueue<Head>(Math.max(1, postings.size()), new Comparator<Head>() {
+				public int compare(Head h1, Head h2) {
+					return h1.lotNumber.compareTo(h2.lotNumber);
+				}
+			});
+			for(Posting posting: postings) {
+				Iterator<Integer> iterator = posting.iterator();
+				if(iterator.hasNext()) {
+					heads.add(new Head(iterator));
+				}
+			}
+		}
+
+		public boolean hasNext() {
+			// Drop heads repeating the lot number last returned.
+			while(!heads.isEmpty() && heads.peek().lotNumber.equals(last)) {
+				advance(heads.poll());
+			}
+			return !heads.isEmpty();
+		}
+
+		public Integer next() {
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Head head = heads.poll();
+			last = head.lotNumber;
+			advance(head);
+			return last;
+		}
+
+		private void advance(Head head) {
+			if(head.iterator.hasNext()) {
+				head.lotNumber = head.iterator.next();
+				heads.add(head);
+			}
+		}
+	}
+
+	private static final Comparator<Matches> SMALLEST_FIRST = new Comparator<Matches>() {
+		public int compare(Matches m1, Matches m2) {
+			return Integer.compare(m1.size(), m2.size());
+		}
+	};
+
+	private ConcurrentSkipListMap<String, Posting> postings = new ConcurrentSkipListMap<String, Posting>();
+	private LotIndex lotIndex;
+
+	public CatalogueSearchIndex(LotIndex lotIndex) {
+		this.lotIndex = lotIndex;
+	}
+
+	/**
+	 * Indexes every word of a lot's description.
+	 */
+	public void addLot(int lotNumber, String description) {
+		for(String term: terms(description, false)) {
+			Posting posting = postings.get(term);
+			if(posting == null) {
+				Posting created = new Posting();
+				posting = postings.putIfAbsent(term, created);
+				if(posting == null) {
+					posting = created;
+				}
+			}
+			if(posting.lotNumbers.add(lotNumber)) {
+				posting.size.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Finds the lots whose description contains every term of the query.
+	 * A term followed by '*' matches any word starting with the term.
+	 * @param query: split into terms as descriptions are, matched case-insensitively
+	 * @param status: only return lots in this status, or null for any status
+	 * @param limit: maximum number of lot numbers to return
+	 * @return the matching lot numbers, in lot order
+	 */
+	public List<Integer> search(String query, LotStatus status, int limit) {
+		List<Integer> result = new ArrayList<Integer>();
+		if(query == null || limit <= 0) {
+			return result;
+		}
+
+		List<Matches> termMatches = new ArrayList<Matches>();
+		for(String term: terms(query, true)) {
+			Matches matches;
+			if(term.endsWith("*")) {
+				matches = prefixMatches(term.substring(0, term.length() - 1));
+			} else {
+				matches = postings.get(term);
+			}
+			if(matches == null || matches.size() == 0) {
+				return result;
+			}
+			termMatches.add(matches);
+		}
+		if(termMatches.isEmpty()) {
+			return result;
+		}
+
+		// Walk the rarest term in lot order and probe the others.
+		Collections.sort(termMatches, SMALLEST_FIRST);
+		for(Integer lotNumber: termMatches.get(0)) {
+			if(matchesAll(termMatches, lotNumber) && (status == null || lotIndex.hasStatus(lotNumber, status))) {
+				result.add(lotNumber);
+				if(result.size() == limit) {
+					break;
+				}
+			}
+		}
+		return result;
+	}
+
+	private Matches prefixMatches(String prefix) {
+		Collection<Posting> words = postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values();
+		Iterator<Posting> first = words.iterator();
+		if(!first.hasNext()) {
+			return null;
+		}
+		Posting single = first.next();
+		// A single matching word needs no merging.
+		return first.hasNext() ? new PrefixMatches(words) : single;
+	}
+
+	private boolean matchesAll(List<Matches> termMatches, Integer lotNumber) {
+		for(int i = 1; i < termMatches.size(); i++) {
+			if(!termMatches.get(i).contains(lotNumber)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String normalise(String word) {
+		return word.toLowerCase(Locale.ROOT);
+	}
+
+	// Split a description or query into lower-cased runs of letters and digits. With
+	// markPrefixes, a run followed by '*' keeps the '*'.
+	private static List<String> terms(String text, boolean markPrefixes) {
+		List<String> terms = new ArrayList<String>();
+		int start = -1;
+		for(int i = 0; i <= text.length(); i++) {
+			boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+			if(wordChar && start < 0) {
+				start = i;
+			} else if(!wordChar && start >= 0) {
+				String term = normalise(text.substring(start, i));
+				terms.add(markPrefixes && i < text.length() && text.charAt(i) == '*' ? term + "*" : term);
+				start = -1;
+			}
+		}
+		return terms;
+	}
+}
@@ -0,0 +1,402 @@
+package auctionhouse;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of records on memory-mapped segment files.
+ *
+ * Each record is written as [length][crc32][body]. A zero length marks the end of the data
+ * in a segment; a record that does not fit starts the next segment. On opening, the records
+ * are checked up to the first torn or corrupt one, which ends the journal.
+ *
+ * append returns once the record is forced to disk. One flusher thread forces everything
+ * appended since its last force in a single call, so appends that arrive together share one
+ * force (group commit) and a caller waits for at most two forces.
+ */
+public class CommandJournal implements Closeable {
+
+	private static final String SEGMENT_PREFIX = "journal-";
+	private static final String SEGMENT_SUFFIX = ".seg";
+	// Length and checksum in front of each record body.
+	private static final int HEADER_SIZE = 8;
+
+	private static EngineLog log = new EngineLog("auctionhouse", CommandJournal.class);
+
+	private final Path directory;
+	private final int segmentSize;
+	private final Object lock = new Object();
+	private final Thread flusher;
+
+	// Guarded by lock.
+	private MappedByteBuffer segment;
+	private int segmentIndex;
+	// Positions count bytes over all segments: segmentIndex * segmentSize + offset.
+	private long appendedPosition;
+	private long durablePosition;
+	private boolean closed;
+	// Set if the flusher failed to force; every waiting and later append then fails.
+	private Throwable forceFailure;
+
+	// Valid records found on opening, for replay, and the position each starts at.
+	private final List<ByteBuffer> existingRecords = new ArrayList<ByteBuffer>();
+	private final List<Long> existingPositions = new ArrayList<Long>();
+
+	/**
+	 * Opens the journal in a directory, creating it if needed, and checks the records already there.
+	 * @param directory: directory holding the segment files
+	 * @param segmentSize: size of each segment file in bytes
+	 */
+	public CommandJournal(Path directory, int segmentSize) throws IOException {
+		if(segmentSize < 64) {
+			throw new IllegalArgumentException("segmentSize too small: " + segmentSize);
+		}
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		Files.createDirectories(directory);
+
+		List<Path> segments = segmentFiles();
+		int lastOffset = 0;
+		for(int i = 0; i < segments.size(); i++) {
+			int index = indexOf(segments.get(i));
+			MappedByteBuffer mapped = map(segments.get(i));
+			int end = readRecords(mapped, (long) index * segmentSize);
+			if(end < 0) {
+				// Torn write: nothing after it can be trusted, in this segment or later ones.
+				end = -end - 1;
+				for(int j = i + 1; j < segments.size(); j++) {
+					Files.delete(segments.get(j));
+				}
+				segments = segments.subList(0, i + 1);
+				zeroFrom(mapped, end);
+			}
+			segment = mapped;
+			segmentIndex = index;
+			lastOffset = end;
+		}
+		if(segment == null) {
+			segment = map(segmentPath(0));
+			segmentIndex = 0;
+		}
+		segment.position(lastOffset);
+		appendedPosition = currentPosition();
+		durablePosition = appendedPosition;
+
+		flusher = new Thread(new Runnable() {
+			public void run() {
+				flushUntilClosed();
+			}
+		}, "journal-flusher");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Passes every record found when the journal was opened to the consumer, oldest first,
+	 * then lets go of them; later calls replay nothing.
+	 */
+	public void replay(Consumer<ByteBuffer> consumer) {
+		replay(0, consumer);
+	}
+
+	/**
+	 * As replay(consumer), but skips the records that start before fromPosition.
+	 * @param fromPosition: a position returned by position()
+	 */
+	public void replay(long fromPosition, Consumer<ByteBuffer> consumer) {
+		for(int i = 0; i < existingRecords.size(); i++) {
+			if(existingPositions.get(i) >= fromPosition) {
+				consumer.accept(existingRecords.get(i));
+			}
+		}
+		existingRecords.clear();
+		existingPositions.clear();
+	}
+
+	/**
+	 * @return the position the next record will be appended at; every record appended so far
+	 *         starts before it
+	 */
+	public long position() {
+		synchronized(lock) {
+			return appendedPosition;
+		}
+	}
+
+	/**
+	 * Deletes the segment files that hold only records before a position, e.g. once a
+	 * snapshot covers them. The segment being appended to is never deleted.
+	 * @return the number of segment files deleted
+	 */
+	public int deleteSegmentsBefore(long position) throws IOException {
+		int current;
+		synchronized(lock) {
+			current = segmentIndex;
+		}
+		int deleted = 0;
+		for(Path path: segmentFiles()) {
+			int index = indexOf(path);
+			if(index < current && (long) (index + 1) * segmentSize <= position) {
+				Files.delete(path);
+				deleted++;
+			}
+		}
+		if(deleted > 0) {
+			log.info("Deleted {} journal segments before position {}", deleted, position);
+		}
+		return deleted;
+	}
+
+	/**
+	 * Appends a record and waits until it is on disk.
+	 * @throws UncheckedIOException if the record could not be written or forced
+	 */
+	public void append(byte[] body) {
+		int checksum = checksum(body);
+		long written;
+		synchronized(lock) {
+			written = write(body, checksum);
+			lock.notifyAll();
+		}
+		awaitDurable(written);
+	}
+
+	/**
+	 * Appends records in order, with nothing in between, and waits once until all are on disk.
+	 * @throws UncheckedIOException if a record could not be written or forced
+	 */
+	public void append(List<byte[]> bodies) {
+		if(bodies.isEmpty()) {
+			return;
+		}
+		int[] checksums = new int[bodies.size()];
+		for(int i = 0; i < checksums.length; i++) {
+			checksums[i] = checksum(bodies.get(i));
+		}
+		long written = 0;
+		synchronized(lock) {
+			for(int i = 0; i < checksums.length; i++) {
+				written = write(bodies.get(i), checksums[i]);
+			}
+			lock.notifyAll();
+		}
+		awaitDurable(written);
+	}
+
+	/**
+	 * Forces everything appended and stops the flusher. Later appends fail.
+	 */
+	public void close() throws IOException {
+		synchronized(lock) {
+			if(closed) {
+				return;
+			}
+			closed = true;
+			lock.notifyAll();
+		}
+		try {
+			flusher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized(lock) {
+			segment.force();
+		}
+	}
+
+	// Also checks the record fits in a segment.
+	private int checksum(byte[] body) {
+		if(HEADER_SIZE + body.length > segmentSize) {
+			throw new IllegalArgumentException("Record of " + body.length + " bytes does not fit in a segment");
+		}
+		CRC32 crc = new CRC32();
+		crc.update(body, 0, body.length);
+		return (int) crc.getValue();
+	}
+
+	// Called holding lock. @return the position after the record
+	private long write(byte[] body, int checksum) {
+		checkOpen();
+		if(segment.remaining() < HEADER_SIZE + body.length) {
+			nextSegment();
+		}
+		segment.putInt(body.length);
+		segment.putInt(checksum);
+		segment.put(body);
+		appendedPosition = currentPosition();
+		return appendedPosition;
+	}
+
+	private void flushUntilClosed() {
+		while(true) {
+			long target;
+			MappedByteBuffer toForce;
+			synchronized(lock) {
+				while(appendedPosition == durablePosition && !closed) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if(appendedPosition == durablePosition) {
+					return;
+				}
+				target = appendedPosition;
+				toForce = segment;
+			}
+			// Appends carry on into the buffer while it is forced and join the next group.
+			// Earlier segments were forced when they were filled.
+			try {
+				force(toForce);
+			} catch (RuntimeException | Error e) {
+				log.warning(e, "Journal force failed at position {}", target);
+				synchronized(lock) {
+					forceFailure = e;
+					lock.notifyAll();
+				}
+				return;
+			}
+			synchronized(lock) {
+				durablePosition = Math.max(durablePosition, target);
+				lock.notifyAll();
+			}
+		}
+	}
+
+	private void awaitDurable(long position) {
+		synchronized(lock) {
+			while(durablePosition < position) {
+				if(forceFailure != null || !flusher.isAlive()) {
+					throw forceFailed();
+				}
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted waiting for the journal", e);
+				}
+			}
+		}
+	}
+
+	// Called holding lock. Ends the current segment and maps the next one.
+	private void nextSegment() {
+		if(segment.remaining() >= 4) {
+			segment.putInt(0);
+		}
+		segment.force();
+		try {
+			segment = map(segmentPath(segmentIndex + 1));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		segmentIndex++;
+		// Everything before this segment is on disk.
+		durablePosition = Math.max(durablePosition, (long) segmentIndex * segmentSize);
+		log.info("Journal moved to segment {}", segmentIndex);
+	}
+
+	private void checkOpen() {
+		if(closed) {
+			throw new IllegalStateException("Journal is closed");
+		}
+		if(forceFailure != null) {
+			throw forceFailed();
+		}
+	}
+
+	// Called holding lock.
+	private UncheckedIOException forceFailed() {
+		IOException cause = forceFailure instanceof UncheckedIOException ? ((UncheckedIOException) forceFailure).getCause()
+				: new IOException("Journal flusher stopped", forceFailure);
+		return new UncheckedIOException("Record could not be forced to disk", cause);
+	}
+
+	// Forces a segment to disk. Package-private so tests can make it fail.
+	void force(MappedByteBuffer toForce) {
+		toForce.force();
+	}
+
+	private long currentPosition() {
+		return (long) segmentIndex * segmentSize + segment.position();
+	}
+
+	// Reads the records of a segment starting at segmentStart into existingRecords.
+	// @return the offset after the last record, or -(offset + 1) if a torn record starts there
+	private int readRecords(MappedByteBuffer mapped, long segmentStart) {
+		int offset = 0;
+		CRC32 crc = new CRC32();
+		while(offset + HEADER_SIZE <= segmentSize) {
+			int length = mapped.getInt(offset);
+			if(length == 0) {
+				return offset;
+			}
+			if(length < 0 || offset + HEADER_SIZE + length > segmentSize) {
+				return -offset - 1;
+			}
+			int checksum = mapped.getInt(offset + 4);
+			byte[] body = new byte[length];
+			ByteBuffer view = mapped.duplicate();
+			view.position(offset + HEADER_SIZE);
+			view.get(body);
+			crc.reset();
+			crc.update(body, 0, length);
+			if((int) crc.getValue() != checksum) {
+				return -offset - 1;
+			}
+			existingRecords.add(ByteBuffer.wrap(body));
+			existingPositions.add(segmentStart + offset);
+			offset += HEADER_SIZE + length;
+		}
+		return offset;
+	}
+
+	private static void zeroFrom(MappedByteBuffer mapped, int offset) {
+		for(int i = offset; i < mapped.capacity(); i++) {
+			mapped.put(i, (byte) 0);
+		}
+		mapped.force();
+	}
+
+	private MappedByteBuffer map(Path path) throws IOException {
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		}
+	}
+
+	private Path segmentPath(int index) {
+		return directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+	}
+
+	private static int indexOf(Path segment) {
+		String name = segment.getFileName().toString();
+		return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	private List<Path> segmentFiles() throws IOException {
+		List<Path> segments = new ArrayList<Path>();
+		try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for(Path path: stream) {
+				segments.add(path);
+			}
+		}
+		// Zero-padded indexes sort in order.
+		Collections.sort(segments);
+		return segments;
+	}
+}
@@ -0,0 +1,327 @@
+package auctionhouse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CommandJournalTest {
+
+    private Path directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("journal-test");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    private static List<String> replayStrings(CommandJournal journal) {
+        final List<String> records = new ArrayList<String>();
+        journal.replay(record -> {
+            byte[] bytes = new byte[record.remaining()];
+            record.get(bytes);
+            records.add(new String(bytes, StandardCharsets.UTF_8));
+        });
+        return records;
+    }
+
+    @Test
+    public void testConcurrentAppendsReplayAcrossSegments() throws Exception {
+        CommandJournal journal = new CommandJournal(directory, 256);
+        final int threads = 4;
+        final int perThread = 50;
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            workers.add(new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    journal.append(String.format("record %d-%03d", id, i).getBytes(StandardCharsets.UTF_8));
+                }
+            }));
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        journal.close();
+
+        List<String> replayed = replayStrings(new CommandJournal(directory, 256));
+        assertEquals(threads * perThread, replayed.size());
+        // Each thread's records come back in the order it wrote them.
+        for (int t = 0; t < threads; t++) {
+            List<String> own = new ArrayList<String>();
+            for (String record : replayed) {
+                if (record.startsWith("record " + t + "-")) {
+                    own.add(record);
+                }
+            }
+            List<String> sorted = new ArrayList<String>(own);
+            Collections.sort(sorted);
+            assertEquals(sorted, own);
+            assertEquals(perThread, own.size());
+        }
+    }
+
+    @Test
+    public void testTornRecordEndsJournal() throws Exception {
+        CommandJournal journal = new CommandJournal(directory, 1024);
+        journal.append("one".getBytes(StandardCharsets.UTF_8));
+        journal.append("two".getBytes(StandardCharsets.UTF_8));
+        journal.append("three".getBytes(StandardCharsets.UTF_8));
+        journal.close();
+
+        // Damage the body of the third record: 8 byte header, then the body.
+        try (RandomAccessFile file = new RandomAccessFile(directory.resolve("journal-00000000.seg").toFile(), "rw")) {
+            file.seek(2 * 8 + 3 + 3 + 8);
+            file.write('X');
+        }
+
+        journal = new CommandJournal(directory, 1024);
+        assertEquals(Arrays.asList("one", "two"), replayStrings(journal));
+        journal.append("four".getBytes(StandardCharsets.UTF_8));
+        journal.close();
+
+        assertEquals(Arrays.asList("one", "two", "four"), replayStrings(new CommandJournal(directory, 1024)));
+    }
+
+    // A failed force fails the appends waiting on it, and every later one, instead of hanging them.
+    @Test(timeout = 10000)
+    public void testFailedForceFailsAppends() throws Exception {
+        final AtomicBoolean failing = new AtomicBoolean();
+        CommandJournal journal = new CommandJournal(directory, 4096) {
+            @Override
+            void force(MappedByteBuffer toForce) {
+                if (failing.get()) {
+                    throw new UncheckedIOException(new IOException("Disk gone"));
+                }
+                super.force(toForce);
+            }
+        };
+        journal.append("durable".getBytes(StandardCharsets.UTF_8));
+
+        failing.set(true);
+        for (int i = 0; i < 2; i++) {
+            try {
+                journal.append("lost".getBytes(StandardCharsets.UTF_8));
+                fail("Expected the append to fail");
+            } catch (UncheckedIOException e) {
+                assertEquals("Disk gone", e.getCause().getMessage());
+            }
+        }
+        failing.set(false);
+        journal.close();
+    }
+
+    @Test
+    public void testRecordRoundTrip() {
+        JournalRecord record = JournalRecord.closeAuction("Auctioneer1", "BuyerB", 7, 10000,
+                LotStatus.SOLD_PENDING_PAYMENT, true, false);
+        JournalRecord decoded = JournalRecord.decode(ByteBuffer.wrap(record.encode()));
+        assertEquals(JournalRecord.Type.CLOSE_AUCTION, decoded.type);
+        assertEquals(7, decoded.lotNumber);
+        assertEquals(10000, decoded.pence);
+        assertEquals(LotStatus.SOLD_PENDING_PAYMENT, decoded.status());
+        assertEquals(true, decoded.buyerCharged());
+        assertEquals(false, decoded.sellerPaid());
+        assertEquals("BuyerB", decoded.string(1));
+    }
+
+    @Test
+    public void testAuctionHouseRebuiltFromJournal() throws Exception {
+        MockMessagingService messagingService = new MockMessagingService();
+        MockBankingService bankingService = new MockBankingService();
+        Parameters parameters = new Parameters(10.0, 15.0, new Money("10.00"), "AH A/C", "AH-auth",
+                messagingService, bankingService);
+
+        CommandJournal journal = new CommandJournal(directory, 4096);
+        AuctionHouseImp house = new AuctionHouseImp(parameters, journal);
+        assertEquals(Status.Kind.OK, house.registerSeller("SellerY", "@SellerY", "SY A/C").kind);
+        assertEquals(Status.Kind.OK, house.registerBuyer("BuyerA", "@BuyerA", "BA A/C", "BA-auth").kind);
+        assertEquals(Status.Kind.OK, house.registerBuyer("BuyerB", "@BuyerB", "BB A/C", "BB-auth").kind);
+        assertEquals(Status.Kind.OK, house.addLot("SellerY", 1, "Bicycle", new Money("80.00")).kind);
+        assertEquals(Status.Kind.OK, house.addLot("SellerY", 2, "Painting", new Money("200.00")).kind);
+        assertEquals(Status.Kind.OK, house.noteInterest("BuyerA", 1).kind);
+        assertEquals(Status.Kind.OK, house.noteInterest("BuyerB", 1).kind);
+        assertEquals(Status.Kind.OK, house.noteInterest("BuyerA", 2).kind);
+        assertEquals(Status.Kind.OK, house.openAuction("Auctioneer1", "@Auctioneer1", 1).kind);
+        assertEquals(Status.Kind.OK, house.openAuction("Auctioneer1", "@Auctioneer1", 2).kind);
+        assertEquals(Status.Kind.OK, house.makeBid("BuyerA", 1, new Money("70.00")).kind);
+        assertEquals(Status.Kind.OK, house.makeBid("BuyerB", 1, new Money("100.00")).kind);
+        assertEquals(Status.Kind.OK, house.makeBid("BuyerA", 2, new Money("50.00")).kind);
+        assertEquals(Status.Kind.NO_SALE, house.closeAuction("Auctioneer1", 2).kind);
+        journal.close();
+
+        // Restart: state comes back without any messages or transfers.
+        MockMessagingService restartMessaging = new MockMessagingService();
+        MockBankingService restartBanking = new MockBankingService();
+        AuctionHouseImp restarted = new AuctionHouseImp(new Parameters(10.0, 15.0, new Money("10.00"), "AH A/C",
+                "AH-auth", restartMessaging, restartBanking), new CommandJournal(directory, 4096));
+        assertEquals(0, restartMessaging.callCount());
+        assertEquals(0, restartBanking.transferCount());
+        assertEquals(Arrays.asList(1), restarted.lotsWithStatus(LotStatus.IN_AUCTION));
+        assertEquals(Arrays.asList(2), restarted.lotsWithStatus(LotStatus.UNSOLD));
+        assertEquals(Status.Kind.ERROR, restarted.registerBuyer("BuyerA", "@BuyerA", "BA A/C", "BA-auth").kind);
+        assertEquals(Status.Kind.ERROR, restarted.makeBid("BuyerA", 1, new Money("105.00")).kind);
+
+        // The replayed high bid wins.
+        assertEquals(Status.Kind.SALE, restarted.closeAuction("Auctioneer1", 1).kind);
+        restartBanking.expectTransfer("BB A/C", "BB-auth", "AH A/C", new Money("110.00"));
+        restartBanking.expectTransfer("AH A/C", "AH-auth", "SY A/C", new Money("85.00"));
+        restartBanking.verify();
+        restartMessaging.expectLotSold("@BuyerA", 1);
+        restartMessaging.expectLotSold("@BuyerB", 1);
+        restartMessaging.expectLotSold("@SellerY", 1);
+        restartMessaging.verify();
+    }
+
+    @Test
+    public void testCrashBetweenTransfersNeverChargesTwice() throws Exception {
+        final MockBankingService bankingService = new MockBankingService();
+        // Stands in for a crash after the buyer is charged, before the seller is paid.
+        BankingService crashingBank = new BankingService() {
+            public Status transfer(String senderAccount, String senderAuthCode, String receiverAccount, Money amount) {
+                if (receiverAccount.equals("SY A/C")) {
+                    throw new IllegalStateException("crash");
+                }
+                return bankingService.transfer(senderAccount, senderAuthCode, receiverAccount, amount);
+            }
+        };
+        CommandJournal journal = new CommandJournal(directory, 4096);
+        AuctionHouseImp house = new AuctionHouseImp(new Parameters(10.0, 15.0, new Money("10.00"), "AH A/C",
+                "AH-auth", new MockMessagingService(), crashingBank), journal);
+        house.registerSeller("SellerY", "@SellerY", "SY A/C");
+        house.registerBuyer("BuyerB", "@BuyerB", "BB A/C", "BB-auth");
+        house.addLot("SellerY", 1, "Bicycle", new Money("80.00"));
+        house.noteInterest("BuyerB", 1);
+        house.openAuction("Auctioneer1", "@Auctioneer1", 1);
+        house.makeBid("BuyerB", 1, new Money("100.00"));
+        try {
+            house.closeAuction("Auctioneer1", 1);
+        } catch (IllegalStateException e) {
+            // The crash.
+        }
+        journal.close();
+        assertEquals(1, bankingService.transferCount());
+
+        // The journal ends with the buyer's charge: the lot comes back sold, awaiting the seller's payment.
+        MockBankingService restartBanking = new MockBankingService();
+        AuctionHouseImp restarted = new AuctionHouseImp(new Parameters(10.0, 15.0, new Money("10.00"), "AH A/C",
+                "AH-auth", new MockMessagingService(), restartBanking), new CommandJournal(directory, 4096));
+        assertEquals(Arrays.asList(1), restarted.lotsWithStatus(LotStatus.SOLD_PENDING_PAYMENT));
+        assertEquals(Status.Code.NOT_IN_AUCTION, restarted.closeAuction("Auctioneer1", 1).code);
+        assertEquals(1, restarted.retryPendingPayments());
+        restartBanking.expectTransfer("AH A/C", "AH-auth", "SY A/C", new Money("85.00"));
+        restartBanking.verify();
+        assertEquals(1, restartBanking.transferCount());
+        assertEquals(Arrays.asList(1), restarted.lotsWithStatus(LotStatus.SOLD));
+    }
+
+    @Test
+    public void testBatchesRebuiltFromJournal() throws Exception {
+        Parameters parameters = new Parameters(10.0, 15.0, new Money("10.00"), "AH A/C", "AH-auth",
+                new MockMessagingService(), new MockBankingService());
+        CommandJournal journal = new CommandJournal(directory, 4096);
+        AuctionHouseImp house = new AuctionHouseImp(parameters, journal);
+        house.registerSeller("SellerY", "@SellerY", "SY A/C");
+        house.registerBuyer("BuyerA", "@BuyerA", "BA A/C", "BA-auth");
+        house.registerBuyer("BuyerB", "@BuyerB", "BB A/C", "BB-auth");
+        house.addLots(Arrays.asList(new AddLotCommand("SellerY", 1, "Bicycle", new Money("80.00")),
+                new AddLotCommand("SellerY", 2, "Painting", new Money("200.00"))));
+        house.noteInterests(Arrays.asList(new InterestCommand("BuyerA", 1), new InterestCommand("BuyerB", 1),
+                new InterestCommand("BuyerA", 2)));
+        house.openAuction("Auctioneer1", "@Auctioneer1", 1);
+        house.makeBids(Arrays.asList(new BidCommand("BuyerA", 1, new Money("70.00")),
+                new BidCommand("BuyerB", 1, new Money("100.00"))));
+        journal.close();
+
+        MockBankingService restartBanking = new MockBankingService();
+        AuctionHouseImp restarted = new AuctionHouseImp(new Parameters(10.0, 15.0, new Money("10.00"), "AH A/C",
+                "AH-auth", new MockMessagingService(), restartBanking), new CommandJournal(directory, 4096));
+        assertEquals(Status.Code.ALREADY_INTERESTED, restarted.noteInterest("BuyerA", 2).code);
+        assertEquals(Status.Kind.SALE, restarted.closeAuction("Auctioneer1", 1).kind);
+        restartBanking.expectTransfer("BB A/C", "BB-auth", "AH A/C", new Money("110.00"));
+        restartBanking.expectTransfer("AH A/C", "AH-auth", "SY A/C", new Money("85.00"));
+        restartBanking.verify();
+    }
+
+    @Test
+    public void testRestartFromSnapshotAndJournalTail() throws Exception {
+        Path snapshot = directory.resolve("house.snapshot");
+        MockBankingService bankingService = new MockBankingService();
+        Parameters parameters = new Parameters(10.0, 15.0, new Money("10.00"), "AH A/C", "AH-auth",
+                new MockMessagingService(), bankingService);
+
+        // Small segments, so the history before the snapshot fills several.
+        CommandJournal journal = new CommandJournal(directory, 256);
+        AuctionHouseImp house = new AuctionHouseImp(parameters, journal, snapshot);
+        assertEquals(Status.Kind.OK, house.registerSeller("SellerY", "@SellerY", "SY A/C").kind);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Status.Kind.OK, house.registerBuyer("Buyer" + i, "@Buyer" + i, "B" + i + " A/C", "B" + i + "-auth").kind);
+        }
+        for (int lot = 1; lot <= 3; lot++) {
+            assertEquals(Status.Kind.OK, house.addLot("SellerY", lot, "Old clock " + lot, new Money("50.00")).kind);
+            assertEquals(Status.Kind.OK, house.noteInterest("Buyer" + lot, lot).kind);
+            assertEquals(Status.Kind.OK, house.openAuction("Auctioneer1", "@Auctioneer1", lot).kind);
+        }
+        assertEquals(Status.Kind.OK, house.makeBid("Buyer1", 1, new Money("60.00")).kind);
+        assertEquals(Status.Kind.OK, house.makeBid("Buyer3", 3, new Money("40.00")).kind);
+        assertEquals(Status.Kind.NO_SALE, house.closeAuction("Auctioneer1", 3).kind);
+
+        assertEquals(true, house.compact(snapshot) > 0);
+
+        // The tail after the snapshot.
+        assertEquals(Status.Kind.OK, house.makeBid("Buyer2", 2, new Money("70.00")).kind);
+        assertEquals(Status.Kind.OK, house.registerBuyer("Late", "@Late", "L A/C", "L-auth").kind);
+        assertEquals(Status.Kind.OK, house.noteInterest("Late", 1).kind);
+        assertEquals(Status.Kind.OK, house.makeBid("Late", 1, new Money("80.00")).kind);
+        journal.close();
+
+        AuctionHouseImp restarted = new AuctionHouseImp(parameters, new CommandJournal(directory, 256), snapshot);
+        assertEquals(Arrays.asList(1, 2), restarted.lotsWithStatus(LotStatus.IN_AUCTION));
+        assertEquals(Arrays.asList(3), restarted.lotsWithStatus(LotStatus.UNSOLD));
+        assertEquals(Arrays.asList(1, 2, 3), restarted.searchCatalogue("clock", null, 10));
+        assertEquals(Status.Kind.ERROR, restarted.registerBuyer("Buyer5", "@Buyer5", "B5 A/C", "B5-auth").kind);
+
+        // A buyer registered now gets an id of its own.
+        assertEquals(Status.Kind.OK, restarted.registerBuyer("New", "@New", "N A/C", "N-auth").kind);
+        assertEquals(Status.Kind.OK, restarted.noteInterest("New", 2).kind);
+        assertEquals(Status.Kind.ERROR, restarted.makeBid("Buyer1", 1, new Money("85.00")).kind);
+        assertEquals(Status.Kind.OK, restarted.makeBid("New", 2, new Money("90.00")).kind);
+
+        assertEquals(Status.Kind.SALE, restarted.closeAuction("Auctioneer1", 1).kind);
+        assertEquals(Status.Kind.SALE, restarted.closeAuction("Auctioneer1", 2).kind);
+        bankingService.expectTransfer("L A/C", "L-auth", "AH A/C", new Money("88.00"));
+        bankingService.expectTransfer("AH A/C", "AH-auth", "SY A/C", new Money("65.00"));
+        bankingService.expectTransfer("N A/C", "N-auth", "AH A/C", new Money("99.00"));
+        bankingService.expectTransfer("AH A/C", "AH-auth", "SY A/C", new Money("75.00"));
+        bankingService.verify();
+    }
+}
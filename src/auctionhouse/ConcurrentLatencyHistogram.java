@@ -0,0 +1,83 @@
+package auctionhouse;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * LatencyHistogram buckets shared by any number of recording threads. As in LongAdder, the
+ * counts are striped: each thread records into the stripe its id hashes to, so threads rarely
+ * share buckets or a maximum, and a stripe is only created once a thread records into it.
+ * Recording is one atomic increment and, for a new maximum of the stripe, a compare-and-set;
+ * it takes no lock and, once the stripe exists, allocates nothing, so it can be left on
+ * permanently. Readers take a snapshot, which merges the stripes.
+ */
+public class ConcurrentLatencyHistogram {
+
+	// A power of two, at least twice the processors, so recording threads rarely collide.
+	private static final int STRIPES = stripeCount(Runtime.getRuntime().availableProcessors());
+
+	private static final class Stripe {
+		final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.BUCKETS);
+		final AtomicLong max = new AtomicLong();
+	}
+
+	private final AtomicReferenceArray<Stripe> stripes = new AtomicReferenceArray<Stripe>(STRIPES);
+
+	public void record(long nanos) {
+		if(nanos < 0) {
+			nanos = 0;
+		}
+		Stripe stripe = stripe();
+		stripe.counts.getAndIncrement(LatencyHistogram.bucketOf(nanos));
+		for(long current = stripe.max.get(); nanos > current; current = stripe.max.get()) {
+			if(stripe.max.compareAndSet(current, nanos)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * @return a copy of the counts so far. Buckets are read one at a time, so recordings made
+	 *         meanwhile may be partly included.
+	 */
+	public LatencyHistogram snapshot() {
+		long[] counts = new long[LatencyHistogram.BUCKETS];
+		long maxValue = 0;
+		for(int s = 0; s < STRIPES; s++) {
+			Stripe stripe = stripes.get(s);
+			if(stripe == null) {
+				continue;
+			}
+			maxValue = Math.max(maxValue, stripe.max.get());
+			for(int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+				counts[i] += stripe.counts.get(i);
+			}
+		}
+		LatencyHistogram snapshot = new LatencyHistogram();
+		for(int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+			if(counts[i] != 0) {
+				snapshot.addToBucket(i, counts[i], Math.min(maxValue, LatencyHistogram.upperBound(i)));
+			}
+		}
+		return snapshot;
+	}
+
+	private Stripe stripe() {
+		long id = Thread.currentThread().getId();
+		int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+		int i = (h ^ (h >>> 16)) & (STRIPES - 1);
+		Stripe stripe = stripes.get(i);
+		if(stripe == null) {
+			stripes.compareAndSet(i, null, new Stripe());
+			stripe = stripes.get(i);
+		}
+		return stripe;
+	}
+
+	static int stripeCount(int processors) {
+		int wanted = Math.min(64, 2 * Math.max(1, processors));
+		int stripes = Integer.highestOneBit(wanted);
+		return stripes < wanted ? stripes << 1 : stripes;
+	}
+}
@@ -0,0 +1,27 @@
+package auctionhouse;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * BankingService that accepts every transfer and only counts them and their total, for
+ * driving sustained load.
+ */
+public class CountingBankingService implements BankingService {
+
+	private final LongAdder transfers = new LongAdder();
+	private final LongAdder pence = new LongAdder();
+
+	public Status transfer(String senderAccount, String senderAuthCode, String receiverAccount, Money amount) {
+		transfers.increment();
+		pence.add(amount.getPence());
+		return Status.OK();
+	}
+
+	public long transferCount() {
+		return transfers.sum();
+	}
+
+	public long transferredPence() {
+		return pence.sum();
+	}
+}
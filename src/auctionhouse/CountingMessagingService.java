@@ -0,0 +1,71 @@
+package auctionhouse;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MessagingService that only counts the messages it is given, for driving sustained load.
+ * Unlike MockMessagingService it keeps nothing and formats nothing, and counting does not
+ * contend between threads.
+ */
+public class CountingMessagingService implements MessagingService {
+
+	private final LongAdder opened = new LongAdder();
+	private final LongAdder bids = new LongAdder();
+	private final LongAdder sold = new LongAdder();
+	private final LongAdder unsold = new LongAdder();
+
+	public void auctionOpened(String address, int lotNumber) {
+		opened.increment();
+	}
+
+	public void bidAccepted(String address, int lotNumber, Money amount) {
+		bids.increment();
+	}
+
+	public void lotSold(String address, int lotNumber) {
+		sold.increment();
+	}
+
+	public void lotUnsold(String address, int lotNumber) {
+		unsold.increment();
+	}
+
+	// Multicasts count one message per address without iterating.
+
+	public void auctionOpened(Collection<String> addresses, int lotNumber) {
+		opened.add(addresses.size());
+	}
+
+	public void bidAccepted(Collection<String> addresses, int lotNumber, Money amount) {
+		bids.add(addresses.size());
+	}
+
+	public void lotSold(Collection<String> addresses, int lotNumber) {
+		sold.add(addresses.size());
+	}
+
+	public void lotUnsold(Collection<String> addresses, int lotNumber) {
+		unsold.add(addresses.size());
+	}
+
+	public long openedCount() {
+		return opened.sum();
+	}
+
+	public long bidCount() {
+		return bids.sum();
+	}
+
+	public long soldCount() {
+		return sold.sum();
+	}
+
+	public long unsoldCount() {
+		return unsold.sum();
+	}
+
+	public long messageCount() {
+		return opened.sum() + bids.sum() + sold.sum() + unsold.sum();
+	}
+}
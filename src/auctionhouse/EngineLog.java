@@ -0,0 +1,194 @@
+package auctionhouse;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Level-guarded logging for the engine classes, over a java.util.logging Logger.
+ *
+ * Messages are templates in which each "{}" is replaced by the next argument. Nothing is
+ * formatted, and no LogRecord is created, unless the logger would publish the message at
+ * that level, so a disabled call costs one level check. The fixed-arity overloads spare
+ * callers a varargs array, but primitive arguments are still boxed before the check, so hot
+ * paths that pass them guard the call with isInfoEnabled() or isLoggable(). Records carry
+ * the source class, so the logger never walks the stack to find it.
+ *
+ * event(...) logs a structured event: an event name followed by key=value pairs, e.g.
+ * "bid.accepted lot=3 amount=70.00".
+ */
+public final class EngineLog {
+
+	private final Logger logger;
+	private final String sourceClass;
+
+	/**
+	 * @param loggerName: name of the underlying Logger, e.g. "auctionhouse"
+	 * @param source: class the messages are logged from
+	 */
+	public EngineLog(String loggerName, Class<?> source) {
+		this.logger = Logger.getLogger(loggerName);
+		this.sourceClass = source.getName();
+	}
+
+	public boolean isLoggable(Level level) {
+		return logger.isLoggable(level);
+	}
+
+	public boolean isFineEnabled() {
+		return logger.isLoggable(Level.FINE);
+	}
+
+	public boolean isInfoEnabled() {
+		return logger.isLoggable(Level.INFO);
+	}
+
+	/*
+	 * FINE
+	 */
+
+	public void fine(String message) {
+		if(logger.isLoggable(Level.FINE)) {
+			logger.logp(Level.FINE, sourceClass, null, message);
+		}
+	}
+
+	public void fine(String template, Object arg) {
+		if(logger.isLoggable(Level.FINE)) {
+			logger.logp(Level.FINE, sourceClass, null, format(template, arg, null, null, 1));
+		}
+	}
+
+	public void fine(String template, Object arg1, Object arg2) {
+		if(logger.isLoggable(Level.FINE)) {
+			logger.logp(Level.FINE, sourceClass, null, format(template, arg1, arg2, null, 2));
+		}
+	}
+
+	public void fine(String template, Object arg1, Object arg2, Object arg3) {
+		if(logger.isLoggable(Level.FINE)) {
+			logger.logp(Level.FINE, sourceClass, null, format(template, arg1, arg2, arg3, 3));
+		}
+	}
+
+	/*
+	 * INFO
+	 */
+
+	public void info(String message) {
+		if(logger.isLoggable(Level.INFO)) {
+			logger.logp(Level.INFO, sourceClass, null, message);
+		}
+	}
+
+	public void info(String template, Object arg) {
+		if(logger.isLoggable(Level.INFO)) {
+			logger.logp(Level.INFO, sourceClass, null, format(template, arg, null, null, 1));
+		}
+	}
+
+	public void info(String template, Object arg1, Object arg2) {
+		if(logger.isLoggable(Level.INFO)) {
+			logger.logp(Level.INFO, sourceClass, null, format(template, arg1, arg2, null, 2));
+		}
+	}
+
+	public void info(String template, Object arg1, Object arg2, Object arg3) {
+		if(logger.isLoggable(Level.INFO)) {
+			logger.logp(Level.INFO, sourceClass, null, format(template, arg1, arg2, arg3, 3));
+		}
+	}
+
+	/*
+	 * WARNING
+	 */
+
+	public void warning(String message) {
+		if(logger.isLoggable(Level.WARNING)) {
+			logger.logp(Level.WARNING, sourceClass, null, message);
+		}
+	}
+
+	public void warning(String template, Object arg) {
+		if(logger.isLoggable(Level.WARNING)) {
+			logger.logp(Level.WARNING, sourceClass, null, format(template, arg, null, null, 1));
+		}
+	}
+
+	public void warning(String template, Object arg1, Object arg2) {
+		if(logger.isLoggable(Level.WARNING)) {
+			logger.logp(Level.WARNING, sourceClass, null, format(template, arg1, arg2, null, 2));
+		}
+	}
+
+	public void warning(String template, Object arg1, Object arg2, Object arg3) {
+		if(logger.isLoggable(Level.WARNING)) {
+			logger.logp(Level.WARNING, sourceClass, null, format(template, arg1, arg2, arg3, 3));
+		}
+	}
+
+	public void warning(Throwable thrown, String template, Object arg) {
+		if(logger.isLoggable(Level.WARNING)) {
+			logger.logp(Level.WARNING, sourceClass, null, format(template, arg, null, null, 1), thrown);
+		}
+	}
+
+	public void warning(Throwable thrown, String template, Object arg1, Object arg2) {
+		if(logger.isLoggable(Level.WARNING)) {
+			logger.logp(Level.WARNING, sourceClass, null, format(template, arg1, arg2, null, 2), thrown);
+		}
+	}
+
+	/*
+	 * Structured events
+	 */
+
+	public void event(Level level, String name, String key, Object value) {
+		if(logger.isLoggable(level)) {
+			logger.logp(level, sourceClass, null, eventString(name, key, value, null, null, null, null));
+		}
+	}
+
+	public void event(Level level, String name, String key1, Object value1, String key2, Object value2) {
+		if(logger.isLoggable(level)) {
+			logger.logp(level, sourceClass, null, eventString(name, key1, value1, key2, value2, null, null));
+		}
+	}
+
+	public void event(Level level, String name, String key1, Object value1, String key2, Object value2,
+			String key3, Object value3) {
+		if(logger.isLoggable(level)) {
+			logger.logp(level, sourceClass, null, eventString(name, key1, value1, key2, value2, key3, value3));
+		}
+	}
+
+	// Replace the first argCount "{}" in the template with the arguments, in order.
+	static String format(String template, Object arg1, Object arg2, Object arg3, int argCount) {
+		StringBuilder sb = new StringBuilder(template.length() + 16 * argCount);
+		int from = 0;
+		for(int i = 0; i < argCount; i++) {
+			int at = template.indexOf("{}", from);
+			if(at < 0) {
+				break;
+			}
+			sb.append(template, from, at).append(i == 0 ? arg1 : i == 1 ? arg2 : arg3);
+			from = at + 2;
+		}
+		return sb.append(template, from, template.length()).toString();
+	}
+
+	// Keys left null are skipped.
+	static String eventString(String name, String key1, Object value1, String key2, Object value2,
+			String key3, Object value3) {
+		StringBuilder sb = new StringBuilder(name);
+		appendField(sb, key1, value1);
+		appendField(sb, key2, value2);
+		appendField(sb, key3, value3);
+		return sb.toString();
+	}
+
+	private static void appendField(StringBuilder sb, String key, Object value) {
+		if(key != null) {
+			sb.append(' ').append(key).append('=').append(value);
+		}
+	}
+}
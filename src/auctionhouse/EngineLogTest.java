@@ -0,0 +1,74 @@
+package auctionhouse;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+
+public class EngineLogTest {
+
+    // Counts how often it is turned into a string.
+    private static class CountingArg {
+        int formatted;
+
+        @Override
+        public String toString() {
+            formatted++;
+            return "arg";
+        }
+    }
+
+    private static class RecordingHandler extends Handler {
+        final List<LogRecord> records = new ArrayList<LogRecord>();
+
+        public void publish(LogRecord record) {
+            records.add(record);
+        }
+        public void flush() {
+        }
+        public void close() {
+        }
+    }
+
+    @Test
+    public void testFormat() {
+        assertEquals("Lot 3 sold to Buyer1", EngineLog.format("Lot {} sold to {}", 3, "Buyer1", null, 2));
+        assertEquals("no args", EngineLog.format("no args", null, null, null, 0));
+        assertEquals("extra {}", EngineLog.format("extra {}", null, null, null, 0));
+        assertEquals("x=null", EngineLog.format("x={}", null, null, null, 1));
+        assertEquals("bid.accepted lot=3 amount=70.00",
+                EngineLog.eventString("bid.accepted", "lot", 3, "amount", new Money("70.00"), null, null));
+    }
+
+    @Test
+    public void testNothingFormattedWhenDisabled() {
+        Logger logger = Logger.getLogger("auctionhouse.enginelogtest");
+        logger.setUseParentHandlers(false);
+        RecordingHandler handler = new RecordingHandler();
+        logger.addHandler(handler);
+        try {
+            EngineLog log = new EngineLog("auctionhouse.enginelogtest", EngineLogTest.class);
+            CountingArg arg = new CountingArg();
+
+            logger.setLevel(Level.WARNING);
+            log.info("Value {}", arg);
+            log.event(Level.FINE, "test.event", "value", arg);
+            assertEquals(0, arg.formatted);
+            assertEquals(0, handler.records.size());
+
+            log.warning("Value {}", arg);
+            assertEquals(1, arg.formatted);
+            assertEquals(1, handler.records.size());
+            assertEquals("Value arg", handler.records.get(0).getMessage());
+            assertEquals(EngineLogTest.class.getName(), handler.records.get(0).getSourceClassName());
+        } finally {
+            logger.removeHandler(handler);
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package auctionhouse;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * AuctionHouse decorator that records, for every call, its latency in a histogram for its
+ * operation and returned Status kind, and counts rejected bids by Status code. Recording takes no
+ * lock and allocates nothing. The figures are read through AuctionHouseMetricsMXBean, and
+ * register publishes them on the platform MBean server.
+ *
+ * Open lots are counted from the auctions opened and closed through this wrapper. Settlement
+ * and notification queue depths are read from the pipeline and dispatcher given to monitor.
+ */
+public class InstrumentedAuctionHouse implements AuctionHouse, AuctionHouseMetricsMXBean {
+
+	public enum Operation {
+		REGISTER_BUYER("registerBuyer"),
+		REGISTER_SELLER("registerSeller"),
+		ADD_LOT("addLot"),
+		VIEW_CATALOGUE("viewCatalogue"),
+		SEARCH_CATALOGUE("searchCatalogue"),
+		NOTE_INTEREST("noteInterest"),
+		OPEN_AUCTION("openAuction"),
+		MAKE_BID("makeBid"),
+		CLOSE_AUCTION("closeAuction");
+
+		final String methodName;
+
+		Operation(String methodName) {
+			this.methodName = methodName;
+		}
+	}
+
+	private static final Operation[] OPERATIONS = Operation.values();
+	private static final Status.Kind[] KINDS = Status.Kind.values();
+	private static final Status.Code[] CODES = Status.Code.values();
+
+	private final AuctionHouse delegate;
+	// Indexed by operation ordinal * KINDS.length + kind ordinal.
+	private final ConcurrentLatencyHistogram[] latencies;
+	private final LongAdder bidsAccepted = new LongAdder();
+	// Rejected bids, indexed by Status.Code ordinal.
+	private final AtomicLongArray bidRejections = new AtomicLongArray(CODES.length);
+	private final LongAdder openLots = new LongAdder();
+	private volatile SettlementPipeline settlementPipeline;
+	private volatile NotificationDispatcher notificationDispatcher;
+
+	public InstrumentedAuctionHouse(AuctionHouse delegate) {
+		this.delegate = delegate;
+		latencies = new ConcurrentLatencyHistogram[OPERATIONS.length * KINDS.length];
+		for(int i = 0; i < latencies.length; i++) {
+			latencies[i] = new ConcurrentLatencyHistogram();
+		}
+	}
+
+	/**
+	 * Reports the queue depth of a settlement pipeline, e.g. the one returned by
+	 * AuctionHouseImp.startSettlementPipeline.
+	 */
+	public void monitor(SettlementPipeline pipeline) {
+		this.settlementPipeline = pipeline;
+	}
+
+	/**
+	 * Reports the queue depth of the dispatcher the house messages through.
+	 */
+	public void monitor(NotificationDispatcher dispatcher) {
+		this.notificationDispatcher = dispatcher;
+	}
+
+	/**
+	 * Registers this as an MXBean on the platform MBean server, as
+	 * "auctionhouse:type=AuctionHouse,name=<name>".
+	 * @return the name registered
+	 */
+	public ObjectName register(String name) throws JMException {
+		ObjectName objectName = new ObjectName("auctionhouse:type=AuctionHouse,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	}
+
+	public void unregister(ObjectName objectName) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		if(server.isRegistered(objectName)) {
+			server.unregisterMBean(objectName);
+		}
+	}
+
+	/**
+	 * @return a copy of the latencies recorded so far for an operation and kind
+	 */
+	public LatencyHistogram latency(Operation operation, Status.Kind kind) {
+		return histogram(operation, kind).snapshot();
+	}
+
+	public long bidRejections(Status.Code reason) {
+		return bidRejections.get(reason.ordinal());
+	}
+
+	/*
+	 * AuctionHouse
+	 */
+
+	public Status registerBuyer(String name, String address, String bankAccount, String bankAuthCode) {
+		long start = System.nanoTime();
+		return record(Operation.REGISTER_BUYER, start, delegate.registerBuyer(name, address, bankAccount, bankAuthCode));
+	}
+
+	public Status registerSeller(String name, String address, String bankAccount) {
+		long start = System.nanoTime();
+		return record(Operation.REGISTER_SELLER, start, delegate.registerSeller(name, address, bankAccount));
+	}
+
+	public Status addLot(String sellerName, int number, String description, Money reservePrice) {
+		long start = System.nanoTime();
+		return record(Operation.ADD_LOT, start, delegate.addLot(sellerName, number, description, reservePrice));
+	}
+
+	public List<CatalogueEntry> viewCatalogue() {
+		long start = System.nanoTime();
+		List<CatalogueEntry> catalogue = delegate.viewCatalogue();
+		histogram(Operation.VIEW_CATALOGUE, Status.Kind.OK).record(System.nanoTime() - start);
+		return catalogue;
+	}
+
+	public List<CatalogueEntry> viewCatalogue(int fromLotNumber, int limit) {
+		long start = System.nanoTime();
+		List<CatalogueEntry> catalogue = delegate.viewCatalogue(fromLotNumber, limit);
+		histogram(Operation.VIEW_CATALOGUE, Status.Kind.OK).record(System.nanoTime() - start);
+		return catalogue;
+	}
+
+	public List<Integer> searchCatalogue(String query, LotStatus status, int limit) {
+		long start = System.nanoTime();
+		List<Integer> found = delegate.searchCatalogue(query, status, limit);
+		histogram(Operation.SEARCH_CATALOGUE, Status.Kind.OK).record(System.nanoTime() - start);
+		return found;
+	}
+
+	public Status noteInterest(String buyerName, int lotNumber) {
+		long start = System.nanoTime();
+		return record(Operation.NOTE_INTEREST, start, delegate.noteInterest(buyerName, lotNumber));
+	}
+
+	public Status openAuction(String auctioneerName, String auctioneerAddress, int lotNumber) {
+		long start = System.nanoTime();
+		Status status = record(Operation.OPEN_AUCTION, start, delegate.openAuction(auctioneerName, auctioneerAddress, lotNumber));
+		if(status.kind == Status.Kind.OK) {
+			openLots.increment();
+		}
+		return status;
+	}
+
+	public Status makeBid(String buyerName, int lotNumber, Money bid) {
+		long start = System.nanoTime();
+		Status status = record(Operation.MAKE_BID, start, delegate.makeBid(buyerName, lotNumber, bid));
+		if(status.kind == Status.Kind.OK) {
+			bidsAccepted.increment();
+		} else {
+			bidRejections.getAndIncrement(status.code.ordinal());
+		}
+		return status;
+	}
+
+	public Status closeAuction(String auctioneerName, int lotNumber) {
+		long start = System.nanoTime();
+		Status status = record(Operation.CLOSE_AUCTION, start, delegate.closeAuction(auctioneerName, lotNumber));
+		if(status.kind != Status.Kind.ERROR) {
+			openLots.decrement();
+		}
+		return status;
+	}
+
+	/*
+	 * Batches go to the delegate's batch calls, so it can share work across them. Each result
+	 * is recorded as a call of the single operation taking the batch's average time.
+	 */
+
+	@Override
+	public List<Status> makeBids(List<BidCommand> bids) {
+		long start = System.nanoTime();
+		List<Status> results = delegate.makeBids(bids);
+		recordBatch(Operation.MAKE_BID, start, results);
+		for(Status status: results) {
+			if(status.kind == Status.Kind.OK) {
+				bidsAccepted.increment();
+			} else {
+				bidRejections.getAndIncrement(status.code.ordinal());
+			}
+		}
+		return results;
+	}
+
+	@Override
+	public List<Status> noteInterests(List<InterestCommand> interests) {
+		long start = System.nanoTime();
+		List<Status> results = delegate.noteInterests(interests);
+		recordBatch(Operation.NOTE_INTEREST, start, results);
+		return results;
+	}
+
+	@Override
+	public List<Status> addLots(List<AddLotCommand> lots) {
+		long start = System.nanoTime();
+		List<Status> results = delegate.addLots(lots);
+		recordBatch(Operation.ADD_LOT, start, results);
+		return results;
+	}
+
+	/*
+	 * AuctionHouseMetricsMXBean
+	 */
+
+	public Map<String, Long> getCallCounts() {
+		Map<String, Long> counts = new TreeMap<String, Long>();
+		for(Operation operation: OPERATIONS) {
+			for(Status.Kind kind: KINDS) {
+				long count = latency(operation, kind).count();
+				if(count > 0) {
+					counts.put(key(operation, kind), count);
+				}
+			}
+		}
+		return counts;
+	}
+
+	public Map<String, Double> getLatencyP50Micros() {
+		return percentiles(50);
+	}
+
+	public Map<String, Double> getLatencyP99Micros() {
+		return percentiles(99);
+	}
+
+	public Map<String, Double> getLatencyP999Micros() {
+		return percentiles(99.9);
+	}
+
+	public Map<String, Double> getLatencyMaxMicros() {
+		return percentiles(100);
+	}
+
+	public long getBidsAccepted() {
+		return bidsAccepted.sum();
+	}
+
+	public long getBidsRejected() {
+		long rejected = 0;
+		for(int i = 0; i < CODES.length; i++) {
+			rejected += bidRejections.get(i);
+		}
+		return rejected;
+	}
+
+	public Map<String, Long> getBidRejections() {
+		Map<String, Long> rejections = new TreeMap<String, Long>();
+		for(Status.Code reason: CODES) {
+			long count = bidRejections.get(reason.ordinal());
+			if(count > 0) {
+				rejections.put(reason.name(), count);
+			}
+		}
+		return rejections;
+	}
+
+	public long getOpenLots() {
+		return openLots.sum();
+	}
+
+	public long getSettlementQueueDepth() {
+		SettlementPipeline pipeline = settlementPipeline;
+		return pipeline == null ? -1 : pipeline.pendingCount();
+	}
+
+	public long getNotificationQueueDepth() {
+		NotificationDispatcher dispatcher = notificationDispatcher;
+		return dispatcher == null ? -1 : dispatcher.queueDepth();
+	}
+
+	private ConcurrentLatencyHistogram histogram(Operation operation, Status.Kind kind) {
+		return latencies[operation.ordinal() * KINDS.length + kind.ordinal()];
+	}
+
+	private Status record(Operation operation, long start, Status status) {
+		histogram(operation, status.kind).record(System.nanoTime() - start);
+		return status;
+	}
+
+	private void recordBatch(Operation operation, long start, List<Status> results) {
+		if(results.isEmpty()) {
+			return;
+		}
+		long each = (System.nanoTime() - start) / results.size();
+		for(Status status: results) {
+			histogram(operation, status.kind).record(each);
+		}
+	}
+
+	private Map<String, Double> percentiles(double percentile) {
+		Map<String, Double> values = new TreeMap<String, Double>();
+		for(Operation operation: OPERATIONS) {
+			for(Status.Kind kind: KINDS) {
+				LatencyHistogram histogram = latency(operation, kind);
+				if(histogram.count() > 0) {
+					values.put(key(operation, kind), histogram.percentile(percentile) / 1e3);
+				}
+			}
+		}
+		return values;
+	}
+
+	private static String key(Operation operation, Status.Kind kind) {
+		return operation.methodName + "." + kind;
+	}
+}
@@ -0,0 +1,128 @@
+package auctionhouse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class InstrumentedAuctionHouseTest {
+
+    private InstrumentedAuctionHouse house;
+
+    @Before
+    public void setup() {
+        house = new InstrumentedAuctionHouse(new AuctionHouseImp(new Parameters(10.0, 15.0, new Money("10.00"),
+                "AH A/C", "AH-auth", new MockMessagingService(), new MockBankingService())));
+        house.registerSeller("SellerY", "@SellerY", "SY A/C");
+        house.registerBuyer("BuyerA", "@BuyerA", "BA A/C", "BA-auth");
+        house.registerBuyer("BuyerB", "@BuyerB", "BB A/C", "BB-auth");
+        house.addLot("SellerY", 1, "Bicycle", new Money("80.00"));
+        house.noteInterest("BuyerA", 1);
+    }
+
+    @Test
+    public void testCountsCallsAndBidRejections() {
+        house.makeBid("BuyerA", 1, new Money("90.00"));   // not in auction
+        house.openAuction("Auctioneer1", "@Auctioneer1", 1);
+        assertEquals(1, house.getOpenLots());
+        house.makeBid("BuyerA", 1, new Money("90.00"));   // accepted
+        house.makeBid("BuyerA", 1, new Money("95.00"));   // under the increment
+        house.makeBid("BuyerB", 1, new Money("120.00"));  // not interested
+        house.makeBid("BuyerC", 1, new Money("120.00"));  // not registered
+        house.makeBid("BuyerA", 7, new Money("120.00"));  // no such lot
+        house.closeAuction("Auctioneer1", 1);
+        house.viewCatalogue();
+
+        assertEquals(1, house.getBidsAccepted());
+        assertEquals(5, house.getBidsRejected());
+        assertEquals(1, house.bidRejections(Status.Code.NOT_IN_AUCTION));
+        assertEquals(1, house.bidRejections(Status.Code.BID_TOO_LOW));
+        assertEquals(1, house.bidRejections(Status.Code.NOT_INTERESTED));
+        assertEquals(1, house.bidRejections(Status.Code.NOT_REGISTERED));
+        assertEquals(1, house.bidRejections(Status.Code.NO_SUCH_LOT));
+        assertEquals(0, house.getOpenLots());
+
+        assertEquals(Long.valueOf(1), house.getCallCounts().get("makeBid.OK"));
+        assertEquals(Long.valueOf(5), house.getCallCounts().get("makeBid.ERROR"));
+        assertEquals(Long.valueOf(1), house.getCallCounts().get("closeAuction.SALE"));
+        assertEquals(Long.valueOf(1), house.getCallCounts().get("viewCatalogue.OK"));
+        assertEquals(5, house.latency(InstrumentedAuctionHouse.Operation.MAKE_BID, Status.Kind.ERROR).count());
+        assertTrue(house.getLatencyMaxMicros().get("closeAuction.SALE") > 0);
+        assertEquals(-1, house.getSettlementQueueDepth());
+    }
+
+    @Test
+    public void testBatchesForwardedToDelegate() {
+        final int[] batchCalls = new int[1];
+        InstrumentedAuctionHouse batched = new InstrumentedAuctionHouse(new AuctionHouseImp(new Parameters(10.0, 15.0,
+                new Money("10.00"), "AH A/C", "AH-auth", new MockMessagingService(), new MockBankingService())) {
+            @Override
+            public List<Status> makeBids(List<BidCommand> bids) {
+                batchCalls[0]++;
+                return super.makeBids(bids);
+            }
+        });
+        batched.registerSeller("SellerY", "@SellerY", "SY A/C");
+        batched.registerBuyer("BuyerA", "@BuyerA", "BA A/C", "BA-auth");
+        assertEquals(2, batched.addLots(Arrays.asList(
+                new AddLotCommand("SellerY", 1, "Bicycle", new Money("80.00")),
+                new AddLotCommand("SellerY", 2, "Lamp", new Money("20.00")))).size());
+        batched.noteInterests(Arrays.asList(new InterestCommand("BuyerA", 1)));
+        batched.openAuction("Auctioneer1", "@Auctioneer1", 1);
+        batched.makeBids(Arrays.asList(new BidCommand("BuyerA", 1, new Money("90.00")),
+                new BidCommand("BuyerA", 1, new Money("95.00"))));
+
+        assertEquals(1, batchCalls[0]);
+        assertEquals(1, batched.getBidsAccepted());
+        assertEquals(1, batched.bidRejections(Status.Code.BID_TOO_LOW));
+        assertEquals(Long.valueOf(2), batched.getCallCounts().get("addLot.OK"));
+        assertEquals(Long.valueOf(1), batched.getCallCounts().get("noteInterest.OK"));
+        assertEquals(Long.valueOf(1), batched.getCallCounts().get("makeBid.ERROR"));
+    }
+
+    @Test
+    public void testPublishedThroughJmx() throws Exception {
+        house.openAuction("Auctioneer1", "@Auctioneer1", 1);
+        house.makeBid("BuyerA", 1, new Money("90.00"));
+        ObjectName name = house.register("test");
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals(1L, server.getAttribute(name, "BidsAccepted"));
+            assertEquals(1L, server.getAttribute(name, "OpenLots"));
+        } finally {
+            house.unregister(name);
+        }
+    }
+
+    @Test
+    public void testConcurrentHistogramRecordsEverything() throws Exception {
+        final ConcurrentLatencyHistogram histogram = new ConcurrentLatencyHistogram();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 1; i <= 10000; i++) {
+                    histogram.record(i);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        LatencyHistogram snapshot = histogram.snapshot();
+        assertEquals(40000, snapshot.count());
+        assertEquals(10000, snapshot.max());
+        assertEquals(5000, snapshot.percentile(50), 5000 / LatencyHistogram.SUB_BUCKETS);
+    }
+}
@@ -0,0 +1,19 @@
+package auctionhouse;
+
+/**
+ * One note of interest, as passed to AuctionHouse.noteInterests.
+ */
+public class InterestCommand {
+	public final String buyerName;
+	public final int lotNumber;
+
+	public InterestCommand(String buyerName, int lotNumber) {
+		this.buyerName = buyerName;
+		this.lotNumber = lotNumber;
+	}
+
+	@Override
+	public String toString() {
+		return buyerName + " interested in lot " + lotNumber;
+	}
+}
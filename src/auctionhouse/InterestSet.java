@@ -0,0 +1,133 @@
+package auctionhouse;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.IntConsumer;
+
+// Set of the ids of buyers interested in a lot. Insert-only open addressing over an int array,
+// so membership checks are O(1) and iterating allocates nothing.
+// Writers must be serialised (they run under the lot's lock); readers never lock.
+public class InterestSet {
+
+	private static final int INITIAL_CAPACITY = 8;
+
+	// Each slot holds buyerId + 1, so 0 marks an empty slot. At most half full.
+	private volatile int[] slots = new int[INITIAL_CAPACITY];
+	// Written after the slot, so a reader that sees the new size also sees the new id.
+	private volatile int size;
+
+	public int size() {
+		return size;
+	}
+
+	public boolean contains(int buyerId) {
+		if(size == 0) {
+			return false;
+		}
+		int[] table = slots;
+		int mask = table.length - 1;
+		for(int i = indexFor(buyerId, mask); ; i = (i + 1) & mask) {
+			int slot = table[i];
+			if(slot == 0) {
+				return false;
+			}
+			if(slot == buyerId + 1) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Adds a buyer id. Callers must not add concurrently.
+	 * @return false if the id was already in the set
+	 */
+	public boolean add(int buyerId) {
+		if(contains(buyerId)) {
+			return false;
+		}
+		int[] table = slots;
+		if(2 * (size + 1) > table.length) {
+			table = grow(table);
+			slots = table;
+		}
+		insert(table, buyerId);
+		size = size + 1;
+		return true;
+	}
+
+	/**
+	 * Calls action with every id in the set other than excludedId, in no particular order.
+	 * Ids added while iterating may or may not be seen.
+	 */
+	public void forEachExcept(int excludedId, IntConsumer action) {
+		if(size == 0) {
+			return;
+		}
+		int[] table = slots;
+		for(int i = 0; i < table.length; i++) {
+			int slot = table[i];
+			if(slot != 0 && slot != excludedId + 1) {
+				action.accept(slot - 1);
+			}
+		}
+	}
+
+	/**
+	 * Iterates over every id in the set other than excludedId, without boxing, with the same
+	 * guarantees as forEachExcept.
+	 */
+	public PrimitiveIterator.OfInt iteratorExcept(final int excludedId) {
+		final int[] table = size == 0 ? new int[0] : slots;
+		return new PrimitiveIterator.OfInt() {
+			private int next = advance(0);
+
+			private int advance(int from) {
+				while(from < table.length && (table[from] == 0 || table[from] == excludedId + 1)) {
+					from++;
+				}
+				return from;
+			}
+
+			public boolean hasNext() {
+				return next < table.length;
+			}
+
+			public int nextInt() {
+				if(next >= table.length) {
+					throw new NoSuchElementException();
+				}
+				int id = table[next] - 1;
+				next = advance(next + 1);
+				return id;
+			}
+		};
+	}
+
+	public void forEach(IntConsumer action) {
+		forEachExcept(-1, action);
+	}
+
+	private static int[] grow(int[] table) {
+		int[] grown = new int[table.length * 2];
+		for(int slot: table) {
+			if(slot != 0) {
+				insert(grown, slot - 1);
+			}
+		}
+		return grown;
+	}
+
+	private static void insert(int[] table, int buyerId) {
+		int mask = table.length - 1;
+		int i = indexFor(buyerId, mask);
+		while(table[i] != 0) {
+			i = (i + 1) & mask;
+		}
+		table[i] = buyerId + 1;
+	}
+
+	private static int indexFor(int buyerId, int mask) {
+		int h = buyerId * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+}
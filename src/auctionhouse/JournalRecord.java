@@ -0,0 +1,137 @@
+package auctionhouse;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One state change of an AuctionHouseImp, as written to its CommandJournal.
+ *
+ * Body layout: type (byte), lotNumber (int), pence (long), outcome (int), string count (byte),
+ * then each string as a length (int) and UTF-8 bytes.
+ */
+public final class JournalRecord {
+
+	public enum Type {
+		REGISTER_BUYER,  // name, address, account, auth code
+		REGISTER_SELLER, // name, address, account
+		ADD_LOT,         // seller, description; lotNumber, pence = reserve
+		NOTE_INTEREST,   // buyer; lotNumber
+		OPEN_AUCTION,    // auctioneer, auctioneer address; lotNumber
+		BID,             // buyer; lotNumber, pence = bid
+		CLOSE_AUCTION,   // auctioneer, winning buyer or ""; lotNumber, pence = hammer price, outcome
+		SETTLEMENT       // lotNumber, outcome
+	}
+
+	// Outcome bits: the lot status ordinal in the low byte, then the payment flags.
+	private static final int STATUS_MASK = 0xff;
+	private static final int BUYER_CHARGED = 1 << 8;
+	private static final int SELLER_PAID = 1 << 9;
+
+	private static final Type[] TYPES = Type.values();
+	private static final LotStatus[] STATUSES = LotStatus.values();
+
+	public final Type type;
+	public final int lotNumber;
+	public final long pence;
+	public final int outcome;
+	public final String[] strings;
+
+	private JournalRecord(Type type, int lotNumber, long pence, int outcome, String... strings) {
+		this.type = type;
+		this.lotNumber = lotNumber;
+		this.pence = pence;
+		this.outcome = outcome;
+		this.strings = strings;
+	}
+
+	public static JournalRecord registerBuyer(String name, String address, String account, String authCode) {
+		return new JournalRecord(Type.REGISTER_BUYER, 0, 0, 0, name, address, account, authCode);
+	}
+
+	public static JournalRecord registerSeller(String name, String address, String account) {
+		return new JournalRecord(Type.REGISTER_SELLER, 0, 0, 0, name, address, account);
+	}
+
+	public static JournalRecord addLot(String sellerName, int lotNumber, String description, long reservePence) {
+		return new JournalRecord(Type.ADD_LOT, lotNumber, reservePence, 0, sellerName, description);
+	}
+
+	public static JournalRecord noteInterest(String buyerName, int lotNumber) {
+		return new JournalRecord(Type.NOTE_INTEREST, lotNumber, 0, 0, buyerName);
+	}
+
+	public static JournalRecord openAuction(String auctioneerName, String auctioneerAddress, int lotNumber) {
+		return new JournalRecord(Type.OPEN_AUCTION, lotNumber, 0, 0, auctioneerName, auctioneerAddress);
+	}
+
+	public static JournalRecord bid(String buyerName, int lotNumber, long bidPence) {
+		return new JournalRecord(Type.BID, lotNumber, bidPence, 0, buyerName);
+	}
+
+	/**
+	 * @param winnerName: name of the highest bidder, or "" if nobody bid
+	 */
+	public static JournalRecord closeAuction(String auctioneerName, String winnerName, int lotNumber, long hammerPence,
+			LotStatus status, boolean buyerCharged, boolean sellerPaid) {
+		return new JournalRecord(Type.CLOSE_AUCTION, lotNumber, hammerPence, outcome(status, buyerCharged, sellerPaid),
+				auctioneerName, winnerName);
+	}
+
+	public static JournalRecord settlement(int lotNumber, LotStatus status, boolean buyerCharged, boolean sellerPaid) {
+		return new JournalRecord(Type.SETTLEMENT, lotNumber, 0, outcome(status, buyerCharged, sellerPaid));
+	}
+
+	public String string(int i) {
+		return strings[i];
+	}
+
+	public LotStatus status() {
+		return STATUSES[outcome & STATUS_MASK];
+	}
+
+	public boolean buyerCharged() {
+		return (outcome & BUYER_CHARGED) != 0;
+	}
+
+	public boolean sellerPaid() {
+		return (outcome & SELLER_PAID) != 0;
+	}
+
+	public byte[] encode() {
+		byte[][] encoded = new byte[strings.length][];
+		int size = 1 + 4 + 8 + 4 + 1;
+		for(int i = 0; i < strings.length; i++) {
+			encoded[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+			size += 4 + encoded[i].length;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		buffer.put((byte) type.ordinal());
+		buffer.putInt(lotNumber);
+		buffer.putLong(pence);
+		buffer.putInt(outcome);
+		buffer.put((byte) strings.length);
+		for(byte[] bytes: encoded) {
+			buffer.putInt(bytes.length);
+			buffer.put(bytes);
+		}
+		return buffer.array();
+	}
+
+	public static JournalRecord decode(ByteBuffer buffer) {
+		Type type = TYPES[buffer.get()];
+		int lotNumber = buffer.getInt();
+		long pence = buffer.getLong();
+		int outcome = buffer.getInt();
+		String[] strings = new String[buffer.get()];
+		for(int i = 0; i < strings.length; i++) {
+			byte[] bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			strings[i] = new String(bytes, StandardCharsets.UTF_8);
+		}
+		return new JournalRecord(type, lotNumber, pence, outcome, strings);
+	}
+
+	private static int outcome(LotStatus status, boolean buyerCharged, boolean sellerPaid) {
+		return status.ordinal() | (buyerCharged ? BUYER_CHARGED : 0) | (sellerPaid ? SELLER_PAID : 0);
+	}
+}
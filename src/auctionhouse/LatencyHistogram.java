@@ -0,0 +1,106 @@
+package auctionhouse;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of latencies in nanoseconds with a fixed number of buckets, so recording never
+ * allocates. Bucket bounds grow geometrically: each power of two is split into SUB_BUCKETS
+ * equal buckets, which keeps every reported value within 1/SUB_BUCKETS of the true one.
+ *
+ * Not thread-safe; give each recording thread its own and combine them with add.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BITS = 4;
+	static final int SUB_BUCKETS = 1 << SUB_BITS;
+	// Values below SUB_BUCKETS get a bucket each; each higher power of two gets SUB_BUCKETS.
+	static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+	private final long[] counts = new long[BUCKETS];
+	private long count;
+	private long max;
+
+	public void record(long nanos) {
+		if(nanos < 0) {
+			nanos = 0;
+		}
+		counts[bucketOf(nanos)]++;
+		count++;
+		if(nanos > max) {
+			max = nanos;
+		}
+	}
+
+	public long count() {
+		return count;
+	}
+
+	public long max() {
+		return max;
+	}
+
+	/**
+	 * @param percentile: between 0 and 100, e.g. 99.9
+	 * @return the upper bound of the bucket holding that percentile, at most max(); 0 if empty
+	 */
+	public long percentile(double percentile) {
+		if(count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if(seen >= rank) {
+				return Math.min(upperBound(i), max);
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Adds the counts of another histogram to this one.
+	 */
+	public void add(LatencyHistogram other) {
+		for(int i = 0; i < BUCKETS; i++) {
+			counts[i] += other.counts[i];
+		}
+		count += other.count;
+		max = Math.max(max, other.max);
+	}
+
+	// For ConcurrentLatencyHistogram snapshots.
+	void addToBucket(int bucket, long n, long maxValue) {
+		counts[bucket] += n;
+		count += n;
+		max = Math.max(max, maxValue);
+	}
+
+	public void reset() {
+		Arrays.fill(counts, 0);
+		count = 0;
+		max = 0;
+	}
+
+	static int bucketOf(long value) {
+		if(value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value); // >= SUB_BITS
+		int shift = exponent - SUB_BITS;
+		int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+		return (shift + 1) * SUB_BUCKETS + sub;
+	}
+
+	// Largest value that falls in a bucket.
+	static long upperBound(int bucket) {
+		if(bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		long lowest = (SUB_BUCKETS + sub) << shift;
+		long width = 1L << shift;
+		return lowest + width - 1 < lowest ? Long.MAX_VALUE : lowest + width - 1;
+	}
+}
@@ -0,0 +1,362 @@
+package auctionhouse;
+
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Drives sustained synthetic load against an AuctionHouse and prints throughput and latency
+ * at every report interval.
+ *
+ * A fixed number of auctions are open at any time, each in a slot. Slot 0 is the hottest:
+ * bids pick a slot by a Zipf distribution, and the number of buyers interested in a lot
+ * falls off with its slot by the same distribution. A cadence thread closes the auction in
+ * one slot after another and opens a fresh lot in its place, so each auction runs for about
+ * auctionMillis. Bidder threads bid the lot's last bid plus one increment, so bids racing on
+ * the same lot are sometimes rejected, as they would be in a real auction.
+ *
+ * With a bid rate set, each bidder works to a schedule and a bid's latency is measured from
+ * when it was due, so a stall is charged to every bid it delays.
+ *
+ * Run from the command line with key=value arguments naming Config fields, e.g.
+ *     java auctionhouse.LoadGenerator buyers=50000 openLots=2000 bidsPerSecond=200000
+ */
+public class LoadGenerator {
+
+	public static class Config {
+		public int buyers = 10000;
+		public int sellers = 100;
+		// Auctions open at once.
+		public int openLots = 1000;
+		// Interested buyers of the hottest lot; colder lots get fewer.
+		public int maxInterest = 1000;
+		// Zipf exponent of bid and interest skew; 0 spreads them evenly.
+		public double zipfExponent = 1.0;
+		public int threads = 4;
+		// Total bid rate over all threads; 0 bids as fast as the house allows.
+		public double bidsPerSecond = 0;
+		public long auctionMillis = 2000;
+		public long incrementPence = 100;
+		public long reservePence = 10000;
+		public long durationMillis = 30000;
+		public long reportMillis = 1000;
+		// Slots in a SequencedAuctionHouse ring in front of the house; 0 calls the house directly.
+		public int ringSize = 0;
+		// Lot shards of a ShardedAuctionHouse, each with a ring of ringSize slots (1024 if 0).
+		public int shards = 0;
+	}
+
+	// Totals over a whole run.
+	public static class Result {
+		public final long elapsedNanos;
+		public final long acceptedBids;
+		public final long rejectedBids;
+		public final long sales;
+		public final long noSales;
+		public final LatencyHistogram bidLatency;
+		public final LatencyHistogram auctionLatency;
+
+		Result(long elapsedNanos, long acceptedBids, long rejectedBids, long sales, long noSales,
+				LatencyHistogram bidLatency, LatencyHistogram auctionLatency) {
+			this.elapsedNanos = elapsedNanos;
+			this.acceptedBids = acceptedBids;
+			this.rejectedBids = rejectedBids;
+			this.sales = sales;
+			this.noSales = noSales;
+			this.bidLatency = bidLatency;
+			this.auctionLatency = auctionLatency;
+		}
+
+		public double bidsPerSecond() {
+			return (acceptedBids + rejectedBids) * 1e9 / elapsedNanos;
+		}
+	}
+
+	private static final String SELLER_PREFIX = "Seller";
+	private static final String AUCTIONEER_PREFIX = "Auctioneer";
+
+	private final AuctionHouse house;
+	private final Config config;
+	private final CountingMessagingService messagingService;
+	private final CountingBankingService bankingService;
+	private final ZipfSampler zipf;
+	private final String[] buyerNames;
+	private final AtomicReferenceArray<Auction> slots;
+	private final List<Worker> workers = new ArrayList<Worker>();
+	// Open and close latencies and outcomes, recorded by the cadence thread.
+	private final Worker cadence = new Worker();
+	private int nextLotNumber = 1;
+	private volatile boolean running;
+
+	/**
+	 * @param house: house under load, built with messagingService and bankingService
+	 * @param messagingService: counted in the reports, or null
+	 * @param bankingService: counted in the reports, or null
+	 */
+	public LoadGenerator(AuctionHouse house, Config config, CountingMessagingService messagingService,
+			CountingBankingService bankingService) {
+		this.house = house;
+		this.config = config;
+		this.messagingService = messagingService;
+		this.bankingService = bankingService;
+		this.zipf = new ZipfSampler(config.openLots, config.zipfExponent);
+		this.buyerNames = new String[config.buyers];
+		this.slots = new AtomicReferenceArray<Auction>(config.openLots);
+	}
+
+	// An open auction: its lot, who may bid on it, and the last bid sent.
+	private static final class Auction {
+		final int lotNumber;
+		final String auctioneerName;
+		final int[] bidders;
+		final AtomicLong lastBidPence;
+
+		Auction(int lotNumber, String auctioneerName, int[] bidders, long reservePence) {
+			this.lotNumber = lotNumber;
+			this.auctioneerName = auctioneerName;
+			this.bidders = bidders;
+			this.lastBidPence = new AtomicLong(reservePence);
+		}
+	}
+
+	// Latencies and counts of one thread since the last report.
+	private static final class Worker {
+		LatencyHistogram latency = new LatencyHistogram();
+		long accepted;
+		long rejected;
+
+		synchronized void record(long nanos, boolean ok) {
+			latency.record(nanos);
+			if(ok) {
+				accepted++;
+			} else {
+				rejected++;
+			}
+		}
+
+		// Moves everything recorded into the given totals.
+		synchronized void drainInto(LatencyHistogram histogram, long[] counts) {
+			histogram.add(latency);
+			latency.reset();
+			counts[0] += accepted;
+			counts[1] += rejected;
+			accepted = 0;
+			rejected = 0;
+		}
+	}
+
+	/**
+	 * Registers the buyers and sellers, opens the first auctions, then runs the load for
+	 * durationMillis, printing a line to out every reportMillis.
+	 */
+	public Result run(PrintStream out) throws InterruptedException {
+		setUp();
+		running = true;
+		List<Thread> threads = new ArrayList<Thread>();
+		for(int i = 0; i < config.threads; i++) {
+			final Worker worker = new Worker();
+			workers.add(worker);
+			threads.add(new Thread(() -> bid(worker), "load-bidder-" + i));
+		}
+		threads.add(new Thread(this::runCadence, "load-cadence"));
+		for(Thread thread: threads) {
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		out.println("   time      bids/s  rejected       p50       p99     p99.9       max    sales    msgs/s transfers/s");
+		LatencyHistogram totalBids = new LatencyHistogram();
+		LatencyHistogram totalAuctions = new LatencyHistogram();
+		LatencyHistogram interval = new LatencyHistogram();
+		long[] bidCounts = new long[2];
+		long[] auctionCounts = new long[2];
+		long start = System.nanoTime();
+		long lastReport = start;
+		long lastMessages = messageCount();
+		long lastTransfers = transferCount();
+		long lastSales = 0;
+		long end = start + config.durationMillis * 1000000L;
+		while(System.nanoTime() < end) {
+			Thread.sleep(Math.min(config.reportMillis, Math.max(1, (end - System.nanoTime()) / 1000000L)));
+			long now = System.nanoTime();
+			long[] counts = new long[2];
+			interval.reset();
+			for(Worker worker: workers) {
+				worker.drainInto(interval, counts);
+			}
+			cadence.drainInto(totalAuctions, auctionCounts);
+			totalBids.add(interval);
+			bidCounts[0] += counts[0];
+			bidCounts[1] += counts[1];
+
+			double seconds = (now - lastReport) / 1e9;
+			long bids = counts[0] + counts[1];
+			long messages = messageCount();
+			long transfers = transferCount();
+			out.println(String.format("%6.1fs %11.0f %8.1f%% %9s %9s %9s %9s %8d %9.0f %11.0f",
+					(now - start) / 1e9, bids / seconds, bids == 0 ? 0 : 100.0 * counts[1] / bids,
+					micros(interval.percentile(50)), micros(interval.percentile(99)), micros(interval.percentile(99.9)),
+					micros(interval.max()), auctionCounts[0] - lastSales, (messages - lastMessages) / seconds,
+					(transfers - lastTransfers) / seconds));
+			lastReport = now;
+			lastMessages = messages;
+			lastTransfers = transfers;
+			lastSales = auctionCounts[0];
+		}
+		running = false;
+		for(Thread thread: threads) {
+			thread.join();
+		}
+		long elapsed = System.nanoTime() - start;
+		long[] counts = new long[2];
+		for(Worker worker: workers) {
+			worker.drainInto(totalBids, counts);
+		}
+		cadence.drainInto(totalAuctions, auctionCounts);
+
+		Result result = new Result(elapsed, bidCounts[0] + counts[0], bidCounts[1] + counts[1],
+				auctionCounts[0], auctionCounts[1], totalBids, totalAuctions);
+		out.println(String.format("Total: %d bids in %.1fs (%.0f bids/s), %d rejected; p50 %s p99 %s p99.9 %s max %s",
+				result.acceptedBids + result.rejectedBids, elapsed / 1e9, result.bidsPerSecond(), result.rejectedBids,
+				micros(totalBids.percentile(50)), micros(totalBids.percentile(99)), micros(totalBids.percentile(99.9)),
+				micros(totalBids.max())));
+		out.println(String.format("Auctions: %d sold, %d unsold; close+reopen p50 %s p99 %s max %s",
+				result.sales, result.noSales, micros(totalAuctions.percentile(50)), micros(totalAuctions.percentile(99)),
+				micros(totalAuctions.max())));
+		return result;
+	}
+
+	private void setUp() {
+		for(int i = 0; i < config.buyers; i++) {
+			buyerNames[i] = "Buyer" + i;
+			house.registerBuyer(buyerNames[i], "@" + buyerNames[i], buyerNames[i] + " A/C", buyerNames[i] + "-auth");
+		}
+		for(int i = 0; i < config.sellers; i++) {
+			house.registerSeller(SELLER_PREFIX + i, "@" + SELLER_PREFIX + i, SELLER_PREFIX + i + " A/C");
+		}
+		for(int slot = 0; slot < config.openLots; slot++) {
+			slots.set(slot, openAuction(slot));
+		}
+	}
+
+	// Adds a lot for a slot, notes the slot's share of interest in it and opens its auction.
+	// Called from one thread at a time: setUp, then the cadence thread.
+	private Auction openAuction(int slot) {
+		int lotNumber = nextLotNumber++;
+		house.addLot(SELLER_PREFIX + (lotNumber % config.sellers), lotNumber, "Lot " + lotNumber,
+				Money.ofPence(config.reservePence));
+		double share = zipf.probability(slot) / zipf.probability(0);
+		int interested = (int) Math.max(1, Math.min(config.buyers, Math.round(config.maxInterest * share)));
+		// A run of consecutive buyers from a random start: distinct, and cheap to pick.
+		int first = ThreadLocalRandom.current().nextInt(config.buyers);
+		int[] bidders = new int[interested];
+		for(int i = 0; i < interested; i++) {
+			bidders[i] = (first + i) % config.buyers;
+			house.noteInterest(buyerNames[bidders[i]], lotNumber);
+		}
+		String auctioneerName = AUCTIONEER_PREFIX + slot;
+		house.openAuction(auctioneerName, "@" + auctioneerName, lotNumber);
+		return new Auction(lotNumber, auctioneerName, bidders, config.reservePence);
+	}
+
+	private void runCadence() {
+		long interval = Math.max(1, config.auctionMillis * 1000000L / config.openLots);
+		long next = System.nanoTime() + interval;
+		for(int tick = 0; running; tick++) {
+			parkUntil(next);
+			next += interval;
+			int slot = tick % config.openLots;
+			long start = System.nanoTime();
+			Auction auction = slots.get(slot);
+			Status status = house.closeAuction(auction.auctioneerName, auction.lotNumber);
+			slots.set(slot, openAuction(slot));
+			cadence.record(System.nanoTime() - start, status.kind == Status.Kind.SALE);
+		}
+	}
+
+	private void bid(Worker worker) {
+		Random random = ThreadLocalRandom.current();
+		long interval = config.bidsPerSecond > 0 ? (long) (config.threads * 1e9 / config.bidsPerSecond) : 0;
+		long due = System.nanoTime();
+		while(running) {
+			if(interval > 0) {
+				due += interval;
+				parkUntil(due);
+			} else {
+				due = System.nanoTime();
+			}
+			Auction auction = slots.get(zipf.sample(random));
+			String buyerName = buyerNames[auction.bidders[random.nextInt(auction.bidders.length)]];
+			Money amount = Money.ofPence(auction.lastBidPence.addAndGet(config.incrementPence));
+			Status status = house.makeBid(buyerName, auction.lotNumber, amount);
+			worker.record(System.nanoTime() - due, status.kind == Status.Kind.OK);
+		}
+	}
+
+	private static void parkUntil(long deadline) {
+		for(long wait = deadline - System.nanoTime(); wait > 0; wait = deadline - System.nanoTime()) {
+			LockSupport.parkNanos(wait);
+		}
+	}
+
+	private long messageCount() {
+		return messagingService == null ? 0 : messagingService.messageCount();
+	}
+
+	private long transferCount() {
+		return bankingService == null ? 0 : bankingService.transferCount();
+	}
+
+	private static String micros(long nanos) {
+		return String.format("%.1fus", nanos / 1e3);
+	}
+
+	public static void main(String[] args) throws Exception {
+		Config config = new Config();
+		for(String arg: args) {
+			int eq = arg.indexOf('=');
+			if(eq < 0) {
+				System.err.println("Arguments are key=value: " + arg);
+				return;
+			}
+			try {
+				Field field = Config.class.getField(arg.substring(0, eq));
+				String value = arg.substring(eq + 1);
+				if(field.getType() == int.class) {
+					field.setInt(config, Integer.parseInt(value));
+				} else if(field.getType() == long.class) {
+					field.setLong(config, Long.parseLong(value));
+				} else {
+					field.setDouble(config, Double.parseDouble(value));
+				}
+			} catch (NoSuchFieldException | NumberFormatException e) {
+				System.err.println("Unrecognised argument: " + arg);
+				return;
+			}
+		}
+		// The engine logs every call at INFO and every rejected bid at WARNING, which would swamp the run.
+		Logger.getLogger("auctionhouse").setLevel(Level.SEVERE);
+
+		CountingMessagingService messagingService = new CountingMessagingService();
+		CountingBankingService bankingService = new CountingBankingService();
+		Parameters parameters = new Parameters(10.0, 15.0, Money.ofPence(config.incrementPence),
+				"AH A/C", "AH-auth", messagingService, bankingService);
+		AuctionHouse house;
+		if(config.shards > 0) {
+			house = new ShardedAuctionHouse(parameters, config.shards, config.ringSize > 0 ? config.ringSize : 1024);
+		} else if(config.ringSize > 0) {
+			house = new SequencedAuctionHouse(new AuctionHouseImp(parameters), config.ringSize);
+		} else {
+			house = new AuctionHouseImp(parameters);
+		}
+		new LoadGenerator(house, config, messagingService, bankingService).run(System.out);
+	}
+}
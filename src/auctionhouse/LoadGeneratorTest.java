@@ -0,0 +1,78 @@
+package auctionhouse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LoadGeneratorTest {
+
+    @Test
+    public void testZipfSamplerFavoursLowRanks() {
+        ZipfSampler zipf = new ZipfSampler(100, 1.0);
+        int[] counts = new int[100];
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            counts[zipf.sample(random)]++;
+        }
+        // Rank 0 is twice as likely as rank 1 and ten times as likely as rank 9.
+        assertEquals(2.0, (double) counts[0] / counts[1], 0.2);
+        assertEquals(10.0, (double) counts[0] / counts[9], 1.5);
+
+        ZipfSampler uniform = new ZipfSampler(4, 0);
+        assertEquals(0.25, uniform.probability(3), 1e-9);
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000);
+        }
+        assertEquals(1000, histogram.count());
+        assertEquals(1000000, histogram.max());
+        // Within one sub-bucket of the true value.
+        assertEquals(500000, histogram.percentile(50), 500000 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(990000, histogram.percentile(99), 990000 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(1000000, histogram.percentile(100));
+
+        LatencyHistogram other = new LatencyHistogram();
+        other.record(5);
+        histogram.add(other);
+        assertEquals(1001, histogram.count());
+        assertEquals(5, histogram.percentile(0.01));
+    }
+
+    @Test
+    public void testShortRunAgainstAuctionHouseImp() throws Exception {
+        LoadGenerator.Config config = new LoadGenerator.Config();
+        config.buyers = 200;
+        config.sellers = 5;
+        config.openLots = 20;
+        config.maxInterest = 50;
+        config.threads = 2;
+        config.auctionMillis = 100;
+        config.durationMillis = 600;
+        config.reportMillis = 200;
+
+        CountingMessagingService messagingService = new CountingMessagingService();
+        CountingBankingService bankingService = new CountingBankingService();
+        AuctionHouse house = new AuctionHouseImp(new Parameters(10.0, 15.0, Money.ofPence(config.incrementPence),
+                "AH A/C", "AH-auth", messagingService, bankingService));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        LoadGenerator.Result result = new LoadGenerator(house, config, messagingService, bankingService)
+                .run(new PrintStream(output, true));
+
+        assertTrue(result.acceptedBids > 0);
+        assertEquals(result.acceptedBids + result.rejectedBids, result.bidLatency.count());
+        assertTrue(result.sales > 0);
+        // Each sale is paid by two transfers, buyer to house and house to seller.
+        assertEquals(2 * result.sales, bankingService.transferCount());
+        assertTrue(messagingService.bidCount() > 0);
+        assertTrue(output.toString().contains("Total: "));
+    }
+}
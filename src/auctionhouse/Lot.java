@@ -1,32 +1,72 @@
 package auctionhouse;
 
-import java.util.List;
-import java.util.ArrayList;
-import java.util.logging.Logger;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
 
+// Mutators other than makeBid must be called while holding the lot's lock in AuctionHouseImp.
+// makeBid is lock-free: the highest bid is swapped atomically as a single HighBid.
 public class Lot {
 	
+	/**
+	 * Immutable snapshot of the highest bid on a lot.
+	 * Once closed, no further bid can replace it.
+	 */
+	public static final class HighBid {
+		public final int bidderId;
+		public final String bidderName;
+		public final long amountPence;
+		public final Money amount;
+		public final boolean closed;
+		
+		HighBid(int bidderId, String bidderName, Money amount, boolean closed) {
+			this.bidderId = bidderId;
+			this.bidderName = bidderName;
+			this.amountPence = amount.getPence();
+			this.amount = amount;
+			this.closed = closed;
+		}
+		
+		HighBid close() {
+			return new HighBid(bidderId, bidderName, amount, true);
+		}
+	}
+	
 	private CatalogueEntry catalogueEntry;
 	private int lotNumber;
 	private String sellerName;
 	private Money reservePrice;
 	private Money openingPrice;
-	private String assignedAuctioneerName;
-	private LotStatus lotStatus;
-	private String highestBidderName;
-	private Money highestBidAmount;
+	private volatile String assignedAuctioneerName;
+	private volatile LotStatus lotStatus;
+	// null until the lot is opened for auction.
+	private final AtomicReference<HighBid> highBid = new AtomicReference<HighBid>();
+	
+	// Ids of the interested buyers; makeBid reads it without a lock.
+	private InterestSet interestedBuyers = new InterestSet();
+	
+	// Kept in sync with lotStatus and assignedAuctioneerName.
+	private LotIndex lotIndex;
+	
+	// Settlement progress of a sold lot, so a retried settlement never charges the buyer twice.
+	private final AtomicBoolean settling = new AtomicBoolean();
+	private volatile boolean buyerCharged;
+	private volatile boolean sellerPaid;
 	
-	private List<String> interestedBuyerNames =  new ArrayList<String>();
+	private static EngineLog log = new EngineLog("auctionhouse", Lot.class);
 	
-	private static Logger logger = Logger.getLogger("auctionhouse");
+	// The usual way to lose a bidding war; shared so that losing costs no allocation.
+	private static final Status BELOW_INCREMENT = Status.error(Status.Code.BID_TOO_LOW,
+			"Bid difference cannot be less than the increment bid");
 	
-	public Lot(String sellerName, int lotNumber, String description, Money reservePrice) {
+	public Lot(String sellerName, int lotNumber, String description, Money reservePrice, LotIndex lotIndex) {
 
 		this.sellerName = sellerName;
 		this.lotNumber = lotNumber;
 		this.reservePrice = reservePrice;
 		this.lotStatus = LotStatus.UNSOLD;
 		this.catalogueEntry = new CatalogueEntry(lotNumber, description, lotStatus);
+		this.lotIndex = lotIndex;
 	}
 	
 	public CatalogueEntry getCatalogueEntry() {
@@ -58,74 +98,107 @@ public class Lot {
 	}
 
 	public String getHighestBidderName() {
-		return highestBidderName;
+		HighBid current = highBid.get();
+		return current == null ? null : current.bidderName;
 	}
 
 	public Money getHighestBidAmount() {
-		return highestBidAmount;
+		HighBid current = highBid.get();
+		return current == null ? null : current.amount;
 	}
 	
-	public List<String> getInterestedBuyers() {
-		return interestedBuyerNames;
+	public HighBid getHighBid() {
+		return highBid.get();
+	}
+	
+	public InterestSet getInterestedBuyers() {
+		return interestedBuyers;
 	}
 	
 	/**
-	 * Adds the name of a new Buyer to this lot's list of interestedBuyers
+	 * Adds a new Buyer to this lot's set of interestedBuyers
 	 * 
-	 * @param buyerName the name of the buyer
-	 * @return Status ERROR if the buyerName is already in the list 
-	 *         Status OK if the buyer name has been successfully added to the list
+	 * @param buyer the interested buyer
+	 * @return Status ERROR if the buyer is already in the set 
+	 *         Status OK if the buyer has been successfully added to the set
 	 */
-	public Status addInterestedBuyer(String buyerName) {
-		if(!interestedBuyerNames.contains(buyerName)) {
-			interestedBuyerNames.add(buyerName);
+	public Status addInterestedBuyer(Buyer buyer) {
+		String buyerName = buyer.getName();
+		if(interestedBuyers.add(buyer.getId())) {
 			
-			logger.info("Buyer " + buyerName +  " added to Lot " + this.lotNumber + "'s list of interested buyers successfully");
-			return new Status(Status.Kind.OK, "Buyer " + buyerName +  " added to Lot " + this.lotNumber + "'s list of interested buyers");
+			if(log.isInfoEnabled()) {
+				log.info("Buyer {} added to Lot {}'s list of interested buyers successfully", buyerName, this.lotNumber);
+			}
+			return Status.of(Status.Kind.OK, Status.Code.NONE, "Buyer {} added to Lot {}'s list of interested buyers", buyerName, this.lotNumber);
 		}
 		
-		logger.info("Buyer " + buyerName + " is already interested in Lot " + this.lotNumber);
-		return new Status(Status.Kind.ERROR, "Buyer " + buyerName + " is already interested in Lot " + this.lotNumber);
+		if(log.isInfoEnabled()) {
+			log.info("Buyer {} is already interested in Lot {}", buyerName, this.lotNumber);
+		}
+		return Status.error(Status.Code.ALREADY_INTERESTED, "Buyer {} is already interested in Lot {}", buyerName, this.lotNumber);
 	}
 
 	/**
-	 * Updates the lot's highestBidderName and highestBidAmount
+	 * Atomically replaces the lot's highest bid if the new bid beats it by at least the increment.
+	 * Never blocks: concurrent bids retry against the latest highest bid, and losing bids fail fast.
 	 * 
-	 * @param newBidderName the name of the buyer that has made a new bid
+	 * @param bidder the buyer that has made a new bid
 	 * @param newBidAmount the amount that this buyer has bid
-	 * @return Status ERROR if the buyer's name is not in the list of interestedBuyers
-	 *                      or if the newBidAmount is less than the previous highestBidAmount
+	 * @param increment the minimum amount by which a bid must beat the highest bid
+	 * @return Status ERROR if the lot is not in auction, if the buyer is not in the list of interestedBuyers
+	 *                      or if the newBidAmount does not beat the highest bid by the increment
 	 *         Status OK if the new bid was successful
 	 */
-	public Status makeBid(String newBidderName, Money newBidAmount) {
+	public Status makeBid(Buyer bidder, Money newBidAmount, Money increment) {
+		String newBidderName = bidder.getName();
 		
-		if(lotStatus != LotStatus.IN_AUCTION) {
-			logger.warning("Lot with " + lotNumber + " is not open for auction");
-			logger.warning("Make bid failed.");
-			return new Status(Status.Kind.ERROR, "Lot with " + lotNumber + " is not open for auction");
+		if(!interestedBuyers.contains(bidder.getId())) {
+			log.warning("Buyer {} is not interested in Lot {}", newBidderName, this.lotNumber);
+			log.warning("Make bid failed.");
+			return Status.error(Status.Code.NOT_INTERESTED, "Buyer {} is not interested in Lot {}", newBidderName, this.lotNumber);
 		}
 		
-		if(!interestedBuyerNames.contains(newBidderName)) {
-			logger.warning("Buyer " + newBidderName + " is not interested in Lot " + this.lotNumber);
-			logger.warning("Make bid failed.");
-			return new Status(Status.Kind.ERROR, "Buyer " + newBidderName + " is not interested in Lot " + this.lotNumber);
-		}
+		long newBidPence = newBidAmount.getPence();
+		long incrementPence = increment.getPence();
+		// Only built once the bid has passed the checks.
+		HighBid newBid = null;
 		
-		if(highestBidAmount.compareTo(newBidAmount) < 0) {
-			highestBidderName = newBidderName;
-			highestBidAmount = newBidAmount;
+		while(true) {
+			HighBid current = highBid.get();
+			
+			if(current == null || current.closed) {
+				log.warning("Lot with {} is not open for auction", lotNumber);
+				log.warning("Make bid failed.");
+				return Status.error(Status.Code.NOT_IN_AUCTION, "Lot with {} is not open for auction", lotNumber);
+			}
+			
+			if(newBidPence - current.amountPence < incrementPence) {
+				log.warning("Bid difference cannot be less than the increment bid");
+				log.warning("Make bid failed.");
+				return BELOW_INCREMENT;
+			}
+			
+			if(newBidPence <= current.amountPence) {
+				log.warning("Buyer {} tried to bid less than the highest bid on Lot {}", newBidderName, this.lotNumber);
+				log.warning("Make bid failed");
+				return Status.error(Status.Code.BID_TOO_LOW, "Buyer {} tried to bid less than the highest bid on Lot {}", newBidderName, this.lotNumber);
+			}
 			
-			logger.info("Successful bid");
-			return new Status(Status.Kind.OK, "Buyer " + newBidderName + " has successfully bidded on Lot " + this.lotNumber);
+			if(newBid == null) {
+				newBid = new HighBid(bidder.getId(), newBidderName, newBidAmount, false);
+			}
+			if(highBid.compareAndSet(current, newBid)) {
+				if(log.isLoggable(Level.INFO)) {
+					log.event(Level.INFO, "bid.accepted", "lot", lotNumber, "buyer", newBidderName, "amount", newBidAmount);
+				}
+				return Status.of(Status.Kind.OK, Status.Code.NONE, "Buyer {} has successfully bidded on Lot {}", newBidderName, this.lotNumber);
+			}
+			// Another bid got in first; re-check against it.
 		}
-		
-		logger.warning("Buyer " + newBidderName + " tried to bid less than the highest bid on Lot " + this.lotNumber);
-		logger.warning("Make bid failed");
-		return new Status(Status.Kind.ERROR, "Buyer " + newBidderName + " tried to bid less than the highest bid on Lot " + this.lotNumber);		
 	}
 	
 	/**
-	 * Sets the lot's lotStatus to IN_AUCTION, assigns it an auctioneer and initializes the highestBidderName and highestBidAmount variables
+	 * Sets the lot's lotStatus to IN_AUCTION, assigns it an auctioneer and initializes the highest bid
 	 * 
 	 * @param assignedAuctioneerName the name of the Auctioneer who is assigned to this lot
 	 * @return Status ERROR if the lot has already been auctioned
@@ -134,25 +207,116 @@ public class Lot {
 	public Status openLot(String assignedAuctioneerName) {
 		
 		if(lotStatus != LotStatus.UNSOLD) {
-			logger.warning("Lot " + this.lotNumber + ", which has already been auctioned");
-			logger.warning("Open lot failed");
-			return new Status(Status.Kind.ERROR, "Auctioneer " + assignedAuctioneerName + " tried to open Lot " + this.lotNumber + ", which has already been auctioned");
+			log.warning("Lot {}, which has already been auctioned", this.lotNumber);
+			log.warning("Open lot failed");
+			return Status.error(Status.Code.ALREADY_AUCTIONED, "Auctioneer {} tried to open Lot {}, which has already been auctioned",
+					assignedAuctioneerName, this.lotNumber);
 		}		
 		
+		// Publish the opening bid before the status, so bidders that see IN_AUCTION can bid.
 		this.assignedAuctioneerName = assignedAuctioneerName;
+		highBid.set(new HighBid(-1, "", Money.ZERO, false));
 		lotStatus = LotStatus.IN_AUCTION;
 		this.catalogueEntry.status = lotStatus;
-		highestBidderName = "";
-		highestBidAmount = new Money("0");
+		lotIndex.lotOpened(this, assignedAuctioneerName);
+		lotIndex.statusChanged(this, LotStatus.UNSOLD, LotStatus.IN_AUCTION);
 		
-		logger.warning("Open lot successful");
-		return new Status(Status.Kind.OK, assignedAuctioneerName + " has opened Lot " + this.lotNumber + " for bidding");
+		log.info("Open lot successful");
+		return Status.of(Status.Kind.OK, Status.Code.NONE, "{} has opened Lot {} for bidding", assignedAuctioneerName, this.lotNumber);
+	}
+	
+	/**
+	 * Stops bidding on the lot. Bids racing with this call either land before it or fail.
+	 * 
+	 * @return the winning bid, which can no longer change
+	 */
+	public HighBid closeBidding() {
+		while(true) {
+			HighBid current = highBid.get();
+			if(current == null || current.closed) {
+				return current;
+			}
+			HighBid closed = current.close();
+			if(highBid.compareAndSet(current, closed)) {
+				return closed;
+			}
+		}
 	}
 	
 	public void closeLot(LotStatus lotStatus) {
-		logger.info("Lot status changed to " + lotStatus);
+		if(log.isLoggable(Level.INFO)) {
+			log.event(Level.INFO, "lot.status", "lot", lotNumber, "status", lotStatus);
+		}
+		LotStatus oldStatus = this.lotStatus;
 		this.lotStatus = lotStatus;
 		catalogueEntry.status = lotStatus;
+		lotIndex.statusChanged(this, oldStatus, lotStatus);
+	}
+
+	/**
+	 * Replays a journalled bid: raises the highest bid to this one unless it is already as high.
+	 * Bids are journalled as they land, so replaying them as a running maximum is order-independent.
+	 */
+	public void restoreBid(Buyer bidder, Money amount) {
+		HighBid current = highBid.get();
+		if(current != null && !current.closed && amount.getPence() > current.amountPence) {
+			highBid.set(new HighBid(bidder.getId(), bidder.getName(), amount, false));
+		}
+	}
+
+	/**
+	 * Replays a journalled close: the winning bid as recorded, closed to further bids.
+	 * @param bidderId: id of the winning bidder, or -1 if nobody bid
+	 */
+	public void restoreClosedBid(int bidderId, String bidderName, Money amount) {
+		highBid.set(new HighBid(bidderId, bidderName, amount, true));
+	}
+
+	/**
+	 * Restores a lot read from a snapshot, before the auction house takes any calls.
+	 * @param highBid: highest bid, or null if the lot was never opened
+	 */
+	void restoreState(LotStatus status, String auctioneerName, HighBid highBid, boolean buyerCharged, boolean sellerPaid) {
+		this.assignedAuctioneerName = auctioneerName;
+		this.highBid.set(highBid);
+		this.buyerCharged = buyerCharged;
+		this.sellerPaid = sellerPaid;
+		if(auctioneerName != null) {
+			lotIndex.lotOpened(this, auctioneerName);
+		}
+		closeLot(status);
+	}
+
+	/**
+	 * Claims the right to move money for this lot. At most one settlement runs at a time.
+	 * @return false if another settlement of the lot is in progress
+	 */
+	public boolean beginSettlement() {
+		return settling.compareAndSet(false, true);
+	}
+
+	public void endSettlement() {
+		settling.set(false);
+	}
+
+	public boolean isSettling() {
+		return settling.get();
+	}
+
+	public boolean isBuyerCharged() {
+		return buyerCharged;
+	}
+
+	public void markBuyerCharged() {
+		buyerCharged = true;
+	}
+
+	public boolean isSellerPaid() {
+		return sellerPaid;
+	}
+
+	public void markSellerPaid() {
+		sellerPaid = true;
 	}
 
 }
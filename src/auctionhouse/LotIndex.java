@@ -0,0 +1,112 @@
+package auctionhouse;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// Secondary indexes of lot numbers by status, seller and auctioneer.
+// Lots report their own state changes, always while holding their lock in AuctionHouseImp.
+public class LotIndex {
+
+	private EnumMap<LotStatus, Set<Integer>> lotsByStatus = new EnumMap<LotStatus, Set<Integer>>(LotStatus.class);
+	private ConcurrentHashMap<String, Set<Integer>> lotsBySeller = new ConcurrentHashMap<String, Set<Integer>>();
+	private ConcurrentHashMap<String, Set<Integer>> lotsByAuctioneer = new ConcurrentHashMap<String, Set<Integer>>();
+	// Skip list sizes are O(n), so the per-status counts are kept separately.
+	private AtomicIntegerArray statusCounts = new AtomicIntegerArray(LotStatus.values().length);
+
+	public LotIndex() {
+		// Filled up front and never modified again, so concurrent reads of the EnumMap are safe.
+		for(LotStatus status: LotStatus.values()) {
+			lotsByStatus.put(status, new ConcurrentSkipListSet<Integer>());
+		}
+	}
+
+	/**
+	 * Indexes a newly added lot under its seller and current status.
+	 */
+	public void lotAdded(Lot lot) {
+		Integer lotNumber = lot.getLotNumber();
+		setFor(lotsBySeller, lot.getSellerName()).add(lotNumber);
+		lotsByStatus.get(lot.getLotStatus()).add(lotNumber);
+		statusCounts.incrementAndGet(lot.getLotStatus().ordinal());
+	}
+
+	/**
+	 * Records the auctioneer that opened a lot.
+	 */
+	public void lotOpened(Lot lot, String auctioneerName) {
+		setFor(lotsByAuctioneer, auctioneerName).add(lot.getLotNumber());
+	}
+
+	/**
+	 * Moves a lot from its old status set to its new one.
+	 */
+	public void statusChanged(Lot lot, LotStatus oldStatus, LotStatus newStatus) {
+		if(oldStatus == newStatus) {
+			return;
+		}
+		Integer lotNumber = lot.getLotNumber();
+		lotsByStatus.get(newStatus).add(lotNumber);
+		lotsByStatus.get(oldStatus).remove(lotNumber);
+		statusCounts.incrementAndGet(newStatus.ordinal());
+		statusCounts.decrementAndGet(oldStatus.ordinal());
+	}
+
+	/**
+	 * @return the numbers of all lots currently in the given status, in lot order
+	 */
+	public List<Integer> lotsWithStatus(LotStatus status) {
+		return new ArrayList<Integer>(lotsByStatus.get(status));
+	}
+
+	/**
+	 * @return true if the lot is currently in the given status
+	 */
+	public boolean hasStatus(int lotNumber, LotStatus status) {
+		return lotsByStatus.get(status).contains(lotNumber);
+	}
+
+	/**
+	 * @return the number of lots currently in the given status
+	 */
+	public int countWithStatus(LotStatus status) {
+		return statusCounts.get(status.ordinal());
+	}
+
+	/**
+	 * @return the numbers of all lots added by the seller, in lot order
+	 */
+	public List<Integer> lotsOfSeller(String sellerName) {
+		return copyOf(lotsBySeller.get(sellerName));
+	}
+
+	/**
+	 * @return the numbers of all lots opened by the auctioneer, in lot order
+	 */
+	public List<Integer> lotsOpenedBy(String auctioneerName) {
+		return copyOf(lotsByAuctioneer.get(auctioneerName));
+	}
+
+	private static Set<Integer> setFor(ConcurrentHashMap<String, Set<Integer>> index, String key) {
+		Set<Integer> lotNumbers = index.get(key);
+		if(lotNumbers == null) {
+			Set<Integer> created = new ConcurrentSkipListSet<Integer>();
+			lotNumbers = index.putIfAbsent(key, created);
+			if(lotNumbers == null) {
+				lotNumbers = created;
+			}
+		}
+		return lotNumbers;
+	}
+
+	private static List<Integer> copyOf(Set<Integer> lotNumbers) {
+		if(lotNumbers == null) {
+			return new ArrayList<Integer>();
+		}
+		return new ArrayList<Integer>(lotNumbers);
+	}
+}
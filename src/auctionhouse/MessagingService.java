@@ -1,5 +1,7 @@
 package auctionhouse;
 
+import java.util.Collection;
+
 public interface MessagingService {
     
     void auctionOpened(String address, int lotNumber);
@@ -9,5 +11,35 @@ public interface MessagingService {
     void lotSold(String address, int lotNumber);
     
     void lotUnsold(String address, int lotNumber);
+    
+    /*
+     * Multicast versions: send the same message to many addresses in one call.
+     * The defaults adapt single-address services by sending one message per address;
+     * gateways that support multicast should override them.
+     */
+    
+    default void auctionOpened(Collection<String> addresses, int lotNumber) {
+        for (String address : addresses) {
+            auctionOpened(address, lotNumber);
+        }
+    }
+    
+    default void bidAccepted(Collection<String> addresses, int lotNumber, Money amount) {
+        for (String address : addresses) {
+            bidAccepted(address, lotNumber, amount);
+        }
+    }
+    
+    default void lotSold(Collection<String> addresses, int lotNumber) {
+        for (String address : addresses) {
+            lotSold(address, lotNumber);
+        }
+    }
+    
+    default void lotUnsold(Collection<String> addresses, int lotNumber) {
+        for (String address : addresses) {
+            lotUnsold(address, lotNumber);
+        }
+    }
 
 }
@@ -5,7 +5,9 @@ package auctionhouse;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
 
@@ -20,19 +22,24 @@ public class MockBankingService implements BankingService {
     
     private Set<String> expectedEvents;
     private Set<String> actualEvents;
+    // How many times each transfer was made, without the line separator the event set adds.
+    private Map<String, Integer> eventCounts;
     
     private Set<String> badAccounts;
+    // Every transfer call, including repeats the event set would hide.
+    private int transfers;
     
     public MockBankingService() {
         expectedEvents = new HashSet<String>();
         actualEvents = new HashSet<String>();
+        eventCounts = new HashMap<String, Integer>();
         
         badAccounts = new HashSet<String>();
     }
   
     
     
-    private String makeTransferEventString(
+    static String makeTransferEventString(
                 String senderAccount,
                 String senderAuthCode,
                 String receiverAccount,
@@ -47,7 +54,7 @@ public class MockBankingService implements BankingService {
     /*
      * Implementation of BankingService interface
      */
-    public Status transfer(
+    public synchronized Status transfer(
             String senderAccount,
             String senderAuthCode,
             String receiverAccount,
@@ -62,6 +69,8 @@ public class MockBankingService implements BankingService {
         logger.finer(s);
         
         actualEvents.add(LS + s);
+        eventCounts.merge(s, 1, Integer::sum);
+        transfers++;
         
         if (badAccounts.contains(senderAccount)) {
             return Status.error("Transfer failed from bad account " + senderAccount);
@@ -74,11 +83,33 @@ public class MockBankingService implements BankingService {
      * Test interface
      */
     
-    public void setBadAccount(String badAccount) {
+    public synchronized void setBadAccount(String badAccount) {
         badAccounts.add(badAccount);
     }
     
-    public void expectTransfer(
+    public synchronized void clearBadAccount(String badAccount) {
+        badAccounts.remove(badAccount);
+    }
+    
+    /**
+     * @return the transfers made so far, in the form the expect methods use
+     */
+    public synchronized Set<String> actualEvents() {
+        return new HashSet<String>(actualEvents);
+    }
+    
+    /**
+     * @return how many times each transfer was made, in the form makeTransferEventString gives
+     */
+    public synchronized Map<String, Integer> eventCounts() {
+        return new HashMap<String, Integer>(eventCounts);
+    }
+    
+    public synchronized int transferCount() {
+        return transfers;
+    }
+    
+    public synchronized void expectTransfer(
             String senderAccount,
             String senderAuthCode,
             String receiverAccount,
@@ -93,7 +124,7 @@ public class MockBankingService implements BankingService {
         
     }
     
-    public void verify() {
+    public synchronized void verify() {
         
         assertEquals(expectedEvents, actualEvents);
         return;
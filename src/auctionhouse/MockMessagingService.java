@@ -5,7 +5,10 @@ package auctionhouse;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
 
@@ -18,32 +21,37 @@ public class MockMessagingService implements MessagingService {
 
     private Set<String> expectedEvents;
     private Set<String> actualEvents;
+    // How many times each event was received, counting repeats the event set hides.
+    private Map<String, Integer> eventCounts;
+    // Number of calls made, counting a multicast call once.
+    private int calls;
 
     public MockMessagingService() {
         expectedEvents = new HashSet<String>();
         actualEvents = new HashSet<String>();
+        eventCounts = new HashMap<String, Integer>();
     }
 
-    private String makeOpenedEventString(
+    static String makeOpenedEventString(
             String toAddress,
             int lotNumber) {
         return toAddress + ": " + "Auction of lot " 
                 + Integer.toString(lotNumber) + " opened";
     }
-    private String makeBidEventString(
+    static String makeBidEventString(
             String toAddress,
             int lotNumber,
             Money amount) {
         return toAddress + ": " + amount + 
                 " bid on lot " + Integer.toString(lotNumber);
     }
-    private String makeSoldEventString(
+    static String makeSoldEventString(
             String toAddress,
             int lotNumber) {
         return toAddress + ": " + "lot " 
                 + Integer.toString(lotNumber) + " has sold";
     }
-    private String makeUnsoldEventString(
+    static String makeUnsoldEventString(
             String toAddress,
             int lotNumber) {
         return toAddress + ": lot " 
@@ -53,52 +61,109 @@ public class MockMessagingService implements MessagingService {
      * Implementations for MessagingService interface methods
      */
 
-    public void auctionOpened(String address, int lotNumber) {
+    public synchronized void auctionOpened(String address, int lotNumber) {
      
         String s = makeOpenedEventString(address, lotNumber);
         logger.finer(s); 
-        actualEvents.add(s);
+        record(s);
+        calls++;
     }
     
-    public void bidAccepted(String address, int lotNumber,Money amount) {
+    public synchronized void bidAccepted(String address, int lotNumber,Money amount) {
         
         String s = makeBidEventString(address, lotNumber, amount);
         logger.finer(s); 
-        actualEvents.add(s);
+        record(s);
+        calls++;
     }
     
-    public void lotSold(String address, int lotNumber) {
+    public synchronized void lotSold(String address, int lotNumber) {
         
         String s = makeSoldEventString(address, lotNumber);
         logger.finer(s); 
-        actualEvents.add(s);
+        record(s);
+        calls++;
     }
-    public void lotUnsold(String address, int lotNumber) {
+    public synchronized void lotUnsold(String address, int lotNumber) {
         String s = makeUnsoldEventString(address, lotNumber);
         logger.finer(s);        
-        actualEvents.add(s);
+        record(s);
+        calls++;
     }
+
+    /*
+     * Multicast versions: record the same events, but count as one call.
+     */
+
+    public synchronized void auctionOpened(Collection<String> addresses, int lotNumber) {
+        for (String address : addresses) {
+            record(makeOpenedEventString(address, lotNumber));
+        }
+        calls++;
+    }
+    public synchronized void bidAccepted(Collection<String> addresses, int lotNumber, Money amount) {
+        for (String address : addresses) {
+            record(makeBidEventString(address, lotNumber, amount));
+        }
+        calls++;
+    }
+    public synchronized void lotSold(Collection<String> addresses, int lotNumber) {
+        for (String address : addresses) {
+            record(makeSoldEventString(address, lotNumber));
+        }
+        calls++;
+    }
+    public synchronized void lotUnsold(Collection<String> addresses, int lotNumber) {
+        for (String address : addresses) {
+            record(makeUnsoldEventString(address, lotNumber));
+        }
+        calls++;
+    }
+    private void record(String event) {
+        actualEvents.add(event);
+        eventCounts.merge(event, 1, Integer::sum);
+    }
+
     /*
      * Test methods
      */
-    public void expectAuctionOpened(String address, int lotNumber) {
+    public synchronized void expectAuctionOpened(String address, int lotNumber) {
         expectedEvents.add(makeOpenedEventString(address, lotNumber));
     }
-    public void expectBidReceived(String address, int lotNumber,Money amount) {
+    public synchronized void expectBidReceived(String address, int lotNumber,Money amount) {
         expectedEvents.add(makeBidEventString(address, lotNumber, amount));
     }
-    public void expectLotSold(String address, int lotNumber) {
+    public synchronized void expectLotSold(String address, int lotNumber) {
         expectedEvents.add(makeSoldEventString(address, lotNumber));
     }
-    public void expectLotUnsold(String address, int lotNumber) {
+    public synchronized void expectLotUnsold(String address, int lotNumber) {
         expectedEvents.add(makeUnsoldEventString(address, lotNumber));
     }
     
-    public void verify() {
+    /**
+     * @return the events received so far, in the form the expect methods use
+     */
+    public synchronized Set<String> actualEvents() {
+        return new HashSet<String>(actualEvents);
+    }
+
+    /**
+     * @return how many times each event was received, in the form the expect methods use
+     */
+    public synchronized Map<String, Integer> eventCounts() {
+        return new HashMap<String, Integer>(eventCounts);
+    }
+
+    public synchronized int callCount() {
+        return calls;
+    }
+
+    public synchronized void verify() {
 
         assertEquals(expectedEvents, actualEvents);
         expectedEvents.clear();
         actualEvents.clear();
+        eventCounts.clear();
         return;
     }
 
@@ -1,6 +1,7 @@
 /**
  * Represents a value of Money in pounds.
- * The class has methods to compare it to other Money objects, or alter (normalise or round) its own Money value
+ * The value is held as a whole number of pence. Static helpers do the same arithmetic on
+ * raw pence values without allocating, for use on hot paths.
  */
 package auctionhouse;
 
@@ -9,10 +10,20 @@ package auctionhouse;
  */
 public class Money implements Comparable<Money> {
  
+    /**
+     * Shared zero amount, so hot paths need not parse or allocate one.
+     */
+    public static final Money ZERO = new Money(0L);
+
+    /**
+     * Number of basis points in 100%.
+     */
+    public static final int BASIS_POINTS = 10000;
+
 	/**
-	 * the amount of money that this object stores.
+	 * the amount of money that this object stores, in pence.
 	 */
-    private double value;
+    private final long pence;
     
     /**
      * Converts an amount in pounds to a long-value in pence, rounded to the nearest pence
@@ -24,25 +35,93 @@ public class Money implements Comparable<Money> {
     }
  
     /**
-     * Normalises an amount in pounds, keeping only two rounded decimals
-     * @param pounds amount to be normalised
-     * @return the amount in pounds, normalised with only two decimals
+     * Parses an amount in pounds, rounded to the nearest pence
+     * @param pounds amount to be parsed, e.g. "12.34"
+     * @return the amount in pence
      */
-    private static double normalise(double pounds) {
-        return getNearestPence(pounds)/100.0;
-        
+    public static long parsePence(String pounds) {
+        return getNearestPence(Double.parseDouble(pounds));
     }
- 
+
     /**
-     * Constructor, which normalises the pounds value
+     * Constructor, which rounds the pounds value to the nearest pence
      * @param pounds
      */
     public Money(String pounds) {
-        value = normalise(Double.parseDouble(pounds));
+        pence = parsePence(pounds);
     }
     
-    private Money(double pounds) {
-        value = pounds;
+    private Money(long pence) {
+        this.pence = pence;
+    }
+
+    /**
+     * @param pence amount in pence
+     * @return a Money object holding the amount; ZERO is shared
+     */
+    public static Money ofPence(long pence) {
+        return pence == 0 ? ZERO : new Money(pence);
+    }
+
+    /**
+     * @return the Money value in pence
+     */
+    public long getPence() {
+        return pence;
+    }
+    
+    /*
+     * Allocation-free arithmetic on amounts in pence.
+     */
+
+    /**
+     * Compares two amounts in pence
+     * @return 0 if equal; a value less than 0 if a < b; a value greater than 0 if a > b
+     */
+    public static int compare(long a, long b) {
+        return Long.compare(a, b);
+    }
+
+    /**
+     * @return a + b in pence
+     * @throws ArithmeticException if the result overflows
+     */
+    public static long add(long a, long b) {
+        return Math.addExact(a, b);
+    }
+
+    /**
+     * @return a - b in pence
+     * @throws ArithmeticException if the result overflows
+     */
+    public static long subtract(long a, long b) {
+        return Math.subtractExact(a, b);
+    }
+
+    /**
+     * Computes a share of an amount, rounded to the nearest pence (halves round up)
+     * @param pence the amount
+     * @param basisPoints the share in hundredths of a percent, e.g. 1000 for 10%
+     * @return the share in pence
+     */
+    public static long percentOf(long pence, long basisPoints) {
+        return Math.floorDiv(Math.multiplyExact(pence, basisPoints) + BASIS_POINTS / 2, BASIS_POINTS);
+    }
+
+    /**
+     * @return the amount plus basisPoints hundredths of a percent of it, in pence
+     */
+    public static long addBasisPoints(long pence, long basisPoints) {
+        return add(pence, percentOf(pence, basisPoints));
+    }
+
+    /**
+     * Converts a percentage to basis points, rounded to the nearest basis point
+     * @param percent e.g. 10.0 for 10%
+     * @return e.g. 1000
+     */
+    public static long toBasisPoints(double percent) {
+        return Math.round(percent * 100.0);
     }
     
     /**
@@ -51,7 +130,7 @@ public class Money implements Comparable<Money> {
      * @return a Money object whose value is the sum of the two Money values
      */
     public Money add(Money m) {
-        return new Money(value + m.value);
+        return ofPence(add(pence, m.pence));
     }
     
     /**
@@ -60,16 +139,16 @@ public class Money implements Comparable<Money> {
      * @return a Money object whose value is the difference of the two Money values
      */
     public Money subtract(Money m) {
-        return new Money(value - m.value);
+        return ofPence(subtract(pence, m.pence));
     }
  
     /**
-     * Adds a % percent of Money to the current Money
-     * @param percent between 0 and 1, to be added
-     * @return a Money object whose value equals the previous value * (1 + percent)
+     * Adds a % percent of Money to the current Money, rounded to the nearest basis point
+     * @param percent to be added, e.g. 10.0 for 10%
+     * @return a Money object whose value equals the previous value * (1 + percent/100)
      */
     public Money addPercent(double percent) {
-        return new Money(normalise(value * (1 + percent/100.0)));
+        return ofPence(addBasisPoints(pence, toBasisPoints(percent)));
     }
      
 
@@ -78,19 +157,28 @@ public class Money implements Comparable<Money> {
      */
     @Override
     public String toString() {
-        return String.format("%.2f", value);
-        
+        long pounds = Math.abs(pence / 100);
+        long penceOnly = Math.abs(pence % 100);
+        StringBuilder sb = new StringBuilder(24);
+        if (pence < 0) {
+            sb.append('-');
+        }
+        sb.append(pounds).append('.');
+        if (penceOnly < 10) {
+            sb.append('0');
+        }
+        return sb.append(penceOnly).toString();
     }
     
     /**
-     * Compares the current Money with a second Money object, rounded to the nearest pence
+     * Compares the current Money with a second Money object
      * @param m the second Money to compare
      * @return 0 if the two Money values are equal; 
      *         a value less than 0 if the first value < the second;
      *         a value greater than 0 if the first value > the second
      */
     public int compareTo(Money m) {
-        return Long.compare(getNearestPence(value),  getNearestPence(m.value)); 
+        return compare(pence, m.pence); 
     }
     
     /**
@@ -100,20 +188,20 @@ public class Money implements Comparable<Money> {
      * 	       False if the first value > the second
      */
     public Boolean lessEqual(Money m) {
-        return compareTo(m) <= 0;
+        return pence <= m.pence;
     }
     
     
     /**
      * Checks if two Money objects are equal in value
      * @param o the second Money object
-     * @return True if the two Money objects have the same value, rounded to the nearest pence; False otherwise
+     * @return True if the two Money objects have the same value in pence; False otherwise
      */
     @Override
     public boolean equals(Object o) {
         if (!(o instanceof Money)) return false;
         Money oM = (Money) o;
-        return compareTo(oM) == 0;       
+        return pence == oM.pence;       
     }
     
     /**
@@ -122,7 +210,7 @@ public class Money implements Comparable<Money> {
      */
     @Override
     public int hashCode() {
-        return Long.hashCode(getNearestPence(value));
+        return Long.hashCode(pence);
     }
       
 
@@ -138,6 +138,30 @@ public class MoneyTest {
     	Money result = val1.subtract(val2);
     	assertEquals(result, new Money("0.00"));
     }
+
+    @Test
+    public void testPenceRoundTrip() {
+    	Money money = new Money("12.34");
+    	assertEquals(1234, money.getPence());
+    	assertEquals(money, Money.ofPence(1234));
+    	assertTrue(Money.ofPence(0) == Money.ZERO);
+    }
+
+    @Test
+    public void testToStringSmallAndNegativeValues() {
+    	assertEquals("0.05", Money.ofPence(5).toString());
+    	assertEquals("-0.05", Money.ofPence(-5).toString());
+    	assertEquals("-12.30", Money.ofPence(-1230).toString());
+    }
+
+    @Test
+    public void testStaticArithmetic() {
+    	assertEquals(1300, Money.add(1234, 66));
+    	assertEquals(1168, Money.subtract(1234, 66));
+    	assertTrue(Money.compare(1313, 1314) < 0);
+    	assertEquals(8813, Money.addBasisPoints(8012, Money.toBasisPoints(10)));
+    	assertEquals(1, Money.percentOf(5, 1000));
+    }
     /*
      * Put all class modifications above.
      ***********************************************************************
@@ -0,0 +1,383 @@
+package auctionhouse;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Asynchronous front for a MessagingService.
+ *
+ * Calls only queue a notification and return; worker threads deliver queued notifications
+ * to the wrapped service in batches, using its multicast methods for runs of the same
+ * message. All notifications for one address go through the same worker, so each recipient
+ * gets its messages in the order they were sent. A caller only waits when the queue of that
+ * worker is full, and fails with IllegalStateException if that worker has died.
+ *
+ * With a conflation window, BID_ACCEPTED notifications are conflated: while a bid
+ * notification for an (address, lot) pair waits to be delivered, later bids for the same pair
+ * only replace its amount, and it is held back for up to the window to collect them.
+ * The worker keeps delivering other notifications meanwhile, and sends a held bid early if
+ * another notification for its address comes along, so the order per recipient still holds.
+ * Other notifications are never dropped.
+ *
+ * Pass a dispatcher as the messagingService in Parameters, and call shutdown() when done
+ * to deliver everything still queued.
+ */
+public class NotificationDispatcher implements MessagingService {
+
+	private static EngineLog log = new EngineLog("auctionhouse", NotificationDispatcher.class);
+
+	// One message to deliver. SHUTDOWN tells a worker to stop.
+	private static final class Notification {
+		final MessageFlag flag;
+		final String address;
+		final int lotNumber;
+		// Replaced by later bids while a conflated bid notification is pending.
+		volatile Money amount;
+		// Set for conflated bid notifications only.
+		final BidKey key;
+		final long deliverAtNanos;
+
+		Notification(MessageFlag flag, String address, int lotNumber, Money amount) {
+			this(flag, address, lotNumber, amount, null, 0);
+		}
+
+		Notification(MessageFlag flag, String address, int lotNumber, Money amount, BidKey key, long deliverAtNanos) {
+			this.flag = flag;
+			this.address = address;
+			this.lotNumber = lotNumber;
+			this.amount = amount;
+			this.key = key;
+			this.deliverAtNanos = deliverAtNanos;
+		}
+	}
+
+	// The recipient and lot a bid notification is conflated on.
+	private static final class BidKey {
+		final String address;
+		final int lotNumber;
+
+		BidKey(String address, int lotNumber) {
+			this.address = address;
+			this.lotNumber = lotNumber;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof BidKey)) {
+				return false;
+			}
+			BidKey other = (BidKey) o;
+			return lotNumber == other.lotNumber && address.equals(other.address);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * address.hashCode() + lotNumber;
+		}
+	}
+
+	private static final Notification SHUTDOWN = new Notification(null, null, 0, null);
+	// How long a caller waits on a full queue before checking its worker is still alive.
+	private static final long QUEUE_WAIT_MILLIS = 100;
+
+	private final MessagingService delegate;
+	private final List<BlockingQueue<Notification>> queues;
+	private final List<Thread> workers;
+	private final int maxBatchSize;
+	private final long conflationWindowNanos;
+	// Bid notifications queued but not yet delivered, when conflating.
+	private final ConcurrentHashMap<BidKey, Notification> pendingBids = new ConcurrentHashMap<BidKey, Notification>();
+	private final AtomicLong conflatedCount = new AtomicLong();
+	// Callers queue under the read lock; shutdown() sets the flag under the write lock, so once
+	// it is set no notification is still on its way into a queue.
+	private final ReadWriteLock stateLock = new ReentrantReadWriteLock();
+	private boolean shutdown;
+
+	/**
+	 * @param delegate: service the notifications are delivered to
+	 * @param workerCount: number of delivery threads
+	 * @param queueCapacity: maximum notifications queued per worker before callers wait
+	 * @param maxBatchSize: maximum notifications a worker takes from its queue at once
+	 */
+	public NotificationDispatcher(MessagingService delegate, int workerCount, int queueCapacity, int maxBatchSize) {
+		this(delegate, workerCount, queueCapacity, maxBatchSize, -1);
+	}
+
+	/**
+	 * @param delegate: service the notifications are delivered to
+	 * @param workerCount: number of delivery threads
+	 * @param queueCapacity: maximum notifications queued per worker before callers wait
+	 * @param maxBatchSize: maximum notifications a worker takes from its queue at once
+	 * @param conflationWindowMillis: how long a bid notification waits for later bids to conflate with;
+	 *        negative to deliver every bid notification
+	 */
+	public NotificationDispatcher(MessagingService delegate, int workerCount, int queueCapacity, int maxBatchSize,
+			long conflationWindowMillis) {
+		if(workerCount <= 0 || queueCapacity <= 0 || maxBatchSize <= 0) {
+			throw new IllegalArgumentException("workerCount, queueCapacity and maxBatchSize must be positive");
+		}
+		this.delegate = delegate;
+		this.maxBatchSize = maxBatchSize;
+		this.conflationWindowNanos = conflationWindowMillis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(conflationWindowMillis);
+		queues = new ArrayList<BlockingQueue<Notification>>(workerCount);
+		workers = new ArrayList<Thread>(workerCount);
+		for(int i = 0; i < workerCount; i++) {
+			final BlockingQueue<Notification> queue = new ArrayBlockingQueue<Notification>(queueCapacity);
+			Thread worker = new Thread(new Runnable() {
+				public void run() {
+					try {
+						deliverUntilShutdown(queue);
+					} catch (RuntimeException | Error e) {
+						log.warning(e, "Notification dispatcher worker died; {} notifications left queued", queue.size());
+						throw e;
+					}
+				}
+			}, "notification-dispatcher-" + i);
+			worker.setDaemon(true);
+			queues.add(queue);
+			workers.add(worker);
+		}
+		for(Thread worker: workers) {
+			worker.start();
+		}
+	}
+
+	/*
+	 * Implementation of MessagingService interface: queue and return.
+	 */
+
+	public void auctionOpened(String address, int lotNumber) {
+		enqueue(new Notification(MessageFlag.AUCTION_OPENED, address, lotNumber, null));
+	}
+
+	public void bidAccepted(String address, int lotNumber, final Money amount) {
+		if(conflationWindowNanos < 0) {
+			enqueue(new Notification(MessageFlag.BID_ACCEPTED, address, lotNumber, amount));
+			return;
+		}
+		BidKey key = new BidKey(address, lotNumber);
+		final Notification fresh = new Notification(MessageFlag.BID_ACCEPTED, address, lotNumber, amount,
+				key, System.nanoTime() + conflationWindowNanos);
+		// Either become the pending notification for the key, or overwrite the pending one's amount.
+		// The worker removes the key under the same map lock before reading the amount it sends.
+		Notification pending = pendingBids.compute(key, (k, current) -> {
+			if(current == null) {
+				return fresh;
+			}
+			current.amount = amount;
+			return current;
+		});
+		if(pending == fresh) {
+			enqueue(fresh);
+		} else {
+			conflatedCount.incrementAndGet();
+		}
+	}
+
+	public void lotSold(String address, int lotNumber) {
+		enqueue(new Notification(MessageFlag.LOT_SOLD, address, lotNumber, null));
+	}
+
+	public void lotUnsold(String address, int lotNumber) {
+		enqueue(new Notification(MessageFlag.LOT_UNSOLD, address, lotNumber, null));
+	}
+
+	/**
+	 * @return the number of notifications waiting to be delivered
+	 */
+	public int queueDepth() {
+		int depth = 0;
+		for(BlockingQueue<Notification> queue: queues) {
+			depth += queue.size();
+		}
+		return depth;
+	}
+
+	/**
+	 * @return the number of bid notifications folded into a later one instead of being delivered
+	 */
+	public long conflatedCount() {
+		return conflatedCount.get();
+	}
+
+	/**
+	 * Stops accepting notifications, delivers everything already queued and stops the workers.
+	 */
+	public void shutdown() throws InterruptedException {
+		stateLock.writeLock().lock();
+		try {
+			if(shutdown) {
+				return;
+			}
+			shutdown = true;
+		} finally {
+			stateLock.writeLock().unlock();
+		}
+		for(int i = 0; i < queues.size(); i++) {
+			put(i, SHUTDOWN);
+		}
+		for(Thread worker: workers) {
+			worker.join();
+		}
+		// Only a worker that died leaves anything behind; deliver it from here.
+		for(BlockingQueue<Notification> queue: queues) {
+			List<Notification> leftOver = new ArrayList<Notification>();
+			queue.drainTo(leftOver);
+			deliver(leftOver);
+		}
+	}
+
+	private void enqueue(Notification notification) {
+		stateLock.readLock().lock();
+		try {
+			if(shutdown) {
+				throw new IllegalStateException("Notification dispatcher has been shut down");
+			}
+			if(!put(workerFor(notification.address), notification)) {
+				throw new IllegalStateException("Notification dispatcher worker for " + notification.address + " has died");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while queueing notification for " + notification.address, e);
+		} finally {
+			stateLock.readLock().unlock();
+		}
+	}
+
+	// Queues the notification for the worker, waiting for room rather than drop or reorder it.
+	// Returns false if the worker has died, as the queue would then never have room.
+	private boolean put(int worker, Notification notification) throws InterruptedException {
+		BlockingQueue<Notification> queue = queues.get(worker);
+		while(!queue.offer(notification, QUEUE_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+			if(!workers.get(worker).isAlive()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int workerFor(String address) {
+		int h = address.hashCode();
+		return ((h ^ (h >>> 16)) & 0x7fffffff) % queues.size();
+	}
+
+	private void deliverUntilShutdown(BlockingQueue<Notification> queue) {
+		List<Notification> batch = new ArrayList<Notification>(maxBatchSize);
+		// Conflated bids waiting out their window, in arrival order, which is deadline order
+		// as every bid waits the same window.
+		ArrayDeque<Notification> held = new ArrayDeque<Notification>();
+		List<Notification> ready = new ArrayList<Notification>(maxBatchSize);
+		boolean stopping = false;
+		try {
+			while(!stopping) {
+				// Wake for the next notification or the end of the oldest held bid's window.
+				Notification first = held.isEmpty() ? queue.take()
+						: queue.poll(held.peek().deliverAtNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+				if(first != null) {
+					batch.add(first);
+					queue.drainTo(batch, maxBatchSize - 1);
+				}
+				long now = System.nanoTime();
+				while(!held.isEmpty() && held.peek().deliverAtNanos - now <= 0) {
+					ready.add(held.poll());
+				}
+				for(Notification notification: batch) {
+					if(notification == SHUTDOWN) {
+						stopping = true;
+					} else if(notification.key != null && notification.deliverAtNanos - now > 0) {
+						held.add(notification);
+					} else {
+						release(held, notification.address, ready);
+						ready.add(notification);
+					}
+				}
+				if(stopping) {
+					ready.addAll(held);
+				}
+				deliver(ready);
+				ready.clear();
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			log.warning("Notification dispatcher worker interrupted; {} notifications left queued", queue.size() + held.size());
+		}
+	}
+
+	// Moves the held bids for an address to ready, so they go out before its next notification.
+	private static void release(ArrayDeque<Notification> held, String address, List<Notification> ready) {
+		if(held.isEmpty()) {
+			return;
+		}
+		for(Iterator<Notification> i = held.iterator(); i.hasNext(); ) {
+			Notification notification = i.next();
+			if(notification.address.equals(address)) {
+				ready.add(notification);
+				i.remove();
+			}
+		}
+	}
+
+	// Delivers the batch in order. Runs of the same message to different addresses go out as
+	// one multicast call.
+	private void deliver(List<Notification> batch) {
+		List<String> addresses = new ArrayList<String>();
+		Notification first = null;
+		Money firstAmount = null;
+		for(Notification notification: batch) {
+			Money amount = notification.amount;
+			if(notification.key != null) {
+				// Later bids for the key now queue a new notification rather than change this one.
+				pendingBids.remove(notification.key, notification);
+				amount = notification.amount;
+			}
+			if(first != null && !sameMessage(first, firstAmount, notification, amount)) {
+				// The delegate may keep the list, so start a new one rather than clear it.
+				send(first.flag, addresses, first.lotNumber, firstAmount);
+				addresses = new ArrayList<String>();
+			}
+			if(addresses.isEmpty()) {
+				first = notification;
+				firstAmount = amount;
+			}
+			addresses.add(notification.address);
+		}
+		if(!addresses.isEmpty()) {
+			send(first.flag, addresses, first.lotNumber, firstAmount);
+		}
+	}
+
+	private static boolean sameMessage(Notification n1, Money amount1, Notification n2, Money amount2) {
+		return n1.flag == n2.flag && n1.lotNumber == n2.lotNumber
+				&& (amount1 == null ? amount2 == null : amount1.equals(amount2));
+	}
+
+	private void send(MessageFlag flag, List<String> addresses, int lotNumber, Money amount) {
+		try {
+			switch(flag) {
+			case AUCTION_OPENED:
+				delegate.auctionOpened(addresses, lotNumber);
+				break;
+			case BID_ACCEPTED:
+				delegate.bidAccepted(addresses, lotNumber, amount);
+				break;
+			case LOT_SOLD:
+				delegate.lotSold(addresses, lotNumber);
+				break;
+			case LOT_UNSOLD:
+				delegate.lotUnsold(addresses, lotNumber);
+				break;
+			}
+		} catch (RuntimeException e) {
+			log.warning(e, "Delivering {} for lot {} failed", flag, lotNumber);
+		}
+	}
+}
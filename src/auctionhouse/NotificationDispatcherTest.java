@@ -0,0 +1,237 @@
+package auctionhouse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class NotificationDispatcherTest {
+
+    // Records, per address, the amounts of the bids delivered to it, in delivery order.
+    private static class RecordingMessagingService implements MessagingService {
+        final Map<String, List<String>> delivered = new HashMap<String, List<String>>();
+
+        private synchronized void record(String address, String event) {
+            List<String> events = delivered.get(address);
+            if (events == null) {
+                events = new ArrayList<String>();
+                delivered.put(address, events);
+            }
+            events.add(event);
+        }
+
+        public void auctionOpened(String address, int lotNumber) {
+            record(address, "opened " + lotNumber);
+        }
+        public void bidAccepted(String address, int lotNumber, Money amount) {
+            record(address, "bid " + lotNumber + " " + amount);
+        }
+        public void lotSold(String address, int lotNumber) {
+            record(address, "sold " + lotNumber);
+        }
+        public void lotUnsold(String address, int lotNumber) {
+            record(address, "unsold " + lotNumber);
+        }
+    }
+
+    @Test
+    public void testDeliversEverythingInOrderPerRecipient() throws Exception {
+        RecordingMessagingService delegate = new RecordingMessagingService();
+        NotificationDispatcher dispatcher = new NotificationDispatcher(delegate, 3, 4, 2);
+
+        List<String> expected = new ArrayList<String>();
+        expected.add("opened 1");
+        for (int i = 1; i <= 50; i++) {
+            expected.add("bid 1 " + i + ".00");
+        }
+        expected.add("sold 1");
+
+        for (int r = 0; r < 10; r++) {
+            dispatcher.auctionOpened("@Buyer" + r, 1);
+        }
+        for (int i = 1; i <= 50; i++) {
+            for (int r = 0; r < 10; r++) {
+                dispatcher.bidAccepted("@Buyer" + r, 1, new Money(Integer.toString(i)));
+            }
+        }
+        for (int r = 0; r < 10; r++) {
+            dispatcher.lotSold("@Buyer" + r, 1);
+        }
+        dispatcher.shutdown();
+
+        assertEquals(10, delegate.delivered.size());
+        for (int r = 0; r < 10; r++) {
+            assertEquals(expected, delegate.delivered.get("@Buyer" + r));
+        }
+        assertEquals(0, dispatcher.queueDepth());
+    }
+
+    @Test
+    public void testConflatesBidsWithinWindow() throws Exception {
+        RecordingMessagingService delegate = new RecordingMessagingService();
+        NotificationDispatcher dispatcher = new NotificationDispatcher(delegate, 1, 64, 8, 300);
+
+        dispatcher.auctionOpened("@Buyer1", 1);
+        for (int i = 1; i <= 50; i++) {
+            dispatcher.bidAccepted("@Buyer1", 1, new Money(Integer.toString(i)));
+            dispatcher.bidAccepted("@Buyer1", 2, new Money(Integer.toString(i)));
+        }
+        dispatcher.lotSold("@Buyer1", 1);
+        dispatcher.shutdown();
+
+        List<String> expected = new ArrayList<String>();
+        expected.add("opened 1");
+        expected.add("bid 1 50.00");
+        expected.add("bid 2 50.00");
+        expected.add("sold 1");
+        assertEquals(expected, delegate.delivered.get("@Buyer1"));
+        assertEquals(98, dispatcher.conflatedCount());
+    }
+
+    @Test
+    public void testHeldBidDoesNotHoldUpWorker() throws Exception {
+        RecordingMessagingService delegate = new RecordingMessagingService();
+        // A window far longer than the test should take.
+        NotificationDispatcher dispatcher = new NotificationDispatcher(delegate, 1, 64, 8, 60000);
+
+        dispatcher.bidAccepted("@Buyer1", 1, new Money("10.00"));
+        dispatcher.auctionOpened("@Buyer2", 2);
+        awaitDelivered(delegate, "@Buyer2", 1);
+        assertEquals(null, deliveredTo(delegate, "@Buyer1"));
+
+        // The next message for the bidder sends the held bid first.
+        dispatcher.bidAccepted("@Buyer1", 1, new Money("20.00"));
+        dispatcher.lotSold("@Buyer1", 1);
+        awaitDelivered(delegate, "@Buyer1", 2);
+        assertEquals(Arrays.asList("bid 1 20.00", "sold 1"), deliveredTo(delegate, "@Buyer1"));
+        dispatcher.shutdown();
+    }
+
+    private static List<String> deliveredTo(RecordingMessagingService delegate, String address) {
+        synchronized (delegate) {
+            List<String> events = delegate.delivered.get(address);
+            return events == null ? null : new ArrayList<String>(events);
+        }
+    }
+
+    private static void awaitDelivered(RecordingMessagingService delegate, String address, int count)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            List<String> events = deliveredTo(delegate, address);
+            if (events != null && events.size() >= count) {
+                return;
+            }
+            assertTrue("timed out waiting for " + address, System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void testAuctionThroughDispatcher() throws Exception {
+        MockMessagingService messagingService = new MockMessagingService();
+        NotificationDispatcher dispatcher = new NotificationDispatcher(messagingService, 2, 16, 8);
+        AuctionHouse house = new AuctionHouseImp(new Parameters(
+                10.0, 15.0, new Money("10.00"), "AH A/C", "AH-auth", dispatcher, new MockBankingService()));
+
+        assertEquals(Status.Kind.OK, house.registerSeller("Seller1", "@Seller1", "S1 A/C").kind);
+        assertEquals(Status.Kind.OK, house.registerBuyer("Buyer1", "@Buyer1", "B1 A/C", "B1-auth").kind);
+        assertEquals(Status.Kind.OK, house.addLot("Seller1", 1, "Lamp", new Money("20.00")).kind);
+        assertEquals(Status.Kind.OK, house.noteInterest("Buyer1", 1).kind);
+        assertEquals(Status.Kind.OK, house.openAuction("Auctioneer1", "@Auctioneer1", 1).kind);
+        assertEquals(Status.Kind.OK, house.makeBid("Buyer1", 1, new Money("30.00")).kind);
+        assertEquals(Status.Kind.SALE, house.closeAuction("Auctioneer1", 1).kind);
+        dispatcher.shutdown();
+
+        messagingService.expectAuctionOpened("@Buyer1", 1);
+        messagingService.expectAuctionOpened("@Seller1", 1);
+        messagingService.expectBidReceived("@Auctioneer1", 1, new Money("30.00"));
+        messagingService.expectBidReceived("@Seller1", 1, new Money("30.00"));
+        messagingService.expectLotSold("@Buyer1", 1);
+        messagingService.expectLotSold("@Seller1", 1);
+        messagingService.verify();
+    }
+
+    @Test
+    public void testGroupsSameMessageIntoOneCall() throws Exception {
+        final CountDownLatch delivering = new CountDownLatch(1);
+        final CountDownLatch queued = new CountDownLatch(1);
+        // Holds the worker in its first delivery until everything else is queued, so the rest
+        // is taken as one batch.
+        MockMessagingService messagingService = new MockMessagingService() {
+            @Override
+            public void auctionOpened(Collection<String> addresses, int lotNumber) {
+                delivering.countDown();
+                try {
+                    queued.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.auctionOpened(addresses, lotNumber);
+            }
+        };
+        NotificationDispatcher dispatcher = new NotificationDispatcher(messagingService, 1, 64, 64);
+        List<String> addresses = new ArrayList<String>();
+        for (int r = 0; r < 20; r++) {
+            addresses.add("@Buyer" + r);
+        }
+        Money m30 = new Money("30.00");
+
+        dispatcher.auctionOpened("@Auctioneer1", 1);
+        delivering.await();
+        dispatcher.bidAccepted(addresses, 1, m30);
+        dispatcher.lotSold(addresses, 1);
+        queued.countDown();
+        dispatcher.shutdown();
+
+        messagingService.expectAuctionOpened("@Auctioneer1", 1);
+        for (String address : addresses) {
+            messagingService.expectBidReceived(address, 1, m30);
+            messagingService.expectLotSold(address, 1);
+        }
+        // The opened message, then one multicast call for each of the other two messages.
+        int calls = messagingService.callCount();
+        messagingService.verify();
+        assertEquals(3, calls);
+    }
+
+    @Test
+    public void testCallersFailOnceWorkerDies() throws Exception {
+        final CountDownLatch died = new CountDownLatch(1);
+        MessagingService dying = new RecordingMessagingService() {
+            @Override
+            public void auctionOpened(String address, int lotNumber) {
+                died.countDown();
+                throw new AssertionError("delegate failed");
+            }
+        };
+        NotificationDispatcher dispatcher = new NotificationDispatcher(dying, 1, 1, 1);
+
+        dispatcher.auctionOpened("@Auctioneer1", 1);
+        died.await();
+        try {
+            // One fits in the queue; the caller after it must not wait for room forever.
+            dispatcher.lotSold("@BuyerA", 1);
+            dispatcher.lotSold("@BuyerA", 2);
+            fail("Expected the caller to fail once the worker has died");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("died"));
+        }
+        dispatcher.shutdown();
+        try {
+            dispatcher.lotSold("@BuyerA", 3);
+            fail("Expected the caller to fail after shutdown");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("shut down"));
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package auctionhouse;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * AuctionHouse reached over one connection to an AuctionServer. Calls block until answered
+ * and are made one at a time; the batch calls send all their requests before reading any
+ * response. Connection failures are thrown as UncheckedIOException. A call the server failed
+ * to carry out returns its ERROR Status, or, for the catalogue calls, throws
+ * IllegalStateException with its message. A call whose request would not fit in a frame
+ * throws IllegalArgumentException before anything is sent.
+ */
+public class RemoteAuctionHouse implements AuctionHouse, Closeable {
+
+	private final SocketChannel channel;
+	private final ByteBuffer out = ByteBuffer.allocate(4 + WireProtocol.MAX_FRAME);
+	private ByteBuffer in = ByteBuffer.allocate(4 + WireProtocol.MAX_FRAME);
+	// Bytes of in read from the socket, and the start of those not yet returned by receive.
+	private int inFilled;
+	private int inConsumed;
+	private int nextRequestId;
+	// Whether the last response received was FAILED rather than an answer.
+	private boolean failed;
+
+	public RemoteAuctionHouse(InetSocketAddress address) throws IOException {
+		channel = SocketChannel.open(address);
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/*
+	 * AuctionHouse
+	 */
+
+	public synchronized Status registerBuyer(String name, String address, String bankAccount, String bankAuthCode) {
+		int start = begin(WireProtocol.REGISTER_BUYER, WireProtocol.stringSize(name) + WireProtocol.stringSize(address)
+				+ WireProtocol.stringSize(bankAccount) + WireProtocol.stringSize(bankAuthCode));
+		WireProtocol.putString(out, name);
+		WireProtocol.putString(out, address);
+		WireProtocol.putString(out, bankAccount);
+		WireProtocol.putString(out, bankAuthCode);
+		return WireProtocol.getStatus(call(start));
+	}
+
+	public synchronized Status registerSeller(String name, String address, String bankAccount) {
+		int start = begin(WireProtocol.REGISTER_SELLER, WireProtocol.stringSize(name) + WireProtocol.stringSize(address)
+				+ WireProtocol.stringSize(bankAccount));
+		WireProtocol.putString(out, name);
+		WireProtocol.putString(out, address);
+		WireProtocol.putString(out, bankAccount);
+		return WireProtocol.getStatus(call(start));
+	}
+
+	public synchronized Status addLot(String sellerName, int number, String description, Money reservePrice) {
+		int start = begin(WireProtocol.ADD_LOT, WireProtocol.stringSize(sellerName) + 4 + WireProtocol.stringSize(description) + 8);
+		WireProtocol.putString(out, sellerName);
+		out.putInt(number);
+		WireProtocol.putString(out, description);
+		WireProtocol.putMoney(out, reservePrice);
+		return WireProtocol.getStatus(call(start));
+	}
+
+	public synchronized List<CatalogueEntry> viewCatalogue() {
+		int start = begin(WireProtocol.VIEW_CATALOGUE, 0);
+		return WireProtocol.getCatalogue(answer(start));
+	}
+
+	public synchronized List<CatalogueEntry> viewCatalogue(int fromLotNumber, int limit) {
+		int start = begin(WireProtocol.VIEW_CATALOGUE_PAGE, 8);
+		out.putInt(fromLotNumber);
+		out.putInt(limit);
+		return WireProtocol.getCatalogue(answer(start));
+	}
+
+	public synchronized List<Integer> searchCatalogue(String query, LotStatus status, int limit) {
+		int start = begin(WireProtocol.SEARCH_CATALOGUE, WireProtocol.stringSize(query) + 1 + 4);
+		WireProtocol.putString(out, query);
+		WireProtocol.putLotStatus(out, status);
+		out.putInt(limit);
+		return WireProtocol.getLotNumbers(answer(start));
+	}
+
+	public synchronized Status noteInterest(String buyerName, int lotNumber) {
+		int start = begin(WireProtocol.NOTE_INTEREST, WireProtocol.stringSize(buyerName) + 4);
+		WireProtocol.putString(out, buyerName);
+		out.putInt(lotNumber);
+		return WireProtocol.getStatus(call(start));
+	}
+
+	public synchronized Status openAuction(String auctioneerName, String auctioneerAddress, int lotNumber) {
+		int start = begin(WireProtocol.OPEN_AUCTION, WireProtocol.stringSize(auctioneerName) + WireProtocol.stringSize(auctioneerAddress) + 4);
+		WireProtocol.putString(out, auctioneerName);
+		WireProtocol.putString(out, auctioneerAddress);
+		out.putInt(lotNumber);
+		return WireProtocol.getStatus(call(start));
+	}
+
+	public synchronized Status makeBid(String buyerName, int lotNumber, Money bid) {
+		int start = begin(WireProtocol.MAKE_BID, bidSize(buyerName));
+		putBid(buyerName, lotNumber, bid);
+		return WireProtocol.getStatus(call(start));
+	}
+
+	public synchronized Status closeAuction(String auctioneerName, int lotNumber) {
+		int start = begin(WireProtocol.CLOSE_AUCTION, WireProtocol.stringSize(auctioneerName) + 4);
+		WireProtocol.putString(out, auctioneerName);
+		out.putInt(lotNumber);
+		return WireProtocol.getStatus(call(start));
+	}
+
+	/**
+	 * Sends every bid before reading the responses.
+	 */
+	@Override
+	public synchronized List<Status> makeBids(List<BidCommand> bids) {
+		// Checked up front, so a bid too large to send fails the call before any is made.
+		int[] frameSizes = new int[bids.size()];
+		for(int i = 0; i < frameSizes.length; i++) {
+			frameSizes[i] = 4 + checkFits(bidSize(bids.get(i).buyerName));
+		}
+		List<Status> results = new ArrayList<Status>(bids.size());
+		int sent = 0;
+		while(sent < bids.size()) {
+			// Send as many as fit in the buffer, then collect their answers.
+			int firstId = nextRequestId;
+			int batch = 0;
+			out.clear();
+			for(; sent < bids.size() && out.remaining() >= frameSizes[sent]; sent++, batch++) {
+				BidCommand bid = bids.get(sent);
+				int start = WireProtocol.beginFrame(out, nextRequestId++, WireProtocol.MAKE_BID);
+				putBid(bid.buyerName, bid.lotNumber, bid.amount);
+				WireProtocol.endFrame(out, start);
+			}
+			send();
+			for(int i = 0; i < batch; i++) {
+				results.add(WireProtocol.getStatus(receive(firstId + i, WireProtocol.MAKE_BID)));
+			}
+		}
+		return results;
+	}
+
+	private void putBid(String buyerName, int lotNumber, Money bid) {
+		WireProtocol.putString(out, buyerName);
+		out.putInt(lotNumber);
+		WireProtocol.putMoney(out, bid);
+	}
+
+	private static int bidSize(String buyerName) {
+		return WireProtocol.stringSize(buyerName) + 4 + 8;
+	}
+
+	// @return the size of a frame with a body of bodySize bytes, not counting its length
+	private static int checkFits(int bodySize) {
+		int frameSize = WireProtocol.HEADER + bodySize;
+		if(frameSize > WireProtocol.MAX_FRAME) {
+			throw new IllegalArgumentException("Request of " + frameSize + " bytes exceeds the largest frame of "
+					+ WireProtocol.MAX_FRAME);
+		}
+		return frameSize;
+	}
+
+	// Starts a single request with a body of bodySize bytes in the out buffer.
+	private int begin(byte operation, int bodySize) {
+		checkFits(bodySize);
+		out.clear();
+		return WireProtocol.beginFrame(out, nextRequestId++, operation);
+	}
+
+	// Sends the request started at start and returns the body of its response.
+	private ByteBuffer call(int start) {
+		WireProtocol.endFrame(out, start);
+		int requestId = out.getInt(start + 4);
+		byte operation = out.get(start + 8);
+		send();
+		return receive(requestId, operation);
+	}
+
+	// Like call, but throws if the server failed the request, for calls with no Status to return.
+	private ByteBuffer answer(int start) {
+		ByteBuffer body = call(start);
+		if(failed) {
+			throw new IllegalStateException(WireProtocol.getStatus(body).getMessage());
+		}
+		return body;
+	}
+
+	private void send() {
+		out.flip();
+		try {
+			while(out.hasRemaining()) {
+				channel.write(out);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	// @return the in buffer, positioned at the body of the next response
+	private ByteBuffer receive(int requestId, byte operation) {
+		try {
+			// Drop the previous response, keeping any bytes read past it.
+			in.limit(inFilled);
+			in.position(inConsumed);
+			in.compact();
+			fill(4);
+			int length = in.getInt(0);
+			if(length < WireProtocol.HEADER) {
+				throw new IOException("Bad response length " + length);
+			}
+			if(4 + length > in.capacity()) {
+				ByteBuffer larger = ByteBuffer.allocate(4 + length);
+				in.flip();
+				larger.put(in);
+				in = larger;
+			}
+			fill(4 + length);
+			inFilled = in.position();
+			inConsumed = 4 + length;
+			in.flip();
+			in.position(4);
+			int id = in.getInt();
+			byte op = in.get();
+			if(id != requestId || (op != operation && op != WireProtocol.FAILED)) {
+				throw new IOException("Response " + id + "/" + op + " does not answer request " + requestId + "/" + operation);
+			}
+			failed = op == WireProtocol.FAILED;
+			// Bytes after this response are kept for the next receive.
+			in.limit(4 + length);
+			return in;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	// Reads until the in buffer, in write mode, holds at least bytes.
+	private void fill(int bytes) throws IOException {
+		while(in.position() < bytes) {
+			if(channel.read(in) < 0) {
+				throw new EOFException("Server closed the connection");
+			}
+		}
+	}
+}
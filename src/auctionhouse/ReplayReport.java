@@ -0,0 +1,91 @@
+package auctionhouse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * What TrafficReplayer found: how fast the calls ran, and where the implementation
+ * replayed against behaved differently from the recording.
+ */
+public final class ReplayReport {
+
+	// At most this many kind divergences are kept; divergenceCount counts them all.
+	static final int MAX_DIVERGENCES = 100;
+
+	public final int callCount;
+	public final long elapsedNanos;
+	public final int divergenceCount;
+	// "call n method: expected KIND, got KIND", in call order.
+	public final List<String> divergences;
+	// Messages and transfers in the recording that the replay did not cause, and the reverse,
+	// each with how many times more it happened on one side than the other.
+	public final Map<String, Integer> missingSideEffects;
+	public final Map<String, Integer> unexpectedSideEffects;
+
+	// Sorted latency of each call.
+	private final long[] latencies;
+
+	ReplayReport(long[] latencies, long elapsedNanos, int divergenceCount, List<String> divergences,
+			Map<String, Integer> missingSideEffects, Map<String, Integer> unexpectedSideEffects) {
+		this.latencies = latencies.clone();
+		Arrays.sort(this.latencies);
+		this.callCount = latencies.length;
+		this.elapsedNanos = elapsedNanos;
+		this.divergenceCount = divergenceCount;
+		this.divergences = Collections.unmodifiableList(new ArrayList<String>(divergences));
+		this.missingSideEffects = Collections.unmodifiableMap(new TreeMap<String, Integer>(missingSideEffects));
+		this.unexpectedSideEffects = Collections.unmodifiableMap(new TreeMap<String, Integer>(unexpectedSideEffects));
+	}
+
+	/**
+	 * @return true if every call returned the recorded kind and the side effects were the same
+	 */
+	public boolean matches() {
+		return divergenceCount == 0 && missingSideEffects.isEmpty() && unexpectedSideEffects.isEmpty();
+	}
+
+	public double callsPerSecond() {
+		return elapsedNanos == 0 ? 0 : callCount * 1e9 / elapsedNanos;
+	}
+
+	/**
+	 * @param percentile: between 0 and 100, e.g. 99.9
+	 * @return the latency in nanoseconds that this percentage of calls did not exceed
+	 */
+	public long latencyPercentile(double percentile) {
+		if(latencies.length == 0) {
+			return 0;
+		}
+		int rank = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+		return latencies[Math.max(0, Math.min(rank, latencies.length - 1))];
+	}
+
+	public long maxLatency() {
+		return latencies.length == 0 ? 0 : latencies[latencies.length - 1];
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%d calls in %.3f ms (%.0f calls/s)%n", callCount, elapsedNanos / 1e6, callsPerSecond()));
+		sb.append(String.format("latency us: p50 %.1f  p90 %.1f  p99 %.1f  p99.9 %.1f  max %.1f%n",
+				latencyPercentile(50) / 1e3, latencyPercentile(90) / 1e3, latencyPercentile(99) / 1e3,
+				latencyPercentile(99.9) / 1e3, maxLatency() / 1e3));
+		sb.append(String.format("%d status divergences, %d missing and %d unexpected side effects%n",
+				divergenceCount, missingSideEffects.size(), unexpectedSideEffects.size()));
+		for(String divergence: divergences) {
+			sb.append("  ").append(divergence).append(String.format("%n"));
+		}
+		for(Map.Entry<String, Integer> event: missingSideEffects.entrySet()) {
+			sb.append(String.format("  missing: %s x%d%n", event.getKey(), event.getValue()));
+		}
+		for(Map.Entry<String, Integer> event: unexpectedSideEffects.entrySet()) {
+			sb.append(String.format("  unexpected: %s x%d%n", event.getKey(), event.getValue()));
+		}
+		return sb.toString();
+	}
+}
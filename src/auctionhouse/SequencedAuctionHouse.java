@@ -0,0 +1,389 @@
+package auctionhouse;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * AuctionHouse that applies every state change on one writer thread, in the order callers
+ * publish them into a pre-allocated ring of command slots.
+ *
+ * A caller claims the next sequence number, waits until the slot for it is free, fills it in
+ * and publishes it, then waits on the slot for its result. The writer takes the published
+ * slots in sequence, and takes every slot already published each time it wakes, so a busy
+ * ring is drained in batches without sleeping in between, and a run of consecutive bids in a
+ * batch is applied through one makeBids call. Only the writer touches the lots
+ * and maps of the AuctionHouseImp behind it, so its stripe locks are never contended and its
+ * state stays in the writer's cache.
+ *
+ * Catalogue reads do not change state and go straight to the AuctionHouseImp.
+ */
+public class SequencedAuctionHouse implements AuctionHouse, Closeable {
+
+	private static EngineLog log = new EngineLog("auctionhouse", SequencedAuctionHouse.class);
+
+	// Spins before a waiting caller or the idle writer parks; on one processor spinning only
+	// delays the thread being waited for.
+	private static final int SPIN_TRIES = Runtime.getRuntime().availableProcessors() > 1 ? 200 : 0;
+	// Most consecutive bids applied through one makeBids call.
+	private static final int MAX_BID_RUN = 256;
+
+	private enum Op { REGISTER_BUYER, REGISTER_SELLER, ADD_LOT, NOTE_INTEREST, OPEN_AUCTION, MAKE_BID, CLOSE_AUCTION, STOP }
+
+	// One command and, once applied, its result. Reused every ring.length sequences.
+	private static final class Slot {
+		// The sequence allowed to fill this slot next; advanced by the caller once it has its result.
+		volatile long turn;
+		// Sequence of the command in the slot once it is published.
+		volatile long published = -1;
+		volatile boolean done;
+
+		Thread caller;
+		Op op;
+		String s1, s2, s3, s4;
+		int number;
+		Money amount;
+		Status result;
+		RuntimeException failure;
+	}
+
+	private final AuctionHouseImp house;
+	private final Slot[] ring;
+	private final int mask;
+	private final AtomicLong nextSequence = new AtomicLong();
+	private final Thread writer;
+	private volatile boolean writerParked;
+	// Set before the stop command is sequenced, so callers that see it check stopSequence.
+	private volatile boolean closing;
+	// Sequence of the stop command once it is claimed; commands after it are never applied.
+	private volatile long stopSequence = Long.MAX_VALUE;
+
+	// Written by the writer only.
+	private final List<BidCommand> bidRun = new ArrayList<BidCommand>(MAX_BID_RUN);
+	private volatile long appliedCount;
+	private volatile long batchCount;
+
+	/**
+	 * Starts the writer thread.
+	 * @param house: house the commands are applied to; nothing else may change it from now on
+	 * @param ringSize: number of command slots, a power of two
+	 */
+	public SequencedAuctionHouse(AuctionHouseImp house, int ringSize) {
+		this(house, ringSize, "auction-writer");
+	}
+
+	/**
+	 * @param writerName: name of the writer thread
+	 */
+	public SequencedAuctionHouse(AuctionHouseImp house, int ringSize, String writerName) {
+		if(ringSize <= 0 || Integer.bitCount(ringSize) != 1) {
+			throw new IllegalArgumentException("ringSize must be a positive power of two: " + ringSize);
+		}
+		this.house = house;
+		ring = new Slot[ringSize];
+		mask = ringSize - 1;
+		for(int i = 0; i < ringSize; i++) {
+			ring[i] = new Slot();
+			ring[i].turn = i;
+		}
+		writer = new Thread(new Runnable() {
+			public void run() {
+				applyUntilStopped();
+			}
+		}, writerName);
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * @return the number of commands applied so far
+	 */
+	public long appliedCount() {
+		return appliedCount;
+	}
+
+	/**
+	 * @return the number of times the writer woke to a non-empty ring; appliedCount() divided
+	 *         by this is the average batch size
+	 */
+	public long batchCount() {
+		return batchCount;
+	}
+
+	/**
+	 * Applies the commands sequenced before this call, then stops the writer. Calls sequenced
+	 * after it, including calls racing with it, throw IllegalStateException.
+	 */
+	public void close() {
+		synchronized(this) {
+			if(closing) {
+				joinWriter();
+				return;
+			}
+			closing = true;
+		}
+		long sequence = nextSequence.getAndIncrement();
+		stopSequence = sequence;
+		publishAndAwait(sequence, Op.STOP, null, null, null, null, 0, null);
+		joinWriter();
+	}
+
+	private void joinWriter() {
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/*
+	 * AuctionHouse
+	 */
+
+	public Status registerBuyer(String name, String address, String bankAccount, String bankAuthCode) {
+		return submit(Op.REGISTER_BUYER, name, address, bankAccount, bankAuthCode, 0, null);
+	}
+
+	public Status registerSeller(String name, String address, String bankAccount) {
+		return submit(Op.REGISTER_SELLER, name, address, bankAccount, null, 0, null);
+	}
+
+	public Status addLot(String sellerName, int number, String description, Money reservePrice) {
+		return submit(Op.ADD_LOT, sellerName, description, null, null, number, reservePrice);
+	}
+
+	public List<CatalogueEntry> viewCatalogue() {
+		return house.viewCatalogue();
+	}
+
+	public List<CatalogueEntry> viewCatalogue(int fromLotNumber, int limit) {
+		return house.viewCatalogue(fromLotNumber, limit);
+	}
+
+	public List<Integer> searchCatalogue(String query, LotStatus status, int limit) {
+		return house.searchCatalogue(query, status, limit);
+	}
+
+	public Status noteInterest(String buyerName, int lotNumber) {
+		return submit(Op.NOTE_INTEREST, buyerName, null, null, null, lotNumber, null);
+	}
+
+	public Status openAuction(String auctioneerName, String auctioneerAddress, int lotNumber) {
+		return submit(Op.OPEN_AUCTION, auctioneerName, auctioneerAddress, null, null, lotNumber, null);
+	}
+
+	public Status makeBid(String buyerName, int lotNumber, Money bid) {
+		return submit(Op.MAKE_BID, buyerName, null, null, null, lotNumber, bid);
+	}
+
+	public Status closeAuction(String auctioneerName, int lotNumber) {
+		return submit(Op.CLOSE_AUCTION, auctioneerName, null, null, null, lotNumber, null);
+	}
+
+	/*
+	 * Callers
+	 */
+
+	private Status submit(Op op, String s1, String s2, String s3, String s4, int number, Money amount) {
+		if(closing) {
+			throw new IllegalStateException("Sequenced auction house is closed");
+		}
+		long sequence = nextSequence.getAndIncrement();
+		if(closing) {
+			// Raced with close: only commands sequenced before the stop are applied.
+			long stop;
+			for(int tries = 0; (stop = stopSequence) == Long.MAX_VALUE; tries++) {
+				backOff(tries);
+			}
+			if(sequence > stop) {
+				throw new IllegalStateException("Sequenced auction house is closed");
+			}
+		}
+		return publishAndAwait(sequence, op, s1, s2, s3, s4, number, amount);
+	}
+
+	// Fills in and publishes the slot for sequence, then waits for its result.
+	private Status publishAndAwait(long sequence, Op op, String s1, String s2, String s3, String s4, int number, Money amount) {
+		Slot slot = ring[(int) sequence & mask];
+		// Wait for the caller a whole ring ahead to collect its result.
+		for(int tries = 0; slot.turn != sequence; tries++) {
+			backOff(tries);
+		}
+		slot.caller = Thread.currentThread();
+		slot.op = op;
+		slot.s1 = s1;
+		slot.s2 = s2;
+		slot.s3 = s3;
+		slot.s4 = s4;
+		slot.number = number;
+		slot.amount = amount;
+		slot.published = sequence;
+		if(writerParked) {
+			LockSupport.unpark(writer);
+		}
+
+		for(int tries = 0; !slot.done; tries++) {
+			if(tries >= SPIN_TRIES) {
+				LockSupport.park(this);
+			}
+		}
+		Status result = slot.result;
+		RuntimeException failure = slot.failure;
+		slot.result = null;
+		slot.failure = null;
+		slot.s1 = slot.s2 = slot.s3 = slot.s4 = null;
+		slot.amount = null;
+		slot.caller = null;
+		slot.done = false;
+		// Hand the slot on to the caller one ring later.
+		slot.turn = sequence + ring.length;
+		if(failure != null) {
+			throw failure;
+		}
+		return result;
+	}
+
+	private static void backOff(int tries) {
+		if(tries >= SPIN_TRIES) {
+			Thread.yield();
+		}
+	}
+
+	/*
+	 * Writer
+	 */
+
+	private void applyUntilStopped() {
+		long next = 0;
+		while(true) {
+			Slot slot = ring[(int) next & mask];
+			if(slot.published != next) {
+				awaitPublished(slot, next);
+			}
+			// Take everything already published before waiting again.
+			batchCount++;
+			do {
+				if(slot.op == Op.MAKE_BID) {
+					next = applyBids(next);
+				} else if(slot.op == Op.STOP) {
+					slot.result = Status.OK();
+					appliedCount++;
+					complete(slot);
+					log.info("Writer stopped after {} commands in {} batches", appliedCount, batchCount);
+					return;
+				} else {
+					apply(slot);
+					appliedCount++;
+					complete(slot);
+					next++;
+				}
+				slot = ring[(int) next & mask];
+			} while(slot.published == next);
+		}
+	}
+
+	/**
+	 * Applies the run of published bids starting at first through one makeBids call, which
+	 * shares lookups and journal appends across the run but still messages every accepted bid.
+	 * @return the sequence after the run
+	 */
+	private long applyBids(long first) {
+		long end = first + 1;
+		while(end - first < MAX_BID_RUN) {
+			Slot slot = ring[(int) end & mask];
+			if(slot.published != end || slot.op != Op.MAKE_BID) {
+				break;
+			}
+			end++;
+		}
+		if(end - first == 1) {
+			Slot slot = ring[(int) first & mask];
+			apply(slot);
+			appliedCount++;
+			complete(slot);
+			return end;
+		}
+
+		bidRun.clear();
+		for(long sequence = first; sequence < end; sequence++) {
+			Slot slot = ring[(int) sequence & mask];
+			bidRun.add(new BidCommand(slot.s1, slot.number, slot.amount));
+		}
+		List<Status> results = null;
+		RuntimeException failure = null;
+		try {
+			results = house.makeBids(bidRun);
+		} catch (RuntimeException e) {
+			log.warning(e, "Run of {} bids failed", bidRun.size());
+			failure = e;
+		}
+		for(long sequence = first; sequence < end; sequence++) {
+			Slot slot = ring[(int) sequence & mask];
+			if(failure == null) {
+				slot.result = results.get((int) (sequence - first));
+			} else {
+				slot.failure = failure;
+			}
+			appliedCount++;
+			complete(slot);
+		}
+		return end;
+	}
+
+	private static void complete(Slot slot) {
+		// The caller may reuse the slot as soon as it sees done.
+		Thread caller = slot.caller;
+		slot.done = true;
+		LockSupport.unpark(caller);
+	}
+
+	private void awaitPublished(Slot slot, long sequence) {
+		for(int tries = 0; slot.published != sequence; tries++) {
+			if(tries < SPIN_TRIES) {
+				continue;
+			}
+			// Callers unpark the writer if they see this flag after publishing.
+			writerParked = true;
+			if(slot.published != sequence) {
+				LockSupport.park(this);
+			}
+			writerParked = false;
+		}
+	}
+
+	private void apply(Slot slot) {
+		try {
+			switch(slot.op) {
+			case REGISTER_BUYER:
+				slot.result = house.registerBuyer(slot.s1, slot.s2, slot.s3, slot.s4);
+				break;
+			case REGISTER_SELLER:
+				slot.result = house.registerSeller(slot.s1, slot.s2, slot.s3);
+				break;
+			case ADD_LOT:
+				slot.result = house.addLot(slot.s1, slot.number, slot.s2, slot.amount);
+				break;
+			case NOTE_INTEREST:
+				slot.result = house.noteInterest(slot.s1, slot.number);
+				break;
+			case OPEN_AUCTION:
+				slot.result = house.openAuction(slot.s1, slot.s2, slot.number);
+				break;
+			case MAKE_BID:
+				slot.result = house.makeBid(slot.s1, slot.number, slot.amount);
+				break;
+			case CLOSE_AUCTION:
+				slot.result = house.closeAuction(slot.s1, slot.number);
+				break;
+			default:
+				throw new IllegalStateException("Not applied singly: " + slot.op);
+			}
+		} catch (RuntimeException e) {
+			// Handed to the caller; the writer carries on with the next command.
+			log.warning(e, "Command {} failed on lot {}", slot.op, slot.number);
+			slot.failure = e;
+		}
+	}
+}
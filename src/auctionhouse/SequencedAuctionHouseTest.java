@@ -0,0 +1,200 @@
+package auctionhouse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SequencedAuctionHouseTest {
+
+    private static final int BUYERS = 8;
+    private static final int LOTS = 4;
+
+    private MockBankingService bankingService;
+    private SequencedAuctionHouse house;
+
+    @Before
+    public void setup() {
+        bankingService = new MockBankingService();
+        // A ring smaller than the number of callers makes them wait for slots.
+        house = new SequencedAuctionHouse(new AuctionHouseImp(new Parameters(10.0, 15.0, new Money("10.00"),
+                "AH A/C", "AH-auth", new MockMessagingService(), bankingService)), 4);
+        house.registerSeller("SellerY", "@SellerY", "SY A/C");
+        for (int b = 0; b < BUYERS; b++) {
+            house.registerBuyer("Buyer" + b, "@Buyer" + b, "B" + b + " A/C", "B" + b + "-auth");
+        }
+        for (int lot = 1; lot <= LOTS; lot++) {
+            house.addLot("SellerY", lot, "Lot " + lot, new Money("50.00"));
+            for (int b = 0; b < BUYERS; b++) {
+                house.noteInterest("Buyer" + b, lot);
+            }
+            house.openAuction("Auctioneer1", "@Auctioneer1", lot);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        house.close();
+    }
+
+    @Test
+    public void testResultsComeBackToCallers() {
+        assertEquals(Status.Kind.ERROR, house.registerSeller("SellerY", "@SellerY", "SY A/C").kind);
+        assertEquals(Status.Kind.OK, house.makeBid("Buyer0", 1, new Money("60.00")).kind);
+        assertEquals(Status.Code.BID_TOO_LOW, house.makeBid("Buyer1", 1, new Money("65.00")).code);
+        assertEquals(Status.Code.NO_SUCH_LOT, house.makeBid("Buyer1", 9, new Money("65.00")).code);
+        assertEquals(LotStatus.IN_AUCTION, house.viewCatalogue().get(0).status);
+        assertEquals(Status.Kind.SALE, house.closeAuction("Auctioneer1", 1).kind);
+        assertTrue(house.appliedCount() >= house.batchCount());
+    }
+
+    @Test
+    public void testConcurrentBidsAppliedInOneOrder() throws InterruptedException {
+        final int bidsEach = 500;
+        final AtomicInteger accepted = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int b = 0; b < BUYERS; b++) {
+            final String buyer = "Buyer" + b;
+            final int offset = b;
+            Thread t = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < bidsEach; i++) {
+                        // Every buyer bids the same rising prices, so only one of each can win.
+                        long pence = 6000 + 1000L * i + offset;
+                        if (house.makeBid(buyer, 1 + i % LOTS, Money.ofPence(pence)).kind == Status.Kind.OK) {
+                            accepted.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertTrue(accepted.get() >= bidsEach);
+
+        int sales = 0;
+        for (int lot = 1; lot <= LOTS; lot++) {
+            if (house.closeAuction("Auctioneer1", lot).kind == Status.Kind.SALE) {
+                sales++;
+            }
+        }
+        assertEquals(LOTS, sales);
+        assertEquals(2 * LOTS, bankingService.actualEvents().size());
+    }
+
+    // Two bids on one lot applied in one run are both announced, as with two makeBid calls.
+    @Test
+    public void testEveryBidInARunIsMessaged() throws InterruptedException {
+        final CountDownLatch inBank = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        // Holds the writer in a payment while the bids queue up behind it.
+        MockBankingService slowBank = new MockBankingService() {
+            @Override
+            public Status transfer(String senderAccount, String senderAuthCode, String receiverAccount, Money amount) {
+                inBank.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.transfer(senderAccount, senderAuthCode, receiverAccount, amount);
+            }
+        };
+        final List<Integer> runSizes = new ArrayList<Integer>();
+        MockMessagingService messagingService = new MockMessagingService();
+        final SequencedAuctionHouse sequenced = new SequencedAuctionHouse(new AuctionHouseImp(new Parameters(10.0, 15.0,
+                new Money("10.00"), "AH A/C", "AH-auth", messagingService, slowBank)) {
+            @Override
+            public List<Status> makeBids(List<BidCommand> bids) {
+                runSizes.add(bids.size());
+                return super.makeBids(bids);
+            }
+        }, 8);
+        try {
+            sequenced.registerSeller("SellerY", "@SellerY", "SY A/C");
+            sequenced.registerBuyer("BuyerA", "@BuyerA", "BA A/C", "BA-auth");
+            sequenced.registerBuyer("BuyerB", "@BuyerB", "BB A/C", "BB-auth");
+            for (int lot = 1; lot <= 2; lot++) {
+                sequenced.addLot("SellerY", lot, "Lot " + lot, new Money("50.00"));
+                sequenced.noteInterest("BuyerA", lot);
+                sequenced.noteInterest("BuyerB", lot);
+                sequenced.openAuction("Auctioneer1", "@Auctioneer1", lot);
+            }
+            sequenced.makeBid("BuyerA", 2, new Money("60.00"));
+
+            Thread closer = new Thread(() -> sequenced.closeAuction("Auctioneer1", 2));
+            closer.start();
+            inBank.await();
+            final Money m60 = new Money("60.00");
+            final Money m70 = new Money("70.00");
+            final Status[] results = new Status[2];
+            Thread first = new Thread(() -> results[0] = sequenced.makeBid("BuyerA", 1, m60));
+            Thread second = new Thread(() -> results[1] = sequenced.makeBid("BuyerB", 1, m70));
+            first.start();
+            Thread.sleep(50);
+            second.start();
+            Thread.sleep(50);
+            release.countDown();
+            closer.join();
+            first.join();
+            second.join();
+
+            assertEquals(Status.Kind.OK, results[0].kind);
+            assertEquals(Status.Kind.OK, results[1].kind);
+            assertTrue(runSizes.toString(), runSizes.contains(2));
+            Map<String, Integer> events = messagingService.eventCounts();
+            for (String address : Arrays.asList("@Auctioneer1", "@SellerY")) {
+                assertEquals(Integer.valueOf(1), events.get(MockMessagingService.makeBidEventString(address, 1, m60)));
+                assertEquals(Integer.valueOf(1), events.get(MockMessagingService.makeBidEventString(address, 1, m70)));
+            }
+        } finally {
+            release.countDown();
+            sequenced.close();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testClosedHouseRejectsCalls() {
+        house.close();
+        house.makeBid("Buyer0", 1, new Money("60.00"));
+    }
+
+    @Test
+    public void testCallsRacingCloseReturnOrFail() throws InterruptedException {
+        final AtomicInteger rejected = new AtomicInteger();
+        List<Thread> callers = new ArrayList<Thread>();
+        for (int b = 0; b < BUYERS; b++) {
+            final String buyer = "Buyer" + b;
+            Thread caller = new Thread(() -> {
+                try {
+                    for (long pence = 6000; ; pence += 100) {
+                        house.makeBid(buyer, 1, Money.ofPence(pence));
+                    }
+                } catch (IllegalStateException e) {
+                    rejected.incrementAndGet();
+                }
+            });
+            callers.add(caller);
+            caller.start();
+        }
+        Thread.sleep(20);
+        house.close();
+        for (Thread caller : callers) {
+            caller.join(10000);
+            assertTrue("caller still waiting after close", !caller.isAlive());
+        }
+        assertEquals(BUYERS, rejected.get());
+    }
+}
@@ -0,0 +1,213 @@
+package auctionhouse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+/**
+ * Settles sold lots in the background, so closing an auction does not wait on the bank.
+ *
+ * A fixed number of workers take lot numbers from the queue and call the settler for each.
+ * A settlement that fails is retried with exponential backoff, up to maxAttempts in all;
+ * after that the lot is dropped from the queue and stays SOLD_PENDING_PAYMENT.
+ *
+ * The queue holds only lot numbers. The lots themselves record what is still owed, so the
+ * queue can always be rebuilt from the lots that are SOLD_PENDING_PAYMENT;
+ * see AuctionHouseImp.retryPendingPayments.
+ */
+public class SettlementPipeline {
+
+	private static EngineLog log = new EngineLog("auctionhouse", SettlementPipeline.class);
+
+	// One settlement attempt of a lot, due at dueAtNanos.
+	private static final class Task implements Delayed {
+		final int lotNumber;
+		final int attempt;
+		final long dueAtNanos;
+
+		Task(int lotNumber, int attempt, long dueAtNanos) {
+			this.lotNumber = lotNumber;
+			this.attempt = attempt;
+			this.dueAtNanos = dueAtNanos;
+		}
+
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(dueAtNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		public int compareTo(Delayed other) {
+			return Long.compare(dueAtNanos, ((Task) other).dueAtNanos);
+		}
+	}
+
+	private final IntFunction<Status> settler;
+	private final int maxAttempts;
+	private final long initialBackoffNanos;
+	private final long maxBackoffNanos;
+	private final DelayQueue<Task> queue = new DelayQueue<Task>();
+	// Lots queued or being settled, so a lot is never in the pipeline twice.
+	private final Set<Integer> inPipeline = ConcurrentHashMap.newKeySet();
+	private final List<Thread> workers;
+	private final AtomicLong settledCount = new AtomicLong();
+	private final AtomicLong retryCount = new AtomicLong();
+	private final AtomicLong abandonedCount = new AtomicLong();
+	private volatile boolean shutdown;
+
+	/**
+	 * @param settler: settles one lot, returning OK once both transfers have gone through
+	 * @param workerCount: maximum number of settlements in progress at once
+	 * @param maxAttempts: attempts per lot before it is left SOLD_PENDING_PAYMENT
+	 * @param initialBackoffMillis: wait before the first retry; doubled on every further retry
+	 * @param maxBackoffMillis: longest wait between retries
+	 */
+	public SettlementPipeline(IntFunction<Status> settler, int workerCount, int maxAttempts,
+			long initialBackoffMillis, long maxBackoffMillis) {
+		if(workerCount <= 0 || maxAttempts <= 0) {
+			throw new IllegalArgumentException("workerCount and maxAttempts must be positive");
+		}
+		if(initialBackoffMillis < 0 || maxBackoffMillis < initialBackoffMillis) {
+			throw new IllegalArgumentException("Backoff must satisfy 0 <= initialBackoffMillis <= maxBackoffMillis");
+		}
+		this.settler = settler;
+		this.maxAttempts = maxAttempts;
+		this.initialBackoffNanos = TimeUnit.MILLISECONDS.toNanos(initialBackoffMillis);
+		this.maxBackoffNanos = TimeUnit.MILLISECONDS.toNanos(maxBackoffMillis);
+		workers = new ArrayList<Thread>(workerCount);
+		for(int i = 0; i < workerCount; i++) {
+			Thread worker = new Thread(new Runnable() {
+				public void run() {
+					settleUntilShutdown();
+				}
+			}, "settlement-" + i);
+			worker.setDaemon(true);
+			workers.add(worker);
+		}
+		for(Thread worker: workers) {
+			worker.start();
+		}
+	}
+
+	/**
+	 * Queues a lot for settlement straight away.
+	 * @return false if the lot is already queued or being settled, or the pipeline is shut down
+	 */
+	public boolean submit(int lotNumber) {
+		if(shutdown) {
+			return false;
+		}
+		if(!inPipeline.add(lotNumber)) {
+			return false;
+		}
+		queue.put(new Task(lotNumber, 1, System.nanoTime()));
+		return true;
+	}
+
+	public boolean isShutdown() {
+		return shutdown;
+	}
+
+	/**
+	 * @return the number of lots queued or being settled
+	 */
+	public int pendingCount() {
+		return inPipeline.size();
+	}
+
+	/**
+	 * @return the number of lots settled so far
+	 */
+	public long settledCount() {
+		return settledCount.get();
+	}
+
+	/**
+	 * @return the number of failed attempts that were retried
+	 */
+	public long retryCount() {
+		return retryCount.get();
+	}
+
+	/**
+	 * @return the number of lots given up on after maxAttempts
+	 */
+	public long abandonedCount() {
+		return abandonedCount.get();
+	}
+
+	/**
+	 * Waits until no lot is queued or being settled.
+	 * @return false if that did not happen within the timeout
+	 */
+	public boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		while(!inPipeline.isEmpty()) {
+			if(System.nanoTime() - deadline >= 0) {
+				return false;
+			}
+			Thread.sleep(1);
+		}
+		return true;
+	}
+
+	/**
+	 * Stops the workers. Lots still queued stay SOLD_PENDING_PAYMENT and can be resubmitted later.
+	 */
+	public void shutdown() throws InterruptedException {
+		shutdown = true;
+		for(Thread worker: workers) {
+			worker.interrupt();
+		}
+		for(Thread worker: workers) {
+			worker.join();
+		}
+	}
+
+	private void settleUntilShutdown() {
+		while(!shutdown) {
+			Task task;
+			try {
+				task = queue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			settle(task);
+		}
+	}
+
+	private void settle(Task task) {
+		Status status;
+		try {
+			status = settler.apply(task.lotNumber);
+		} catch (RuntimeException e) {
+			log.warning(e, "Settlement of lot {} threw", task.lotNumber);
+			status = Status.error("Settlement of lot " + task.lotNumber + " threw " + e);
+		}
+		if(status.kind == Status.Kind.OK) {
+			settledCount.incrementAndGet();
+			inPipeline.remove(task.lotNumber);
+			return;
+		}
+		if(task.attempt >= maxAttempts) {
+			log.warning("Giving up settlement of lot {} after {} attempts: {}", task.lotNumber, task.attempt, status.getMessage());
+			abandonedCount.incrementAndGet();
+			inPipeline.remove(task.lotNumber);
+			return;
+		}
+		retryCount.incrementAndGet();
+		log.info("Settlement of lot {} failed, retrying: {}", task.lotNumber, status.getMessage());
+		queue.put(new Task(task.lotNumber, task.attempt + 1, System.nanoTime() + backoffNanos(task.attempt)));
+	}
+
+	// initialBackoff * 2^(attempt - 1), capped at maxBackoff.
+	private long backoffNanos(int attempt) {
+		int shift = Math.min(attempt - 1, 30);
+		long backoff = initialBackoffNanos << shift;
+		return backoff < 0 || (backoff >> shift) != initialBackoffNanos ? maxBackoffNanos : Math.min(backoff, maxBackoffNanos);
+	}
+}
@@ -0,0 +1,105 @@
+package auctionhouse;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sales closed during a settlement session, paid for together when the session ends.
+ *
+ * Each sale adds to what the buyer's account owes the house and to what the house owes
+ * the seller's account. At the end the amounts are netted per account, so every account
+ * takes part in at most one transfer, however many lots it bought or sold.
+ */
+public class SettlementSession {
+
+	// A sale awaiting settlement, and the accounts it is paid through.
+	static final class Sale {
+		final Lot lot;
+		final String buyerAccount;
+		final String sellerAccount;
+
+		Sale(Lot lot, String buyerAccount, String sellerAccount) {
+			this.lot = lot;
+			this.buyerAccount = buyerAccount;
+			this.sellerAccount = sellerAccount;
+		}
+	}
+
+	private final String houseAccount;
+	private final String houseAuthCode;
+	private final List<Sale> sales = new ArrayList<Sale>();
+	// Pence each account owes the house, net; negative when the house owes the account.
+	// Insertion ordered, so transfers go out in a stable order.
+	private final Map<String, Long> netPence = new LinkedHashMap<String, Long>();
+	private final Map<String, String> authCodes = new HashMap<String, String>();
+	private boolean closed;
+
+	public SettlementSession(String houseAccount, String houseAuthCode) {
+		this.houseAccount = houseAccount;
+		this.houseAuthCode = houseAuthCode;
+	}
+
+	/**
+	 * Records a sale to be paid for at the end of the session.
+	 * @param buyerPaysPence: hammer price plus buyer premium
+	 * @param sellerGetsPence: hammer price less commission
+	 * @return false if the session has already ended
+	 */
+	public synchronized boolean addSale(Lot lot, Buyer buyer, long buyerPaysPence, Seller seller, long sellerGetsPence) {
+		if(closed) {
+			return false;
+		}
+		sales.add(new Sale(lot, buyer.getBuyerAccount(), seller.getSellerAccount()));
+		addNet(buyer.getBuyerAccount(), buyerPaysPence);
+		if(!authCodes.containsKey(buyer.getBuyerAccount())) {
+			authCodes.put(buyer.getBuyerAccount(), buyer.getBuyerAuthorisation());
+		}
+		addNet(seller.getSellerAccount(), -sellerGetsPence);
+		return true;
+	}
+
+	public synchronized int saleCount() {
+		return sales.size();
+	}
+
+	/**
+	 * Ends the session; later addSale calls return false.
+	 */
+	synchronized void close() {
+		closed = true;
+	}
+
+	synchronized List<Sale> sales() {
+		return new ArrayList<Sale>(sales);
+	}
+
+	/**
+	 * @return one transfer per account whose net amount is not zero: from the account to the
+	 *         house if it owes the house, from the house to the account otherwise
+	 */
+	synchronized List<Transfer> nettedTransfers() {
+		List<Transfer> transfers = new ArrayList<Transfer>();
+		for(Map.Entry<String, Long> net: netPence.entrySet()) {
+			String account = net.getKey();
+			long pence = net.getValue();
+			if(pence == 0 || account.equals(houseAccount)) {
+				continue;
+			}
+			if(pence > 0) {
+				// Only buyers owe the house, so the account has an auth code.
+				transfers.add(new Transfer(account, authCodes.get(account), houseAccount, Money.ofPence(pence)));
+			} else {
+				transfers.add(new Transfer(houseAccount, houseAuthCode, account, Money.ofPence(-pence)));
+			}
+		}
+		return transfers;
+	}
+
+	private void addNet(String account, long pence) {
+		Long current = netPence.get(account);
+		netPence.put(account, current == null ? pence : Money.add(current, pence));
+	}
+}
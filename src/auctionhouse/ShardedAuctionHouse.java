@@ -0,0 +1,175 @@
+package auctionhouse;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * AuctionHouse whose lots are partitioned by lot number over a number of shards, each an
+ * AuctionHouseImp applied to by its own SequencedAuctionHouse writer thread. A shard owns its
+ * lots, their catalogue entries and their interested buyers, so calls on lots in different
+ * shards run on different threads and never meet.
+ *
+ * Buyers and sellers are registered in every shard, one registration at a time, so every
+ * shard holds the same registrations and a lot call needs only its own shard. Every shard
+ * must give a registration the same Status; if they disagree the shards no longer hold the
+ * same registrations, and the call throws IllegalStateException. Catalogue views and
+ * searches ask every shard and merge the results in lot order.
+ *
+ * Within a shard commands are applied in the order they arrive, so a hot lot delays the other
+ * lots of its shard by no more than its share of the arrivals, and its consecutive bids are
+ * applied together.
+ */
+public class ShardedAuctionHouse implements AuctionHouse, Closeable {
+
+	private static EngineLog log = new EngineLog("auctionhouse", ShardedAuctionHouse.class);
+
+	private final SequencedAuctionHouse[] shards;
+	// Keeps registrations in the same order in every shard.
+	private final Object registrationLock = new Object();
+
+	/**
+	 * Starts one writer thread per shard.
+	 * @param parameters: shared by every shard, so the services must be thread safe
+	 * @param shardCount: number of shards
+	 * @param ringSize: command slots per shard, a power of two
+	 */
+	public ShardedAuctionHouse(Parameters parameters, int shardCount, int ringSize) {
+		if(shardCount <= 0) {
+			throw new IllegalArgumentException("shardCount must be positive: " + shardCount);
+		}
+		shards = new SequencedAuctionHouse[shardCount];
+		for(int i = 0; i < shardCount; i++) {
+			// One stripe: only the shard's writer takes it.
+			shards[i] = new SequencedAuctionHouse(new AuctionHouseImp(parameters, 1), ringSize, "auction-shard-" + i);
+		}
+		log.info("Started {} shards of {} slots", shardCount, ringSize);
+	}
+
+	public int shardCount() {
+		return shards.length;
+	}
+
+	/**
+	 * @return the shard that owns a lot
+	 */
+	int shardOf(int lotNumber) {
+		return Math.floorMod(lotNumber, shards.length);
+	}
+
+	public void close() {
+		for(SequencedAuctionHouse shard: shards) {
+			shard.close();
+		}
+	}
+
+	/*
+	 * AuctionHouse
+	 */
+
+	public Status registerBuyer(String name, String address, String bankAccount, String bankAuthCode) {
+		synchronized(registrationLock) {
+			Status status = shards[0].registerBuyer(name, address, bankAccount, bankAuthCode);
+			for(int i = 1; i < shards.length; i++) {
+				checkAgrees(status, shards[i].registerBuyer(name, address, bankAccount, bankAuthCode), i, name);
+			}
+			return status;
+		}
+	}
+
+	public Status registerSeller(String name, String address, String bankAccount) {
+		synchronized(registrationLock) {
+			Status status = shards[0].registerSeller(name, address, bankAccount);
+			for(int i = 1; i < shards.length; i++) {
+				checkAgrees(status, shards[i].registerSeller(name, address, bankAccount), i, name);
+			}
+			return status;
+		}
+	}
+
+	// A registration that one shard accepted and another refused leaves them out of step.
+	private static void checkAgrees(Status first, Status status, int shard, String name) {
+		if(status.kind != first.kind || status.code != first.code) {
+			log.warning("Shard {} registered {} as {}", shard, name, status.code);
+			throw new IllegalStateException("Shard " + shard + " gave " + status.code + " registering " + name
+					+ " where shard 0 gave " + first.code);
+		}
+	}
+
+	public Status addLot(String sellerName, int number, String description, Money reservePrice) {
+		return shards[shardOf(number)].addLot(sellerName, number, description, reservePrice);
+	}
+
+	public List<CatalogueEntry> viewCatalogue() {
+		List<List<CatalogueEntry>> slices = new ArrayList<List<CatalogueEntry>>(shards.length);
+		for(SequencedAuctionHouse shard: shards) {
+			slices.add(shard.viewCatalogue());
+		}
+		return merge(slices, entry -> entry.lotNumber, Integer.MAX_VALUE);
+	}
+
+	public List<CatalogueEntry> viewCatalogue(int fromLotNumber, int limit) {
+		List<List<CatalogueEntry>> slices = new ArrayList<List<CatalogueEntry>>(shards.length);
+		for(SequencedAuctionHouse shard: shards) {
+			slices.add(shard.viewCatalogue(fromLotNumber, limit));
+		}
+		return merge(slices, entry -> entry.lotNumber, limit);
+	}
+
+	public List<Integer> searchCatalogue(String query, LotStatus status, int limit) {
+		List<List<Integer>> slices = new ArrayList<List<Integer>>(shards.length);
+		for(SequencedAuctionHouse shard: shards) {
+			slices.add(shard.searchCatalogue(query, status, limit));
+		}
+		return merge(slices, lotNumber -> lotNumber, limit);
+	}
+
+	public Status noteInterest(String buyerName, int lotNumber) {
+		return shards[shardOf(lotNumber)].noteInterest(buyerName, lotNumber);
+	}
+
+	public Status openAuction(String auctioneerName, String auctioneerAddress, int lotNumber) {
+		return shards[shardOf(lotNumber)].openAuction(auctioneerName, auctioneerAddress, lotNumber);
+	}
+
+	public Status makeBid(String buyerName, int lotNumber, Money bid) {
+		return shards[shardOf(lotNumber)].makeBid(buyerName, lotNumber, bid);
+	}
+
+	public Status closeAuction(String auctioneerName, int lotNumber) {
+		return shards[shardOf(lotNumber)].closeAuction(auctioneerName, lotNumber);
+	}
+
+	/**
+	 * Merges slices each already in lot order.
+	 * @param limit: maximum number of elements returned
+	 */
+	static <T> List<T> merge(List<List<T>> slices, ToIntFunction<T> lotNumber, int limit) {
+		int total = 0;
+		for(List<T> slice: slices) {
+			total += slice.size();
+		}
+		List<T> merged = new ArrayList<T>(Math.min(total, limit));
+		int[] next = new int[slices.size()];
+		while(merged.size() < limit) {
+			int lowest = -1;
+			int lowestLot = 0;
+			for(int i = 0; i < next.length; i++) {
+				List<T> slice = slices.get(i);
+				if(next[i] < slice.size()) {
+					int lot = lotNumber.applyAsInt(slice.get(next[i]));
+					if(lowest < 0 || lot < lowestLot) {
+						lowest = i;
+						lowestLot = lot;
+					}
+				}
+			}
+			if(lowest < 0) {
+				break;
+			}
+			merged.add(slices.get(lowest).get(next[lowest]++));
+		}
+		return merged;
+	}
+}
@@ -0,0 +1,131 @@
+package auctionhouse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ShardedAuctionHouseTest {
+
+    private static final int LOTS = 12;
+
+    private MockBankingService bankingService;
+    private ShardedAuctionHouse house;
+
+    @Before
+    public void setup() {
+        bankingService = new MockBankingService();
+        house = new ShardedAuctionHouse(new Parameters(10.0, 15.0, new Money("10.00"),
+                "AH A/C", "AH-auth", new MockMessagingService(), bankingService), 4, 16);
+        house.registerSeller("SellerY", "@SellerY", "SY A/C");
+        house.registerBuyer("BuyerA", "@BuyerA", "BA A/C", "BA-auth");
+        house.registerBuyer("BuyerB", "@BuyerB", "BB A/C", "BB-auth");
+        // Added out of order so the merge has work to do.
+        for (int lot = LOTS; lot >= 1; lot--) {
+            house.addLot("SellerY", lot, (lot % 2 == 0 ? "Red " : "Blue ") + "lamp " + lot, new Money("50.00"));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        house.close();
+    }
+
+    @Test
+    public void testRegistrationsSeenByEveryShard() {
+        assertEquals(Status.Code.NAME_TAKEN, house.registerBuyer("BuyerA", "@BuyerA", "BA A/C", "BA-auth").code);
+        assertNotEquals(house.shardOf(1), house.shardOf(2));
+        for (int lot = 1; lot <= 4; lot++) {
+            assertEquals(Status.Kind.OK, house.noteInterest("BuyerA", lot).kind);
+        }
+        assertEquals(Status.Code.NOT_REGISTERED, house.noteInterest("BuyerC", 3).code);
+        assertEquals(Status.Code.LOT_EXISTS, house.addLot("SellerY", 5, "Again", new Money("1.00")).code);
+    }
+
+    @Test
+    public void testCatalogueMergedInLotOrder() {
+        List<Integer> lotNumbers = new ArrayList<Integer>();
+        for (CatalogueEntry entry : house.viewCatalogue()) {
+            lotNumbers.add(entry.lotNumber);
+        }
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12), lotNumbers);
+
+        List<CatalogueEntry> page = house.viewCatalogue(6, 3);
+        assertEquals(3, page.size());
+        assertEquals(6, page.get(0).lotNumber);
+        assertEquals(8, page.get(2).lotNumber);
+
+        assertEquals(Arrays.asList(2, 4, 6), house.searchCatalogue("red lamp", null, 3));
+        house.openAuction("Auctioneer1", "@Auctioneer1", 7);
+        assertEquals(Arrays.asList(7), house.searchCatalogue("blue", LotStatus.IN_AUCTION, 10));
+    }
+
+    @Test
+    public void testAuctionsInDifferentShards() {
+        for (int lot = 1; lot <= 4; lot++) {
+            house.noteInterest("BuyerA", lot);
+            house.noteInterest("BuyerB", lot);
+            house.openAuction("Auctioneer1", "@Auctioneer1", lot);
+            house.makeBid("BuyerA", lot, new Money("60.00"));
+            assertEquals(Status.Code.BID_TOO_LOW, house.makeBid("BuyerB", lot, new Money("65.00")).code);
+            house.makeBid("BuyerB", lot, new Money("70.00"));
+        }
+        for (int lot = 1; lot <= 4; lot++) {
+            assertEquals(Status.Kind.SALE, house.closeAuction("Auctioneer1", lot).kind);
+        }
+        assertEquals(8, bankingService.transferCount());
+        assertEquals(LotStatus.SOLD, house.viewCatalogue().get(3).status);
+    }
+
+    @Test
+    public void testHotLotDoesNotStarveItsShard() throws InterruptedException {
+        final int hotLot = 1;
+        final int coldLot = 5;
+        assertEquals(house.shardOf(hotLot), house.shardOf(coldLot));
+        for (int lot : new int[] { hotLot, coldLot }) {
+            house.noteInterest("BuyerA", lot);
+            house.noteInterest("BuyerB", lot);
+            house.openAuction("Auctioneer1", "@Auctioneer1", lot);
+        }
+
+        final AtomicBoolean flooding = new AtomicBoolean(true);
+        final AtomicLong nextBid = new AtomicLong(6000);
+        List<Thread> flooders = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            final String buyer = t % 2 == 0 ? "BuyerA" : "BuyerB";
+            Thread flooder = new Thread(() -> {
+                while (flooding.get()) {
+                    house.makeBid(buyer, hotLot, Money.ofPence(nextBid.addAndGet(1000)));
+                }
+            });
+            flooders.add(flooder);
+            flooder.start();
+        }
+        long worstNanos = 0;
+        for (int i = 0; i < 200; i++) {
+            long before = System.nanoTime();
+            assertEquals(Status.Kind.OK, house.makeBid(i % 2 == 0 ? "BuyerA" : "BuyerB", coldLot,
+                    Money.ofPence(6000 + 1000L * i)).kind);
+            worstNanos = Math.max(worstNanos, System.nanoTime() - before);
+        }
+        flooding.set(false);
+        for (Thread flooder : flooders) {
+            flooder.join();
+        }
+
+        // The hot lot kept the shard busy, yet each cold bid waited behind at most a ring's worth.
+        assertTrue(nextBid.get() > 6000 + 1000L * 200);
+        assertTrue("cold lot bid took " + TimeUnit.NANOSECONDS.toMillis(worstNanos) + " ms",
+                worstNanos < TimeUnit.MILLISECONDS.toNanos(500));
+    }
+}
@@ -1,5 +1,5 @@
 /**
- * 
+ *
  */
 package auctionhouse;
 
@@ -9,29 +9,109 @@ package auctionhouse;
  */
 public class Status {
     public static enum Kind {
-        OK, 
-        ERROR, 
-        SALE, 
+        OK,
+        ERROR,
+        SALE,
         SALE_PENDING_PAYMENT,
         NO_SALE
         }
 
+    // Machine-readable reason for an outcome; NONE when the kind says it all.
+    public static enum Code {
+        NONE,
+        INVALID_ARGUMENT,       // null, empty or negative argument
+        NAME_TAKEN,             // buyer or seller name already registered
+        NOT_REGISTERED,         // no such buyer or seller
+        LOT_EXISTS,
+        NO_SUCH_LOT,
+        ALREADY_INTERESTED,
+        NOT_INTERESTED,
+        NOT_IN_AUCTION,
+        ALREADY_AUCTIONED,
+        BID_TOO_LOW,            // does not beat the highest bid by the increment
+        WRONG_AUCTIONEER,
+        RESERVE_NOT_MET,
+        PAYMENT_DEFERRED,       // sale paid at the end of the settlement session
+        PAYMENT_QUEUED,         // sale paid by the settlement pipeline
+        TRANSFER_FAILED,
+        NO_SETTLEMENT_SESSION,
+        SETTLEMENT_IN_PROGRESS,
+        INTERNAL_ERROR          // the call failed with an exception
+        }
+
+    private static final Status OK = new Status(Kind.OK);
 
-    public Kind kind;
-    public String message;
+    public final Kind kind;
+    public final Code code;
+    // The message is built from these the first time it is read.
+    private final String template;
+    private final Object arg1;
+    private final Object arg2;
+    private final int argCount;
+    private String message;
 
     public Status(Kind k) {
-        kind = k;
-        message = "";
+        this(k, Code.NONE, "", null, null, 0);
     }
     public Status(Kind k, String m) {
+        this(k, Code.NONE, m, null, null, 0);
+    }
+
+    /**
+     * @param template: message in which each "{}" stands for the next argument
+     * @param argCount: number of arguments used, 0 to 2
+     */
+    private Status(Kind k, Code c, String template, Object arg1, Object arg2, int argCount) {
         kind = k;
-        message = m;
+        code = c;
+        this.template = template;
+        this.arg1 = arg1;
+        this.arg2 = arg2;
+        this.argCount = argCount;
+        if (argCount == 0) {
+            message = template;
+        }
+    }
+
+    public String getMessage() {
+        // Racing readers build equal strings; either may be kept.
+        String m = message;
+        if (m == null) {
+            m = EngineLog.format(template, arg1, arg2, null, argCount);
+            message = m;
+        }
+        return m;
+    }
+
+    @Override
+    public String toString() {
+        return kind + (code == Code.NONE ? "" : " " + code) + ": " + getMessage();
     }
 
     // Convenience methods
-    public static Status OK() { return new Status(Kind.OK); }
+    // Statuses are immutable, so one OK instance is shared.
+    public static Status OK() { return OK; }
     public static Status error(String message) {
         return new Status(Kind.ERROR, message);
     }
+
+    /*
+     * Coded outcomes. Those without arguments are best created once and shared.
+     */
+
+    public static Status error(Code code, String message) {
+        return new Status(Kind.ERROR, code, message, null, null, 0);
+    }
+    public static Status error(Code code, String template, Object arg) {
+        return new Status(Kind.ERROR, code, template, arg, null, 1);
+    }
+    public static Status error(Code code, String template, Object arg1, Object arg2) {
+        return new Status(Kind.ERROR, code, template, arg1, arg2, 2);
+    }
+    public static Status of(Kind kind, Code code, String template, Object arg) {
+        return new Status(kind, code, template, arg, null, 1);
+    }
+    public static Status of(Kind kind, Code code, String template, Object arg1, Object arg2) {
+        return new Status(kind, code, template, arg1, arg2, 2);
+    }
 }
@@ -0,0 +1,288 @@
+package auctionhouse;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the calls made to an AuctionHouse, and the messages and transfers they cause,
+ * for TrafficReplayer.
+ *
+ * Wrap the services before building the Parameters, then wrap the house:
+ *
+ *     TrafficRecorder recorder = new TrafficRecorder(writer);
+ *     Parameters parameters = new Parameters(..., recorder.recording(messagingService),
+ *             recorder.recording(bankingService));
+ *     AuctionHouse house = recorder.wrap(new AuctionHouseImp(parameters), parameters);
+ *
+ * The recording is text, one line per entry, fields separated by tabs:
+ *   P  buyerPremium commission incrementPence houseAccount houseAuthCode
+ *   C  nanosSinceStart method args... resultKind   (one per completed call, "-" if no Status)
+ * A batch call is one C line with each command's args in turn, and the result kinds joined by commas.
+ *   M  message event, as MockMessagingService writes it
+ *   B  transfer event, as MockBankingService writes it
+ * Calls are written in the order they complete.
+ */
+public class TrafficRecorder implements Closeable {
+
+	static final String NULL = "\\N";
+
+	private final Writer out;
+	private final long startNanos = System.nanoTime();
+
+	public TrafficRecorder(Writer out) {
+		this.out = out;
+	}
+
+	/**
+	 * @return a house that records every call to house, after recording its parameters
+	 */
+	public AuctionHouse wrap(final AuctionHouse house, Parameters parameters) {
+		line("P", Double.toString(parameters.buyerPremium), Double.toString(parameters.commission),
+				Long.toString(parameters.increment.getPence()), parameters.houseBankAccount, parameters.houseBankAuthCode);
+		return new AuctionHouse() {
+			public Status registerBuyer(String name, String address, String bankAccount, String bankAuthCode) {
+				long start = System.nanoTime();
+				Status status = house.registerBuyer(name, address, bankAccount, bankAuthCode);
+				call(start, "registerBuyer", status, name, address, bankAccount, bankAuthCode);
+				return status;
+			}
+
+			public Status registerSeller(String name, String address, String bankAccount) {
+				long start = System.nanoTime();
+				Status status = house.registerSeller(name, address, bankAccount);
+				call(start, "registerSeller", status, name, address, bankAccount);
+				return status;
+			}
+
+			public Status addLot(String sellerName, int number, String description, Money reservePrice) {
+				long start = System.nanoTime();
+				Status status = house.addLot(sellerName, number, description, reservePrice);
+				call(start, "addLot", status, sellerName, Integer.toString(number), description, pence(reservePrice));
+				return status;
+			}
+
+			public List<CatalogueEntry> viewCatalogue() {
+				long start = System.nanoTime();
+				List<CatalogueEntry> catalogue = house.viewCatalogue();
+				call(start, "viewCatalogue", null);
+				return catalogue;
+			}
+
+			public List<CatalogueEntry> viewCatalogue(int fromLotNumber, int limit) {
+				long start = System.nanoTime();
+				List<CatalogueEntry> catalogue = house.viewCatalogue(fromLotNumber, limit);
+				call(start, "viewCataloguePage", null, Integer.toString(fromLotNumber), Integer.toString(limit));
+				return catalogue;
+			}
+
+			public List<Integer> searchCatalogue(String query, LotStatus status, int limit) {
+				long start = System.nanoTime();
+				List<Integer> found = house.searchCatalogue(query, status, limit);
+				call(start, "searchCatalogue", null, query, status == null ? null : status.name(), Integer.toString(limit));
+				return found;
+			}
+
+			public Status noteInterest(String buyerName, int lotNumber) {
+				long start = System.nanoTime();
+				Status status = house.noteInterest(buyerName, lotNumber);
+				call(start, "noteInterest", status, buyerName, Integer.toString(lotNumber));
+				return status;
+			}
+
+			public Status openAuction(String auctioneerName, String auctioneerAddress, int lotNumber) {
+				long start = System.nanoTime();
+				Status status = house.openAuction(auctioneerName, auctioneerAddress, lotNumber);
+				call(start, "openAuction", status, auctioneerName, auctioneerAddress, Integer.toString(lotNumber));
+				return status;
+			}
+
+			public Status makeBid(String buyerName, int lotNumber, Money bid) {
+				long start = System.nanoTime();
+				Status status = house.makeBid(buyerName, lotNumber, bid);
+				call(start, "makeBid", status, buyerName, Integer.toString(lotNumber), pence(bid));
+				return status;
+			}
+
+			public Status closeAuction(String auctioneerName, int lotNumber) {
+				long start = System.nanoTime();
+				Status status = house.closeAuction(auctioneerName, lotNumber);
+				call(start, "closeAuction", status, auctioneerName, Integer.toString(lotNumber));
+				return status;
+			}
+
+			public List<Status> makeBids(List<BidCommand> bids) {
+				long start = System.nanoTime();
+				List<Status> results = house.makeBids(bids);
+				List<String> args = new ArrayList<String>(bids.size() * 3);
+				for(BidCommand bid: bids) {
+					args.add(bid.buyerName);
+					args.add(Integer.toString(bid.lotNumber));
+					args.add(pence(bid.amount));
+				}
+				batchCall(start, "makeBids", results, args);
+				return results;
+			}
+
+			public List<Status> noteInterests(List<InterestCommand> interests) {
+				long start = System.nanoTime();
+				List<Status> results = house.noteInterests(interests);
+				List<String> args = new ArrayList<String>(interests.size() * 2);
+				for(InterestCommand interest: interests) {
+					args.add(interest.buyerName);
+					args.add(Integer.toString(interest.lotNumber));
+				}
+				batchCall(start, "noteInterests", results, args);
+				return results;
+			}
+
+			public List<Status> addLots(List<AddLotCommand> lots) {
+				long start = System.nanoTime();
+				List<Status> results = house.addLots(lots);
+				List<String> args = new ArrayList<String>(lots.size() * 4);
+				for(AddLotCommand lot: lots) {
+					args.add(lot.sellerName);
+					args.add(Integer.toString(lot.number));
+					args.add(lot.description);
+					args.add(pence(lot.reservePrice));
+				}
+				batchCall(start, "addLots", results, args);
+				return results;
+			}
+		};
+	}
+
+	/**
+	 * @return a messaging service that records every message before passing it on
+	 */
+	public MessagingService recording(final MessagingService delegate) {
+		return new MessagingService() {
+			public void auctionOpened(String address, int lotNumber) {
+				line("M", MockMessagingService.makeOpenedEventString(address, lotNumber));
+				delegate.auctionOpened(address, lotNumber);
+			}
+
+			public void bidAccepted(String address, int lotNumber, Money amount) {
+				line("M", MockMessagingService.makeBidEventString(address, lotNumber, amount));
+				delegate.bidAccepted(address, lotNumber, amount);
+			}
+
+			public void lotSold(String address, int lotNumber) {
+				line("M", MockMessagingService.makeSoldEventString(address, lotNumber));
+				delegate.lotSold(address, lotNumber);
+			}
+
+			public void lotUnsold(String address, int lotNumber) {
+				line("M", MockMessagingService.makeUnsoldEventString(address, lotNumber));
+				delegate.lotUnsold(address, lotNumber);
+			}
+		};
+	}
+
+	/**
+	 * @return a banking service that records every transfer before passing it on
+	 */
+	public BankingService recording(final BankingService delegate) {
+		return new BankingService() {
+			public Status transfer(String senderAccount, String senderAuthCode, String receiverAccount, Money amount) {
+				line("B", MockBankingService.makeTransferEventString(senderAccount, senderAuthCode, receiverAccount, amount));
+				return delegate.transfer(senderAccount, senderAuthCode, receiverAccount, amount);
+			}
+		};
+	}
+
+	public void close() throws IOException {
+		synchronized(out) {
+			out.close();
+		}
+	}
+
+	private void call(long start, String method, Status status, String... args) {
+		call(start, method, status == null ? "-" : status.kind.name(), args);
+	}
+
+	private void batchCall(long start, String method, List<Status> results, List<String> args) {
+		call(start, method, kinds(results), args.toArray(new String[args.size()]));
+	}
+
+	private void call(long start, String method, String resultKind, String[] args) {
+		String[] fields = new String[args.length + 3];
+		fields[0] = Long.toString(start - startNanos);
+		fields[1] = method;
+		System.arraycopy(args, 0, fields, 2, args.length);
+		fields[fields.length - 1] = resultKind;
+		line("C", fields);
+	}
+
+	// The kinds of the results, in order, joined by commas; "null" for a missing result.
+	static String kinds(List<Status> results) {
+		StringBuilder sb = new StringBuilder();
+		for(Status status: results) {
+			if(sb.length() > 0) {
+				sb.append(',');
+			}
+			sb.append(status == null ? "null" : status.kind.name());
+		}
+		return sb.toString();
+	}
+
+	private void line(String type, String... fields) {
+		StringBuilder sb = new StringBuilder(type);
+		for(String field: fields) {
+			sb.append('\t').append(escape(field));
+		}
+		sb.append('\n');
+		try {
+			synchronized(out) {
+				out.write(sb.toString());
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static String pence(Money amount) {
+		return amount == null ? null : Long.toString(amount.getPence());
+	}
+
+	static String escape(String field) {
+		if(field == null) {
+			return NULL;
+		}
+		StringBuilder sb = new StringBuilder(field.length());
+		for(int i = 0; i < field.length(); i++) {
+			char c = field.charAt(i);
+			switch(c) {
+			case '\\': sb.append("\\\\"); break;
+			case '\t': sb.append("\\t"); break;
+			case '\n': sb.append("\\n"); break;
+			case '\r': sb.append("\\r"); break;
+			default: sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	static String unescape(String field) {
+		if(field.equals(NULL)) {
+			return null;
+		}
+		if(field.indexOf('\\') < 0) {
+			return field;
+		}
+		StringBuilder sb = new StringBuilder(field.length());
+		for(int i = 0; i < field.length(); i++) {
+			char c = field.charAt(i);
+			if(c == '\\' && i + 1 < field.length()) {
+				char next = field.charAt(++i);
+				sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,130 @@
+package auctionhouse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TrafficReplayTest {
+
+    private StringWriter recording;
+
+    @Before
+    public void record() throws Exception {
+        recording = new StringWriter();
+        TrafficRecorder recorder = new TrafficRecorder(recording);
+        Parameters parameters = new Parameters(10.0, 15.0, new Money("10.00"), "AH A/C", "AH-auth",
+                recorder.recording(new MockMessagingService()), recorder.recording(new MockBankingService()));
+        AuctionHouse house = recorder.wrap(new AuctionHouseImp(parameters), parameters);
+
+        house.registerSeller("SellerY", "@SellerY", "SY A/C");
+        house.registerBuyer("BuyerA", "@BuyerA", "BA A/C", "BA-auth");
+        house.registerBuyer("BuyerB", "@BuyerB", "BB\tA/C", "BB-auth");
+        house.addLot("SellerY", 1, "Bicycle\nwith bell", new Money("80.00"));
+        house.addLot("SellerY", 1, "Duplicate", new Money("80.00"));
+        house.noteInterest("BuyerA", 1);
+        house.noteInterest("BuyerB", 1);
+        house.viewCatalogue();
+        house.searchCatalogue("bicycle", null, 10);
+        house.openAuction("Auctioneer1", "@Auctioneer1", 1);
+        house.makeBid("BuyerA", 1, new Money("90.00"));
+        house.makeBid("BuyerB", 1, new Money("95.00"));
+        house.makeBid("BuyerB", 1, new Money("100.00"));
+        house.closeAuction("Auctioneer1", 1);
+        recorder.close();
+    }
+
+    @Test
+    public void testReplayMatchesRecording() throws Exception {
+        TrafficReplayer replayer = new TrafficReplayer(new StringReader(recording.toString()));
+        assertEquals(14, replayer.callCount());
+
+        ReplayReport report = replayer.replay(AuctionHouseImp::new, TrafficReplayer.Pace.FULL_SPEED);
+        assertTrue(report.toString(), report.matches());
+        assertEquals(14, report.callCount);
+        assertTrue(report.latencyPercentile(50) <= report.latencyPercentile(99));
+        assertTrue(report.latencyPercentile(99.9) <= report.maxLatency());
+    }
+
+    @Test
+    public void testReplayReportsDivergence() throws Exception {
+        TrafficReplayer replayer = new TrafficReplayer(new StringReader(recording.toString()));
+        // An implementation that rejects every bid.
+        ReplayReport report = replayer.replay(parameters -> new AuctionHouseImp(parameters) {
+            @Override
+            public Status makeBid(String buyerName, int lotNumber, Money bid) {
+                return Status.error("Bids closed");
+            }
+        }, TrafficReplayer.Pace.REAL_TIME);
+
+        assertFalse(report.matches());
+        assertEquals(3, report.divergenceCount);
+        assertTrue(report.divergences.get(0).contains("makeBid: expected OK, got ERROR"));
+        assertTrue(report.missingSideEffects.containsKey(MockMessagingService.makeSoldEventString("@BuyerA", 1)));
+        assertTrue(report.unexpectedSideEffects.containsKey(MockMessagingService.makeUnsoldEventString("@BuyerA", 1)));
+    }
+
+    @Test
+    public void testReplayCountsRepeatedSideEffects() throws Exception {
+        TrafficReplayer replayer = new TrafficReplayer(new StringReader(recording.toString()));
+        // An implementation that tells the seller twice that the lot sold.
+        ReplayReport report = replayer.replay(parameters -> new AuctionHouseImp(parameters) {
+            @Override
+            public Status closeAuction(String auctioneerName, int lotNumber) {
+                Status status = super.closeAuction(auctioneerName, lotNumber);
+                parameters.messagingService.lotSold("@SellerY", lotNumber);
+                return status;
+            }
+        }, TrafficReplayer.Pace.FULL_SPEED);
+
+        assertFalse(report.matches());
+        assertEquals(0, report.divergenceCount);
+        assertTrue(report.missingSideEffects.isEmpty());
+        assertEquals(Integer.valueOf(1),
+                report.unexpectedSideEffects.get(MockMessagingService.makeSoldEventString("@SellerY", 1)));
+    }
+
+    @Test
+    public void testReplaysBatchCalls() throws Exception {
+        StringWriter batches = new StringWriter();
+        TrafficRecorder recorder = new TrafficRecorder(batches);
+        Parameters parameters = new Parameters(10.0, 15.0, new Money("10.00"), "AH A/C", "AH-auth",
+                recorder.recording(new MockMessagingService()), recorder.recording(new MockBankingService()));
+        AuctionHouse house = recorder.wrap(new AuctionHouseImp(parameters), parameters);
+
+        house.registerSeller("SellerY", "@SellerY", "SY A/C");
+        house.registerBuyer("BuyerA", "@BuyerA", "BA A/C", "BA-auth");
+        house.addLots(Arrays.asList(new AddLotCommand("SellerY", 1, "Bicycle", new Money("80.00")),
+                new AddLotCommand("SellerY", 2, "Lamp\twith shade", new Money("20.00"))));
+        house.noteInterests(Arrays.asList(new InterestCommand("BuyerA", 1), new InterestCommand("BuyerA", 3)));
+        house.openAuction("Auctioneer1", "@Auctioneer1", 1);
+        house.makeBids(Arrays.asList(new BidCommand("BuyerA", 1, new Money("90.00")),
+                new BidCommand("BuyerA", 1, new Money("95.00"))));
+        house.closeAuction("Auctioneer1", 1);
+        recorder.close();
+
+        assertTrue(batches.toString(), batches.toString().contains("\tOK,ERROR\n"));
+        TrafficReplayer replayer = new TrafficReplayer(new StringReader(batches.toString()));
+        assertEquals(7, replayer.callCount());
+        ReplayReport report = replayer.replay(AuctionHouseImp::new, TrafficReplayer.Pace.FULL_SPEED);
+        assertTrue(report.toString(), report.matches());
+
+        // An implementation that rejects every bid diverges on the batch, and so on the close.
+        report = replayer.replay(replayed -> new AuctionHouseImp(replayed) {
+            @Override
+            public List<Status> makeBids(List<BidCommand> bids) {
+                return Collections.nCopies(bids.size(), Status.error("Bids closed"));
+            }
+        }, TrafficReplayer.Pace.FULL_SPEED);
+        assertEquals(2, report.divergenceCount);
+        assertTrue(report.divergences.get(0), report.divergences.get(0).contains("makeBids: expected OK,ERROR, got ERROR,ERROR"));
+    }
+}
@@ -0,0 +1,238 @@
+package auctionhouse;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * Replays a TrafficRecorder recording against an AuctionHouse implementation and reports
+ * throughput, latency and any difference from the recorded behaviour.
+ *
+ * The calls are made one at a time in recorded order, so a replay is deterministic even if
+ * the traffic was recorded from many threads. The house is built from the recorded
+ * parameters, with a fresh MockMessagingService and MockBankingService in place of the real
+ * services; their events are compared with the recorded ones once all calls are made, counting
+ * each repeat, so a message sent twice where the recording has it once is reported.
+ */
+public class TrafficReplayer {
+
+	private static EngineLog log = new EngineLog("auctionhouse", TrafficReplayer.class);
+
+	public enum Pace {
+		FULL_SPEED, // each call as soon as the last returns
+		REAL_TIME   // each call no earlier than its recorded offset from the first
+	}
+
+	private final double buyerPremium;
+	private final double commission;
+	private final Money increment;
+	private final String houseBankAccount;
+	private final String houseBankAuthCode;
+	private final List<Call> calls = new ArrayList<Call>();
+	// How many times each message and transfer was recorded.
+	private final Map<String, Integer> recordedSideEffects = new HashMap<String, Integer>();
+
+	/**
+	 * Reads a whole recording.
+	 * @throws IOException if the recording cannot be read or is malformed
+	 */
+	public TrafficReplayer(Reader recording) throws IOException {
+		BufferedReader in = new BufferedReader(recording);
+		String[] parameters = null;
+		int lineNumber = 0;
+		for(String line = in.readLine(); line != null; line = in.readLine()) {
+			lineNumber++;
+			if(line.isEmpty()) {
+				continue;
+			}
+			String[] fields = line.split("\t", -1);
+			for(int i = 1; i < fields.length; i++) {
+				fields[i] = TrafficRecorder.unescape(fields[i]);
+			}
+			switch(fields[0]) {
+			case "P":
+				parameters = fields;
+				break;
+			case "C":
+				if(fields.length < 4) {
+					throw new IOException("Malformed call on line " + lineNumber + ": " + line);
+				}
+				calls.add(new Call(fields, lineNumber));
+				break;
+			case "M":
+			case "B":
+				recordedSideEffects.merge(fields[1], 1, Integer::sum);
+				break;
+			default:
+				throw new IOException("Unknown entry on line " + lineNumber + ": " + line);
+			}
+		}
+		if(parameters == null || parameters.length != 6) {
+			throw new IOException("Recording has no parameters line");
+		}
+		try {
+			buyerPremium = Double.parseDouble(parameters[1]);
+			commission = Double.parseDouble(parameters[2]);
+			increment = Money.ofPence(Long.parseLong(parameters[3]));
+		} catch (NumberFormatException e) {
+			throw new IOException("Malformed parameters line", e);
+		}
+		houseBankAccount = parameters[4];
+		houseBankAuthCode = parameters[5];
+	}
+
+	public int callCount() {
+		return calls.size();
+	}
+
+	/**
+	 * Builds a house with the recorded parameters and makes every recorded call on it.
+	 * @param factory: builds the implementation under test, e.g. AuctionHouseImp::new
+	 */
+	public ReplayReport replay(Function<Parameters, AuctionHouse> factory, Pace pace) {
+		MockMessagingService messagingService = new MockMessagingService();
+		MockBankingService bankingService = new MockBankingService();
+		AuctionHouse house = factory.apply(new Parameters(buyerPremium, commission, increment,
+				houseBankAccount, houseBankAuthCode, messagingService, bankingService));
+
+		long[] latencies = new long[calls.size()];
+		List<String> divergences = new ArrayList<String>();
+		int divergenceCount = 0;
+		long firstOffset = calls.isEmpty() ? 0 : calls.get(0).offsetNanos;
+		long start = System.nanoTime();
+		for(int i = 0; i < calls.size(); i++) {
+			Call call = calls.get(i);
+			if(pace == Pace.REAL_TIME) {
+				long due = start + call.offsetNanos - firstOffset;
+				for(long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+					LockSupport.parkNanos(wait);
+				}
+			}
+			long before = System.nanoTime();
+			String kind = call.invoke(house);
+			latencies[i] = System.nanoTime() - before;
+			if(!kind.equals(call.expectedKind)) {
+				if(divergenceCount++ < ReplayReport.MAX_DIVERGENCES) {
+					divergences.add("call " + (i + 1) + " (line " + call.lineNumber + ") " + call.method
+							+ ": expected " + call.expectedKind + ", got " + kind);
+				}
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+
+		Map<String, Integer> actual = messagingService.eventCounts();
+		for(Map.Entry<String, Integer> transfer: bankingService.eventCounts().entrySet()) {
+			actual.merge(transfer.getKey(), transfer.getValue(), Integer::sum);
+		}
+		Map<String, Integer> missing = surplus(recordedSideEffects, actual);
+		Map<String, Integer> unexpected = surplus(actual, recordedSideEffects);
+
+		ReplayReport report = new ReplayReport(latencies, elapsed, divergenceCount, divergences, missing, unexpected);
+		if(!report.matches()) {
+			log.warning("Replay diverged from recording: {} status, {} missing, {} unexpected",
+					divergenceCount, missing.size(), unexpected.size());
+		}
+		return report;
+	}
+
+	// @return each event that happened more often in from than in to, with how many more times
+	private static Map<String, Integer> surplus(Map<String, Integer> from, Map<String, Integer> to) {
+		Map<String, Integer> surplus = new HashMap<String, Integer>();
+		for(Map.Entry<String, Integer> event: from.entrySet()) {
+			int extra = event.getValue() - to.getOrDefault(event.getKey(), 0);
+			if(extra > 0) {
+				surplus.put(event.getKey(), extra);
+			}
+		}
+		return surplus;
+	}
+
+	// One recorded call: C, offset, method, args..., kind.
+	private static final class Call {
+		final long offsetNanos;
+		final String method;
+		final String[] args;
+		final String expectedKind;
+		final int lineNumber;
+
+		Call(String[] fields, int lineNumber) throws IOException {
+			try {
+				this.offsetNanos = Long.parseLong(fields[1]);
+			} catch (NumberFormatException e) {
+				throw new IOException("Malformed call offset on line " + lineNumber, e);
+			}
+			this.method = fields[2];
+			this.args = new String[fields.length - 4];
+			System.arraycopy(fields, 3, args, 0, args.length);
+			this.expectedKind = fields[fields.length - 1];
+			this.lineNumber = lineNumber;
+		}
+
+		// @return the kind of the returned Status, "-" for calls that return none, or the kinds
+		// joined by commas for batch calls
+		String invoke(AuctionHouse house) {
+			switch(method) {
+			case "registerBuyer":
+				return kind(house.registerBuyer(args[0], args[1], args[2], args[3]));
+			case "registerSeller":
+				return kind(house.registerSeller(args[0], args[1], args[2]));
+			case "addLot":
+				return kind(house.addLot(args[0], Integer.parseInt(args[1]), args[2], money(args[3])));
+			case "viewCatalogue":
+				house.viewCatalogue();
+				return "-";
+			case "viewCataloguePage":
+				house.viewCatalogue(Integer.parseInt(args[0]), Integer.parseInt(args[1]));
+				return "-";
+			case "searchCatalogue":
+				house.searchCatalogue(args[0], args[1] == null ? null : LotStatus.valueOf(args[1]), Integer.parseInt(args[2]));
+				return "-";
+			case "noteInterest":
+				return kind(house.noteInterest(args[0], Integer.parseInt(args[1])));
+			case "openAuction":
+				return kind(house.openAuction(args[0], args[1], Integer.parseInt(args[2])));
+			case "makeBid":
+				return kind(house.makeBid(args[0], Integer.parseInt(args[1]), money(args[2])));
+			case "closeAuction":
+				return kind(house.closeAuction(args[0], Integer.parseInt(args[1])));
+			case "makeBids": {
+				List<BidCommand> bids = new ArrayList<BidCommand>(args.length / 3);
+				for(int i = 0; i + 2 < args.length; i += 3) {
+					bids.add(new BidCommand(args[i], Integer.parseInt(args[i + 1]), money(args[i + 2])));
+				}
+				return TrafficRecorder.kinds(house.makeBids(bids));
+			}
+			case "noteInterests": {
+				List<InterestCommand> interests = new ArrayList<InterestCommand>(args.length / 2);
+				for(int i = 0; i + 1 < args.length; i += 2) {
+					interests.add(new InterestCommand(args[i], Integer.parseInt(args[i + 1])));
+				}
+				return TrafficRecorder.kinds(house.noteInterests(interests));
+			}
+			case "addLots": {
+				List<AddLotCommand> lots = new ArrayList<AddLotCommand>(args.length / 4);
+				for(int i = 0; i + 3 < args.length; i += 4) {
+					lots.add(new AddLotCommand(args[i], Integer.parseInt(args[i + 1]), args[i + 2], money(args[i + 3])));
+				}
+				return TrafficRecorder.kinds(house.addLots(lots));
+			}
+			default:
+				throw new IllegalArgumentException("Unknown method on line " + lineNumber + ": " + method);
+			}
+		}
+
+		private static String kind(Status status) {
+			return status == null ? "null" : status.kind.name();
+		}
+
+		private static Money money(String pence) {
+			return pence == null ? null : Money.ofPence(Long.parseLong(pence));
+		}
+	}
+}
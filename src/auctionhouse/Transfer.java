@@ -0,0 +1,23 @@
+package auctionhouse;
+
+/**
+ * One bank transfer, as passed to BankingService.transfer(List).
+ */
+public class Transfer {
+	public final String senderAccount;
+	public final String senderAuthCode;
+	public final String receiverAccount;
+	public final Money amount;
+
+	public Transfer(String senderAccount, String senderAuthCode, String receiverAccount, Money amount) {
+		this.senderAccount = senderAccount;
+		this.senderAuthCode = senderAuthCode;
+		this.receiverAccount = receiverAccount;
+		this.amount = amount;
+	}
+
+	@Override
+	public String toString() {
+		return senderAccount + " -> " + receiverAccount + " " + amount;
+	}
+}
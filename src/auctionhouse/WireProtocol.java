@@ -0,0 +1,195 @@
+package auctionhouse;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary protocol spoken between AuctionServer and RemoteAuctionHouse.
+ *
+ * Every message is a frame: an int length counting the bytes after it, an int request id
+ * chosen by the client, a byte operation and the operation's fields. A response carries the
+ * id and operation of its request. Requests may be pipelined; responses come back in request
+ * order. All values are big-endian.
+ *
+ * Fields are ints, longs, bytes and strings. A string is a short byte count, -1 for null,
+ * then that many bytes of UTF-8. Money is a long number of pence, Long.MIN_VALUE for null.
+ *
+ * Responses to operations returning a Status hold a byte Kind ordinal, a short Code ordinal
+ * and the message string. A request the server failed to carry out is answered with
+ * operation FAILED and an ERROR Status, whatever its operation. Catalogue responses hold an
+ * int count, then per entry the lot number, description and a byte LotStatus ordinal.
+ * Search responses hold an int count and the lot numbers.
+ */
+public final class WireProtocol {
+
+	public static final byte FAILED = 0;              // response only: Status
+	public static final byte REGISTER_BUYER = 1;      // name, address, bankAccount, bankAuthCode
+	public static final byte REGISTER_SELLER = 2;     // name, address, bankAccount
+	public static final byte ADD_LOT = 3;             // sellerName, int number, description, money reservePrice
+	public static final byte VIEW_CATALOGUE = 4;      //
+	public static final byte VIEW_CATALOGUE_PAGE = 5; // int fromLotNumber, int limit
+	public static final byte SEARCH_CATALOGUE = 6;    // query, byte status ordinal or -1, int limit
+	public static final byte NOTE_INTEREST = 7;       // buyerName, int lotNumber
+	public static final byte OPEN_AUCTION = 8;        // auctioneerName, auctioneerAddress, int lotNumber
+	public static final byte MAKE_BID = 9;            // buyerName, int lotNumber, money bid
+	public static final byte CLOSE_AUCTION = 10;      // auctioneerName, int lotNumber
+
+	// Longest frame accepted, not counting the length itself.
+	public static final int MAX_FRAME = 64 * 1024;
+	// Request id and operation.
+	public static final int HEADER = 5;
+
+	private static final long NULL_MONEY = Long.MIN_VALUE;
+	private static final LotStatus[] LOT_STATUSES = LotStatus.values();
+	private static final Status.Kind[] KINDS = Status.Kind.values();
+	private static final Status.Code[] CODES = Status.Code.values();
+
+	private WireProtocol() {
+	}
+
+	/**
+	 * Starts a frame; finish it with endFrame.
+	 * @return the position of the frame's length
+	 */
+	public static int beginFrame(ByteBuffer buffer, int requestId, byte operation) {
+		int start = buffer.position();
+		buffer.putInt(0);
+		buffer.putInt(requestId);
+		buffer.put(operation);
+		return start;
+	}
+
+	public static void endFrame(ByteBuffer buffer, int start) {
+		buffer.putInt(start, buffer.position() - start - 4);
+	}
+
+	/**
+	 * Lets a frame be checked for size before any of it is written.
+	 * @return at most the number of bytes putString writes for s
+	 * @throws IllegalArgumentException if s is too long for the wire
+	 */
+	public static int stringSize(String s) {
+		if(s == null) {
+			return 2;
+		}
+		int bytes = 0;
+		for(int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			// A surrogate is half of a 4-byte character; an unpaired one takes 1 byte, so this may over-count.
+			bytes += c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate(c) ? 2 : 3;
+		}
+		if(bytes > Short.MAX_VALUE) {
+			// Exact this time, so strings that only look too long are let through.
+			bytes = s.getBytes(StandardCharsets.UTF_8).length;
+			if(bytes > Short.MAX_VALUE) {
+				throw new IllegalArgumentException("String too long for the wire: " + bytes + " bytes");
+			}
+		}
+		return 2 + bytes;
+	}
+
+	public static void putString(ByteBuffer buffer, String s) {
+		if(s == null) {
+			buffer.putShort((short) -1);
+			return;
+		}
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		if(bytes.length > Short.MAX_VALUE) {
+			throw new IllegalArgumentException("String too long for the wire: " + bytes.length + " bytes");
+		}
+		buffer.putShort((short) bytes.length);
+		buffer.put(bytes);
+	}
+
+	public static String getString(ByteBuffer buffer) {
+		int length = buffer.getShort();
+		if(length < 0) {
+			return null;
+		}
+		if(length > buffer.remaining()) {
+			throw new IllegalArgumentException("String runs past the frame");
+		}
+		String s;
+		if(buffer.hasArray()) {
+			s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+		} else {
+			byte[] bytes = new byte[length];
+			buffer.duplicate().get(bytes);
+			s = new String(bytes, StandardCharsets.UTF_8);
+		}
+		buffer.position(buffer.position() + length);
+		return s;
+	}
+
+	public static void putMoney(ByteBuffer buffer, Money money) {
+		buffer.putLong(money == null ? NULL_MONEY : money.getPence());
+	}
+
+	public static Money getMoney(ByteBuffer buffer) {
+		long pence = buffer.getLong();
+		return pence == NULL_MONEY ? null : Money.ofPence(pence);
+	}
+
+	public static void putStatus(ByteBuffer buffer, Status status) {
+		buffer.put((byte) status.kind.ordinal());
+		buffer.putShort((short) status.code.ordinal());
+		putString(buffer, status.getMessage());
+	}
+
+	public static Status getStatus(ByteBuffer buffer) {
+		Status.Kind kind = KINDS[buffer.get()];
+		Status.Code code = CODES[buffer.getShort()];
+		String message = getString(buffer);
+		if(kind == Status.Kind.OK && code == Status.Code.NONE && message.isEmpty()) {
+			return Status.OK();
+		}
+		return Status.of(kind, code, "{}", message);
+	}
+
+	public static void putCatalogue(ByteBuffer buffer, List<CatalogueEntry> entries) {
+		buffer.putInt(entries.size());
+		for(CatalogueEntry entry: entries) {
+			buffer.putInt(entry.lotNumber);
+			putString(buffer, entry.description);
+			buffer.put((byte) entry.status.ordinal());
+		}
+	}
+
+	public static List<CatalogueEntry> getCatalogue(ByteBuffer buffer) {
+		int count = buffer.getInt();
+		List<CatalogueEntry> entries = new ArrayList<CatalogueEntry>(Math.min(count, 1024));
+		for(int i = 0; i < count; i++) {
+			int lotNumber = buffer.getInt();
+			String description = getString(buffer);
+			entries.add(new CatalogueEntry(lotNumber, description, LOT_STATUSES[buffer.get()]));
+		}
+		return entries;
+	}
+
+	public static void putLotNumbers(ByteBuffer buffer, List<Integer> lotNumbers) {
+		buffer.putInt(lotNumbers.size());
+		for(int lotNumber: lotNumbers) {
+			buffer.putInt(lotNumber);
+		}
+	}
+
+	public static List<Integer> getLotNumbers(ByteBuffer buffer) {
+		int count = buffer.getInt();
+		List<Integer> lotNumbers = new ArrayList<Integer>(Math.min(count, 1024));
+		for(int i = 0; i < count; i++) {
+			lotNumbers.add(buffer.getInt());
+		}
+		return lotNumbers;
+	}
+
+	public static void putLotStatus(ByteBuffer buffer, LotStatus status) {
+		buffer.put(status == null ? -1 : (byte) status.ordinal());
+	}
+
+	public static LotStatus getLotStatus(ByteBuffer buffer) {
+		int ordinal = buffer.get();
+		return ordinal < 0 ? null : LOT_STATUSES[ordinal];
+	}
+}
@@ -0,0 +1,46 @@
+package auctionhouse;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Samples ranks 0 .. n-1 with probability proportional to 1 / (rank + 1)^exponent, so low
+ * ranks are "hot". An exponent of 0 gives a uniform distribution.
+ */
+public final class ZipfSampler {
+
+	// cumulative[r] is the probability of a rank <= r.
+	private final double[] cumulative;
+
+	public ZipfSampler(int n, double exponent) {
+		if(n <= 0) {
+			throw new IllegalArgumentException("n must be positive: " + n);
+		}
+		cumulative = new double[n];
+		double sum = 0;
+		for(int r = 0; r < n; r++) {
+			sum += 1 / Math.pow(r + 1, exponent);
+			cumulative[r] = sum;
+		}
+		for(int r = 0; r < n; r++) {
+			cumulative[r] /= sum;
+		}
+	}
+
+	public int size() {
+		return cumulative.length;
+	}
+
+	/**
+	 * @return the probability of sampling rank
+	 */
+	public double probability(int rank) {
+		return rank == 0 ? cumulative[0] : cumulative[rank] - cumulative[rank - 1];
+	}
+
+	public int sample(Random random) {
+		int i = Arrays.binarySearch(cumulative, random.nextDouble());
+		int rank = i >= 0 ? i : -i - 1;
+		return Math.min(rank, cumulative.length - 1);
+	}
+}